@@ -30,6 +30,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
@@ -101,6 +102,17 @@ public final class Dex {
         this.tableOfContents.readFrom(this);
     }
 
+    /**
+     * Creates a new dex that reads {@code byteCount} bytes of {@code channel} starting
+     * at {@code offset}. The region is mapped read-only instead of being copied into heap,
+     * so the dex created by this constructor cannot be modified.
+     *
+     * Closing {@code channel} afterwards does not invalidate the mapping.
+     */
+    public Dex(FileChannel channel, long offset, int byteCount) throws IOException {
+        this(channel.map(FileChannel.MapMode.READ_ONLY, offset, byteCount));
+    }
+
     /**
      * Creates a new empty dex of the specified size.
      */
@@ -195,8 +207,19 @@ public final class Dex {
     }
 
     public void writeTo(OutputStream out) throws IOException {
-        byte[] rawData = data.array();
-        out.write(rawData);
+        if (data.hasArray()) {
+            byte[] rawData = data.array();
+            out.write(rawData);
+        } else {
+            ByteBuffer data = this.data.duplicate(); // positioned ByteBuffers aren't thread safe
+            data.clear();
+            byte[] buffer = new byte[8192];
+            while (data.hasRemaining()) {
+                int count = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, count);
+                out.write(buffer, 0, count);
+            }
+        }
         out.flush();
     }
 
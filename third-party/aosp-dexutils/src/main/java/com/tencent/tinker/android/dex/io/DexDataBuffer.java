@@ -155,23 +155,89 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         return result;
     }
 
+    /**
+     * Same as {@link Leb128#readUnsignedLeb128(ByteInput)}, but unrolled and reading
+     * the buffer directly since most values here fit in one or two bytes.
+     */
     public int readUleb128() {
-        return Leb128.readUnsignedLeb128(this);
+        final ByteBuffer data = this.data;
+        int pos = data.position();
+        int cur = data.get(pos++);
+        int result = cur;
+        if (cur < 0) {
+            cur = data.get(pos++);
+            result = (result & 0x7f) | ((cur & 0x7f) << 7);
+            if (cur < 0) {
+                cur = data.get(pos++);
+                result |= (cur & 0x7f) << 14;
+                if (cur < 0) {
+                    cur = data.get(pos++);
+                    result |= (cur & 0x7f) << 21;
+                    if (cur < 0) {
+                        cur = data.get(pos++);
+                        if (cur < 0) {
+                            throw new DexException("invalid LEB128 sequence");
+                        }
+                        result |= cur << 28;
+                    }
+                }
+            }
+        }
+        data.position(pos);
+        return result;
     }
 
     public int readUleb128p1() {
-        return Leb128.readUnsignedLeb128(this) - 1;
+        return readUleb128() - 1;
     }
 
+    /**
+     * Same as {@link Leb128#readSignedLeb128(ByteInput)}, but unrolled and reading
+     * the buffer directly.
+     */
     public int readSleb128() {
-        return Leb128.readSignedLeb128(this);
+        final ByteBuffer data = this.data;
+        int pos = data.position();
+        int cur = data.get(pos++);
+        int result = cur & 0x7f;
+        int shift = 25;
+        if (cur < 0) {
+            cur = data.get(pos++);
+            result |= (cur & 0x7f) << 7;
+            shift = 18;
+            if (cur < 0) {
+                cur = data.get(pos++);
+                result |= (cur & 0x7f) << 14;
+                shift = 11;
+                if (cur < 0) {
+                    cur = data.get(pos++);
+                    result |= (cur & 0x7f) << 21;
+                    shift = 4;
+                    if (cur < 0) {
+                        cur = data.get(pos++);
+                        if (cur < 0) {
+                            throw new DexException("invalid LEB128 sequence");
+                        }
+                        // All 32 bits are given, no sign extension.
+                        result |= cur << 28;
+                        shift = 0;
+                    }
+                }
+            }
+        }
+        data.position(pos);
+        return (result << shift) >> shift;
     }
 
     public StringData readStringData() {
         int off = data.position();
         try {
             int expectedLength = readUleb128();
-            String result = Mutf8.decode(this, new char[expectedLength]);
+            char[] chars = new char[expectedLength];
+            String result = readAsciiString(chars);
+            if (result == null) {
+                result = Mutf8.decode(this, chars);
+            }
             if (result.length() != expectedLength) {
                 throw new DexException("Declared length " + expectedLength
                         + " doesn't match decoded length of " + result.length());
@@ -182,6 +248,51 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         }
     }
 
+    /**
+     * Most strings in a dex are pure ascii, decode them in one pass over the buffer
+     * instead of byte by byte through {@link ByteInput}.
+     *
+     * @param out holds at least {@code out.length} chars, it is reusable by the slow path.
+     * @return the string with its terminating zero consumed, or null with position unchanged
+     * if the next {@code out.length} bytes are not all ascii followed by zero.
+     */
+    private String readAsciiString(char[] out) {
+        final ByteBuffer data = this.data;
+        final int length = out.length;
+        final int start = data.position();
+        if (start + length >= data.limit()) {
+            return null;
+        }
+        if (data.hasArray()) {
+            final byte[] array = data.array();
+            final int arrayStart = data.arrayOffset() + start;
+            for (int i = 0; i < length; ++i) {
+                final byte b = array[arrayStart + i];
+                // Zero is not allowed inside a string and bytes of multi-byte chars are negative.
+                if (b <= 0) {
+                    return null;
+                }
+                out[i] = (char) b;
+            }
+            if (array[arrayStart + length] != 0) {
+                return null;
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                final byte b = data.get(start + i);
+                if (b <= 0) {
+                    return null;
+                }
+                out[i] = (char) b;
+            }
+            if (data.get(start + length) != 0) {
+                return null;
+            }
+        }
+        data.position(start + length + 1);
+        return new String(out);
+    }
+
     public TypeList readTypeList() {
         int off = data.position();
         int size = readInt();
@@ -0,0 +1,206 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.ziputils.ziputil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only index over a memory-mapped central directory.
+ *
+ * Only the offset of each central directory entry and an open-addressing hash table
+ * of entry names are built up front, {@link TinkerZipEntry} instances are materialized
+ * on first access. All lookups work on the mapped bytes directly, so no lock is needed.
+ */
+final class MappedCentralDirectory implements ZipConstants {
+    private final ByteBuffer centralDir;
+    private final int[] entryOffsets;
+    /**
+     * Open-addressing table, each slot holds entry index + 1, or 0 if it is empty.
+     */
+    private final int[] nameHashSlots;
+    private final int nameHashMask;
+    private final AtomicReferenceArray<TinkerZipEntry> materializedEntries;
+
+    MappedCentralDirectory(FileChannel channel, long centralDirOffset, long centralDirSize,
+                           int numEntries) throws IOException {
+        if (centralDirSize > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory too large: " + centralDirSize);
+        }
+        centralDir = channel.map(FileChannel.MapMode.READ_ONLY, centralDirOffset, centralDirSize);
+        centralDir.order(ByteOrder.LITTLE_ENDIAN);
+
+        entryOffsets = new int[numEntries];
+        int slotCount = Integer.highestOneBit(Math.max(numEntries, 1) * 2 - 1) << 1;
+        nameHashSlots = new int[slotCount];
+        nameHashMask = slotCount - 1;
+        materializedEntries = new AtomicReferenceArray<TinkerZipEntry>(numEntries);
+
+        final int limit = centralDir.limit();
+        int pos = 0;
+        for (int i = 0; i < numEntries; ++i) {
+            if (pos + CENHDR > limit) {
+                throw new ZipException("Central directory entry " + i + " exceeds central directory");
+            }
+            final int sig = centralDir.getInt(pos);
+            if (sig != CENSIG) {
+                TinkerZipFile.throwZipException("unknown", limit, "unknown", 0, "Central Directory Entry", sig);
+            }
+            final int gpbf = centralDir.getShort(pos + CENFLG) & 0xffff;
+            if ((gpbf & TinkerZipFile.GPBF_UNSUPPORTED_MASK) != 0) {
+                throw new ZipException("Invalid General Purpose Bit Flag: " + gpbf);
+            }
+            final long localHeaderRelOffset = centralDir.getInt(pos + CENOFF) & 0xffffffffL;
+            if (localHeaderRelOffset >= centralDirOffset) {
+                throw new ZipException("Local file header offset is after central directory");
+            }
+            final int entrySize = CENHDR + getNameLength(pos)
+                    + (centralDir.getShort(pos + CENEXT) & 0xffff)
+                    + (centralDir.getShort(pos + CENCOM) & 0xffff);
+            if (pos + entrySize > limit) {
+                throw new ZipException("Central directory entry " + i + " exceeds central directory");
+            }
+            entryOffsets[i] = pos;
+            insertName(i);
+            pos += entrySize;
+        }
+    }
+
+    int size() {
+        return entryOffsets.length;
+    }
+
+    /**
+     * Returns index of entry named {@code entryName}, or -1 if there is no such entry.
+     */
+    int indexOf(String entryName) {
+        final byte[] nameBytes = entryName.getBytes(StandardCharsets.UTF_8);
+        int slot = hashName(nameBytes) & nameHashMask;
+        while (true) {
+            final int slotValue = nameHashSlots[slot];
+            if (slotValue == 0) {
+                return -1;
+            }
+            final int entryIndex = slotValue - 1;
+            if (isNameEqual(entryOffsets[entryIndex], nameBytes)) {
+                return entryIndex;
+            }
+            slot = (slot + 1) & nameHashMask;
+        }
+    }
+
+    TinkerZipEntry getEntry(int entryIndex) throws IOException {
+        TinkerZipEntry entry = materializedEntries.get(entryIndex);
+        if (entry == null) {
+            final int pos = entryOffsets[entryIndex];
+            final int entrySize = CENHDR + getNameLength(pos)
+                    + (centralDir.getShort(pos + CENEXT) & 0xffff)
+                    + (centralDir.getShort(pos + CENCOM) & 0xffff);
+            final byte[] entryBytes = new byte[entrySize];
+            final ByteBuffer dup = centralDir.duplicate(); // positioned ByteBuffers aren't thread safe
+            dup.position(pos);
+            dup.get(entryBytes);
+            entry = new TinkerZipEntry(new byte[CENHDR], new ByteArrayInputStream(entryBytes),
+                    StandardCharsets.UTF_8, false /* isZip64 */);
+            if (!materializedEntries.compareAndSet(entryIndex, null, entry)) {
+                entry = materializedEntries.get(entryIndex);
+            }
+        }
+        return entry;
+    }
+
+    private void insertName(int entryIndex) throws ZipException {
+        final int pos = entryOffsets[entryIndex];
+        final int nameLength = getNameLength(pos);
+        int hash = 0;
+        for (int i = 0; i < nameLength; ++i) {
+            hash = 31 * hash + centralDir.get(pos + CENHDR + i);
+        }
+        int slot = mix(hash) & nameHashMask;
+        while (true) {
+            final int slotValue = nameHashSlots[slot];
+            if (slotValue == 0) {
+                nameHashSlots[slot] = entryIndex + 1;
+                return;
+            }
+            if (isNameEqual(pos, entryOffsets[slotValue - 1])) {
+                throw new ZipException("Duplicate entry name: " + getEntryNameForError(pos, nameLength));
+            }
+            slot = (slot + 1) & nameHashMask;
+        }
+    }
+
+    private int getNameLength(int pos) {
+        return centralDir.getShort(pos + CENNAM) & 0xffff;
+    }
+
+    private boolean isNameEqual(int pos, byte[] nameBytes) {
+        final int nameLength = getNameLength(pos);
+        if (nameLength != nameBytes.length) {
+            return false;
+        }
+        final int namePos = pos + CENHDR;
+        for (int i = 0; i < nameLength; ++i) {
+            if (centralDir.get(namePos + i) != nameBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isNameEqual(int pos, int otherPos) {
+        final int nameLength = getNameLength(pos);
+        if (nameLength != getNameLength(otherPos)) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; ++i) {
+            if (centralDir.get(pos + CENHDR + i) != centralDir.get(otherPos + CENHDR + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getEntryNameForError(int pos, int nameLength) {
+        final byte[] nameBytes = new byte[nameLength];
+        for (int i = 0; i < nameLength; ++i) {
+            nameBytes[i] = centralDir.get(pos + CENHDR + i);
+        }
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+
+    private static int hashName(byte[] nameBytes) {
+        int hash = 0;
+        for (byte b : nameBytes) {
+            hash = 31 * hash + b;
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        // Spread higher bits downward since the table is indexed by low bits only.
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.ziputils.ziputil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes deflated entries to a {@link TinkerZipOutputStream} while compressing them on
+ * a pool of worker threads.
+ *
+ * Independent entries are compressed concurrently, large entries are further split into
+ * {@link #BLOCK_SIZE} blocks, each block is deflated with the preceding 32K of input as
+ * preset dictionary and terminated by a sync flush, so that the concatenated blocks form
+ * one valid deflate stream. Entries are always written in the order they were put,
+ * hence the output layout is the same as writing them one by one.
+ *
+ * Unless another executor is given, all writers share one pool with a thread per cpu core,
+ * so writers used at the same time do not oversubscribe the cpu.
+ */
+public class ParallelZipWriter implements Closeable {
+    public static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final TinkerZipOutputStream out;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int compressionLevel;
+    private final ArrayDeque<PendingEntry> pendingEntries = new ArrayDeque<>();
+    private long pendingBytes = 0;
+    private boolean closed = false;
+
+    public ParallelZipWriter(TinkerZipOutputStream out) {
+        this(out, SharedExecutorHolder.EXECUTOR, Deflater.DEFAULT_COMPRESSION, false);
+    }
+
+    public ParallelZipWriter(TinkerZipOutputStream out, int threadCount, int compressionLevel) {
+        this(out, createExecutor(threadCount), compressionLevel, true);
+    }
+
+    /**
+     * {@code executor} stays owned by the caller, it is not shut down when this writer is closed.
+     */
+    public ParallelZipWriter(TinkerZipOutputStream out, ExecutorService executor, int compressionLevel) {
+        this(out, executor, compressionLevel, false);
+    }
+
+    private ParallelZipWriter(TinkerZipOutputStream out, ExecutorService executor, int compressionLevel,
+                              boolean ownsExecutor) {
+        this.out = out;
+        this.executor = executor;
+        this.compressionLevel = compressionLevel;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    private static ExecutorService createExecutor(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "ParallelZipWriter-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Schedule {@code data} to be deflated and written as entry {@code name}.
+     *
+     * {@code data} must not be modified until this writer is finished.
+     */
+    public void putDeflatedEntry(String name, final byte[] data) throws IOException {
+        checkNotClosed();
+        // Bound memory held by compressed but not yet written entries.
+        while (!pendingEntries.isEmpty() && pendingBytes + data.length > MAX_PENDING_BYTES) {
+            writePendingEntry(pendingEntries.pollFirst());
+        }
+
+        final Future<Long> crcFuture = executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                final CRC32 crc = new CRC32();
+                crc.update(data, 0, data.length);
+                return crc.getValue();
+            }
+        });
+        final int blockCount = Math.max(1, (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        final List<Future<byte[]>> blockFutures = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; ++i) {
+            final int blockStart = i * BLOCK_SIZE;
+            final int blockEnd = Math.min(data.length, blockStart + BLOCK_SIZE);
+            final boolean isLastBlock = (i == blockCount - 1);
+            blockFutures.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return deflateBlock(data, blockStart, blockEnd, isLastBlock);
+                }
+            }));
+        }
+        pendingEntries.addLast(new PendingEntry(name, data.length, crcFuture, blockFutures));
+        pendingBytes += data.length;
+    }
+
+    /**
+     * Write all scheduled entries. The underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        checkNotClosed();
+        while (!pendingEntries.isEmpty()) {
+            writePendingEntry(pendingEntries.pollFirst());
+        }
+    }
+
+    /**
+     * Write all scheduled entries, then close worker threads and the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            release(true);
+        }
+    }
+
+    /**
+     * Drop scheduled entries which are not written yet and close the underlying stream without
+     * finishing it, for the caller which failed in the middle of writing. The output is not a
+     * valid zip then.
+     */
+    public void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        release(false);
+    }
+
+    private void release(boolean finishOutput) throws IOException {
+        closed = true;
+        for (PendingEntry pendingEntry : pendingEntries) {
+            pendingEntry.crcFuture.cancel(false);
+            for (Future<byte[]> blockFuture : pendingEntry.blockFutures) {
+                blockFuture.cancel(false);
+            }
+        }
+        pendingEntries.clear();
+        pendingBytes = 0;
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+        if (finishOutput) {
+            out.close();
+        } else {
+            out.abort();
+        }
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("ParallelZipWriter closed");
+        }
+    }
+
+    private void writePendingEntry(PendingEntry pendingEntry) throws IOException {
+        final List<byte[]> blocks = new ArrayList<>(pendingEntry.blockFutures.size());
+        long compressedSize = 0;
+        for (Future<byte[]> blockFuture : pendingEntry.blockFutures) {
+            final byte[] block = waitFor(blockFuture, pendingEntry.name);
+            compressedSize += block.length;
+            blocks.add(block);
+        }
+        final TinkerZipEntry entry = new TinkerZipEntry(pendingEntry.name);
+        entry.setMethod(TinkerZipEntry.DEFLATED);
+        entry.setSize(pendingEntry.size);
+        entry.setCompressedSize(compressedSize);
+        entry.setCrc(waitFor(pendingEntry.crcFuture, pendingEntry.name));
+        out.putNextEntry(entry);
+        for (byte[] block : blocks) {
+            out.write(block);
+        }
+        out.closeEntry();
+        pendingBytes -= pendingEntry.size;
+    }
+
+    private byte[] deflateBlock(byte[] data, int blockStart, int blockEnd, boolean isLastBlock) {
+        final Deflater deflater = new Deflater(compressionLevel, true /* nowrap */);
+        try {
+            if (blockStart > 0) {
+                final int dictionaryStart = Math.max(0, blockStart - DICTIONARY_SIZE);
+                deflater.setDictionary(data, dictionaryStart, blockStart - dictionaryStart);
+            }
+            deflater.setInput(data, blockStart, blockEnd - blockStart);
+            final ByteArrayOutputStream result = new ByteArrayOutputStream((blockEnd - blockStart) / 2 + 64);
+            final byte[] buffer = new byte[16 * 1024];
+            if (isLastBlock) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    final int count = deflater.deflate(buffer);
+                    result.write(buffer, 0, count);
+                }
+            } else {
+                // Sync flush ends the block on a byte boundary without ending the stream.
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    result.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static <T> T waitFor(Future<T> future, String entryName) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted when compressing entry " + entryName, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Fail to compress entry " + entryName, e.getCause());
+        }
+    }
+
+    private static final class SharedExecutorHolder {
+        static final ExecutorService EXECUTOR = createExecutor(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class PendingEntry {
+        final String name;
+        final long size;
+        final Future<Long> crcFuture;
+        final List<Future<byte[]>> blockFutures;
+
+        PendingEntry(String name, long size, Future<Long> crcFuture, List<Future<byte[]>> blockFutures) {
+            this.name = name;
+            this.size = size;
+            this.crcFuture = crcFuture;
+            this.blockFutures = blockFutures;
+        }
+    }
+}
@@ -19,14 +19,18 @@ package com.tencent.tinker.ziputils.ziputil;
 import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -56,6 +60,12 @@ public class TinkerZipFile implements Closeable, ZipConstants {
      * Delete zip file when closed.
      */
     public static final int OPEN_DELETE = 4;
+    /**
+     * Map central directory and index entries on demand instead of reading all of them
+     * up front. Entry data is read with positional channel reads, so streams returned
+     * by {@link #getInputStream} can be consumed concurrently without contention.
+     */
+    public static final int OPEN_MAPPED = 8;
     /**
      * General Purpose Bit Flags, Bit 0.
      * If set, indicates that the file is encrypted.
@@ -93,6 +103,8 @@ public class TinkerZipFile implements Closeable, ZipConstants {
     private final LinkedHashMap<String, TinkerZipEntry> entries = new LinkedHashMap<String, TinkerZipEntry>();
     private File fileToDeleteOnClose;
     private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedCentralDirectory mappedCentralDir;
     private String comment;
 
     /**
@@ -121,16 +133,18 @@ public class TinkerZipFile implements Closeable, ZipConstants {
      *
      * <p>UTF-8 is used to decode all comments and entry names in the file.
      *
-     * <p>The {@code mode} must be either {@code OPEN_READ} or {@code OPEN_READ|OPEN_DELETE}.
-     * If the {@code OPEN_DELETE} flag is supplied, the file will be deleted at or before the
-     * time that the {@code ZipFile} is closed (the contents will remain accessible until
-     * this {@code ZipFile} is closed); it also calls {@code File.deleteOnExit}.
+     * <p>The {@code mode} must be {@code OPEN_READ}, optionally combined with {@code OPEN_DELETE}
+     * and {@code OPEN_MAPPED}. If the {@code OPEN_DELETE} flag is supplied, the file will be
+     * deleted at or before the time that the {@code ZipFile} is closed (the contents will remain
+     * accessible until this {@code ZipFile} is closed); it also calls {@code File.deleteOnExit}.
+     * If the {@code OPEN_MAPPED} flag is supplied, the central directory is memory-mapped and
+     * entries are materialized on first access.
      *
      * @throws IOException if an {@code IOException} occurs.
      */
     public TinkerZipFile(File file, int mode) throws IOException {
         filename = file.getPath();
-        if (mode != OPEN_READ && mode != (OPEN_READ | OPEN_DELETE)) {
+        if ((mode & OPEN_READ) == 0 || (mode & ~(OPEN_READ | OPEN_DELETE | OPEN_MAPPED)) != 0) {
             throw new IllegalArgumentException("Bad mode: " + mode);
         }
         if ((mode & OPEN_DELETE) != 0) {
@@ -140,6 +154,9 @@ public class TinkerZipFile implements Closeable, ZipConstants {
             fileToDeleteOnClose = null;
         }
         raf = new RandomAccessFile(filename, "r");
+        if ((mode & OPEN_MAPPED) != 0) {
+            channel = raf.getChannel();
+        }
 
         readCentralDir();
         // guard.open("close");
@@ -251,6 +268,8 @@ public class TinkerZipFile implements Closeable, ZipConstants {
         if (localRaf != null) { // Only close initialized instances
             synchronized (localRaf) {
                 raf = null;
+                channel = null;
+                mappedCentralDir = null;
                 localRaf.close();
             }
             if (fileToDeleteOnClose != null) {
@@ -278,6 +297,23 @@ public class TinkerZipFile implements Closeable, ZipConstants {
      */
     public Enumeration<? extends TinkerZipEntry> entries() {
         checkNotClosed();
+        final MappedCentralDirectory localMappedCentralDir = mappedCentralDir;
+        if (localMappedCentralDir != null) {
+            return new Enumeration<TinkerZipEntry>() {
+                private int nextIndex = 0;
+                public boolean hasMoreElements() {
+                    checkNotClosed();
+                    return nextIndex < localMappedCentralDir.size();
+                }
+                public TinkerZipEntry nextElement() {
+                    checkNotClosed();
+                    if (nextIndex >= localMappedCentralDir.size()) {
+                        throw new NoSuchElementException();
+                    }
+                    return getMappedEntry(localMappedCentralDir, nextIndex++);
+                }
+            };
+        }
         final Iterator<TinkerZipEntry> iterator = entries.values().iterator();
         return new Enumeration<TinkerZipEntry>() {
             public boolean hasMoreElements() {
@@ -313,6 +349,14 @@ public class TinkerZipFile implements Closeable, ZipConstants {
         if (entryName == null) {
             throw new NullPointerException("entryName == null");
         }
+        final MappedCentralDirectory localMappedCentralDir = mappedCentralDir;
+        if (localMappedCentralDir != null) {
+            int entryIndex = localMappedCentralDir.indexOf(entryName);
+            if (entryIndex < 0) {
+                entryIndex = localMappedCentralDir.indexOf(entryName + "/");
+            }
+            return (entryIndex >= 0 ? getMappedEntry(localMappedCentralDir, entryIndex) : null);
+        }
         TinkerZipEntry ze = entries.get(entryName);
         if (ze == null) {
             ze = entries.get(entryName + "/");
@@ -320,6 +364,15 @@ public class TinkerZipFile implements Closeable, ZipConstants {
         return ze;
     }
 
+    private static TinkerZipEntry getMappedEntry(MappedCentralDirectory mappedCentralDir, int entryIndex) {
+        try {
+            return mappedCentralDir.getEntry(entryIndex);
+        } catch (IOException e) {
+            // Every entry has been validated when the central directory was indexed.
+            throw new IllegalStateException("Fail to read central directory entry " + entryIndex, e);
+        }
+    }
+
     /**
      * Returns an input stream on the data of the specified {@code ZipEntry}.
      *
@@ -336,6 +389,10 @@ public class TinkerZipFile implements Closeable, ZipConstants {
         if (entry == null) {
             return null;
         }
+        final FileChannel localChannel = channel;
+        if (localChannel != null) {
+            return getChannelInputStream(localChannel, entry);
+        }
         // Create an InputStream at the right part of the file.
         RandomAccessFile localRaf = raf;
         synchronized (localRaf) {
@@ -379,6 +436,30 @@ public class TinkerZipFile implements Closeable, ZipConstants {
         }
     }
 
+    private InputStream getChannelInputStream(FileChannel localChannel, TinkerZipEntry entry) throws IOException {
+        final ByteBuffer localHeader = ByteBuffer.allocate(LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelStream.readFully(localChannel, localHeader, entry.localHeaderRelOffset);
+        final int localMagic = localHeader.getInt(0);
+        if (localMagic != LOCSIG) {
+            throwZipException(filename, localChannel.size(), entry.getName(), entry.localHeaderRelOffset, "Local File Header", localMagic);
+        }
+        // At position 6 we find the General Purpose Bit Flag.
+        int gpbf = localHeader.getShort(LOCFLG) & 0xffff;
+        if ((gpbf & TinkerZipFile.GPBF_UNSUPPORTED_MASK) != 0) {
+            throw new ZipException("Invalid General Purpose Bit Flag: " + gpbf);
+        }
+        // Offset 26 has the file name length, and offset 28 has the extra field length.
+        // These lengths can differ from the ones in the central header.
+        int fileNameLength = localHeader.getShort(LOCNAM) & 0xffff;
+        int extraFieldLength = localHeader.getShort(LOCEXT) & 0xffff;
+        final long dataOffset = entry.localHeaderRelOffset + LOCHDR + fileNameLength + extraFieldLength;
+        if (entry.compressionMethod == TinkerZipEntry.STORED) {
+            return new ChannelStream(localChannel, dataOffset, dataOffset + entry.size);
+        } else {
+            return new ChannelStream(localChannel, dataOffset, dataOffset + entry.compressedSize);
+        }
+    }
+
     /**
      * Gets the file name of this {@code ZipFile}.
      *
@@ -396,6 +477,10 @@ public class TinkerZipFile implements Closeable, ZipConstants {
      */
     public int size() {
         checkNotClosed();
+        final MappedCentralDirectory localMappedCentralDir = mappedCentralDir;
+        if (localMappedCentralDir != null) {
+            return localMappedCentralDir.size();
+        }
         return entries.size();
     }
 
@@ -456,7 +541,7 @@ public class TinkerZipFile implements Closeable, ZipConstants {
         int diskWithCentralDir = it.readShort() & 0xffff;
         int numEntries = it.readShort() & 0xffff;
         int totalNumEntries = it.readShort() & 0xffff;
-        it.skip(4); // Ignore centralDirSize.
+        long centralDirSize = ((long) it.readInt()) & 0xffffffffL;
         long centralDirOffset = ((long) it.readInt()) & 0xffffffffL;
         int commentLength = it.readShort() & 0xffff;
 
@@ -470,6 +555,11 @@ public class TinkerZipFile implements Closeable, ZipConstants {
             comment = new String(commentBytes, 0, commentBytes.length, StandardCharsets.UTF_8);
         }
 
+        if (channel != null) {
+            mappedCentralDir = new MappedCentralDirectory(channel, centralDirOffset, centralDirSize, numEntries);
+            return;
+        }
+
         // Seek to the first CDE and read all entries.
         // We have to do this now (from the constructor) rather than lazily because the
         // public API doesn't allow us to throw IOException except from the constructor
@@ -565,6 +655,61 @@ public class TinkerZipFile implements Closeable, ZipConstants {
             }
         }*/
     }
+
+    /**
+     * Stream over a region of a FileChannel. Unlike {@link RAFStream}, every read is a
+     * positional read which never touches the shared file pointer, so streams on the
+     * same channel don't need to synchronize with each other.
+     */
+    public static class ChannelStream extends InputStream {
+        private final FileChannel channel;
+        private final long endOffset;
+        private long offset;
+        public ChannelStream(FileChannel channel, long initialOffset, long endOffset) {
+            this.channel = channel;
+            this.offset = initialOffset;
+            this.endOffset = endOffset;
+        }
+        static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+            while (dst.hasRemaining()) {
+                int count = channel.read(dst, position);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                position += count;
+            }
+            dst.flip();
+        }
+        @Override public int available() throws IOException {
+            return (offset < endOffset ? 1 : 0);
+        }
+        @Override public int read() throws IOException {
+            return Streams.readSingleByte(this);
+        }
+        @Override public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+            final long length = endOffset - offset;
+            if (length <= 0) {
+                return -1;
+            }
+            if (byteCount > length) {
+                byteCount = (int) length;
+            }
+            int count = channel.read(ByteBuffer.wrap(buffer, byteOffset, byteCount), offset);
+            if (count > 0) {
+                offset += count;
+                return count;
+            } else {
+                return -1;
+            }
+        }
+        @Override public long skip(long byteCount) throws IOException {
+            if (byteCount > endOffset - offset) {
+                byteCount = endOffset - offset;
+            }
+            offset += byteCount;
+            return byteCount;
+        }
+    }
     /** @hide */
     /*public static class ZipInflaterInputStream extends InflaterInputStream {
         private final ZipEntry entry;
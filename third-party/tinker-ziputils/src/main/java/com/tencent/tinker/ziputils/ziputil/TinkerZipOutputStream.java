@@ -201,6 +201,18 @@ public class TinkerZipOutputStream extends FilterOutputStream implements ZipCons
             out = null;
         }
     }
+
+    /**
+     * Closes the underlying stream without writing the central directory, for output which
+     * is dropped anyway.
+     */
+    void abort() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
     /*private void checkAndSetZip64Requirements(ZipEntry entry) {
         final long totalBytesWritten = getBytesWritten();
         final long entriesWritten = entries.size();
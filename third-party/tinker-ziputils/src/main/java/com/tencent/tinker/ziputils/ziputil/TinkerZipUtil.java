@@ -21,6 +21,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 /**
  * Created by zhangshaowen on 16/8/10.
@@ -70,6 +74,53 @@ public class TinkerZipUtil {
         }
     }
 
+    /**
+     * write the entry as STORED, inflating it on the fly if it is compressed in the source zip,
+     * so there is no need to extract it to a temp file first.
+     * size and crc of the written data are checked against the source entry.
+     *
+     * @return false if size or crc of the written data mismatch, the entry is closed anyway
+     */
+    public static boolean extractStoredEntry(TinkerZipFile zipFile, TinkerZipEntry zipEntry, TinkerZipOutputStream outputStream) throws IOException {
+        TinkerZipEntry storedZipEntry = new TinkerZipEntry(zipEntry);
+
+        storedZipEntry.setMethod(TinkerZipEntry.STORED);
+        storedZipEntry.setSize(zipEntry.getSize());
+        storedZipEntry.setCompressedSize(zipEntry.getSize());
+        storedZipEntry.setCrc(zipEntry.getCrc());
+        InputStream in = null;
+        Inflater inflater = null;
+        try {
+            in = zipFile.getInputStream(zipEntry);
+            if (in == null) {
+                throw new ZipException("entry is not found: " + zipEntry.getName());
+            }
+            if (zipEntry.getMethod() != TinkerZipEntry.STORED) {
+                inflater = new Inflater(true);
+                in = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+            }
+            outputStream.putNextEntry(storedZipEntry);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            long total = 0;
+
+            for (int length = in.read(buffer); length != -1; length = in.read(buffer)) {
+                outputStream.write(buffer, 0, length);
+                crc.update(buffer, 0, length);
+                total += length;
+            }
+            outputStream.closeEntry();
+            return total == zipEntry.getSize() && crc.getValue() == zipEntry.getCrc();
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
     public static boolean validateZipEntryName(File destDir, String entryName) {
         if (entryName == null || entryName.isEmpty()) {
             return false;
@@ -0,0 +1,142 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.ziputils.ziputil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ParallelZipWriterTest {
+    private File workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("parallelzipwriter", "");
+        workDir.delete();
+        workDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        workDir.delete();
+    }
+
+    @Test
+    public void close_writesEntriesInOrder() throws Exception {
+        final byte[] empty = new byte[0];
+        final byte[] small = createData(100);
+        final byte[] large = createData(3 * ParallelZipWriter.BLOCK_SIZE + 17);
+        final File zip = new File(workDir, "out.zip");
+        final ParallelZipWriter writer = new ParallelZipWriter(createOutput(zip));
+        writer.putDeflatedEntry("a/large.bin", large);
+        writer.putDeflatedEntry("empty.bin", empty);
+        writer.putDeflatedEntry("small.bin", small);
+        writer.close();
+
+        final ZipFile zipFile = new ZipFile(zip);
+        try {
+            assertEquals(3, zipFile.size());
+            assertArrayEquals(large, readEntry(zipFile, "a/large.bin"));
+            assertArrayEquals(empty, readEntry(zipFile, "empty.bin"));
+            assertArrayEquals(small, readEntry(zipFile, "small.bin"));
+            assertEquals("a/large.bin", zipFile.entries().nextElement().getName());
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void abort_dropsPendingEntriesAndKeepsGivenExecutor() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final File zip = new File(workDir, "out.zip");
+            final ParallelZipWriter writer = new ParallelZipWriter(createOutput(zip), executor,
+                Deflater.DEFAULT_COMPRESSION);
+            writer.putDeflatedEntry("pending.bin", createData(ParallelZipWriter.BLOCK_SIZE * 2));
+            writer.abort();
+            // Closing after abort has nothing left to write.
+            writer.close();
+            // No central directory is written for dropped output.
+            assertEquals(0, zip.length());
+
+            assertFalse(executor.isShutdown());
+            final byte[] data = createData(1000);
+            final File otherZip = new File(workDir, "other.zip");
+            final ParallelZipWriter otherWriter = new ParallelZipWriter(createOutput(otherZip), executor,
+                Deflater.DEFAULT_COMPRESSION);
+            otherWriter.putDeflatedEntry("data.bin", data);
+            otherWriter.close();
+            final ZipFile otherZipFile = new ZipFile(otherZip);
+            try {
+                assertArrayEquals(data, readEntry(otherZipFile, "data.bin"));
+            } finally {
+                otherZipFile.close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static TinkerZipOutputStream createOutput(File zip) throws IOException {
+        return new TinkerZipOutputStream(new FileOutputStream(zip));
+    }
+
+    private static byte[] createData(int size) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) (i % 251 + i / 4096);
+        }
+        return data;
+    }
+
+    private static byte[] readEntry(ZipFile zipFile, String name) throws IOException {
+        final ZipEntry entry = zipFile.getEntry(name);
+        final InputStream is = zipFile.getInputStream(entry);
+        try {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                os.write(buffer, 0, count);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.ziputils.ziputil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Store resources written by {@link TinkerZipUtil#extractStoredEntry} straight from a compressed patch.
+ */
+public class TinkerZipUtilTest {
+    private static final String ARSC = "resources.arsc";
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_CRC_OFFSET = 16;
+    private static final int CENTRAL_HEADER_SIZE_OFFSET = 24;
+
+    private File workDir;
+    private byte[] arsc;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("tinkerziputil", "");
+        workDir.delete();
+        workDir.mkdirs();
+
+        arsc = new byte[64 * 1024 + 3];
+        for (int i = 0; i < arsc.length; ++i) {
+            arsc[i] = (byte) (i % 251 + i / 4096);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        workDir.delete();
+    }
+
+    @Test
+    public void extractStoredEntry_inflatesCompressedEntry() throws Exception {
+        final File patch = writePatch();
+        final File output = new File(workDir, "resources.apk");
+
+        assertTrue(extractArsc(patch, output));
+
+        final ZipFile result = new ZipFile(output);
+        try {
+            final ZipEntry entry = result.getEntry(ARSC);
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals(arsc.length, entry.getSize());
+            assertArrayEquals(arsc, readAll(result.getInputStream(entry)));
+        } finally {
+            result.close();
+        }
+    }
+
+    @Test
+    public void extractStoredEntry_reportsSizeMismatch() throws Exception {
+        final File patch = writePatch();
+        patchCentralHeader(patch, CENTRAL_HEADER_SIZE_OFFSET, arsc.length + 1);
+
+        assertFalse(extractArsc(patch, new File(workDir, "resources.apk")));
+    }
+
+    @Test
+    public void extractStoredEntry_reportsCrcMismatch() throws Exception {
+        final File patch = writePatch();
+        patchCentralHeader(patch, CENTRAL_HEADER_CRC_OFFSET, 0x12345678);
+
+        assertFalse(extractArsc(patch, new File(workDir, "resources.apk")));
+    }
+
+    private boolean extractArsc(File patch, File output) throws IOException {
+        final TinkerZipFile zipFile = new TinkerZipFile(patch);
+        final TinkerZipOutputStream out = new TinkerZipOutputStream(new FileOutputStream(output));
+        try {
+            return TinkerZipUtil.extractStoredEntry(zipFile, zipFile.getEntry(ARSC), out);
+        } finally {
+            out.close();
+            zipFile.close();
+        }
+    }
+
+    private File writePatch() throws IOException {
+        final File patch = new File(workDir, "patch.apk");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(patch));
+        try {
+            out.putNextEntry(new ZipEntry(ARSC));
+            out.write(arsc);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return patch;
+    }
+
+    /**
+     * Only the central directory is changed, which is what the zip file reader trusts.
+     */
+    private static void patchCentralHeader(File zip, int fieldOffset, int value) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(zip, "rw");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            for (int i = bytes.length - 4; i >= 0; --i) {
+                if (readIntLE(bytes, i) == CENTRAL_HEADER_SIGNATURE) {
+                    raf.seek(i + fieldOffset);
+                    raf.write(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+                    return;
+                }
+            }
+            throw new IOException("no central directory header in " + zip);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+            | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        try {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                os.write(buffer, 0, count);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
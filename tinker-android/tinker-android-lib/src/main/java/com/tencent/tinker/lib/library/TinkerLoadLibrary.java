@@ -362,8 +362,12 @@ public class TinkerLoadLibrary {
         private static void install(ClassLoader classLoader, File folder)  throws Throwable {
             final Field pathListField = ShareReflectUtil.findField(classLoader, "pathList");
             final Object dexPathList = pathListField.get(classLoader);
+            final Class<?> dexPathListClazz = dexPathList.getClass();
 
-            final Field nativeLibraryDirectories = ShareReflectUtil.findField(dexPathList, "nativeLibraryDirectories");
+            final Field[] fields = ShareReflectUtil.findFields(dexPathListClazz,
+                    "nativeLibraryDirectories", "systemNativeLibraryDirectories", "nativeLibraryPathElements");
+            final Field nativeLibraryDirectories =
+                    ShareReflectUtil.requireField(fields[0], dexPathListClazz, "nativeLibraryDirectories");
 
             List<File> origLibDirs = (List<File>) nativeLibraryDirectories.get(dexPathList);
             if (origLibDirs == null) {
@@ -379,7 +383,8 @@ public class TinkerLoadLibrary {
             }
             origLibDirs.add(0, folder);
 
-            final Field systemNativeLibraryDirectories = ShareReflectUtil.findField(dexPathList, "systemNativeLibraryDirectories");
+            final Field systemNativeLibraryDirectories =
+                    ShareReflectUtil.requireField(fields[1], dexPathListClazz, "systemNativeLibraryDirectories");
             List<File> origSystemLibDirs = (List<File>) systemNativeLibraryDirectories.get(dexPathList);
             if (origSystemLibDirs == null) {
                 origSystemLibDirs = new ArrayList<>(2);
@@ -395,7 +400,8 @@ public class TinkerLoadLibrary {
 
             final Object[] elements = (Object[]) makeElements.invoke(dexPathList, newLibDirs, null, suppressedExceptions);
 
-            final Field nativeLibraryPathElements = ShareReflectUtil.findField(dexPathList, "nativeLibraryPathElements");
+            final Field nativeLibraryPathElements =
+                    ShareReflectUtil.requireField(fields[2], dexPathListClazz, "nativeLibraryPathElements");
             nativeLibraryPathElements.set(dexPathList, elements);
         }
     }
@@ -404,8 +410,12 @@ public class TinkerLoadLibrary {
         private static void install(ClassLoader classLoader, File folder)  throws Throwable {
             final Field pathListField = ShareReflectUtil.findField(classLoader, "pathList");
             final Object dexPathList = pathListField.get(classLoader);
+            final Class<?> dexPathListClazz = dexPathList.getClass();
 
-            final Field nativeLibraryDirectories = ShareReflectUtil.findField(dexPathList, "nativeLibraryDirectories");
+            final Field[] fields = ShareReflectUtil.findFields(dexPathListClazz,
+                    "nativeLibraryDirectories", "systemNativeLibraryDirectories", "nativeLibraryPathElements");
+            final Field nativeLibraryDirectories =
+                    ShareReflectUtil.requireField(fields[0], dexPathListClazz, "nativeLibraryDirectories");
 
             List<File> origLibDirs = (List<File>) nativeLibraryDirectories.get(dexPathList);
             if (origLibDirs == null) {
@@ -421,7 +431,8 @@ public class TinkerLoadLibrary {
             }
             origLibDirs.add(0, folder);
 
-            final Field systemNativeLibraryDirectories = ShareReflectUtil.findField(dexPathList, "systemNativeLibraryDirectories");
+            final Field systemNativeLibraryDirectories =
+                    ShareReflectUtil.requireField(fields[1], dexPathListClazz, "systemNativeLibraryDirectories");
             List<File> origSystemLibDirs = (List<File>) systemNativeLibraryDirectories.get(dexPathList);
             if (origSystemLibDirs == null) {
                 origSystemLibDirs = new ArrayList<>(2);
@@ -435,7 +446,8 @@ public class TinkerLoadLibrary {
 
             final Object[] elements = (Object[]) makeElements.invoke(dexPathList, newLibDirs);
 
-            final Field nativeLibraryPathElements = ShareReflectUtil.findField(dexPathList, "nativeLibraryPathElements");
+            final Field nativeLibraryPathElements =
+                    ShareReflectUtil.requireField(fields[2], dexPathListClazz, "nativeLibraryPathElements");
             nativeLibraryPathElements.set(dexPathList, elements);
         }
     }
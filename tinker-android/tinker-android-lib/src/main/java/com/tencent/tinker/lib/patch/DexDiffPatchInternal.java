@@ -21,9 +21,13 @@ import android.content.pm.ApplicationInfo;
 import android.os.Build;
 import android.os.SystemClock;
 
+import com.tencent.tinker.android.dex.Dex;
 import com.tencent.tinker.commons.dexpatcher.DexPatchApplier;
+import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
 import com.tencent.tinker.commons.util.DigestUtil;
 import com.tencent.tinker.commons.util.IOHelper;
+import com.tencent.tinker.commons.util.ZipEntryDataLocator;
+import com.tencent.tinker.lib.reporter.PatchTelemetryReporter;
 import com.tencent.tinker.lib.service.PatchResult;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.loader.TinkerDexOptimizer;
@@ -45,10 +49,13 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -61,6 +68,7 @@ public class DexDiffPatchInternal extends BasePatchInternal {
     protected static final String TAG = "Tinker.DexDiffPatchInternal";
 
     protected static final int WAIT_ASYN_OAT_TIME = 10 * 1000;
+    protected static final int FIRST_WAIT_ASYN_OAT_TIME = 500;
     protected static final int MAX_WAIT_COUNT     = 120;
 
 
@@ -78,18 +86,23 @@ public class DexDiffPatchInternal extends BasePatchInternal {
             return true;
         }
         String dexMeta = checker.getMetaContentMap().get(DEX_META_FILE);
+        byte[] dexBinaryMeta = checker.getMetaBinaryMap().get(DEX_META_FILE);
 
-        if (dexMeta == null) {
+        if (dexMeta == null && dexBinaryMeta == null) {
             ShareTinkerLog.w(TAG, "patch recover, dex is not contained");
             return true;
         }
 
         long begin = SystemClock.elapsedRealtime();
-        boolean result = patchDexExtractViaDexDiff(context, patchVersionDirectory, dexMeta, patchFile,
+        boolean result = patchDexExtractViaDexDiff(context, patchVersionDirectory, dexMeta, dexBinaryMeta, patchFile,
                 useEmergencyMode, patchResult);
         long cost = SystemClock.elapsedRealtime() - begin;
         patchResult.dexCostTime = cost;
         ShareTinkerLog.i(TAG, "recover dex result:%b, cost:%d", result, cost);
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
+        if (telemetry != null) {
+            telemetry.onPatchTypeRecovered(patchFile, TYPE_DEX, result, cost);
+        }
         return result;
     }
 
@@ -102,16 +115,26 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         if (size > MAX_WAIT_COUNT) {
             size = MAX_WAIT_COUNT;
         }
-        ShareTinkerLog.i(TAG, "raw dex count: %d, dex opt dex count: %d, final wait times: %d", patchList.size(), optFiles.size(), size);
-
-        for (int i = 0; i < size; i++) {
-            if (!checkAllDexOptFile(optFiles, i + 1)) {
-                try {
-                    Thread.sleep(WAIT_ASYN_OAT_TIME);
-                } catch (InterruptedException e) {
-                    ShareTinkerLog.e(TAG, "thread sleep InterruptedException e:" + e);
-                }
+        // wait at most size * WAIT_ASYN_OAT_TIME, checking more often at the beginning since
+        // most roms finish asynchronous dex2oat within a few seconds.
+        final long maxWaitTime = (long) size * WAIT_ASYN_OAT_TIME;
+        ShareTinkerLog.i(TAG, "raw dex count: %d, dex opt dex count: %d, final wait time: %d", patchList.size(), optFiles.size(), maxWaitTime);
+
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
+        final long waitBegin = (telemetry != null ? SystemClock.elapsedRealtime() : 0);
+        int waitCount = 0;
+        long waitTime = 0;
+        long delay = FIRST_WAIT_ASYN_OAT_TIME;
+        while (waitTime < maxWaitTime && !checkAllDexOptFile(optFiles, waitCount + 1)) {
+            final long sleepTime = Math.min(delay, maxWaitTime - waitTime);
+            waitCount++;
+            try {
+                Thread.sleep(sleepTime);
+            } catch (InterruptedException e) {
+                ShareTinkerLog.e(TAG, "thread sleep InterruptedException e:" + e);
             }
+            waitTime += sleepTime;
+            delay = Math.min(delay << 1, WAIT_ASYN_OAT_TIME);
         }
         List<File> failDexFiles = new ArrayList<>();
         // check again, if still can't be found, just return
@@ -123,6 +146,9 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                 failDexFiles.add(file);
             }
         }
+        if (telemetry != null) {
+            telemetry.onPatchDexOptWait(patchFile, waitCount, failDexFiles.isEmpty(), SystemClock.elapsedRealtime() - waitBegin);
+        }
         if (!failDexFiles.isEmpty()) {
             manager.getPatchReporter().onPatchDexOptFail(patchFile, failDexFiles,
                 new TinkerRuntimeException(ShareConstants.CHECK_DEX_OAT_EXIST_FAIL));
@@ -169,11 +195,11 @@ public class DexDiffPatchInternal extends BasePatchInternal {
     }
 
     private static boolean patchDexExtractViaDexDiff(Context context, String patchVersionDirectory, String meta,
-                                                     final File patchFile, boolean useEmergencyMode,
+                                                     byte[] binaryMeta, final File patchFile, boolean useEmergencyMode,
                                                      PatchResult patchResult) {
         String dir = patchVersionDirectory + "/" + DEX_PATH + "/";
 
-        if (!extractDexDiffInternals(context, dir, meta, patchFile, TYPE_DEX)) {
+        if (!extractDexDiffInternals(context, dir, meta, binaryMeta, patchFile, TYPE_DEX)) {
             ShareTinkerLog.w(TAG, "patch recover, extractDiffInternals fail");
             return false;
         }
@@ -389,24 +415,34 @@ public class DexDiffPatchInternal extends BasePatchInternal {
 
             final boolean useDLC = TinkerApplication.getInstance().isUseDelegateLastClassLoader();
             final boolean[] anyOatNotGenerated = {false};
+            final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
 
             // try parallel dex optimizer
             TinkerDexOptimizer.optimizeAll(
                   context, dexFiles, optimizeDexDirectoryFile,
                   useDLC, useEmergencyMode,
                   new TinkerDexOptimizer.ResultCallback() {
-                      long startTime;
+                      // dexes are requested together, each of them has its own start time.
+                      final Map<File, Long> startTimes = new ConcurrentHashMap<>();
 
                       @Override
                       public void onStart(File dexFile, File optimizedDir) {
-                          startTime = System.currentTimeMillis();
+                          startTimes.put(dexFile, System.currentTimeMillis());
                           ShareTinkerLog.i(TAG, "start to parallel optimize dex %s, size: %d", dexFile.getPath(), dexFile.length());
                       }
 
+                      private long getCostTime(File dexFile) {
+                          final Long startTime = startTimes.get(dexFile);
+                          return startTime != null ? System.currentTimeMillis() - startTime : 0;
+                      }
+
                       @Override
                       public void onSuccess(File dexFile, File optimizedDir, File optimizedFile) {
                           ShareTinkerLog.i(TAG, "success to parallel optimize dex %s, opt file:%s, opt file size: %d, use time %d",
-                              dexFile.getPath(), optimizedFile.getPath(), optimizedFile.length(), (System.currentTimeMillis() - startTime));
+                              dexFile.getPath(), optimizedFile.getPath(), optimizedFile.length(), getCostTime(dexFile));
+                          if (telemetry != null) {
+                              telemetry.onPatchDexOpt(patchFile, dexFile, optimizedFile, true, getCostTime(dexFile));
+                          }
                           if (!optimizedFile.exists()) {
                               synchronized (anyOatNotGenerated) {
                                   anyOatNotGenerated[0] = true;
@@ -417,7 +453,10 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                       @Override
                       public void onFailed(File dexFile, File optimizedDir, Throwable thr) {
                           ShareTinkerLog.i(TAG, "fail to parallel optimize dex %s use time %d",
-                              dexFile.getPath(), (System.currentTimeMillis() - startTime));
+                              dexFile.getPath(), getCostTime(dexFile));
+                          if (telemetry != null) {
+                              telemetry.onPatchDexOpt(patchFile, dexFile, null, false, getCostTime(dexFile));
+                          }
                           failOptDexFile.add(dexFile);
                           throwable[0] = thr;
                       }
@@ -459,10 +498,14 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         return true;
     }
 
-    private static boolean extractDexDiffInternals(Context context, String dir, String meta, File patchFile, int type) {
+    private static boolean extractDexDiffInternals(Context context, String dir, String meta, byte[] binaryMeta, File patchFile, int type) {
         //parse
         patchList.clear();
-        ShareDexDiffPatchInfo.parseDexDiffPatchInfo(meta, patchList);
+        if (binaryMeta != null) {
+            ShareDexDiffPatchInfo.parseDexDiffPatchInfo(binaryMeta, patchList);
+        } else {
+            ShareDexDiffPatchInfo.parseDexDiffPatchInfo(meta, patchList);
+        }
 
         if (patchList.isEmpty()) {
             ShareTinkerLog.w(TAG, "extract patch list is empty! type:%s:", ShareTinkerInternals.getTypeString(type));
@@ -475,6 +518,7 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         }
         //I think it is better to extract the raw files from apk
         Tinker manager = Tinker.with(context);
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
         ZipFile apk = null;
         ZipFile patch = null;
         try {
@@ -525,6 +569,10 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                     if (SharePatchFileUtil.verifyDexFileMd5(extractedFile, extractedFileMd5)) {
                         //it is ok, just continue
                         ShareTinkerLog.w(TAG, "dex file %s is already exist, and md5 match, just continue", extractedFile.getPath());
+                        if (telemetry != null) {
+                            telemetry.onPatchFileRecovered(patchFile, type, info.rawName, PatchTelemetryReporter.RECOVER_MODE_EXIST,
+                                extractedFile.length(), 0, System.currentTimeMillis() - start);
+                        }
                         continue;
                     } else {
                         ShareTinkerLog.w(TAG, "have a mismatch corrupted dex " + extractedFile.getPath());
@@ -550,6 +598,10 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                         manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.rawName, type);
                         return false;
                     }
+                    if (telemetry != null) {
+                        telemetry.onPatchFileRecovered(patchFile, type, info.rawName, PatchTelemetryReporter.RECOVER_MODE_EXTRACT,
+                            extractedFile.length(), System.currentTimeMillis() - start, -1);
+                    }
                 } else if (dexDiffMd5.equals("0")) {
                     // skip process old dex for real dalvik vm
                     if (!isVmArt) {
@@ -574,12 +626,17 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                     //patchDexFile(apk, patch, rawApkFileEntry, null, info, smallPatchInfoFile, extractedFile);
                     extractDexFile(apk, rawApkFileEntry, extractedFile, info);
 
+                    final long verifyStart = System.currentTimeMillis();
                     if (!SharePatchFileUtil.verifyDexFileMd5(extractedFile, extractedFileMd5)) {
                         ShareTinkerLog.w(TAG, "Failed to recover dex file when verify patched dex: " + extractedFile.getPath());
                         manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.rawName, type);
                         SharePatchFileUtil.safeDeleteFile(extractedFile);
                         return false;
                     }
+                    if (telemetry != null) {
+                        telemetry.onPatchFileRecovered(patchFile, type, info.rawName, PatchTelemetryReporter.RECOVER_MODE_EXTRACT,
+                            extractedFile.length(), verifyStart - start, System.currentTimeMillis() - verifyStart);
+                    }
                 } else {
                     if (patchFileEntry == null) {
                         ShareTinkerLog.w(TAG, "patch entry is null. path:" + patchRealPath);
@@ -608,6 +665,7 @@ public class DexDiffPatchInternal extends BasePatchInternal {
 
                     patchDexFile(apk, patch, rawApkFileEntry, patchFileEntry, info, extractedFile);
 
+                    final long verifyStart = System.currentTimeMillis();
                     if (!SharePatchFileUtil.verifyDexFileMd5(extractedFile, extractedFileMd5)) {
                         ShareTinkerLog.w(TAG, "Failed to recover dex file when verify patched dex: " + extractedFile.getPath());
                         manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.rawName, type);
@@ -617,6 +675,10 @@ public class DexDiffPatchInternal extends BasePatchInternal {
 
                     ShareTinkerLog.w(TAG, "success recover dex file: %s, size: %d, use time: %d",
                         extractedFile.getPath(), extractedFile.length(), (System.currentTimeMillis() - start));
+                    if (telemetry != null) {
+                        telemetry.onPatchFileRecovered(patchFile, type, info.rawName, PatchTelemetryReporter.RECOVER_MODE_DIFF,
+                            extractedFile.length(), verifyStart - start, System.currentTimeMillis() - verifyStart);
+                    }
                 }
             }
             if (!mergeClassNDexFiles(context, patchFile, dir)) {
@@ -730,13 +792,22 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         InputStream oldDexStream = null;
         InputStream patchFileStream = null;
         try {
-            oldDexStream = new BufferedInputStream(baseApk.getInputStream(oldDexEntry));
-            patchFileStream = (patchFileEntry != null ? new BufferedInputStream(patchPkg.getInputStream(patchFileEntry)) : null);
+            final boolean isRawDexFile = SharePatchFileUtil.isRawDexFile(patchInfo.rawName);
+
+            // Map uncompressed old dex and patch file directly instead of copying them into heap.
+            final Dex mappedOldDex = (isRawDexFile ? mapStoredDex(baseApk, oldDexEntry) : null);
+            final DexPatchFile mappedPatchFile = mapStoredDexPatchFile(patchPkg, patchFileEntry);
+
+            if (mappedOldDex == null) {
+                oldDexStream = new BufferedInputStream(baseApk.getInputStream(oldDexEntry));
+            }
+            if (mappedPatchFile == null && patchFileEntry != null) {
+                patchFileStream = new BufferedInputStream(patchPkg.getInputStream(patchFileEntry));
+            }
             if (ShareTinkerInternals.isNewerOrEqualThanVersion(33, true)) {
                 patchedDexFile.setReadOnly();
             }
 
-            final boolean isRawDexFile = SharePatchFileUtil.isRawDexFile(patchInfo.rawName);
             if (!isRawDexFile || patchInfo.isJarMode) {
                 ZipOutputStream zos = null;
                 try {
@@ -757,19 +828,19 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                             if (entry == null) {
                                 throw new TinkerRuntimeException("can't recognize zip dex format file:" + patchedDexFile.getAbsolutePath());
                             }
-                            new DexPatchApplier(zis, patchFileStream).executeAndSaveTo(zos);
+                            newDexPatchApplier(null, zis, mappedPatchFile, patchFileStream).executeAndSaveTo(zos);
                         } finally {
                             IOHelper.closeQuietly(zis);
                         }
                     } else {
-                        new DexPatchApplier(oldDexStream, patchFileStream).executeAndSaveTo(zos);
+                        newDexPatchApplier(mappedOldDex, oldDexStream, mappedPatchFile, patchFileStream).executeAndSaveTo(zos);
                     }
                     zos.closeEntry();
                 } finally {
                     IOHelper.closeQuietly(zos);
                 }
             } else {
-                new DexPatchApplier(oldDexStream, patchFileStream).executeAndSaveTo(patchedDexFile);
+                newDexPatchApplier(mappedOldDex, oldDexStream, mappedPatchFile, patchFileStream).executeAndSaveTo(patchedDexFile);
             }
         } finally {
             IOHelper.closeQuietly(oldDexStream);
@@ -777,4 +848,63 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         }
     }
 
+    private static DexPatchApplier newDexPatchApplier(Dex mappedOldDex, InputStream oldDexStream,
+                                                      DexPatchFile mappedPatchFile, InputStream patchFileStream) throws IOException {
+        final Dex oldDex = (mappedOldDex != null ? mappedOldDex : new Dex(oldDexStream));
+        final DexPatchFile patchFile = (mappedPatchFile != null ? mappedPatchFile : new DexPatchFile(patchFileStream));
+        return new DexPatchApplier(oldDex, patchFile);
+    }
+
+    /**
+     * Map old dex from base apk if it is stored without compression.
+     *
+     * @return mapped dex, or null if the entry is compressed or cannot be located.
+     */
+    private static Dex mapStoredDex(ZipFile zipFile, ZipEntry entry) {
+        if (entry == null || entry.getMethod() != ZipEntry.STORED) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(zipFile.getName(), "r");
+            final long dataOffset = ZipEntryDataLocator.locateStoredEntryData(raf, entry.getName());
+            if (dataOffset == ZipEntryDataLocator.NOT_FOUND) {
+                return null;
+            }
+            return new Dex(raf.getChannel(), dataOffset, (int) entry.getSize());
+        } catch (Throwable thr) {
+            ShareTinkerLog.w(TAG, "fail to map stored dex %s in %s, fall back to stream, reason: %s",
+                entry.getName(), zipFile.getName(), thr.getMessage());
+            return null;
+        } finally {
+            IOHelper.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Map dex patch file from patch package if it is stored without compression.
+     *
+     * @return mapped patch file, or null if the entry is compressed or cannot be located.
+     */
+    private static DexPatchFile mapStoredDexPatchFile(ZipFile zipFile, ZipEntry entry) {
+        if (entry == null || entry.getMethod() != ZipEntry.STORED) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(zipFile.getName(), "r");
+            final long dataOffset = ZipEntryDataLocator.locateStoredEntryData(raf, entry.getName());
+            if (dataOffset == ZipEntryDataLocator.NOT_FOUND) {
+                return null;
+            }
+            return new DexPatchFile(raf.getChannel(), dataOffset, (int) entry.getSize());
+        } catch (Throwable thr) {
+            ShareTinkerLog.w(TAG, "fail to map stored dex patch %s in %s, fall back to stream, reason: %s",
+                entry.getName(), zipFile.getName(), thr.getMessage());
+            return null;
+        } finally {
+            IOHelper.closeQuietly(raf);
+        }
+    }
+
 }
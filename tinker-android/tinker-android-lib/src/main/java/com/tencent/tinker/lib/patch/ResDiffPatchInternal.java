@@ -23,6 +23,7 @@ import android.os.SystemClock;
 import com.tencent.tinker.bsdiff.BSPatch;
 import com.tencent.tinker.commons.util.IOHelper;
 import com.tencent.tinker.lib.filepatch.FilePatchFactory;
+import com.tencent.tinker.lib.reporter.PatchTelemetryReporter;
 import com.tencent.tinker.lib.service.PatchResult;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.loader.shareutil.ShareTinkerLog;
@@ -41,7 +42,9 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -60,36 +63,48 @@ public class ResDiffPatchInternal extends BasePatchInternal {
             return true;
         }
         String resourceMeta = checker.getMetaContentMap().get(RES_META_FILE);
+        byte[] resourceBinaryMeta = checker.getMetaBinaryMap().get(RES_META_FILE);
 
-        if (resourceMeta == null || resourceMeta.length() == 0) {
+        if ((resourceMeta == null || resourceMeta.length() == 0) && resourceBinaryMeta == null) {
             ShareTinkerLog.w(TAG, "patch recover, resource is not contained");
             return true;
         }
 
         long begin = SystemClock.elapsedRealtime();
-        boolean result = patchResourceExtractViaResourceDiff(context, patchVersionDirectory, resourceMeta, patchFile, useCustomPatcher);
+        boolean result = patchResourceExtractViaResourceDiff(context, patchVersionDirectory, resourceMeta, resourceBinaryMeta, patchFile,
+            useCustomPatcher);
         long cost = SystemClock.elapsedRealtime() - begin;
         patchResult.resCostTime = cost;
         ShareTinkerLog.i(TAG, "recover resource result:%b, cost:%d", result, cost);
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
+        if (telemetry != null) {
+            telemetry.onPatchTypeRecovered(patchFile, TYPE_RESOURCE, result, cost);
+        }
         return result;
     }
 
     private static boolean patchResourceExtractViaResourceDiff(Context context, String patchVersionDirectory,
-                                                               String meta, File patchFile, boolean useCustomPatcher) {
+                                                               String meta, byte[] binaryMeta, File patchFile, boolean useCustomPatcher) {
         String dir = patchVersionDirectory + "/" + ShareConstants.RES_PATH + "/";
 
-        if (!extractResourceDiffInternals(context, dir, meta, patchFile, TYPE_RESOURCE, useCustomPatcher)) {
+        if (!extractResourceDiffInternals(context, dir, meta, binaryMeta, patchFile, TYPE_RESOURCE, useCustomPatcher)) {
             ShareTinkerLog.w(TAG, "patch recover, extractDiffInternals fail");
             return false;
         }
         return true;
     }
 
-    private static boolean extractResourceDiffInternals(Context context, String dir, String meta, File patchFile, int type, boolean useCustomPatcher) {
+    private static boolean extractResourceDiffInternals(Context context, String dir, String meta, byte[] binaryMeta, File patchFile, int type,
+                                                        boolean useCustomPatcher) {
         ShareResPatchInfo resPatchInfo = new ShareResPatchInfo();
-        ShareResPatchInfo.parseAllResPatchInfo(meta, resPatchInfo);
+        if (binaryMeta != null) {
+            ShareResPatchInfo.parseAllResPatchInfo(binaryMeta, resPatchInfo);
+        } else {
+            ShareResPatchInfo.parseAllResPatchInfo(meta, resPatchInfo);
+        }
         ShareTinkerLog.i(TAG, "res dir: %s, meta: %s", dir, resPatchInfo.toString());
         Tinker manager = Tinker.with(context);
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
 
         if (!SharePatchFileUtil.checkIfMd5Valid(resPatchInfo.resArscMd5)) {
             ShareTinkerLog.w(TAG, "resource meta file md5 mismatch, type:%s, md5: %s", ShareTinkerInternals.getTypeString(type), resPatchInfo.resArscMd5);
@@ -125,14 +140,21 @@ public class ResDiffPatchInternal extends BasePatchInternal {
             String apkPath = applicationInfo.sourceDir;
 
 
+            long phaseStart = System.currentTimeMillis();
             if (!checkAndExtractResourceLargeFile(context, apkPath, directory, tempResFileDirectory, patchFile, resPatchInfo, type, useCustomPatcher)) {
                 return false;
             }
+            if (telemetry != null) {
+                telemetry.onPatchResourcePhase(patchFile, PatchTelemetryReporter.RES_PHASE_LARGE_FILES,
+                    resPatchInfo.largeModRes.size(),
+                    SharePatchFileUtil.getFileOrDirectorySize(tempResFileDirectory), System.currentTimeMillis() - phaseStart);
+            }
 
             TinkerZipOutputStream out = null;
             TinkerZipFile oldApk = null;
             TinkerZipFile newApk = null;
             int totalEntryCount = 0;
+            phaseStart = System.currentTimeMillis();
             try {
                 if (resOutput.exists()) {
                     resOutput.delete();
@@ -141,80 +163,62 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 if (ShareTinkerInternals.isNewerOrEqualThanVersion(33, true)) {
                     resOutput.setReadOnly();
                 }
-                oldApk = new TinkerZipFile(apkPath);
-                newApk = new TinkerZipFile(patchFile);
+                oldApk = new TinkerZipFile(new File(apkPath), TinkerZipFile.OPEN_READ | TinkerZipFile.OPEN_MAPPED);
+                newApk = new TinkerZipFile(patchFile, TinkerZipFile.OPEN_READ | TinkerZipFile.OPEN_MAPPED);
+                final List<String> baseEntryNames = new ArrayList<>(oldApk.size());
                 final Enumeration<? extends TinkerZipEntry> entries = oldApk.entries();
                 while (entries.hasMoreElements()) {
                     TinkerZipEntry zipEntry = entries.nextElement();
                     if (zipEntry == null) {
                         throw new TinkerRuntimeException("zipEntry is null when get from oldApk");
                     }
-                    String name = zipEntry.getName();
-                    if (name.contains("../")) {
-                        continue;
-                    }
-                    if (ShareResPatchInfo.checkFileInPattern(resPatchInfo.patterns, name)) {
-                        //won't contain in add set.
-                        if (!resPatchInfo.deleteRes.contains(name)
-                            && !resPatchInfo.modRes.contains(name)
-                            && !resPatchInfo.largeModRes.contains(name)
-                            && !name.equals(ShareConstants.RES_MANIFEST)) {
-                            TinkerZipUtil.extractTinkerEntry(oldApk, zipEntry, out);
-                            totalEntryCount++;
-                        }
-                    }
-                }
-
-                //process manifest
-                TinkerZipEntry manifestZipEntry = oldApk.getEntry(ShareConstants.RES_MANIFEST);
-                if (manifestZipEntry == null) {
-                    ShareTinkerLog.w(TAG, "manifest patch entry is null. path:" + ShareConstants.RES_MANIFEST);
-                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, ShareConstants.RES_MANIFEST, type);
-                    return false;
-                }
-                TinkerZipUtil.extractTinkerEntry(oldApk, manifestZipEntry, out);
-                totalEntryCount++;
-
-                for (String name : resPatchInfo.largeModRes) {
-                    TinkerZipEntry largeZipEntry = oldApk.getEntry(name);
-                    if (largeZipEntry == null) {
-                        ShareTinkerLog.w(TAG, "large patch entry is null. path:" + name);
-                        manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
-                        return false;
-                    }
-                    ShareResPatchInfo.LargeModeInfo largeModeInfo = resPatchInfo.largeModMap.get(name);
-                    TinkerZipUtil.extractLargeModifyFile(largeZipEntry, largeModeInfo.file, largeModeInfo.crc, out);
-                    totalEntryCount++;
+                    baseEntryNames.add(zipEntry.getName());
                 }
 
-                for (String name : resPatchInfo.addRes) {
-                    TinkerZipEntry addZipEntry = newApk.getEntry(name);
-                    if (addZipEntry == null) {
-                        ShareTinkerLog.w(TAG, "add patch entry is null. path:" + name);
-                        manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
-                        return false;
-                    }
-                    if (resPatchInfo.storeRes.containsKey(name)) {
-                        File storeFile = resPatchInfo.storeRes.get(name);
-                        TinkerZipUtil.extractLargeModifyFile(addZipEntry, storeFile, addZipEntry.getCrc(), out);
-                    } else {
-                        TinkerZipUtil.extractTinkerEntry(newApk, addZipEntry, out);
-                    }
-                    totalEntryCount++;
-                }
-
-                for (String name : resPatchInfo.modRes) {
-                    TinkerZipEntry modZipEntry = newApk.getEntry(name);
-                    if (modZipEntry == null) {
-                        ShareTinkerLog.w(TAG, "mod patch entry is null. path:" + name);
-                        manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
-                        return false;
-                    }
-                    if (resPatchInfo.storeRes.containsKey(name)) {
-                        File storeFile = resPatchInfo.storeRes.get(name);
-                        TinkerZipUtil.extractLargeModifyFile(modZipEntry, storeFile, modZipEntry.getCrc(), out);
-                    } else {
-                        TinkerZipUtil.extractTinkerEntry(newApk, modZipEntry, out);
+                for (ResMergePlan.Step step : ResMergePlan.build(resPatchInfo, baseEntryNames)) {
+                    final String name = step.name;
+                    switch (step.source) {
+                        case ResMergePlan.SOURCE_BASE_APK: {
+                            TinkerZipEntry baseZipEntry = oldApk.getEntry(name);
+                            if (baseZipEntry == null) {
+                                ShareTinkerLog.w(TAG, "base apk entry is null. path:" + name);
+                                manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
+                                return false;
+                            }
+                            TinkerZipUtil.extractTinkerEntry(oldApk, baseZipEntry, out);
+                            break;
+                        }
+                        case ResMergePlan.SOURCE_LARGE_MOD: {
+                            TinkerZipEntry largeZipEntry = oldApk.getEntry(name);
+                            if (largeZipEntry == null) {
+                                ShareTinkerLog.w(TAG, "large patch entry is null. path:" + name);
+                                manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
+                                return false;
+                            }
+                            ShareResPatchInfo.LargeModeInfo largeModeInfo = resPatchInfo.largeModMap.get(name);
+                            TinkerZipUtil.extractLargeModifyFile(largeZipEntry, largeModeInfo.file, largeModeInfo.crc, out);
+                            break;
+                        }
+                        default: {
+                            TinkerZipEntry patchZipEntry = newApk.getEntry(name);
+                            if (patchZipEntry == null) {
+                                ShareTinkerLog.w(TAG, "patch entry is null. path:" + name);
+                                manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
+                                return false;
+                            }
+                            if (step.source == ResMergePlan.SOURCE_PATCH_STORED) {
+                                // written straight from patch, without extracting to a temp file first.
+                                if (!TinkerZipUtil.extractStoredEntry(newApk, patchZipEntry, out)) {
+                                    ShareTinkerLog.w(TAG, "resource meta file size mismatch, type:%s, name: %s, patch size: %d, crc: %d",
+                                        ShareTinkerInternals.getTypeString(type), name, patchZipEntry.getSize(), patchZipEntry.getCrc());
+                                    manager.getPatchReporter().onPatchPackageCheckFail(patchFile, BasePatchInternal.getMetaCorruptedCode(type));
+                                    return false;
+                                }
+                            } else {
+                                TinkerZipUtil.extractTinkerEntry(newApk, patchZipEntry, out);
+                            }
+                            break;
+                        }
                     }
                     totalEntryCount++;
                 }
@@ -228,7 +232,16 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 //delete temp files
                 SharePatchFileUtil.deleteDir(tempResFileDirectory);
             }
+            if (telemetry != null) {
+                telemetry.onPatchResourcePhase(patchFile, PatchTelemetryReporter.RES_PHASE_MERGE,
+                    totalEntryCount, resOutput.length(), System.currentTimeMillis() - phaseStart);
+            }
+            phaseStart = System.currentTimeMillis();
             boolean result = SharePatchFileUtil.checkResourceArscMd5(resOutput, resPatchInfo.resArscMd5);
+            if (telemetry != null) {
+                telemetry.onPatchResourcePhase(patchFile, PatchTelemetryReporter.RES_PHASE_VERIFY,
+                    1, 0, System.currentTimeMillis() - phaseStart);
+            }
 
             if (!result) {
                 ShareTinkerLog.i(TAG, "check final new resource file fail path:%s, entry count:%d, size:%d", resOutput.getAbsolutePath(), totalEntryCount, resOutput.length());
@@ -268,35 +281,14 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 return false;
             }
 
-            //resource arsc is not changed, just return true
-            if (resPatchInfo.largeModRes.isEmpty() && resPatchInfo.storeRes.isEmpty()) {
-                ShareTinkerLog.i(TAG, "no large modify or store resources, just return");
+            //no large modify resources, just return true
+            //store resources are written to resources.apk straight from patch while merging
+            if (resPatchInfo.largeModRes.isEmpty()) {
+                ShareTinkerLog.i(TAG, "no large modify resources, just return");
                 return true;
             }
             patchZipFile = new ZipFile(patchFile);
 
-            for (String name : resPatchInfo.storeRes.keySet()) {
-                long storeStart = System.currentTimeMillis();
-                File destCopy = new File(tempFileDirtory, name);
-                SharePatchFileUtil.ensureFileDirectory(destCopy);
-
-                ZipEntry patchEntry = patchZipFile.getEntry(name);
-                if (patchEntry == null) {
-                    ShareTinkerLog.w(TAG, "store patch entry is null. path:" + name);
-                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, destCopy, name, type);
-                    return false;
-                }
-                extract(patchZipFile, patchEntry, destCopy, null, false);
-                //fast check, only check size
-                if (patchEntry.getSize() != destCopy.length()) {
-                    ShareTinkerLog.w(TAG, "resource meta file size mismatch, type:%s, name: %s, patch size: %d, file size; %d", ShareTinkerInternals.getTypeString(type), name, patchEntry.getSize(), destCopy.length());
-                    manager.getPatchReporter().onPatchPackageCheckFail(patchFile, BasePatchInternal.getMetaCorruptedCode(type));
-                    return false;
-                }
-                resPatchInfo.storeRes.put(name, destCopy);
-
-                ShareTinkerLog.w(TAG, "success recover store file:%s, file size:%d, use time:%d", destCopy.getPath(), destCopy.length(), (System.currentTimeMillis() - storeStart));
-            }
             for (String name : resPatchInfo.largeModRes) {
                 long largeStart = System.currentTimeMillis();
                 ShareResPatchInfo.LargeModeInfo largeModeInfo = resPatchInfo.largeModMap.get(name);
@@ -348,7 +340,7 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 }
                 ShareTinkerLog.w(TAG, "success recover large modify file:%s, file size:%d, use time:%d", largeModeInfo.file.getPath(), largeModeInfo.file.length(), (System.currentTimeMillis() - largeStart));
             }
-            ShareTinkerLog.w(TAG, "success recover all large modify and store resources use time:%d", (System.currentTimeMillis() - start));
+            ShareTinkerLog.w(TAG, "success recover all large modify resources use time:%d", (System.currentTimeMillis() - start));
         } catch (Throwable e) {
             throw new TinkerRuntimeException("patch " + ShareTinkerInternals.getTypeString(type) +  " extract failed (" + e.getMessage() + ").", e);
         } finally {
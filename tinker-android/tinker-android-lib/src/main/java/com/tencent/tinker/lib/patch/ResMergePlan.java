@@ -0,0 +1,108 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.lib.patch;
+
+import com.tencent.tinker.loader.shareutil.ShareConstants;
+import com.tencent.tinker.loader.shareutil.ShareResPatchInfo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Entries of the merged resources.apk in writing order, and where each of them comes from.
+ *
+ * It is free of android apis, so the merge result of a meta and a base apk entry list can be
+ * checked on the jvm. The order is the same as it always was: kept base entries in base apk order,
+ * then the manifest, large modified, added and modified entries.
+ */
+public final class ResMergePlan {
+    /**
+     * copy the entry of base apk as it is
+     */
+    public static final int SOURCE_BASE_APK     = 1;
+    /**
+     * copy the entry of patch as it is
+     */
+    public static final int SOURCE_PATCH        = 2;
+    /**
+     * copy the entry of patch and write it uncompressed, such as resources.arsc
+     */
+    public static final int SOURCE_PATCH_STORED = 3;
+    /**
+     * write the large modified file synthesized from base apk and patch
+     */
+    public static final int SOURCE_LARGE_MOD    = 4;
+
+    public static final class Step {
+        public final String name;
+        public final int    source;
+
+        Step(String name, int source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + source;
+        }
+    }
+
+    private ResMergePlan() {
+    }
+
+    /**
+     * @param baseEntryNames entry names of base apk in its order
+     */
+    public static List<Step> build(ShareResPatchInfo resPatchInfo, Iterable<String> baseEntryNames) {
+        // lists in meta can be long, do not search them for every base entry.
+        final Set<String> replaced = new HashSet<>(resPatchInfo.deleteRes);
+        replaced.addAll(resPatchInfo.modRes);
+        replaced.addAll(resPatchInfo.largeModRes);
+        replaced.add(ShareConstants.RES_MANIFEST);
+
+        final List<Step> steps = new ArrayList<>();
+        for (String name : baseEntryNames) {
+            if (name.contains("../")) {
+                continue;
+            }
+            //won't contain in add set.
+            if (!replaced.contains(name) && ShareResPatchInfo.checkFileInPattern(resPatchInfo.patternMatcher, name)) {
+                steps.add(new Step(name, SOURCE_BASE_APK));
+            }
+        }
+
+        steps.add(new Step(ShareConstants.RES_MANIFEST, SOURCE_BASE_APK));
+
+        for (String name : resPatchInfo.largeModRes) {
+            steps.add(new Step(name, SOURCE_LARGE_MOD));
+        }
+        for (String name : resPatchInfo.addRes) {
+            steps.add(new Step(name, getPatchSource(resPatchInfo, name)));
+        }
+        for (String name : resPatchInfo.modRes) {
+            steps.add(new Step(name, getPatchSource(resPatchInfo, name)));
+        }
+        return steps;
+    }
+
+    private static int getPatchSource(ShareResPatchInfo resPatchInfo, String name) {
+        return resPatchInfo.storeRes.containsKey(name) ? SOURCE_PATCH_STORED : SOURCE_PATCH;
+    }
+}
@@ -23,6 +23,7 @@ import android.os.SystemClock;
 import com.tencent.tinker.bsdiff.BSPatch;
 import com.tencent.tinker.commons.util.IOHelper;
 import com.tencent.tinker.lib.filepatch.FilePatchFactory;
+import com.tencent.tinker.lib.reporter.PatchTelemetryReporter;
 import com.tencent.tinker.lib.service.PatchResult;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.loader.shareutil.ShareTinkerLog;
@@ -52,30 +53,41 @@ public class SoDiffPatchInternal extends BasePatchInternal {
             return true;
         }
         String libMeta = checker.getMetaContentMap().get(SO_META_FILE);
+        byte[] libBinaryMeta = checker.getMetaBinaryMap().get(SO_META_FILE);
 
-        if (libMeta == null) {
+        if (libMeta == null && libBinaryMeta == null) {
             ShareTinkerLog.w(TAG, "patch recover, library is not contained");
             return true;
         }
         long begin = SystemClock.elapsedRealtime();
-        boolean result = patchLibraryExtractViaBsDiff(context, patchVersionDirectory, libMeta, patchFile, useCustomPatcher);
+        boolean result = patchLibraryExtractViaBsDiff(context, patchVersionDirectory, libMeta, libBinaryMeta, patchFile, useCustomPatcher);
         long cost = SystemClock.elapsedRealtime() - begin;
         patchResult.soCostTime = cost;
         ShareTinkerLog.i(TAG, "recover lib result:%b, cost:%d", result, cost);
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
+        if (telemetry != null) {
+            telemetry.onPatchTypeRecovered(patchFile, TYPE_LIBRARY, result, cost);
+        }
         return result;
     }
 
 
-    private static boolean patchLibraryExtractViaBsDiff(Context context, String patchVersionDirectory, String meta, File patchFile, boolean useCustomPatcher) {
+    private static boolean patchLibraryExtractViaBsDiff(Context context, String patchVersionDirectory, String meta, byte[] binaryMeta,
+                                                        File patchFile, boolean useCustomPatcher) {
         String dir = patchVersionDirectory + "/" + SO_PATH + "/";
-        return extractBsDiffInternals(context, dir, meta, patchFile, TYPE_LIBRARY, useCustomPatcher);
+        return extractBsDiffInternals(context, dir, meta, binaryMeta, patchFile, TYPE_LIBRARY, useCustomPatcher);
     }
 
-    private static boolean extractBsDiffInternals(Context context, String dir, String meta, File patchFile, int type, boolean useCustomPatcher) {
+    private static boolean extractBsDiffInternals(Context context, String dir, String meta, byte[] binaryMeta, File patchFile, int type,
+                                                  boolean useCustomPatcher) {
         //parse
         ArrayList<ShareBsDiffPatchInfo> patchList = new ArrayList<>();
 
-        ShareBsDiffPatchInfo.parseDiffPatchInfo(meta, patchList);
+        if (binaryMeta != null) {
+            ShareBsDiffPatchInfo.parseDiffPatchInfo(binaryMeta, patchList);
+        } else {
+            ShareBsDiffPatchInfo.parseDiffPatchInfo(meta, patchList);
+        }
 
         if (patchList.isEmpty()) {
             ShareTinkerLog.w(TAG, "extract patch list is empty! type:%s:", ShareTinkerInternals.getTypeString(type));
@@ -88,6 +100,7 @@ public class SoDiffPatchInternal extends BasePatchInternal {
         }
         //I think it is better to extract the raw files from apk
         Tinker manager = Tinker.with(context);
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
         ApplicationInfo applicationInfo = context.getApplicationInfo();
         if (applicationInfo == null) {
             // Looks like running on a test Context, so just return without patching.
@@ -128,6 +141,10 @@ public class SoDiffPatchInternal extends BasePatchInternal {
                     if (fileMd5.equals(SharePatchFileUtil.getMD5(extractedFile))) {
                         //it is ok, just continue
                         ShareTinkerLog.w(TAG, "bsdiff file %s is already exist, and md5 match, just continue", extractedFile.getPath());
+                        if (telemetry != null) {
+                            telemetry.onPatchFileRecovered(patchFile, type, info.name, PatchTelemetryReporter.RECOVER_MODE_EXIST,
+                                extractedFile.length(), 0, System.currentTimeMillis() - start);
+                        }
                         continue;
                     } else {
                         ShareTinkerLog.w(TAG, "have a mismatch corrupted dex " + extractedFile.getPath());
@@ -154,6 +171,10 @@ public class SoDiffPatchInternal extends BasePatchInternal {
                         manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.name, type);
                         return false;
                     }
+                    if (telemetry != null) {
+                        telemetry.onPatchFileRecovered(patchFile, type, info.name, PatchTelemetryReporter.RECOVER_MODE_EXTRACT,
+                            extractedFile.length(), System.currentTimeMillis() - start, -1);
+                    }
                 } else {
                     //we do not check the intermediate files' md5 to save time, use check whether it is 32 length
                     if (!SharePatchFileUtil.checkIfMd5Valid(patchFileMd5)) {
@@ -190,6 +211,7 @@ public class SoDiffPatchInternal extends BasePatchInternal {
                         IOHelper.closeQuietly(newStream);
                     }
 
+                    final long verifyStart = System.currentTimeMillis();
                     //go go go bsdiff get the
                     if (!SharePatchFileUtil.verifyFileMd5(extractedFile, fileMd5)) {
                         ShareTinkerLog.w(TAG, "Failed to recover diff file " + extractedFile.getPath());
@@ -199,6 +221,10 @@ public class SoDiffPatchInternal extends BasePatchInternal {
                     }
                     ShareTinkerLog.w(TAG, "success recover bsdiff file: %s, use time: %d",
                         extractedFile.getPath(), (System.currentTimeMillis() - start));
+                    if (telemetry != null) {
+                        telemetry.onPatchFileRecovered(patchFile, type, info.name, PatchTelemetryReporter.RECOVER_MODE_DIFF,
+                            extractedFile.length(), verifyStart - start, System.currentTimeMillis() - verifyStart);
+                    }
                 }
             }
 
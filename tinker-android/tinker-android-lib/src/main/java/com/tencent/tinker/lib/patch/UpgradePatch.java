@@ -18,7 +18,9 @@ package com.tencent.tinker.lib.patch;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.SystemClock;
 
+import com.tencent.tinker.lib.reporter.PatchTelemetryReporter;
 import com.tencent.tinker.lib.service.PatchResult;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.lib.util.UpgradePatchRetry;
@@ -161,12 +163,19 @@ public class UpgradePatch extends AbstractPatch {
         //copy file
         File destPatchFile = new File(patchVersionDirectory + "/" + SharePatchFileUtil.getPatchVersionFile(patchMd5));
 
+        final PatchTelemetryReporter telemetry = manager.getPatchTelemetryReporter();
         try {
+            final long copyBegin = (telemetry != null ? SystemClock.elapsedRealtime() : 0);
+            long copiedBytes = 0;
             // check md5 first
             if (!patchMd5.equals(SharePatchFileUtil.getMD5(destPatchFile))) {
                 SharePatchFileUtil.copyFileUsingStream(patchFile, destPatchFile);
+                copiedBytes = destPatchFile.length();
                 ShareTinkerLog.w(TAG, "UpgradePatch copy patch file, src file: %s size: %d, dest file: %s size:%d", patchFile.getAbsolutePath(), patchFile.length(),
-                    destPatchFile.getAbsolutePath(), destPatchFile.length());
+                    destPatchFile.getAbsolutePath(), copiedBytes);
+            }
+            if (telemetry != null) {
+                telemetry.onPatchFileCopied(destPatchFile, copiedBytes, SystemClock.elapsedRealtime() - copyBegin);
             }
         } catch (IOException e) {
             ShareTinkerLog.e(TAG, "UpgradePatch tryPatch:copy patch file fail from %s to %s", patchFile.getPath(), destPatchFile.getPath());
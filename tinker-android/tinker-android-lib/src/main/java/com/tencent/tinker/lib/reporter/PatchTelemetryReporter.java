@@ -0,0 +1,123 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.lib.reporter;
+
+import java.io.File;
+
+/**
+ * fine-grained timing of patch recovering, it is called in the :patch process.
+ *
+ * it is optional, set it by {@code Tinker.Builder.patchTelemetryReporter} or
+ * {@code Tinker.setPatchTelemetryReporter}. without a reporter nothing is measured or collected,
+ * so the patch process costs just the same as before.
+ *
+ * all cost times are in ms, every method may be called from the thread running the patch
+ * or from a dex optimizer worker thread.
+ */
+public interface PatchTelemetryReporter {
+    /**
+     * file is already recovered by a former try, only its md5 is verified
+     */
+    int RECOVER_MODE_EXIST   = 1;
+    /**
+     * file is copied from patch or base apk as it is
+     */
+    int RECOVER_MODE_EXTRACT = 2;
+    /**
+     * file is synthesized from base apk and the diff in patch
+     */
+    int RECOVER_MODE_DIFF    = 3;
+
+    /**
+     * extract store and large modify resources to temp files
+     */
+    int RES_PHASE_LARGE_FILES = 1;
+    /**
+     * merge base apk and patch entries to resources.apk
+     */
+    int RES_PHASE_MERGE       = 2;
+    /**
+     * check resources.arsc md5 of resources.apk
+     */
+    int RES_PHASE_VERIFY      = 3;
+
+    /**
+     * patch file is copied to patch version directory
+     *
+     * @param patchFile the input patch file
+     * @param bytes     size of the copied patch file, 0 if it is already there
+     * @param cost      cost time in ms
+     */
+    void onPatchFileCopied(File patchFile, long bytes, long cost);
+
+    /**
+     * one dex or library file is recovered
+     *
+     * @param patchFile    the input patch file
+     * @param fileType     {@code ShareConstants.TYPE_DEX} or {@code ShareConstants.TYPE_LIBRARY}
+     * @param name         name of the file in patch meta
+     * @param recoverMode  {@link #RECOVER_MODE_EXIST}, {@link #RECOVER_MODE_EXTRACT} or {@link #RECOVER_MODE_DIFF}
+     * @param bytes        size of the recovered file
+     * @param recoverCost  time of extracting or synthesizing the file in ms
+     * @param verifyCost   time of verifying md5 of the file in ms, -1 if it is verified while extracting
+     *                     and counted in recoverCost
+     */
+    void onPatchFileRecovered(File patchFile, int fileType, String name, int recoverMode,
+                              long bytes, long recoverCost, long verifyCost);
+
+    /**
+     * one phase of resources.apk recovering is finished
+     *
+     * @param patchFile  the input patch file
+     * @param phase      {@link #RES_PHASE_LARGE_FILES}, {@link #RES_PHASE_MERGE} or {@link #RES_PHASE_VERIFY}
+     * @param entryCount count of entries processed in the phase
+     * @param bytes      bytes written in the phase
+     * @param cost       cost time in ms
+     */
+    void onPatchResourcePhase(File patchFile, int phase, int entryCount, long bytes, long cost);
+
+    /**
+     * one dex file is optimized
+     *
+     * @param patchFile     the input patch file
+     * @param dexFile       the dex file
+     * @param optimizedFile the optimized file, null if it is failed
+     * @param success       whether dex optimizer succeeded
+     * @param cost          cost time in ms
+     */
+    void onPatchDexOpt(File patchFile, File dexFile, File optimizedFile, boolean success, long cost);
+
+    /**
+     * waiting for asynchronous dex2oat in {@code DexDiffPatchInternal.waitAndCheckDexOptFile} is finished
+     *
+     * @param patchFile    the input patch file
+     * @param waitCount    times of sleep
+     * @param allGenerated whether all optimized files are there at last
+     * @param cost         cost time in ms
+     */
+    void onPatchDexOptWait(File patchFile, int waitCount, boolean allGenerated, long cost);
+
+    /**
+     * all files of one type are recovered
+     *
+     * @param patchFile the input patch file
+     * @param fileType  {@code ShareConstants.TYPE_DEX}, {@code ShareConstants.TYPE_LIBRARY} or {@code ShareConstants.TYPE_RESOURCE}
+     * @param success   whether it is success
+     * @param cost      cost time in ms
+     */
+    void onPatchTypeRecovered(File patchFile, int fileType, boolean success, long cost);
+}
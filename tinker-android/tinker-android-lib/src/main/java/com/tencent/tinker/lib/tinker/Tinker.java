@@ -29,6 +29,7 @@ import com.tencent.tinker.lib.reporter.DefaultLoadReporter;
 import com.tencent.tinker.lib.reporter.DefaultPatchReporter;
 import com.tencent.tinker.lib.reporter.LoadReporter;
 import com.tencent.tinker.lib.reporter.PatchReporter;
+import com.tencent.tinker.lib.reporter.PatchTelemetryReporter;
 import com.tencent.tinker.lib.service.AbstractResultService;
 import com.tencent.tinker.lib.service.DefaultTinkerResultService;
 import com.tencent.tinker.lib.service.TinkerPatchService;
@@ -58,6 +59,10 @@ public class Tinker {
     final PatchListener listener;
     final LoadReporter  loadReporter;
     final PatchReporter patchReporter;
+    /**
+     * optional, null means patch recovering is not measured
+     */
+    volatile PatchTelemetryReporter patchTelemetryReporter;
     final File          patchInfoFile;
     final File          patchInfoLockFile;
     final AbstractFilePatch customPatcher;
@@ -206,6 +211,21 @@ public class Tinker {
         return patchReporter;
     }
 
+    /**
+     * @return null if no telemetry reporter is set
+     */
+    public PatchTelemetryReporter getPatchTelemetryReporter() {
+        return patchTelemetryReporter;
+    }
+
+    /**
+     * set it after {@code TinkerInstaller.install} if you do not build tinker yourself,
+     * null to stop measuring
+     */
+    public void setPatchTelemetryReporter(PatchTelemetryReporter reporter) {
+        patchTelemetryReporter = reporter;
+    }
+
     public boolean isTinkerEnabled() {
         return ShareTinkerInternals.isTinkerEnabled(tinkerFlags);
     }
@@ -329,6 +349,7 @@ public class Tinker {
         private int status = -1;
         private LoadReporter  loadReporter;
         private PatchReporter patchReporter;
+        private PatchTelemetryReporter patchTelemetryReporter;
         private PatchListener listener;
         private AbstractFilePatch patcher;
         private File          patchDirectory;
@@ -397,6 +418,17 @@ public class Tinker {
             return this;
         }
 
+        public Builder patchTelemetryReporter(PatchTelemetryReporter patchTelemetryReporter) {
+            if (patchTelemetryReporter == null) {
+                throw new TinkerRuntimeException("patchTelemetryReporter must not be null.");
+            }
+            if (this.patchTelemetryReporter != null) {
+                throw new TinkerRuntimeException("patchTelemetryReporter is already set.");
+            }
+            this.patchTelemetryReporter = patchTelemetryReporter;
+            return this;
+        }
+
         public Builder listener(PatchListener listener) {
             if (listener == null) {
                 throw new TinkerRuntimeException("listener must not be null.");
@@ -434,8 +466,10 @@ public class Tinker {
                 tinkerLoadVerifyFlag = false;
             }
 
-            return new Tinker(context, status, loadReporter, patchReporter, listener, patchDirectory,
+            final Tinker tinker = new Tinker(context, status, loadReporter, patchReporter, listener, patchDirectory,
                 patchInfoFile, patchInfoLockFile, patcher, mainProcess, patchProcess, tinkerLoadVerifyFlag);
+            tinker.patchTelemetryReporter = patchTelemetryReporter;
+            return tinker;
         }
     }
 
@@ -0,0 +1,128 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.lib.patch;
+
+import com.tencent.tinker.loader.shareutil.ShareConstants;
+import com.tencent.tinker.loader.shareutil.ShareResPatchInfo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Entries and sources of the merged resources.apk planned by {@link ResMergePlan}.
+ */
+public class ResMergePlanTest {
+
+    @Test
+    public void build_keepsBaseOrder() throws Exception {
+        final ShareResPatchInfo info = createInfo("*");
+        final List<String> baseEntries = Arrays.asList("res/z.xml", "resources.arsc", "assets/a.txt", "res/a.xml");
+
+        final List<ResMergePlan.Step> steps = ResMergePlan.build(info, baseEntries);
+
+        assertEquals(Arrays.asList("res/z.xml:1", "resources.arsc:1", "assets/a.txt:1", "res/a.xml:1",
+                ShareConstants.RES_MANIFEST + ":1"), toStrings(steps));
+    }
+
+    @Test
+    public void build_excludesReplacedEntries() throws Exception {
+        final ShareResPatchInfo info = createInfo("*");
+        info.deleteRes.add("res/deleted.xml");
+        info.modRes.add("res/mod.xml");
+        info.largeModRes.add("res/large.png");
+        final List<String> baseEntries = Arrays.asList(ShareConstants.RES_MANIFEST, "res/deleted.xml",
+                "res/kept.xml", "res/mod.xml", "res/large.png");
+
+        final List<ResMergePlan.Step> steps = ResMergePlan.build(info, baseEntries);
+
+        // Manifest is always copied from base apk, right after the kept base entries.
+        assertEquals(Arrays.asList("res/kept.xml:" + ResMergePlan.SOURCE_BASE_APK,
+                ShareConstants.RES_MANIFEST + ":" + ResMergePlan.SOURCE_BASE_APK,
+                "res/large.png:" + ResMergePlan.SOURCE_LARGE_MOD,
+                "res/mod.xml:" + ResMergePlan.SOURCE_PATCH), toStrings(steps));
+    }
+
+    @Test
+    public void build_skipsParentPathEntries() throws Exception {
+        final ShareResPatchInfo info = createInfo("*");
+        final List<String> baseEntries = Arrays.asList("../evil.xml", "res/../../evil.xml", "res/a.xml");
+
+        final List<ResMergePlan.Step> steps = ResMergePlan.build(info, baseEntries);
+
+        assertEquals(Arrays.asList("res/a.xml:1", ShareConstants.RES_MANIFEST + ":1"), toStrings(steps));
+    }
+
+    @Test
+    public void build_storesStoreEntries() throws Exception {
+        final ShareResPatchInfo info = createInfo("*");
+        info.addRes.add("res/added.xml");
+        info.addRes.add("res/added_store.png");
+        info.modRes.add(ShareConstants.RES_ARSC);
+        info.modRes.add("res/mod.xml");
+        info.storeRes.put("res/added_store.png", null);
+        info.storeRes.put(ShareConstants.RES_ARSC, null);
+
+        final List<ResMergePlan.Step> steps = ResMergePlan.build(info, new ArrayList<String>());
+
+        assertEquals(Arrays.asList(ShareConstants.RES_MANIFEST + ":" + ResMergePlan.SOURCE_BASE_APK,
+                "res/added.xml:" + ResMergePlan.SOURCE_PATCH,
+                "res/added_store.png:" + ResMergePlan.SOURCE_PATCH_STORED,
+                ShareConstants.RES_ARSC + ":" + ResMergePlan.SOURCE_PATCH_STORED,
+                "res/mod.xml:" + ResMergePlan.SOURCE_PATCH), toStrings(steps));
+    }
+
+    @Test
+    public void build_filtersBaseEntriesByPattern() throws Exception {
+        final ShareResPatchInfo info = createInfo("res/*", "resources.arsc");
+        final List<String> baseEntries = Arrays.asList("classes.dex", "res/a.xml", "resources.arsc",
+                "resourcesXarsc", "lib/armeabi/libfoo.so", "assets/a.txt");
+
+        final List<ResMergePlan.Step> steps = ResMergePlan.build(info, baseEntries);
+
+        assertEquals(Arrays.asList("res/a.xml:1", "resources.arsc:1", ShareConstants.RES_MANIFEST + ":1"),
+                toStrings(steps));
+    }
+
+    @Test
+    public void build_withoutPatternKeepsNoBaseEntry() throws Exception {
+        final ShareResPatchInfo info = createInfo();
+        final List<ResMergePlan.Step> steps = ResMergePlan.build(info, Arrays.asList("res/a.xml"));
+
+        assertEquals(Arrays.asList(ShareConstants.RES_MANIFEST + ":1"), toStrings(steps));
+    }
+
+    private static ShareResPatchInfo createInfo(String... patterns) {
+        final ShareResPatchInfo info = new ShareResPatchInfo();
+        for (String pattern : patterns) {
+            info.patternMatcher.add(pattern);
+        }
+        return info;
+    }
+
+    private static List<String> toStrings(List<ResMergePlan.Step> steps) {
+        final List<String> result = new ArrayList<>(steps.size());
+        for (ResMergePlan.Step step : steps) {
+            result.add(step.toString());
+        }
+        return result;
+    }
+}
@@ -256,4 +256,20 @@ public abstract class TinkerApplication extends Application {
     public boolean isUseInterpretModeOnSupported32BitSystem() {
         return useInterpretModeOnSupported32BitSystem;
     }
+
+    public void setInterpretDex2OatOptions(int parallelism, String compilerFilter, int threadCount) {
+        // Ignored.
+    }
+
+    public int getInterpretDex2OatParallelism() {
+        return 0;
+    }
+
+    public String getInterpretDex2OatCompilerFilter() {
+        return null;
+    }
+
+    public int getInterpretDex2OatThreadCount() {
+        return 0;
+    }
 }
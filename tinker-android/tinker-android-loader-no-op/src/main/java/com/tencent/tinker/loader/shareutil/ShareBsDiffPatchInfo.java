@@ -65,6 +65,28 @@ public class ShareBsDiffPatchInfo {
 
     }
 
+    /**
+     * parse the binary meta, see {@link ShareBinaryMeta}
+     */
+    public static void parseDiffPatchInfo(byte[] meta, ArrayList<ShareBsDiffPatchInfo> diffList) {
+        if (meta == null || meta.length == 0) {
+            return;
+        }
+        final ShareBinaryMeta reader = ShareBinaryMeta.open(meta, ShareBinaryMeta.KIND_BSDIFF);
+        for (int count = reader.readCount(); count > 0; count--) {
+            // same order as the text meta columns
+            final String name = reader.readString();
+            final String path = reader.readString();
+            final String md5 = ShareBinaryMeta.md5ToString(reader.readMd5());
+            final String rawCrc = String.valueOf(reader.readNumber());
+            final String patchMd5 = ShareBinaryMeta.md5ToString(reader.readMd5());
+
+            ShareBsDiffPatchInfo dexInfo = new ShareBsDiffPatchInfo(name, md5, path, rawCrc, patchMd5);
+            diffList.add(dexInfo);
+        }
+        reader.checkEnd();
+    }
+
     public static boolean checkDiffPatchInfo(ShareBsDiffPatchInfo info) {
         if (info == null) {
             return false;
@@ -102,6 +102,33 @@ public class ShareDexDiffPatchInfo {
 
     }
 
+    /**
+     * parse the binary meta, see {@link ShareBinaryMeta}
+     */
+    public static void parseDexDiffPatchInfo(byte[] meta, ArrayList<ShareDexDiffPatchInfo> dexList) {
+        if (meta == null || meta.length == 0) {
+            return;
+        }
+        final ShareBinaryMeta reader = ShareBinaryMeta.open(meta, ShareBinaryMeta.KIND_DEX);
+        for (int count = reader.readCount(); count > 0; count--) {
+            // same order as the text meta columns
+            final String name = reader.readString();
+            final String path = reader.readString();
+            final String destMd5InDvm = ShareBinaryMeta.md5ToString(reader.readMd5());
+            final String destMd5InArt = ShareBinaryMeta.md5ToString(reader.readMd5());
+            final String dexDiffMd5 = ShareBinaryMeta.md5ToString(reader.readMd5());
+            final String oldDexCrc = String.valueOf(reader.readNumber());
+            final String newDexCrc = String.valueOf(reader.readNumber());
+
+            final String dexMode = reader.readString();
+
+            ShareDexDiffPatchInfo dexInfo = new ShareDexDiffPatchInfo(name, path, destMd5InDvm, destMd5InArt,
+                dexDiffMd5, oldDexCrc, newDexCrc, dexMode);
+            dexList.add(dexInfo);
+        }
+        reader.checkEnd();
+    }
+
     public static boolean checkDexDiffPatchInfo(ShareDexDiffPatchInfo info) {
         if (info == null) {
             return false;
@@ -25,6 +25,7 @@ import com.tencent.tinker.loader.TinkerRuntimeException;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -384,6 +385,27 @@ public class SharePatchFileUtil {
         return sb.toString();
     }
 
+    /**
+     * read the whole entry, which is also required to verify its certificates.
+     */
+    public static byte[] loadDigestBytes(JarFile jarFile, JarEntry je) throws Exception {
+        InputStream bis = null;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try {
+            InputStream is = jarFile.getInputStream(je);
+            byte[] bytes = new byte[ShareConstants.BUFFER_SIZE];
+            bis = new BufferedInputStream(is);
+            int readBytes;
+            while ((readBytes = bis.read(bytes)) > 0) {
+                bos.write(bytes, 0, readBytes);
+            }
+        } finally {
+            closeQuietly(bis);
+        }
+        return bos.toByteArray();
+    }
+
     /**
      * Get the md5 for inputStream.
      * This method cost less memory. It read bufLen bytes from the FileInputStream once.
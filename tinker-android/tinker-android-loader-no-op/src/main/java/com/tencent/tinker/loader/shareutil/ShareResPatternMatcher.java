@@ -0,0 +1,276 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.regex.Pattern;
+
+/**
+ * Matches entry names against the resource patterns of res meta, such as "res/*",
+ * "*.png" or "resources.arsc", with the same result as the regex they used to be converted to.
+ *
+ * Plain names are kept in a hash set, "prefix*" and "*suffix" patterns in tries, so such patterns
+ * are checked in one walk of the name however many there are. Other globs are matched without
+ * regex, only patterns using regex syntax other than '?' and '*' are still compiled.
+ */
+public final class ShareResPatternMatcher implements Iterable<String> {
+    private static final String REGEX_CHARS = "\\[](){}|+^$";
+
+    private final LinkedHashSet<String> patterns = new LinkedHashSet<>();
+
+    private final HashSet<String>    names      = new HashSet<>();
+    private final Node               prefixRoot = new Node();
+    private final Node               suffixRoot = new Node();
+    private final ArrayList<char[]>  globs      = new ArrayList<>();
+    private final ArrayList<Pattern> regexes    = new ArrayList<>();
+
+    /**
+     * all patterns as regex, only for names regex '.' would treat differently from a char
+     */
+    private ArrayList<Pattern> fullRegexes = null;
+
+    public void add(String pattern) {
+        if (!patterns.add(pattern)) {
+            return;
+        }
+        fullRegexes = null;
+        if (containsAny(pattern, REGEX_CHARS)) {
+            regexes.add(Pattern.compile(convertToPatternString(pattern)));
+            return;
+        }
+        final int firstStar = pattern.indexOf('*');
+        final boolean hasQuestion = pattern.indexOf('?') >= 0;
+        if (firstStar < 0 && !hasQuestion) {
+            names.add(pattern);
+        } else if (!hasQuestion && firstStar == pattern.length() - 1) {
+            addToTrie(prefixRoot, pattern, 0, firstStar, false);
+        } else if (!hasQuestion && firstStar == 0 && pattern.indexOf('*', 1) < 0) {
+            addToTrie(suffixRoot, pattern, 1, pattern.length(), true);
+        } else {
+            globs.add(pattern.toCharArray());
+        }
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return patterns.iterator();
+    }
+
+    public boolean matches(String name) {
+        if (patterns.isEmpty()) {
+            return false;
+        }
+        if (!isPlainName(name)) {
+            return matchesFullRegex(name);
+        }
+        if (names.contains(name)) {
+            return true;
+        }
+        if (matchesPrefix(name) || matchesSuffix(name)) {
+            return true;
+        }
+        for (char[] glob : globs) {
+            if (matchesGlob(glob, name)) {
+                return true;
+            }
+        }
+        for (Pattern regex : regexes) {
+            if (regex.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesPrefix(String name) {
+        Node node = prefixRoot;
+        final int length = name.length();
+        for (int i = 0; ; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            if (i == length) {
+                return false;
+            }
+            node = node.child(name.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    private boolean matchesSuffix(String name) {
+        Node node = suffixRoot;
+        for (int i = name.length() - 1; ; i--) {
+            if (node.terminal) {
+                return true;
+            }
+            if (i < 0) {
+                return false;
+            }
+            node = node.child(name.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * '?' is any char and '*' any chars, backtracking only to the last '*'.
+     */
+    private static boolean matchesGlob(char[] glob, String name) {
+        final int length = name.length();
+        int g = 0;
+        int n = 0;
+        int starG = -1;
+        int starN = 0;
+        while (n < length) {
+            if (g < glob.length && glob[g] == '*') {
+                starG = g++;
+                starN = n;
+            } else if (g < glob.length && (glob[g] == '?' || glob[g] == name.charAt(n))) {
+                g++;
+                n++;
+            } else if (starG >= 0) {
+                g = starG + 1;
+                n = ++starN;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length && glob[g] == '*') {
+            g++;
+        }
+        return g == glob.length;
+    }
+
+    private boolean matchesFullRegex(String name) {
+        if (fullRegexes == null) {
+            final ArrayList<Pattern> compiled = new ArrayList<>(patterns.size());
+            for (String pattern : patterns) {
+                compiled.add(Pattern.compile(convertToPatternString(pattern)));
+            }
+            fullRegexes = compiled;
+        }
+        for (Pattern regex : fullRegexes) {
+            if (regex.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * regex '.' does not match line terminators and takes a surrogate pair as one char.
+     */
+    private static boolean isPlainName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'
+                || (c >= '\uD800' && c <= '\uDFFF')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAny(String input, String chars) {
+        for (int i = 0; i < input.length(); i++) {
+            if (chars.indexOf(input.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addToTrie(Node root, String pattern, int start, int end, boolean reverse) {
+        Node node = root;
+        if (reverse) {
+            for (int i = end - 1; i >= start; i--) {
+                node = node.getOrAddChild(pattern.charAt(i));
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                node = node.getOrAddChild(pattern.charAt(i));
+            }
+        }
+        node.terminal = true;
+    }
+
+    static String convertToPatternString(String input) {
+        //convert \\.
+        if (input.contains(".")) {
+            input = input.replaceAll("\\.", "\\\\.");
+        }
+        //convert ？to .
+        if (input.contains("?")) {
+            input = input.replaceAll("\\?", "\\.");
+        }
+        //convert * to.*
+        if (input.contains("*")) {
+            input = input.replace("*", ".*");
+        }
+        return input;
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS     = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[]  keys     = NO_KEYS;
+        private Node[]  children = NO_CHILDREN;
+        private boolean terminal;
+
+        Node child(char key) {
+            final char[] keys = this.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(char key) {
+            Node node = child(key);
+            if (node == null) {
+                final int size = keys.length;
+                final char[] newKeys = new char[size + 1];
+                final Node[] newChildren = new Node[size + 1];
+                System.arraycopy(keys, 0, newKeys, 0, size);
+                System.arraycopy(children, 0, newChildren, 0, size);
+                node = new Node();
+                newKeys[size] = key;
+                newChildren[size] = node;
+                keys = newKeys;
+                children = newChildren;
+            }
+            return node;
+        }
+    }
+}
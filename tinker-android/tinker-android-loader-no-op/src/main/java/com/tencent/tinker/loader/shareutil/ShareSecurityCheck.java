@@ -45,21 +45,40 @@ public class ShareSecurityCheck {
 
     private final Context                 mContext;
     private final HashMap<String, String> metaContentMap;
+    private final HashMap<String, byte[]> metaBinaryMap;
     private final HashMap<String, String> packageProperties;
 
     public ShareSecurityCheck(Context context) {
         mContext = context;
         metaContentMap = new HashMap<>();
+        metaBinaryMap = new HashMap<>();
         packageProperties = new HashMap<>();
         if (mPublicKeyMd5 == null) {
             init(mContext);
         }
     }
 
+    /**
+     * text metas, binary metas are in {@link #getMetaBinaryMap()} instead
+     */
     public HashMap<String, String> getMetaContentMap() {
         return metaContentMap;
     }
 
+    /**
+     * metas written in binary format, see {@link ShareBinaryMeta}
+     */
+    public HashMap<String, byte[]> getMetaBinaryMap() {
+        return metaBinaryMap;
+    }
+
+    /**
+     * whether the meta is in patch, no matter it is text or binary
+     */
+    public boolean containsMeta(String name) {
+        return metaContentMap.containsKey(name) || metaBinaryMap.containsKey(name);
+    }
+
     /**
      * Nullable
      *
@@ -119,7 +138,12 @@ public class ShareSecurityCheck {
                 if (!name.endsWith(ShareConstants.META_SUFFIX)) {
                     continue;
                 }
-                metaContentMap.put(name, SharePatchFileUtil.loadDigestes(jarFile, jarEntry));
+                final byte[] content = SharePatchFileUtil.loadDigestBytes(jarFile, jarEntry);
+                if (ShareBinaryMeta.isBinaryMeta(content)) {
+                    metaBinaryMap.put(name, content);
+                } else {
+                    metaContentMap.put(name, new String(content));
+                }
                 Certificate[] certs = jarEntry.getCertificates();
 
                 if (certs == null || !check(path, certs)) {
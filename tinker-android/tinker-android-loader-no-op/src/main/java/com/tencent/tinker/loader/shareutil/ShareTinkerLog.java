@@ -31,8 +31,14 @@ public class ShareTinkerLog {
     public static final int FN_LOG_PRINT_STACKTRACE = 0xFA1;
     public static final int FN_LOG_PRINT_PENDING_LOGS = 0xFA2;
 
+    private static final int ASYNC_LOG_CAPACITY = 1024;
+
     private static final Handler[] tinkerLogInlineFenceRef = {null};
 
+    private static volatile int minLogPriority = Log.VERBOSE;
+    private static final Object asyncLogBufferLock = new Object();
+    private static volatile TinkerLogRingBuffer asyncLogBuffer = null;
+
     private static final TinkerLogImp debugLog = new TinkerLogImp() {
 
         @Override
@@ -118,6 +124,68 @@ public class ShareTinkerLog {
         }
     }
 
+    /**
+     * Logs below {@code priority} are dropped before anything is recorded.
+     */
+    public static void setMinLogPriority(int priority) {
+        minLogPriority = priority;
+    }
+
+    public static int getMinLogPriority() {
+        return minLogPriority;
+    }
+
+    /**
+     * Test this before a log call whose arguments are costly to build, e.g. strings concatenated
+     * in a loop, since the filter in the log call only runs after they are built.
+     */
+    public static boolean isLoggable(int priority) {
+        return priority >= minLogPriority;
+    }
+
+    /**
+     * In async mode log calls only record format and arguments into a preallocated ring,
+     * formatting and delivering to {@link TinkerLogImp} are done on a background thread.
+     * Call {@link #flush()} before the process may die if pending logs matter.
+     */
+    public static void setAsyncLogEnabled(boolean enabled) {
+        TinkerLogRingBuffer stoppedBuffer = null;
+        synchronized (asyncLogBufferLock) {
+            final TinkerLogRingBuffer buffer = asyncLogBuffer;
+            if (enabled && buffer == null) {
+                asyncLogBuffer = new TinkerLogRingBuffer(ASYNC_LOG_CAPACITY, new TinkerLogRingBuffer.Sink() {
+                    @Override
+                    public void deliver(int what, long timestamp, String tag, Throwable thr, String fmt,
+                                        Object[] args) {
+                        deliverLog(what, timestamp, tag, thr, fmt, args);
+                    }
+                });
+            } else if (!enabled && buffer != null) {
+                asyncLogBuffer = null;
+                buffer.shutdown();
+                stoppedBuffer = buffer;
+            }
+        }
+        // Flush without holding any lock, the writer thread may need them to deliver logs.
+        if (stoppedBuffer != null) {
+            stoppedBuffer.flush();
+        }
+    }
+
+    public static boolean isAsyncLogEnabled() {
+        return asyncLogBuffer != null;
+    }
+
+    /**
+     * Wait until logs recorded in async mode so far are delivered.
+     */
+    public static void flush() {
+        final TinkerLogRingBuffer buffer = asyncLogBuffer;
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
     public static void v(final String tag, final String fmt, final Object... values) {
         printLog(Log.VERBOSE, tag, fmt, values);
     }
@@ -152,28 +220,44 @@ public class ShareTinkerLog {
     }
 
     private static void printLog(int priority, String tag, String fmt, Object... values) {
+        if (!isLoggable(priority)) {
+            return;
+        }
         final long timestamp = System.currentTimeMillis();
-        final Object[] args = {priority, timestamp, tag, fmt, values};
-        final Handler inlineFence = getInlineFence();
-        if (inlineFence != null) {
-            final Message msg = Message.obtain(inlineFence, priority, args);
-            inlineFence.handleMessage(msg);
-            msg.recycle();
+        final TinkerLogRingBuffer buffer = asyncLogBuffer;
+        if (buffer != null) {
+            buffer.publish(priority, timestamp, tag, null, fmt, values);
         } else {
-            debugLog.e(tag, "!! NO_LOG_IMPL !! Original Log: " + fmt, values);
+            deliverLog(priority, timestamp, tag, null, fmt, values);
         }
     }
 
     private static void printLog(String tag, Throwable thr, String fmt, Object... values) {
+        if (!isLoggable(Log.ERROR)) {
+            return;
+        }
         final long timestamp = System.currentTimeMillis();
-        final Object[] args = {FN_LOG_PRINT_STACKTRACE, timestamp, tag, thr, fmt, values};
+        final TinkerLogRingBuffer buffer = asyncLogBuffer;
+        if (buffer != null) {
+            buffer.publish(FN_LOG_PRINT_STACKTRACE, timestamp, tag, thr, fmt, values);
+        } else {
+            deliverLog(FN_LOG_PRINT_STACKTRACE, timestamp, tag, thr, fmt, values);
+        }
+    }
+
+    static void deliverLog(int what, long timestamp, String tag, Throwable thr, String fmt, Object[] values) {
+        final Object[] args = (what == FN_LOG_PRINT_STACKTRACE
+                ? new Object[] {what, timestamp, tag, thr, fmt, values}
+                : new Object[] {what, timestamp, tag, fmt, values});
         final Handler inlineFence = getInlineFence();
         if (inlineFence != null) {
-            final Message msg = Message.obtain(inlineFence, FN_LOG_PRINT_STACKTRACE, args);
+            final Message msg = Message.obtain(inlineFence, what, args);
             inlineFence.handleMessage(msg);
             msg.recycle();
-        } else {
+        } else if (what == FN_LOG_PRINT_STACKTRACE) {
             debugLog.printErrStackTrace(tag, thr, "!! NO_LOG_IMPL !! Original Log: " + fmt, values);
+        } else {
+            debugLog.e(tag, "!! NO_LOG_IMPL !! Original Log: " + fmt, values);
         }
     }
 
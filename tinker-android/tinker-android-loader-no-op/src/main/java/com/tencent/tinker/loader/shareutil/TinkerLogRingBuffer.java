@@ -0,0 +1,231 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated multi-producer single-consumer ring of log records.
+ *
+ * Producers only claim a slot and store references to the format string and arguments,
+ * formatting and delivery happen on a background thread through {@link Sink}, which is
+ * {@link ShareTinkerLog#deliverLog(int, long, String, Throwable, String, Object[])} in production.
+ * When the ring is full {@link #offer} returns false, {@link #publish} then drains the ring
+ * before delivering the record on the calling thread, so records are never reordered.
+ *
+ * The idle consumer parks until a producer or {@link #shutdown} unparks it, and callers of
+ * {@link #flush} wait on a monitor the consumer notifies, so nothing polls while the ring is idle.
+ */
+final class TinkerLogRingBuffer {
+    interface Sink {
+        void deliver(int what, long timestamp, String tag, Throwable thr, String fmt, Object[] args);
+    }
+
+    private final int mask;
+    private final int[] whats;
+    private final long[] timestamps;
+    private final String[] tags;
+    private final Throwable[] throwables;
+    private final String[] formats;
+    private final Object[][] values;
+    /**
+     * Slot i holds seq + 1 once record of sequence seq is completely written into it.
+     */
+    private final AtomicLongArray publishedSeqs;
+
+    private final AtomicLong writeSeq = new AtomicLong(0);
+    private volatile long readSeq = 0;
+    private volatile boolean consumerWaiting = false;
+    private volatile boolean stopped = false;
+
+    private final Object flushLock = new Object();
+    /**
+     * Guarded by flushLock, read by the consumer to skip notifying when nobody waits.
+     */
+    private volatile int flushWaiters = 0;
+
+    private final Sink sink;
+    private final Thread consumer;
+
+    TinkerLogRingBuffer(int capacity, Sink sink) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be power of 2: " + capacity);
+        }
+        mask = capacity - 1;
+        whats = new int[capacity];
+        timestamps = new long[capacity];
+        tags = new String[capacity];
+        throwables = new Throwable[capacity];
+        formats = new String[capacity];
+        values = new Object[capacity][];
+        publishedSeqs = new AtomicLongArray(capacity);
+        this.sink = sink;
+
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "tinker_log_writer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Record a log, or deliver it on the calling thread once all records before it are
+     * delivered if the ring is full or shut down.
+     */
+    void publish(int what, long timestamp, String tag, Throwable thr, String fmt, Object[] args) {
+        if (offer(what, timestamp, tag, thr, fmt, args)) {
+            return;
+        }
+        // Delivering at once would jump ahead of records still in the ring. On the writer thread
+        // itself, e.g. a log imp which logs, flush() returns at once and the record is nested.
+        flush();
+        sink.deliver(what, timestamp, tag, thr, fmt, args);
+    }
+
+    boolean offer(int what, long timestamp, String tag, Throwable thr, String fmt, Object[] args) {
+        long seq;
+        do {
+            if (stopped) {
+                return false;
+            }
+            seq = writeSeq.get();
+            if (seq - readSeq >= whats.length) {
+                return false;
+            }
+        } while (!writeSeq.compareAndSet(seq, seq + 1));
+
+        final int index = (int) (seq & mask);
+        whats[index] = what;
+        timestamps[index] = timestamp;
+        tags[index] = tag;
+        throwables[index] = thr;
+        formats[index] = fmt;
+        values[index] = args;
+        publishedSeqs.set(index, seq + 1);
+
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until all records offered before this call are delivered.
+     */
+    void flush() {
+        if (Thread.currentThread() == consumer) {
+            return;
+        }
+        final long targetSeq = writeSeq.get();
+        if (readSeq >= targetSeq) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (flushLock) {
+            ++flushWaiters;
+            try {
+                while (readSeq < targetSeq && consumer.isAlive()) {
+                    try {
+                        flushLock.wait();
+                    } catch (InterruptedException e) {
+                        // Returning early would let publish() deliver ahead of the ring.
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                --flushWaiters;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reject further records, records already in the ring are still delivered.
+     */
+    void shutdown() {
+        stopped = true;
+        LockSupport.unpark(consumer);
+    }
+
+    private boolean isEmpty() {
+        final long seq = readSeq;
+        return publishedSeqs.get((int) (seq & mask)) != seq + 1;
+    }
+
+    private void consume() {
+        try {
+            consumeUntilStopped();
+        } finally {
+            // Waiters give up once the consumer is gone.
+            notifyFlushWaiters();
+        }
+    }
+
+    private void consumeUntilStopped() {
+        while (true) {
+            if (isEmpty()) {
+                if (stopped && readSeq == writeSeq.get()) {
+                    return;
+                }
+                consumerWaiting = true;
+                // Producers publish before they check consumerWaiting, so either the record is seen
+                // here or its producer unparks us. shutdown() always unparks.
+                if (isEmpty() && !stopped) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+                continue;
+            }
+
+            final long seq = readSeq;
+            final int index = (int) (seq & mask);
+            final int what = whats[index];
+            final long timestamp = timestamps[index];
+            final String tag = tags[index];
+            final Throwable thr = throwables[index];
+            final String fmt = formats[index];
+            final Object[] args = values[index];
+            tags[index] = null;
+            throwables[index] = null;
+            formats[index] = null;
+            values[index] = null;
+            try {
+                sink.deliver(what, timestamp, tag, thr, fmt, args);
+            } catch (Throwable ignored) {
+                // A broken log imp must not stop the writer.
+            }
+            // Advance after delivering so that flush() returns only when the record is out.
+            readSeq = seq + 1;
+            if (flushWaiters > 0) {
+                notifyFlushWaiters();
+            }
+        }
+    }
+
+    private void notifyFlushWaiters() {
+        synchronized (flushLock) {
+            flushLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduling policy of optimizing a batch of dexes, free of android apis.
+ *
+ * All dexopt requests are issued up front by {@link #requestAll}, at most {@code maxConcurrency}
+ * of them at a time. Outputs generated asynchronously by the system are then waited together
+ * by {@link #awaitAll}, which polls with exponential backoff and is woken up early whenever
+ * {@link #notifyOutputChanged()} is called, e.g. from a file observer.
+ */
+public final class DexOptScheduler {
+    public interface Task {
+        /**
+         * Issue dexopt of one dex.
+         *
+         * @return false if the dex failed, it will not be waited for then.
+         */
+        boolean request();
+
+        /**
+         * @return true once the output of this dex is generated.
+         */
+        boolean isGenerated();
+    }
+
+    /**
+     * Source of time for {@link #awaitAll}, replaced in tests.
+     */
+    interface Clock {
+        long nanoTime();
+
+        /**
+         * Waits on {@code lock}, which is held by the caller, at most {@code timeoutNanos}.
+         */
+        void waitNanos(Object lock, long timeoutNanos) throws InterruptedException;
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void waitNanos(Object lock, long timeoutNanos) throws InterruptedException {
+            TimeUnit.NANOSECONDS.timedWait(lock, timeoutNanos);
+        }
+    };
+
+    private final int maxConcurrency;
+    private final long firstPollDelayMillis;
+    private final long maxPollDelayMillis;
+    private final long timeoutMillis;
+    private final Clock clock;
+
+    private final Object outputChangedLock = new Object();
+    private boolean outputChanged = false;
+
+    public DexOptScheduler(int maxConcurrency, long firstPollDelayMillis, long maxPollDelayMillis, long timeoutMillis) {
+        this(maxConcurrency, firstPollDelayMillis, maxPollDelayMillis, timeoutMillis, SYSTEM_CLOCK);
+    }
+
+    DexOptScheduler(int maxConcurrency, long firstPollDelayMillis, long maxPollDelayMillis, long timeoutMillis, Clock clock) {
+        if (maxConcurrency < 1 || firstPollDelayMillis <= 0 || maxPollDelayMillis < firstPollDelayMillis) {
+            throw new IllegalArgumentException("illegal policy, concurrency: " + maxConcurrency
+                    + ", first delay: " + firstPollDelayMillis + ", max delay: " + maxPollDelayMillis);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.firstPollDelayMillis = firstPollDelayMillis;
+        this.maxPollDelayMillis = maxPollDelayMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.clock = clock;
+    }
+
+    public static int getCoreCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Requests tasks in the given order. No further request is issued after the first failure,
+     * while requests already running are finished.
+     *
+     * @return true if all tasks are requested successfully.
+     */
+    public boolean requestAll(final List<? extends Task> tasks) {
+        final int concurrency = Math.min(maxConcurrency, tasks.size());
+        if (concurrency <= 1) {
+            for (Task task : tasks) {
+                if (!task.request()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final AtomicInteger nextIndex = new AtomicInteger(0);
+        final AtomicBoolean anyFailed = new AtomicBoolean(false);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "TinkerDexOpt-" + threadIndex.getAndIncrement());
+            }
+        });
+        try {
+            for (int i = 0; i < concurrency; ++i) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int index;
+                        while (!anyFailed.get() && (index = nextIndex.getAndIncrement()) < tasks.size()) {
+                            boolean success = false;
+                            try {
+                                success = tasks.get(index).request();
+                            } finally {
+                                if (!success) {
+                                    anyFailed.set(true);
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Requests are bounded by dex2oat itself, keep waiting.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !anyFailed.get();
+    }
+
+    /**
+     * Waits until outputs of all tasks are generated or the timeout is reached.
+     *
+     * @return tasks whose output is still not generated.
+     */
+    public <T extends Task> List<T> awaitAll(List<T> tasks) {
+        final List<T> pendingTasks = new ArrayList<>(tasks);
+        final long deadline = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long delayMillis = firstPollDelayMillis;
+        while (true) {
+            for (int i = pendingTasks.size() - 1; i >= 0; --i) {
+                if (pendingTasks.get(i).isGenerated()) {
+                    pendingTasks.remove(i);
+                }
+            }
+            final long remainMillis = TimeUnit.NANOSECONDS.toMillis(deadline - clock.nanoTime());
+            if (pendingTasks.isEmpty() || remainMillis <= 0 || Thread.currentThread().isInterrupted()) {
+                return pendingTasks;
+            }
+            if (!awaitOutputChanged(Math.min(delayMillis, remainMillis))) {
+                // Only back off when nothing happened, an event means outputs are being written.
+                delayMillis = Math.min(delayMillis << 1, maxPollDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Wake up {@link #awaitAll} to check outputs at once.
+     */
+    public void notifyOutputChanged() {
+        synchronized (outputChangedLock) {
+            outputChanged = true;
+            outputChangedLock.notifyAll();
+        }
+    }
+
+    private boolean awaitOutputChanged(long timeoutMillis) {
+        synchronized (outputChangedLock) {
+            final long deadline = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long remainNanos = deadline - clock.nanoTime();
+            while (!outputChanged && remainNanos > 0) {
+                try {
+                    clock.waitNanos(outputChangedLock, remainNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remainNanos = deadline - clock.nanoTime();
+            }
+            final boolean result = outputChanged;
+            outputChanged = false;
+            return result;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.os.Build;
 
+import com.tencent.tinker.loader.shareutil.ShareReflectUtil;
 import com.tencent.tinker.loader.shareutil.ShareTinkerInternals;
 
 import java.io.File;
@@ -78,7 +79,11 @@ final class NewClassLoaderInjector {
         final String combinedDexPath = dexPathBuilder.toString();
 
 
-        final Field nativeLibraryDirectoriesField = findField(oldPathList.getClass(), "nativeLibraryDirectories");
+        final Class<?> pathListClazz = oldPathList.getClass();
+        final Field[] pathListFields = ShareReflectUtil.findFields(pathListClazz,
+                "nativeLibraryDirectories", "definingContext");
+        final Field nativeLibraryDirectoriesField =
+                ShareReflectUtil.requireField(pathListFields[0], pathListClazz, "nativeLibraryDirectories");
         List<File> oldNativeLibraryDirectories = null;
         if (nativeLibraryDirectoriesField.getType().isArray()) {
             oldNativeLibraryDirectories = Arrays.asList((File[]) nativeLibraryDirectoriesField.get(oldPathList));
@@ -118,7 +123,7 @@ final class NewClassLoaderInjector {
         // 'EnsureSameClassLoader' mechanism which is first introduced in Android O
         // may cause exception if we replace definingContext of old classloader.
         if (forActualLoading && !ShareTinkerInternals.isNewerOrEqualThanVersion(26, true)) {
-            findField(oldPathList.getClass(), "definingContext").set(oldPathList, result);
+            ShareReflectUtil.requireField(pathListFields[1], pathListClazz, "definingContext").set(oldPathList, result);
         }
 
         return result;
@@ -128,25 +133,34 @@ final class NewClassLoaderInjector {
         Thread.currentThread().setContextClassLoader(classLoader);
 
         final Context baseContext = (Context) findField(app.getClass(), "mBase").get(app);
+        final Class<?> baseContextClazz = baseContext.getClass();
+        final Field[] baseContextFields = ShareReflectUtil.findFields(baseContextClazz, "mClassLoader", "mPackageInfo");
         try {
-            findField(baseContext.getClass(), "mClassLoader").set(baseContext, classLoader);
+            if (baseContextFields[0] != null) {
+                baseContextFields[0].set(baseContext, classLoader);
+            }
         } catch (Throwable ignored) {
             // There's no mClassLoader field in ContextImpl before Android O.
             // However we should try our best to replace this field in case some
             // customized system has one.
         }
 
-        final Object basePackageInfo = findField(baseContext.getClass(), "mPackageInfo").get(baseContext);
+        final Field mPackageInfoField =
+                ShareReflectUtil.requireField(baseContextFields[1], baseContextClazz, "mPackageInfo");
+        final Object basePackageInfo = mPackageInfoField.get(baseContext);
         findField(basePackageInfo.getClass(), "mClassLoader").set(basePackageInfo, classLoader);
 
         final Resources res = app.getResources();
+        final Field[] resFields = ShareReflectUtil.findFields(res.getClass(), "mClassLoader", "mDrawableInflater");
         try {
-            findField(res.getClass(), "mClassLoader").set(res, classLoader);
+            if (resFields[0] != null) {
+                resFields[0].set(res, classLoader);
+            }
         } catch (Throwable ignored) {
             // Ignored.
         }
         try {
-            final Object drawableInflater = findField(res.getClass(), "mDrawableInflater").get(res);
+            final Object drawableInflater = (resFields[1] != null ? resFields[1].get(res) : null);
             if (drawableInflater != null) {
                 findField(drawableInflater.getClass(), "mClassLoader").set(drawableInflater, classLoader);
             }
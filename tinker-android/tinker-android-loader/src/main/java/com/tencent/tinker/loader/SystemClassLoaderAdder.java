@@ -247,15 +247,14 @@ public class SystemClassLoaderAdder {
             ArrayList<IOException> suppressedExceptions)
             throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
 
-            Method makePathElements;
-            try {
-                makePathElements = ShareReflectUtil.findMethod(dexPathList, "makePathElements", List.class, File.class,
-                    List.class);
-            } catch (NoSuchMethodException e) {
+            final Method[] candidates = ShareReflectUtil.findMethods(dexPathList.getClass(),
+                new String[]{"makePathElements", "makePathElements"},
+                new Class<?>[][]{{List.class, File.class, List.class}, {ArrayList.class, File.class, ArrayList.class}});
+            Method makePathElements = candidates[0];
+            if (makePathElements == null) {
                 ShareTinkerLog.e(TAG, "NoSuchMethodException: makePathElements(List,File,List) failure");
-                try {
-                    makePathElements = ShareReflectUtil.findMethod(dexPathList, "makePathElements", ArrayList.class, File.class, ArrayList.class);
-                } catch (NoSuchMethodException e1) {
+                makePathElements = candidates[1];
+                if (makePathElements == null) {
                     ShareTinkerLog.e(TAG, "NoSuchMethodException: makeDexElements(ArrayList,File,ArrayList) failure");
                     try {
                         ShareTinkerLog.e(TAG, "NoSuchMethodException: try use v19 instead");
@@ -308,18 +307,18 @@ public class SystemClassLoaderAdder {
             ArrayList<IOException> suppressedExceptions)
             throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
 
-            Method makeDexElements = null;
-            try {
-                makeDexElements = ShareReflectUtil.findMethod(dexPathList, "makeDexElements", ArrayList.class, File.class,
-                    ArrayList.class);
-            } catch (NoSuchMethodException e) {
+            final Class<?> dexPathListClazz = dexPathList.getClass();
+            final Method[] candidates = ShareReflectUtil.findMethods(dexPathListClazz,
+                new String[]{"makeDexElements", "makeDexElements"},
+                new Class<?>[][]{{ArrayList.class, File.class, ArrayList.class}, {List.class, File.class, List.class}});
+            Method makeDexElements = candidates[0];
+            if (makeDexElements == null) {
                 ShareTinkerLog.e(TAG, "NoSuchMethodException: makeDexElements(ArrayList,File,ArrayList) failure");
-                try {
-                    makeDexElements = ShareReflectUtil.findMethod(dexPathList, "makeDexElements", List.class, File.class, List.class);
-                } catch (NoSuchMethodException e1) {
+                if (candidates[1] == null) {
                     ShareTinkerLog.e(TAG, "NoSuchMethodException: makeDexElements(List,File,List) failure");
-                    throw e1;
                 }
+                makeDexElements = ShareReflectUtil.requireMethod(candidates[1], dexPathListClazz, "makeDexElements",
+                    List.class, File.class, List.class);
             }
 
             return (Object[]) makeDexElements.invoke(dexPathList, files, optimizedDirectory, suppressedExceptions);
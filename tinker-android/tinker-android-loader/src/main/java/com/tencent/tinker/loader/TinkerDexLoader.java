@@ -17,6 +17,7 @@
 package com.tencent.tinker.loader;
 
 import android.content.Intent;
+import android.util.Log;
 
 import com.tencent.tinker.loader.app.TinkerApplication;
 import com.tencent.tinker.loader.shareutil.ShareConstants;
@@ -31,6 +32,8 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by zhangshaowen on 16/3/8.
@@ -100,7 +103,9 @@ public class TinkerDexLoader {
                         file.getAbsolutePath());
                     return false;
                 }
-                ShareTinkerLog.i(TAG, "verify dex file:" + file.getPath() + " md5, use time: " + (System.currentTimeMillis() - start));
+                if (ShareTinkerLog.isLoggable(Log.INFO)) {
+                    ShareTinkerLog.i(TAG, "verify dex file:" + file.getPath() + " md5, use time: " + (System.currentTimeMillis() - start));
+                }
             }
             legalFiles.add(file);
         }
@@ -155,25 +160,31 @@ public class TinkerDexLoader {
                   application, legalFiles, optimizeDir, true,
                   application.isUseDelegateLastClassLoader(), targetISA, false,
                   new TinkerDexOptimizer.ResultCallback() {
-                      long start;
+                      // dexes are optimized concurrently, each of them has its own start time.
+                      final Map<File, Long> startTimes = new ConcurrentHashMap<>();
 
                       @Override
                       public void onStart(File dexFile, File optimizedDir) {
-                          start = System.currentTimeMillis();
+                          startTimes.put(dexFile, System.currentTimeMillis());
                           ShareTinkerLog.i(TAG, "start to optimize dex:" + dexFile.getPath());
                       }
 
+                      private long getCostTime(File dexFile) {
+                          final Long start = startTimes.get(dexFile);
+                          return start != null ? System.currentTimeMillis() - start : 0;
+                      }
+
                       @Override
                       public void onSuccess(File dexFile, File optimizedDir, File optimizedFile) {
                           // Do nothing.
-                          ShareTinkerLog.i(TAG, "success to optimize dex " + dexFile.getPath() + ", use time " + (System.currentTimeMillis() - start));
+                          ShareTinkerLog.i(TAG, "success to optimize dex " + dexFile.getPath() + ", use time " + getCostTime(dexFile));
                       }
 
                       @Override
                       public void onFailed(File dexFile, File optimizedDir, Throwable thr) {
                           parallelOTAResult[0] = false;
                           parallelOTAThrowable[0] = thr;
-                          ShareTinkerLog.i(TAG, "fail to optimize dex " + dexFile.getPath() + ", use time " + (System.currentTimeMillis() - start));
+                          ShareTinkerLog.i(TAG, "fail to optimize dex " + dexFile.getPath() + ", use time " + getCostTime(dexFile));
                       }
                   }
             );
@@ -207,15 +218,20 @@ public class TinkerDexLoader {
      */
     public static boolean checkComplete(String directory, ShareSecurityCheck securityCheck, String oatDir, Intent intentResult) {
         String meta = securityCheck.getMetaContentMap().get(DEX_MEAT_FILE);
+        byte[] binaryMeta = securityCheck.getMetaBinaryMap().get(DEX_MEAT_FILE);
         //not found dex
-        if (meta == null) {
+        if (meta == null && binaryMeta == null) {
             return true;
         }
         LOAD_DEX_LIST.clear();
         classNDexInfo.clear();
 
         ArrayList<ShareDexDiffPatchInfo> allDexInfo = new ArrayList<>();
-        ShareDexDiffPatchInfo.parseDexDiffPatchInfo(meta, allDexInfo);
+        if (binaryMeta != null) {
+            ShareDexDiffPatchInfo.parseDexDiffPatchInfo(binaryMeta, allDexInfo);
+        } else {
+            ShareDexDiffPatchInfo.parseDexDiffPatchInfo(meta, allDexInfo);
+        }
 
         if (allDexInfo.isEmpty()) {
             return true;
@@ -24,6 +24,7 @@ import android.content.ContextWrapper;
 import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.Build;
+import android.os.FileObserver;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
@@ -55,8 +56,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import dalvik.system.DexFile;
 
@@ -70,6 +75,16 @@ public final class TinkerDexOptimizer {
 
     private static final String INTERPRET_LOCK_FILE_NAME = "interpret.lock";
 
+    private static final long OUTPUT_FIRST_POLL_DELAY = 1000;
+    private static final long OUTPUT_MAX_POLL_DELAY   = 16000;
+    private static final long OUTPUT_WAIT_TIMEOUT     = 63000;
+
+    /**
+     * dex2oat processes running at the same time after OTA if the app does not tune it, they
+     * compete with app start for cpu.
+     */
+    private static final int DEFAULT_INTERPRET_DEX2OAT_PARALLELISM = 2;
+
     /**
      * Optimize (trigger dexopt or dex2oat) dexes.
      *
@@ -103,16 +118,173 @@ public final class TinkerDexOptimizer {
                 }
             }
         });
+        final List<OptimizeWorker> workers = new ArrayList<>(sortList.size());
         for (File dexFile : sortList) {
-            OptimizeWorker worker = new OptimizeWorker(context, dexFile, optimizedDir, useInterpretMode,
-                  useDLC, targetISA, useEmergencyMode, cb);
-            if (!worker.run()) {
+            workers.add(new OptimizeWorker(context, dexFile, optimizedDir, useInterpretMode,
+                  useDLC, targetISA, useEmergencyMode, cb));
+        }
+
+        if (useInterpretMode) {
+            // dex2oat processes are independent from each other, run them concurrently once
+            // the batch holds interpret locks, otherwise fall back to locking dex by dex.
+            final List<ShareFileLockHelper> interpretLocks = lockInterpretDirs(workers);
+            for (OptimizeWorker worker : workers) {
+                worker.interpretLockHeld = (interpretLocks != null);
+            }
+            final int parallelism = (interpretLocks != null ? getInterpretDex2OatParallelism() : 1);
+            final int threadCount = getInterpretDex2OatThreadCount(parallelism);
+            for (OptimizeWorker worker : workers) {
+                worker.interpretThreadCount = threadCount;
+            }
+            ShareTinkerLog.i(TAG, "interpret dex2oat %d dexes, parallelism: %d, threads: %d",
+                    workers.size(), parallelism, threadCount);
+            final DexOptScheduler scheduler = new DexOptScheduler(parallelism,
+                    OUTPUT_FIRST_POLL_DELAY, OUTPUT_MAX_POLL_DELAY, OUTPUT_WAIT_TIMEOUT);
+            try {
+                return scheduler.requestAll(workers) && finishAll(workers);
+            } finally {
+                releaseInterpretLocks(interpretLocks);
+            }
+        }
+
+        // Issue requests of all dexes before waiting for any of them, the system can then
+        // compile them in one go.
+        final DexOptScheduler scheduler = new DexOptScheduler(1,
+                OUTPUT_FIRST_POLL_DELAY, OUTPUT_MAX_POLL_DELAY, OUTPUT_WAIT_TIMEOUT);
+        if (!scheduler.requestAll(workers)) {
+            return false;
+        }
+        final List<OptimizeWorker> asyncWorkers = new ArrayList<>();
+        for (OptimizeWorker worker : workers) {
+            if (worker.waitForOutput) {
+                asyncWorkers.add(worker);
+            }
+        }
+        if (!asyncWorkers.isEmpty()) {
+            final List<FileObserver> observers = observeOutputDirs(asyncWorkers, scheduler);
+            try {
+                final List<OptimizeWorker> timeoutWorkers = scheduler.awaitAll(asyncWorkers);
+                for (OptimizeWorker worker : timeoutWorkers) {
+                    ShareTinkerLog.e(TAG, "[-] File %s does not exist after waiting for %s ms.",
+                            worker.outputToWait, OUTPUT_WAIT_TIMEOUT);
+                }
+            } finally {
+                for (FileObserver observer : observers) {
+                    observer.stopWatching();
+                }
+            }
+        }
+        return finishAll(workers);
+    }
+
+    /**
+     * @return max dex2oat processes running at the same time, never more than cpu cores.
+     */
+    private static int getInterpretDex2OatParallelism() {
+        final TinkerApplication application = TinkerApplication.getInstance();
+        final int coreCount = DexOptScheduler.getCoreCount();
+        final int parallelism = application.getInterpretDex2OatParallelism();
+        if (parallelism > 0) {
+            return Math.min(parallelism, coreCount);
+        }
+        final int threadCount = application.getInterpretDex2OatThreadCount();
+        if (threadCount > 0) {
+            return Math.max(1, coreCount / threadCount);
+        }
+        return Math.min(DEFAULT_INTERPRET_DEX2OAT_PARALLELISM, coreCount);
+    }
+
+    /**
+     * Processes times threads of each process is kept within cpu cores, a configured thread
+     * count is lowered if it does not fit beside the parallelism.
+     *
+     * @return value of -j of each dex2oat process, 0 means the default of dex2oat, which uses
+     * all cores and is only fine when one dex2oat runs at a time.
+     */
+    private static int getInterpretDex2OatThreadCount(int parallelism) {
+        final int threadCount = TinkerApplication.getInstance().getInterpretDex2OatThreadCount();
+        final int maxThreadCount = Math.max(1, DexOptScheduler.getCoreCount() / parallelism);
+        if (threadCount > maxThreadCount) {
+            ShareTinkerLog.w(TAG, "interpret dex2oat threads %d lowered to %d for parallelism %d",
+                    threadCount, maxThreadCount, parallelism);
+            return maxThreadCount;
+        }
+        if (threadCount > 0 || parallelism <= 1) {
+            return threadCount;
+        }
+        return maxThreadCount;
+    }
+
+    private static boolean finishAll(List<OptimizeWorker> workers) {
+        for (OptimizeWorker worker : workers) {
+            if (!worker.finish()) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * All dex2oat processes of one batch share the interpret lock of their output dirs, which
+     * still keeps other processes from running interpret dex2oat on the same dirs meanwhile.
+     *
+     * @return null if any of the locks cannot be acquired.
+     */
+    private static List<ShareFileLockHelper> lockInterpretDirs(List<OptimizeWorker> workers) {
+        final TreeSet<File> oatDirs = new TreeSet<>();
+        for (OptimizeWorker worker : workers) {
+            oatDirs.add(new File(worker.optimizedPath).getParentFile());
+        }
+        final List<ShareFileLockHelper> locks = new ArrayList<>(oatDirs.size());
+        for (File oatDir : oatDirs) {
+            if (!oatDir.exists()) {
+                oatDir.mkdirs();
+            }
+            try {
+                locks.add(ShareFileLockHelper.getFileLock(new File(oatDir, INTERPRET_LOCK_FILE_NAME)));
+            } catch (IOException e) {
+                ShareTinkerLog.w(TAG, "get interpret lock of " + oatDir + " error", e);
+                releaseInterpretLocks(locks);
+                return null;
+            }
+        }
+        return locks;
+    }
+
+    private static void releaseInterpretLocks(List<ShareFileLockHelper> locks) {
+        if (locks == null) {
+            return;
+        }
+        for (ShareFileLockHelper lock : locks) {
+            try {
+                lock.close();
+            } catch (IOException e) {
+                ShareTinkerLog.w(TAG, "release interpret Lock error", e);
+            }
+        }
+    }
+
+    private static List<FileObserver> observeOutputDirs(List<OptimizeWorker> workers,
+                                                        final DexOptScheduler scheduler) {
+        final TreeSet<String> outputDirs = new TreeSet<>();
+        for (OptimizeWorker worker : workers) {
+            outputDirs.add(new File(worker.outputToWait).getParent());
+        }
+        final List<FileObserver> observers = new ArrayList<>(outputDirs.size());
+        for (String outputDir : outputDirs) {
+            final FileObserver observer = new FileObserver(outputDir,
+                    FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+                @Override
+                public void onEvent(int event, String path) {
+                    scheduler.notifyOutputChanged();
+                }
+            };
+            observer.startWatching();
+            observers.add(observer);
+        }
+        return observers;
+    }
+
     public interface ResultCallback {
         void onStart(File dexFile, File optimizedDir);
 
@@ -121,22 +293,41 @@ public final class TinkerDexOptimizer {
         void onFailed(File dexFile, File optimizedDir, Throwable thr);
     }
 
-    private static class OptimizeWorker {
-        private static ClassLoader patchClassLoaderStrongRef = null;
+    /**
+     * Callbacks of a worker may be invoked from worker threads of {@link DexOptScheduler}.
+     */
+    private static class OptimizeWorker implements DexOptScheduler.Task {
         private final String targetISA;
         private final Context context;
         private final File dexFile;
         private final File optimizedDir;
+        private final String optimizedPath;
         private final boolean useInterpretMode;
         private final boolean useDLC;
         private final boolean useEmergencyMode;
         private final ResultCallback callback;
 
+        /**
+         * Output generated by the system asynchronously after {@link #request()}, it is waited
+         * before {@link #finish()} if {@link #waitForOutput} is set.
+         */
+        private volatile String outputToWait = null;
+        private volatile boolean waitForOutput = false;
+        private volatile boolean interpretLockHeld = false;
+        private volatile int interpretThreadCount = 0;
+
+        /**
+         * Class loader created to trigger dex2oat of this dex, it is held until {@link #finish()}
+         * since outputs of all dexes are waited together after all of them are requested.
+         */
+        private volatile ClassLoader patchClassLoaderStrongRef = null;
+
         OptimizeWorker(Context context, File dexFile, File optimizedDir, boolean useInterpretMode,
                        boolean useDLC, String targetISA, boolean useEmergencyMode, ResultCallback cb) {
             this.context = context;
             this.dexFile = dexFile;
             this.optimizedDir = optimizedDir;
+            this.optimizedPath = SharePatchFileUtil.optimizedPathFor(dexFile, optimizedDir);
             this.useInterpretMode = useInterpretMode;
             this.useDLC = useDLC;
             this.callback = cb;
@@ -144,7 +335,8 @@ public final class TinkerDexOptimizer {
             this.useEmergencyMode = useEmergencyMode;
         }
 
-        boolean run() {
+        @Override
+        public boolean request() {
             try {
                 if (!SharePatchFileUtil.isLegalFile(dexFile)) {
                     if (callback != null) {
@@ -156,17 +348,18 @@ public final class TinkerDexOptimizer {
                 if (callback != null) {
                     callback.onStart(dexFile, optimizedDir);
                 }
-                String optimizedPath = SharePatchFileUtil.optimizedPathFor(this.dexFile, this.optimizedDir);
                 if (!ShareTinkerInternals.isArkHotRuning()) {
                     if (useInterpretMode) {
-                        interpretDex2Oat(dexFile.getAbsolutePath(), optimizedPath, targetISA);
+                        interpretDex2Oat(dexFile.getAbsolutePath(), optimizedPath, targetISA, !interpretLockHeld,
+                                interpretThreadCount);
                     } else if (TinkerApplication.getInstance().isUseInterpretModeOnSupported32BitSystem() &&
                             ShareTinkerInternals.isVersionInRange(21, 25, true) &&
                             ShareTinkerInternals.is32BitEnv()
                     ) {
                         try {
                             ShareTinkerLog.i(TAG, "dexopt with interpret mode on 32bit supported system was enabled.");
-                            interpretDex2Oat(dexFile.getAbsolutePath(), optimizedPath, targetISA);
+                            interpretDex2Oat(dexFile.getAbsolutePath(), optimizedPath, targetISA, true,
+                                    TinkerApplication.getInstance().getInterpretDex2OatThreadCount());
                         } catch (Throwable thr) {
                             ShareTinkerLog.printErrStackTrace(TAG, thr, "exception occurred on dexopt triggering.");
                         }
@@ -187,12 +380,6 @@ public final class TinkerDexOptimizer {
                                     } catch (Throwable thr) {
                                         ShareTinkerLog.printErrStackTrace(TAG, thr,
                                                 "Fail to call triggerPMDexOptAsyncOnDemand.");
-                                    } finally {
-                                        if (!useEmergencyMode) {
-                                            final String vdexPath = optimizedPath.substring(0,
-                                                    optimizedPath.lastIndexOf(ODEX_SUFFIX)) + VDEX_SUFFIX;
-                                            waitUntilFileGeneratedOrTimeout(context, vdexPath);
-                                        }
                                     }
                                 }
                             };
@@ -200,6 +387,9 @@ public final class TinkerDexOptimizer {
                                 new Thread(task, "TinkerDex2oatTrigger").start();
                             } else {
                                 task.run();
+                                outputToWait = optimizedPath.substring(0,
+                                        optimizedPath.lastIndexOf(ODEX_SUFFIX)) + VDEX_SUFFIX;
+                                waitForOutput = true;
                             }
                         } else {
                             patchClassLoaderStrongRef = NewClassLoaderInjector.triggerDex2Oat(context, optimizedDir,
@@ -209,6 +399,27 @@ public final class TinkerDexOptimizer {
                         DexFile.loadDex(dexFile.getAbsolutePath(), optimizedPath, 0);
                     }
                 }
+                return true;
+            } catch (final Throwable e) {
+                ShareTinkerLog.e(TAG, "Failed to optimize dex: " + dexFile.getAbsolutePath(), e);
+                if (callback != null) {
+                    callback.onFailed(dexFile, optimizedDir, e);
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public boolean isGenerated() {
+            return SharePatchFileUtil.isLegalFile(new File(outputToWait));
+        }
+
+        boolean finish() {
+            if (!useEmergencyMode) {
+                // Output has been waited, otherwise the trigger thread still needs the class loader.
+                patchClassLoaderStrongRef = null;
+            }
+            try {
                 final File odexFile = new File(optimizedPath);
                 if (SharePatchFileUtil.isLegalFile(odexFile) || SharePatchFileUtil.shouldAcceptEvenIfIllegal(odexFile)) {
                     if (callback != null) {
@@ -571,17 +782,19 @@ public final class TinkerDexOptimizer {
         }
     }
 
-    private static void interpretDex2Oat(String dexFilePath, String oatFilePath, String targetISA) throws Exception {
-        // add process lock for interpret mode
+    private static void interpretDex2Oat(String dexFilePath, String oatFilePath, String targetISA,
+                                         boolean lockOatDir, int threadCount) throws Exception {
         final File oatFile = new File(oatFilePath);
         if (!oatFile.exists()) {
             oatFile.getParentFile().mkdirs();
         }
 
-        File lockFile = new File(oatFile.getParentFile(), INTERPRET_LOCK_FILE_NAME);
         ShareFileLockHelper fileLock = null;
         try {
-            fileLock = ShareFileLockHelper.getFileLock(lockFile);
+            if (lockOatDir) {
+                // add process lock for interpret mode
+                fileLock = ShareFileLockHelper.getFileLock(new File(oatFile.getParentFile(), INTERPRET_LOCK_FILE_NAME));
+            }
 
             final List<String> commandAndParams = new ArrayList<>();
             commandAndParams.add("dex2oat");
@@ -595,21 +808,28 @@ public final class TinkerDexOptimizer {
             commandAndParams.add("--dex-file=" + dexFilePath);
             commandAndParams.add("--oat-file=" + oatFilePath);
             commandAndParams.add("--instruction-set=" + targetISA);
-            if (Build.VERSION.SDK_INT > 25) {
+            final TinkerApplication application = TinkerApplication.getInstance();
+            final String compilerFilter = application.getInterpretDex2OatCompilerFilter();
+            if (compilerFilter != null) {
+                commandAndParams.add("--compiler-filter=" + compilerFilter);
+            } else if (Build.VERSION.SDK_INT > 25) {
                 commandAndParams.add("--compiler-filter=quicken");
             } else {
                 commandAndParams.add("--compiler-filter=interpret-only");
             }
+            if (threadCount > 0) {
+                commandAndParams.add("-j" + threadCount);
+            }
 
             final ProcessBuilder pb = new ProcessBuilder(commandAndParams);
-            pb.redirectErrorStream(true);
             final Process dex2oatProcess = pb.start();
-            StreamConsumer.consumeInputStream(dex2oatProcess.getInputStream());
-            StreamConsumer.consumeInputStream(dex2oatProcess.getErrorStream());
+            StreamConsumer.consumeInputStream(dex2oatProcess.getInputStream(), false);
+            final Future<String> errorOutput = StreamConsumer.consumeInputStream(dex2oatProcess.getErrorStream(), true);
             try {
                 final int ret = dex2oatProcess.waitFor();
                 if (ret != 0) {
-                    throw new IOException("dex2oat works unsuccessfully, exit code: " + ret);
+                    throw new IOException("dex2oat works unsuccessfully, exit code: " + ret
+                            + ", stderr: " + StreamConsumer.getOutput(errorOutput));
                 }
             } catch (InterruptedException e) {
                 throw new IOException("dex2oat is interrupted, msg: " + e.getMessage(), e);
@@ -626,19 +846,44 @@ public final class TinkerDexOptimizer {
     }
 
     private static class StreamConsumer {
-        static final Executor STREAM_CONSUMER = Executors.newSingleThreadExecutor();
+        /**
+         * Streams of concurrent dex2oat processes must be drained at the same time, otherwise
+         * a process may block on its full pipe.
+         */
+        static final ExecutorService STREAM_CONSUMER = Executors.newCachedThreadPool();
+
+        private static final int MAX_KEPT_OUTPUT_SIZE = 4096;
+        private static final long OUTPUT_DRAIN_TIMEOUT = 1000;
 
-        static void consumeInputStream(final InputStream is) {
-            STREAM_CONSUMER.execute(new Runnable() {
+        /**
+         * @param keepOutput whether to keep the tail of output, at most {@link #MAX_KEPT_OUTPUT_SIZE} bytes.
+         * @return future of the kept output, or of an empty string if it is not kept.
+         */
+        static Future<String> consumeInputStream(final InputStream is, final boolean keepOutput) {
+            return STREAM_CONSUMER.submit(new Callable<String>() {
                 @Override
-                public void run() {
+                public String call() {
                     if (is == null) {
-                        return;
+                        return "";
                     }
                     final byte[] buffer = new byte[256];
+                    final byte[] keptOutput = new byte[keepOutput ? MAX_KEPT_OUTPUT_SIZE : 0];
+                    int keptSize = 0;
                     try {
-                        while ((is.read(buffer)) > 0) {
-                            // To satisfy checkstyle rules.
+                        int readSize;
+                        while ((readSize = is.read(buffer)) > 0) {
+                            if (!keepOutput) {
+                                continue;
+                            }
+                            if (readSize >= keptOutput.length) {
+                                System.arraycopy(buffer, readSize - keptOutput.length, keptOutput, 0, keptOutput.length);
+                                keptSize = keptOutput.length;
+                            } else {
+                                final int dropSize = Math.max(0, keptSize + readSize - keptOutput.length);
+                                System.arraycopy(keptOutput, dropSize, keptOutput, 0, keptSize - dropSize);
+                                System.arraycopy(buffer, 0, keptOutput, keptSize - dropSize, readSize);
+                                keptSize += readSize - dropSize;
+                            }
                         }
                     } catch (IOException ignored) {
                         // Ignored.
@@ -649,8 +894,18 @@ public final class TinkerDexOptimizer {
                             // Ignored.
                         }
                     }
+                    return new String(keptOutput, 0, keptSize);
                 }
             });
         }
+
+        static String getOutput(Future<String> output) {
+            try {
+                // The stream ends once the process exits, so it does not take long.
+                return output.get(OUTPUT_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (Throwable thr) {
+                return "<unavailable: " + thr + ">";
+            }
+        }
     }
 }
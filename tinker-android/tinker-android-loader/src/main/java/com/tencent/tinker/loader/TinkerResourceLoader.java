@@ -88,12 +88,17 @@ public class TinkerResourceLoader {
      */
     public static boolean checkComplete(Context context, String directory, ShareSecurityCheck securityCheck, Intent intentResult) {
         String meta = securityCheck.getMetaContentMap().get(RESOURCE_META_FILE);
+        byte[] binaryMeta = securityCheck.getMetaBinaryMap().get(RESOURCE_META_FILE);
         //not found resource
-        if (meta == null) {
+        if (meta == null && binaryMeta == null) {
             return true;
         }
         //only parse first line for faster
-        ShareResPatchInfo.parseResPatchInfoFirstLine(meta, resPatchInfo);
+        if (binaryMeta != null) {
+            ShareResPatchInfo.parseResPatchInfoFirstLine(binaryMeta, resPatchInfo);
+        } else {
+            ShareResPatchInfo.parseResPatchInfoFirstLine(meta, resPatchInfo);
+        }
 
         if (resPatchInfo.resArscMd5 == null) {
             return true;
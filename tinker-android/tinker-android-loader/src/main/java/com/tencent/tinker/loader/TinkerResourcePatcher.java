@@ -20,7 +20,11 @@ import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.KITKAT;
 import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.findConstructor;
 import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.findField;
+import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.findFields;
 import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.findMethod;
+import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.findMethods;
+import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.requireField;
+import static com.tencent.tinker.loader.shareutil.ShareReflectUtil.requireMethod;
 
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
@@ -103,9 +107,11 @@ class TinkerResourcePatcher {
         }
 
         resDir = findField(loadedApkClass, "mResDir");
-        packagesFiled = findField(activityThread, "mPackages");
+        final Field[] activityThreadFields = findFields(activityThread,
+                "mPackages", "mResourcePackages", "mActiveResources");
+        packagesFiled = requireField(activityThreadFields[0], activityThread, "mPackages");
         try {
-            resourcePackagesFiled = findField(activityThread, "mResourcePackages");
+            resourcePackagesFiled = requireField(activityThreadFields[1], activityThread, "mResourcePackages");
         } catch (Throwable thr) {
             ShareTinkerLog.printErrStackTrace(TAG, thr, "Fail to get mResourcePackages field.");
             resourcePackagesFiled = null;
@@ -113,19 +119,25 @@ class TinkerResourcePatcher {
 
         // Create a new AssetManager instance and point it to the resources
         final AssetManager assets = context.getAssets();
-        addAssetPathMethod = findMethod(assets, "addAssetPath", String.class);
+        final Class<?> assetsClazz = assets.getClass();
+        final Method[] assetsMethods = findMethods(assetsClazz,
+                new String[]{"addAssetPath", "addAssetPathAsSharedLibrary", "ensureStringBlocks"},
+                new Class<?>[][]{{String.class}, {String.class}, {}});
+        addAssetPathMethod = requireMethod(assetsMethods[0], assetsClazz, "addAssetPath", String.class);
         if (shouldAddSharedLibraryAssets(context.getApplicationInfo())) {
             addAssetPathAsSharedLibraryMethod =
-                    findMethod(assets, "addAssetPathAsSharedLibrary", String.class);
+                    requireMethod(assetsMethods[1], assetsClazz, "addAssetPathAsSharedLibrary", String.class);
         }
 
         // Kitkat needs this method call, Lollipop doesn't. However, it doesn't seem to cause any harm
         // in L, so we do it unconditionally.
-        try {
-            stringBlocksField = findField(assets, "mStringBlocks");
-            ensureStringBlocksMethod = findMethod(assets, "ensureStringBlocks");
-        } catch (Throwable ignored) {
-            // Ignored.
+        if (assetsMethods[2] != null) {
+            try {
+                stringBlocksField = findField(assets, "mStringBlocks");
+                ensureStringBlocksMethod = assetsMethods[2];
+            } catch (Throwable ignored) {
+                // Ignored.
+            }
         }
 
         // Use class fetched from instance to avoid some ROMs that use customized AssetManager
@@ -139,25 +151,28 @@ class TinkerResourcePatcher {
             final Class<?> resourcesManagerClass = Class.forName("android.app.ResourcesManager");
             final Method mGetInstance = findMethod(resourcesManagerClass, "getInstance");
             final Object resourcesManager = mGetInstance.invoke(null);
-            try {
-                Field fMActiveResources = findField(resourcesManagerClass, "mActiveResources");
+            final Field[] resourcesManagerFields = findFields(resourcesManagerClass,
+                    "mActiveResources", "mResourceReferences", "mResourceImpls");
+            if (resourcesManagerFields[0] != null) {
                 final ArrayMap<?, WeakReference<Resources>> activeResources19 =
-                        (ArrayMap<?, WeakReference<Resources>>) fMActiveResources.get(resourcesManager);
+                        (ArrayMap<?, WeakReference<Resources>>) resourcesManagerFields[0].get(resourcesManager);
                 references = activeResources19.values();
-            } catch (NoSuchFieldException ignore) {
+            } else {
                 // N moved the resources to mResourceReferences
-                final Field mResourceReferences = findField(resourcesManagerClass, "mResourceReferences");
+                final Field mResourceReferences =
+                        requireField(resourcesManagerFields[1], resourcesManagerClass, "mResourceReferences");
                 references = (Collection<WeakReference<Resources>>) mResourceReferences.get(resourcesManager);
 
                 try {
-                    final Field mResourceImplsField = findField(resourcesManagerClass, "mResourceImpls");
+                    final Field mResourceImplsField =
+                            requireField(resourcesManagerFields[2], resourcesManagerClass, "mResourceImpls");
                     resourceImpls = (Map<Object, WeakReference<Object>>) mResourceImplsField.get(resourcesManager);
                 } catch (Throwable ignored) {
                     resourceImpls = null;
                 }
             }
         } else {
-            final Field fMActiveResources = findField(activityThread, "mActiveResources");
+            final Field fMActiveResources = requireField(activityThreadFields[2], activityThread, "mActiveResources");
             final HashMap<?, WeakReference<Resources>> activeResources7 =
                     (HashMap<?, WeakReference<Resources>>) fMActiveResources.get(currentActivityThread);
             references = activeResources7.values();
@@ -168,19 +183,17 @@ class TinkerResourcePatcher {
         }
 
         final Resources resources = context.getResources();
+        final Class<?> resourcesClazz = resources.getClass();
+        final Field[] resourcesFields = findFields(resourcesClazz, "mResourcesImpl", "mAssets");
 
         // fix jianGuo pro has private field 'mAssets' with Resource
         // try use mResourcesImpl first
-        if (SDK_INT >= 24) {
-            try {
-                // N moved the mAssets inside an mResourcesImpl field
-                resourcesImplFiled = findField(resources, "mResourcesImpl");
-            } catch (Throwable ignore) {
-                // for safety
-                assetsFiled = findField(resources, "mAssets");
-            }
+        if (SDK_INT >= 24 && resourcesFields[0] != null) {
+            // N moved the mAssets inside an mResourcesImpl field
+            resourcesImplFiled = resourcesFields[0];
         } else {
-            assetsFiled = findField(resources, "mAssets");
+            // for safety
+            assetsFiled = requireField(resourcesFields[1], resourcesClazz, "mAssets");
         }
 
         try {
@@ -52,12 +52,17 @@ public class TinkerSoLoader {
      */
     public static boolean checkComplete(String directory, ShareSecurityCheck securityCheck, Intent intentResult) {
         String meta = securityCheck.getMetaContentMap().get(SO_MEAT_FILE);
+        byte[] binaryMeta = securityCheck.getMetaBinaryMap().get(SO_MEAT_FILE);
         //not found lib
-        if (meta == null) {
+        if (meta == null && binaryMeta == null) {
             return true;
         }
         ArrayList<ShareBsDiffPatchInfo> libraryList = new ArrayList<>();
-        ShareBsDiffPatchInfo.parseDiffPatchInfo(meta, libraryList);
+        if (binaryMeta != null) {
+            ShareBsDiffPatchInfo.parseDiffPatchInfo(binaryMeta, libraryList);
+        } else {
+            ShareBsDiffPatchInfo.parseDiffPatchInfo(meta, libraryList);
+        }
 
         if (libraryList.isEmpty()) {
             return true;
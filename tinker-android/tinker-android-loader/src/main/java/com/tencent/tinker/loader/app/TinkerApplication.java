@@ -76,6 +76,14 @@ public abstract class TinkerApplication extends Application {
     private final boolean useDelegateLastClassLoader;
     private final boolean useInterpretModeOnSupported32BitSystem;
 
+    /**
+     * options of dex2oat forked in interpret mode after system OTA, see
+     * {@link #setInterpretDex2OatOptions(int, String, int)}
+     */
+    private volatile int interpretDex2OatParallelism = 0;
+    private volatile String interpretDex2OatCompilerFilter = null;
+    private volatile int interpretDex2OatThreadCount = 0;
+
     protected TinkerApplication(int tinkerFlags) {
         this(tinkerFlags, "com.tencent.tinker.entry.DefaultApplicationLike");
     }
@@ -315,4 +323,36 @@ public abstract class TinkerApplication extends Application {
     public boolean isUseInterpretModeOnSupported32BitSystem() {
         return useInterpretModeOnSupported32BitSystem;
     }
+
+    /**
+     * Tune dex2oat processes forked in interpret mode after system OTA, must be called before
+     * patch is loaded, e.g. in constructor of subclass. Parallelism times threadCount is kept
+     * within cpu core count, parallelism first.
+     *
+     * @param parallelism    max dex2oat processes running at the same time, at most cpu core count.
+     *                       0 means cpu core count divided by threadCount, or at most 2 if
+     *                       threadCount is 0 too.
+     * @param compilerFilter value of --compiler-filter, null means quicken, or interpret-only
+     *                       before Android O.
+     * @param threadCount    value of -j of each dex2oat process, at most cpu core count divided by
+     *                       parallelism. 0 means just that, or the default of dex2oat if they run
+     *                       one at a time.
+     */
+    public void setInterpretDex2OatOptions(int parallelism, String compilerFilter, int threadCount) {
+        this.interpretDex2OatParallelism = parallelism;
+        this.interpretDex2OatCompilerFilter = compilerFilter;
+        this.interpretDex2OatThreadCount = threadCount;
+    }
+
+    public int getInterpretDex2OatParallelism() {
+        return interpretDex2OatParallelism;
+    }
+
+    public String getInterpretDex2OatCompilerFilter() {
+        return interpretDex2OatCompilerFilter;
+    }
+
+    public int getInterpretDex2OatThreadCount() {
+        return interpretDex2OatThreadCount;
+    }
 }
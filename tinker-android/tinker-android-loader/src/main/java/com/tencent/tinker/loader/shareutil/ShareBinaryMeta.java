@@ -0,0 +1,164 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import com.tencent.tinker.loader.TinkerRuntimeException;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reader of binary dex, library and resource metas, written by the patch builder
+ * when binaryMeta is enabled. Text metas of old patches are still parsed as they were.
+ *
+ * All numbers are big endian, a meta begins with magic, version and kind. Fields have no type tag,
+ * callers read them in the order of their kind: a string is u16 length and utf-8 bytes, a number
+ * is i64, and md5 is u8 length followed by 16 raw bytes, or no byte for "0" of text metas.
+ */
+public final class ShareBinaryMeta {
+    public static final int KIND_DEX    = 1;
+    public static final int KIND_BSDIFF = 2;
+    public static final int KIND_RES    = 3;
+
+    public static final int MD5_BYTES = 16;
+
+    private static final byte[] MAGIC   = {0, 'T', 'K', 'M'};
+    private static final int    VERSION = 1;
+
+    private static final Charset UTF_8      = Charset.forName("UTF-8");
+    private static final char[]  HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] data;
+    private int position;
+
+    private ShareBinaryMeta(byte[] data, int position) {
+        this.data = data;
+        this.position = position;
+    }
+
+    /**
+     * text metas never contain the leading zero byte of magic.
+     */
+    public static boolean isBinaryMeta(byte[] data) {
+        if (data == null || data.length < MAGIC.length + 2) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static ShareBinaryMeta open(byte[] data, int kind) {
+        if (!isBinaryMeta(data)) {
+            throw new TinkerRuntimeException("binary meta corrupted, bad magic");
+        }
+        final int version = data[MAGIC.length] & 0xff;
+        final int actualKind = data[MAGIC.length + 1] & 0xff;
+        if (version != VERSION || actualKind != kind) {
+            throw new TinkerRuntimeException("binary meta mismatch, version: " + version + ", kind: " + actualKind
+                + ", expect kind: " + kind);
+        }
+        return new ShareBinaryMeta(data, MAGIC.length + 2);
+    }
+
+    /**
+     * md5 string of patch infos, "0" stands for no md5 like it does in text metas.
+     */
+    public static String md5ToString(byte[] md5) {
+        if (md5 == null) {
+            return "0";
+        }
+        final char[] hex = new char[md5.length << 1];
+        for (int i = 0; i < md5.length; i++) {
+            final int b = md5[i] & 0xff;
+            hex[i << 1] = HEX_DIGITS[b >>> 4];
+            hex[(i << 1) + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    public int readCount() {
+        final int count = readInt();
+        if (count < 0) {
+            throw new TinkerRuntimeException("binary meta corrupted, count: " + count);
+        }
+        return count;
+    }
+
+    public String readString() {
+        final int length = (readByte() << 8) | readByte();
+        ensureAvailable(length);
+        final String value = new String(data, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    public long readNumber() {
+        final long high = readInt() & 0xffffffffL;
+        final long low = readInt() & 0xffffffffL;
+        return (high << 32) | low;
+    }
+
+    /**
+     * @return 16 raw bytes of md5, or null if there is no md5
+     */
+    public byte[] readMd5() {
+        final int length = readByte();
+        if (length == 0) {
+            return null;
+        }
+        if (length != MD5_BYTES) {
+            throw new TinkerRuntimeException("binary meta corrupted, md5 length: " + length + " at " + (position - 1));
+        }
+        ensureAvailable(MD5_BYTES);
+        final byte[] md5 = new byte[MD5_BYTES];
+        System.arraycopy(data, position, md5, 0, MD5_BYTES);
+        position += MD5_BYTES;
+        return md5;
+    }
+
+    /**
+     * a meta that is read completely must end here.
+     */
+    public void checkEnd() {
+        if (position != data.length) {
+            throw new TinkerRuntimeException("binary meta corrupted, " + (data.length - position)
+                + " bytes left at " + position);
+        }
+    }
+
+    private int readInt() {
+        ensureAvailable(4);
+        final int value = ((data[position] & 0xff) << 24) | ((data[position + 1] & 0xff) << 16)
+            | ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+        position += 4;
+        return value;
+    }
+
+    private int readByte() {
+        ensureAvailable(1);
+        return data[position++] & 0xff;
+    }
+
+    private void ensureAvailable(int size) {
+        if (size > data.length - position) {
+            throw new TinkerRuntimeException("binary meta corrupted, truncated at " + position);
+        }
+    }
+}
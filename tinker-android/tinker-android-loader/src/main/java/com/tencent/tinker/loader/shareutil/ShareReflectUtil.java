@@ -23,11 +23,31 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by zhangshaowen on 16/8/22.
  */
 public class ShareReflectUtil {
+    private static final int MEMBER_KIND_FIELD = 0;
+    private static final int MEMBER_KIND_METHOD = 1;
+    private static final int MEMBER_KIND_CONSTRUCTOR = 2;
+
+    /**
+     * Placeholder of members which cannot be located, so that failed lookups are not repeated.
+     */
+    private static final Object MEMBER_NOT_FOUND = new Object();
+
+    /**
+     * Class loader of framework classes, null on JVM and BootClassLoader on ART.
+     */
+    private static final ClassLoader BOOT_CLASS_LOADER = Object.class.getClassLoader();
+
+    /**
+     * Lookup results of framework classes only. They are never unloaded, so keeping them
+     * here does not pin any class loader of app or patch.
+     */
+    private static final ConcurrentHashMap<MemberKey, Object> sMemberCache = new ConcurrentHashMap<>();
 
     /**
      * Locates a given field anywhere in the class inheritance hierarchy.
@@ -38,24 +58,52 @@ public class ShareReflectUtil {
      * @throws NoSuchFieldException if the field cannot be located
      */
     public static Field findField(Object instance, String name) throws NoSuchFieldException {
-        for (Class<?> clazz = instance.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
-            try {
-                Field field = clazz.getDeclaredField(name);
+        return findField(instance.getClass(), name);
+    }
 
-                if (!field.isAccessible()) {
-                    field.setAccessible(true);
-                }
+    public static Field findField(Class<?> originClazz, String name) throws NoSuchFieldException {
+        return requireField(lookupField(originClazz, name), originClazz, name);
+    }
 
-                return field;
-            } catch (NoSuchFieldException e) {
-                // ignore and search next
-            }
+    /**
+     * Locates several fields anywhere in the class inheritance hierarchy, each of them is looked up
+     * by name like {@link #findField(Class, String)}, without enumerating members of the classes.
+     *
+     * @param originClazz a class to search the fields into.
+     * @param names       field names
+     * @return field objects in the same order as {@code names}, an element is null if
+     * related field cannot be located
+     */
+    public static Field[] findFields(Class<?> originClazz, String... names) {
+        final Field[] result = new Field[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            result[i] = lookupField(originClazz, names[i]);
         }
+        return result;
+    }
 
-        throw new NoSuchFieldException("Field " + name + " not found in " + instance.getClass());
+    /**
+     * Returns a field located by {@link #findFields(Class, String...)}, or throws as
+     * {@link #findField(Class, String)} does if it cannot be located.
+     */
+    public static Field requireField(Field field, Class<?> originClazz, String name) throws NoSuchFieldException {
+        if (field == null) {
+            throw new NoSuchFieldException("Field " + name + " not found in " + originClazz);
+        }
+        return field;
     }
 
-    public static Field findField(Class<?> originClazz, String name) throws NoSuchFieldException {
+    private static Field lookupField(Class<?> originClazz, String name) {
+        final boolean cacheable = isFrameworkClass(originClazz, null);
+        MemberKey key = null;
+        if (cacheable) {
+            key = new MemberKey(MEMBER_KIND_FIELD, originClazz, name, null);
+            final Object cached = sMemberCache.get(key);
+            if (cached != null) {
+                return (cached instanceof Field ? (Field) cached : null);
+            }
+        }
+        Field result = null;
         for (Class<?> clazz = originClazz; clazz != null; clazz = clazz.getSuperclass()) {
             try {
                 Field field = clazz.getDeclaredField(name);
@@ -64,13 +112,16 @@ public class ShareReflectUtil {
                     field.setAccessible(true);
                 }
 
-                return field;
+                result = field;
+                break;
             } catch (NoSuchFieldException e) {
                 // ignore and search next
             }
         }
-
-        throw new NoSuchFieldException("Field " + name + " not found in " + originClazz);
+        if (cacheable) {
+            sMemberCache.put(key, result != null ? result : MEMBER_NOT_FOUND);
+        }
+        return result;
     }
 
     /**
@@ -84,39 +135,73 @@ public class ShareReflectUtil {
      */
     public static Method findMethod(Object instance, String name, Class<?>... parameterTypes)
         throws NoSuchMethodException {
-        for (Class<?> clazz = instance.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
-            try {
-                Method method = clazz.getDeclaredMethod(name, parameterTypes);
-
-                if (!method.isAccessible()) {
-                    method.setAccessible(true);
-                }
-
-                return method;
-            } catch (NoSuchMethodException e) {
-                // ignore and search next
-            }
-        }
-
-        throw new NoSuchMethodException("Method "
-            + name
-            + " with parameters "
-            + Arrays.asList(parameterTypes)
-            + " not found in " + instance.getClass());
+        return findMethod(instance.getClass(), name, parameterTypes);
     }
 
     /**
      * Locates a given method anywhere in the class inheritance hierarchy.
      *
-     * @param clazz          a class to search the method into.
+     * @param originClazz    a class to search the method into.
      * @param name           method name
      * @param parameterTypes method parameter types
      * @return a method object
      * @throws NoSuchMethodException if the method cannot be located
      */
-    public static Method findMethod(Class<?> clazz, String name, Class<?>... parameterTypes)
+    public static Method findMethod(Class<?> originClazz, String name, Class<?>... parameterTypes)
             throws NoSuchMethodException {
-        for (; clazz != null; clazz = clazz.getSuperclass()) {
+        return requireMethod(lookupMethod(originClazz, name, parameterTypes), originClazz, name, parameterTypes);
+    }
+
+    /**
+     * Locates several methods anywhere in the class inheritance hierarchy, each of them is looked up
+     * by signature like {@link #findMethod(Class, String, Class[])}, without enumerating members
+     * of the classes.
+     *
+     * @param originClazz    a class to search the methods into.
+     * @param names          method names
+     * @param parameterTypes parameter types of each method
+     * @return method objects in the same order as {@code names}, an element is null if
+     * related method cannot be located
+     */
+    public static Method[] findMethods(Class<?> originClazz, String[] names, Class<?>[][] parameterTypes) {
+        if (names.length != parameterTypes.length) {
+            throw new IllegalArgumentException("names and parameterTypes have different length.");
+        }
+        final Method[] result = new Method[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            result[i] = lookupMethod(originClazz, names[i], parameterTypes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a method located by {@link #findMethods(Class, String[], Class[][])}, or throws as
+     * {@link #findMethod(Class, String, Class[])} does if it cannot be located.
+     */
+    public static Method requireMethod(Method method, Class<?> originClazz, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        if (method == null) {
+            throw new NoSuchMethodException("Method "
+                    + name
+                    + " with parameters "
+                    + Arrays.asList(parameterTypes)
+                    + " not found in " + originClazz);
+        }
+        return method;
+    }
+
+    private static Method lookupMethod(Class<?> originClazz, String name, Class<?>[] parameterTypes) {
+        final boolean cacheable = isFrameworkClass(originClazz, parameterTypes);
+        MemberKey key = null;
+        if (cacheable) {
+            key = new MemberKey(MEMBER_KIND_METHOD, originClazz, name, parameterTypes);
+            final Object cached = sMemberCache.get(key);
+            if (cached != null) {
+                return (cached instanceof Method ? (Method) cached : null);
+            }
+        }
+        Method result = null;
+        for (Class<?> clazz = originClazz; clazz != null; clazz = clazz.getSuperclass()) {
             try {
                 Method method = clazz.getDeclaredMethod(name, parameterTypes);
 
@@ -124,17 +209,16 @@ public class ShareReflectUtil {
                     method.setAccessible(true);
                 }
 
-                return method;
+                result = method;
+                break;
             } catch (NoSuchMethodException e) {
                 // ignore and search next
             }
         }
-
-        throw new NoSuchMethodException("Method "
-                + name
-                + " with parameters "
-                + Arrays.asList(parameterTypes)
-                + " not found in " + clazz);
+        if (cacheable) {
+            sMemberCache.put(key.copyForStore(), result != null ? result : MEMBER_NOT_FOUND);
+        }
+        return result;
     }
 
     /**
@@ -160,17 +244,37 @@ public class ShareReflectUtil {
      */
     public static Constructor<?> findConstructor(Class<?> clazz, Class<?>... parameterTypes)
             throws NoSuchMethodException {
-        for (Class<?> currClazz = clazz; currClazz != null; currClazz = currClazz.getSuperclass()) {
-            try {
-                Constructor<?> ctor = currClazz.getDeclaredConstructor(parameterTypes);
-
-                if (!ctor.isAccessible()) {
-                    ctor.setAccessible(true);
+        final boolean cacheable = isFrameworkClass(clazz, parameterTypes);
+        MemberKey key = null;
+        Object cached = null;
+        if (cacheable) {
+            key = new MemberKey(MEMBER_KIND_CONSTRUCTOR, clazz, null, parameterTypes);
+            cached = sMemberCache.get(key);
+            if (cached instanceof Constructor) {
+                return (Constructor<?>) cached;
+            }
+        }
+        if (cached == null) {
+            Constructor<?> result = null;
+            for (Class<?> currClazz = clazz; currClazz != null; currClazz = currClazz.getSuperclass()) {
+                try {
+                    Constructor<?> ctor = currClazz.getDeclaredConstructor(parameterTypes);
+
+                    if (!ctor.isAccessible()) {
+                        ctor.setAccessible(true);
+                    }
+
+                    result = ctor;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // ignore and search next
                 }
-
-                return ctor;
-            } catch (NoSuchMethodException e) {
-                // ignore and search next
+            }
+            if (cacheable) {
+                sMemberCache.put(key.copyForStore(), result != null ? result : MEMBER_NOT_FOUND);
+            }
+            if (result != null) {
+                return result;
             }
         }
 
@@ -180,6 +284,31 @@ public class ShareReflectUtil {
                 + " not found in " + clazz);
     }
 
+    /**
+     * Whether the class and parameter types all come from the boot class loader.
+     */
+    private static boolean isFrameworkClass(Class<?> clazz, Class<?>[] parameterTypes) {
+        if (!isBootClass(clazz)) {
+            return false;
+        }
+        if (parameterTypes != null) {
+            for (Class<?> parameterType : parameterTypes) {
+                if (!isBootClass(parameterType)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBootClass(Class<?> clazz) {
+        if (clazz.isPrimitive()) {
+            return true;
+        }
+        final ClassLoader loader = clazz.getClassLoader();
+        return loader == null || loader == BOOT_CLASS_LOADER;
+    }
+
     /**
      * Replace the value of a field containing a non null array, by a new array containing the
      * elements of the original array plus the elements of extraElements.
@@ -273,4 +402,53 @@ public class ShareReflectUtil {
             return defVal;
         }
     }
+
+    private static final class MemberKey {
+        final int kind;
+        final Class<?> clazz;
+        final String name;
+        final Class<?>[] parameterTypes;
+        final int hashCode;
+
+        MemberKey(int kind, Class<?> clazz, String name, Class<?>[] parameterTypes) {
+            this.kind = kind;
+            this.clazz = clazz;
+            this.name = name;
+            this.parameterTypes = parameterTypes;
+            int hash = 31 * kind + clazz.hashCode();
+            hash = 31 * hash + (name != null ? name.hashCode() : 0);
+            hash = 31 * hash + Arrays.hashCode(parameterTypes);
+            this.hashCode = hash;
+        }
+
+        /**
+         * Callers may reuse their parameter type arrays, keys kept in cache own a copy.
+         */
+        MemberKey copyForStore() {
+            if (parameterTypes == null || parameterTypes.length == 0) {
+                return this;
+            }
+            return new MemberKey(kind, clazz, name, parameterTypes.clone());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MemberKey)) {
+                return false;
+            }
+            final MemberKey other = (MemberKey) obj;
+            return kind == other.kind
+                    && clazz == other.clazz
+                    && (name != null ? name.equals(other.name) : other.name == null)
+                    && Arrays.equals(parameterTypes, other.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
@@ -41,8 +41,14 @@ public class ShareResPatchInfo {
     public ArrayList<String>              largeModRes = new ArrayList<>();
     public HashMap<String, LargeModeInfo> largeModMap = new HashMap<>();
 
+    /**
+     * @deprecated use {@link #patternMatcher} to match entry names, it gives the same result without regex.
+     */
+    @Deprecated
     public HashSet<Pattern> patterns = new HashSet<>();
 
+    public ShareResPatternMatcher patternMatcher = new ShareResPatternMatcher();
+
     public static void parseAllResPatchInfo(String meta, ShareResPatchInfo info) {
         if (meta == null || meta.length() == 0) {
             return;
@@ -61,7 +67,7 @@ public class ShareResPatchInfo {
                 final String[] kv = line.split(":", 2);
                 int size = Integer.parseInt(kv[1]);
                 for (; size > 0; size--) {
-                    info.patterns.add(convertToPatternString(lines[i + 1]));
+                    info.addPattern(lines[i + 1]);
                     i++;
                 }
             } else if (line.startsWith(ShareConstants.RES_ADD_TITLE)) {
@@ -111,6 +117,57 @@ public class ShareResPatchInfo {
 
     }
 
+    /**
+     * parse the binary meta, see {@link ShareBinaryMeta}
+     */
+    public static void parseAllResPatchInfo(byte[] meta, ShareResPatchInfo info) {
+        if (meta == null || meta.length == 0) {
+            return;
+        }
+        final ShareBinaryMeta reader = ShareBinaryMeta.open(meta, ShareBinaryMeta.KIND_RES);
+        info.arscBaseCrc = String.valueOf(reader.readNumber());
+        info.resArscMd5 = ShareBinaryMeta.md5ToString(reader.readMd5());
+        for (int size = reader.readCount(); size > 0; size--) {
+            info.addPattern(reader.readString());
+        }
+        for (int size = reader.readCount(); size > 0; size--) {
+            info.addRes.add(reader.readString());
+        }
+        for (int size = reader.readCount(); size > 0; size--) {
+            info.modRes.add(reader.readString());
+        }
+        for (int size = reader.readCount(); size > 0; size--) {
+            String name = reader.readString();
+            LargeModeInfo largeModeInfo = new LargeModeInfo();
+            largeModeInfo.md5 = ShareBinaryMeta.md5ToString(reader.readMd5());
+            largeModeInfo.crc = reader.readNumber();
+            info.largeModRes.add(name);
+            info.largeModMap.put(name, largeModeInfo);
+        }
+        for (int size = reader.readCount(); size > 0; size--) {
+            info.deleteRes.add(reader.readString());
+        }
+        for (int size = reader.readCount(); size > 0; size--) {
+            info.storeRes.put(reader.readString(), null);
+        }
+        reader.checkEnd();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void addPattern(String pattern) {
+        patterns.add(Pattern.compile(ShareResPatternMatcher.convertToPatternString(pattern)));
+        patternMatcher.add(pattern);
+    }
+
+    public static boolean checkFileInPattern(ShareResPatternMatcher patterns, String key) {
+        return patterns.matches(key);
+    }
+
+    /**
+     * @deprecated use {@link #checkFileInPattern(ShareResPatternMatcher, String)} with
+     * {@link #patternMatcher} instead.
+     */
+    @Deprecated
     public static boolean checkFileInPattern(HashSet<Pattern> patterns, String key) {
         if (!patterns.isEmpty()) {
             for (Iterator<Pattern> it = patterns.iterator(); it.hasNext();) {
@@ -134,23 +191,6 @@ public class ShareResPatchInfo {
         return true;
     }
 
-    private static Pattern convertToPatternString(String input) {
-        //convert \\.
-        if (input.contains(".")) {
-            input = input.replaceAll("\\.", "\\\\.");
-        }
-        //convert ？to .
-        if (input.contains("?")) {
-            input = input.replaceAll("\\?", "\\.");
-        }
-        //convert * to.*
-        if (input.contains("*")) {
-            input = input.replace("*", ".*");
-        }
-        Pattern pattern = Pattern.compile(input);
-        return pattern;
-    }
-
     public static void parseResPatchInfoFirstLine(String meta, ShareResPatchInfo info) {
         if (meta == null || meta.length() == 0) {
             return;
@@ -165,13 +205,25 @@ public class ShareResPatchInfo {
         info.resArscMd5 = kv[2];
     }
 
+    /**
+     * only arsc crc and md5 at the head of the binary meta are read
+     */
+    public static void parseResPatchInfoFirstLine(byte[] meta, ShareResPatchInfo info) {
+        if (meta == null || meta.length == 0) {
+            return;
+        }
+        final ShareBinaryMeta reader = ShareBinaryMeta.open(meta, ShareBinaryMeta.KIND_RES);
+        info.arscBaseCrc = String.valueOf(reader.readNumber());
+        info.resArscMd5 = ShareBinaryMeta.md5ToString(reader.readMd5());
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append("resArscMd5:" + resArscMd5 + "\n");
         sb.append("arscBaseCrc:" + arscBaseCrc + "\n");
 
-        for (Pattern pattern : patterns) {
+        for (String pattern : patternMatcher) {
             sb.append("pattern:" + pattern + "\n");
         }
         for (String add : addRes) {
@@ -255,20 +255,19 @@ public class ShareTinkerInternals {
         if (isTinkerEnabledAll(tinkerFlag)) {
             return ShareConstants.ERROR_PACKAGE_CHECK_OK;
         }
-        HashMap<String, String> metaContentMap = securityCheck.getMetaContentMap();
         //check dex
         boolean dexEnable = isTinkerEnabledForDex(tinkerFlag);
-        if (!dexEnable && metaContentMap.containsKey(ShareConstants.DEX_META_FILE)) {
+        if (!dexEnable && securityCheck.containsMeta(ShareConstants.DEX_META_FILE)) {
             return ShareConstants.ERROR_PACKAGE_CHECK_TINKERFLAG_NOT_SUPPORT;
         }
         //check native library
         boolean nativeEnable = isTinkerEnabledForNativeLib(tinkerFlag);
-        if (!nativeEnable && metaContentMap.containsKey(ShareConstants.SO_META_FILE)) {
+        if (!nativeEnable && securityCheck.containsMeta(ShareConstants.SO_META_FILE)) {
             return ShareConstants.ERROR_PACKAGE_CHECK_TINKERFLAG_NOT_SUPPORT;
         }
         //check resource
         boolean resEnable = isTinkerEnabledForResource(tinkerFlag);
-        if (!resEnable && metaContentMap.containsKey(ShareConstants.RES_META_FILE)) {
+        if (!resEnable && securityCheck.containsMeta(ShareConstants.RES_META_FILE)) {
             return ShareConstants.ERROR_PACKAGE_CHECK_TINKERFLAG_NOT_SUPPORT;
         }
 
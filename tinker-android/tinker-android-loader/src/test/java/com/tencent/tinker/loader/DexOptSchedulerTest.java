@@ -0,0 +1,325 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scheduling policy of {@link DexOptScheduler} with fake tasks instead of dex2oat, and a fake
+ * clock instead of real waits.
+ */
+public class DexOptSchedulerTest {
+    private static final long LONG_DELAY = TimeUnit.SECONDS.toMillis(10);
+    /**
+     * Only a guard against hanging, none of the tests depends on how fast it runs.
+     */
+    private static final long HANG_TIMEOUT = 60 * 1000;
+
+    private static final class FakeTask implements DexOptScheduler.Task {
+        final int index;
+        final Recorder recorder;
+        volatile boolean requestResult = true;
+        volatile long requestMillis = 0;
+        volatile CountDownLatch startGate = null;
+        volatile boolean generated = false;
+        final AtomicInteger pollCount = new AtomicInteger(0);
+
+        FakeTask(int index, Recorder recorder) {
+            this.index = index;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public boolean request() {
+            recorder.onStart(index);
+            try {
+                if (startGate != null) {
+                    startGate.countDown();
+                    startGate.await();
+                }
+                if (requestMillis > 0) {
+                    Thread.sleep(requestMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                recorder.onEnd();
+            }
+            return requestResult;
+        }
+
+        @Override
+        public boolean isGenerated() {
+            pollCount.incrementAndGet();
+            return generated;
+        }
+    }
+
+    private static final class Recorder {
+        final List<Integer> startOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+
+        void onStart(int index) {
+            startOrder.add(index);
+            final int current = running.incrementAndGet();
+            int max;
+            while (current > (max = maxRunning.get()) && !maxRunning.compareAndSet(max, current)) {
+                // Retry.
+            }
+        }
+
+        void onEnd() {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * A wait either lets the whole timeout pass at once, or, if blocking, lasts until it is
+     * notified while the time stands still.
+     */
+    private static final class FakeClock implements DexOptScheduler.Clock {
+        final boolean blocking;
+        final List<Long> waitMillis = Collections.synchronizedList(new ArrayList<Long>());
+        volatile long nowNanos = 0;
+
+        FakeClock(boolean blocking) {
+            this.blocking = blocking;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nowNanos;
+        }
+
+        @Override
+        public void waitNanos(Object lock, long timeoutNanos) throws InterruptedException {
+            waitMillis.add(TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            if (blocking) {
+                lock.wait();
+            } else {
+                nowNanos += timeoutNanos;
+            }
+        }
+    }
+
+    private static List<FakeTask> createTasks(int count, Recorder recorder, long requestMillis) {
+        final List<FakeTask> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final FakeTask task = new FakeTask(i, recorder);
+            task.requestMillis = requestMillis;
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * The first {@code count} tasks wait for each other before finishing their requests.
+     */
+    private static void gateFirstTasks(List<FakeTask> tasks, int count) {
+        final CountDownLatch startGate = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i) {
+            tasks.get(i).startGate = startGate;
+        }
+    }
+
+    @Test
+    public void requestAll_serialKeepsOrder() throws Exception {
+        final Recorder recorder = new Recorder();
+        final List<FakeTask> tasks = createTasks(8, recorder, 0);
+        final DexOptScheduler scheduler = new DexOptScheduler(1, 10, 10, 0);
+
+        assertTrue(scheduler.requestAll(tasks));
+        assertEquals(createRange(8), recorder.startOrder);
+        assertEquals(1, recorder.maxRunning.get());
+    }
+
+    @Test
+    public void requestAll_concurrentStartsInOrder() throws Exception {
+        final int concurrency = 3;
+        final Recorder recorder = new Recorder();
+        final List<FakeTask> tasks = createTasks(30, recorder, 5);
+        final DexOptScheduler scheduler = new DexOptScheduler(concurrency, 10, 10, 0);
+
+        assertTrue(scheduler.requestAll(tasks));
+        final List<Integer> startOrder = new ArrayList<>(recorder.startOrder);
+        assertEquals(tasks.size(), startOrder.size());
+        assertEquals(tasks.size(), new HashSet<>(startOrder).size());
+        for (int i = 0; i < startOrder.size(); ++i) {
+            // Tasks are taken in order, only the ones taken by other workers meanwhile may start earlier.
+            assertTrue("task " + startOrder.get(i) + " started at " + i, startOrder.get(i) < i + concurrency);
+        }
+    }
+
+    @Test(timeout = HANG_TIMEOUT)
+    public void requestAll_boundsConcurrency() throws Exception {
+        final Recorder recorder = new Recorder();
+        final List<FakeTask> tasks = createTasks(24, recorder, 0);
+        // Finishes only if four requests run at the same time.
+        gateFirstTasks(tasks, 4);
+        final DexOptScheduler scheduler = new DexOptScheduler(4, 10, 10, 0);
+
+        assertTrue(scheduler.requestAll(tasks));
+        assertEquals(tasks.size(), recorder.startOrder.size());
+        assertEquals(4, recorder.maxRunning.get());
+        assertEquals(0, recorder.running.get());
+    }
+
+    @Test(timeout = HANG_TIMEOUT)
+    public void requestAll_concurrencyIsBoundedByTaskCount() throws Exception {
+        final Recorder recorder = new Recorder();
+        final List<FakeTask> tasks = createTasks(2, recorder, 0);
+        gateFirstTasks(tasks, 2);
+        final DexOptScheduler scheduler = new DexOptScheduler(8, 10, 10, 0);
+
+        assertTrue(scheduler.requestAll(tasks));
+        assertEquals(2, recorder.maxRunning.get());
+    }
+
+    @Test
+    public void requestAll_serialStopsOnFirstFailure() throws Exception {
+        final Recorder recorder = new Recorder();
+        final List<FakeTask> tasks = createTasks(6, recorder, 0);
+        tasks.get(2).requestResult = false;
+        final DexOptScheduler scheduler = new DexOptScheduler(1, 10, 10, 0);
+
+        assertFalse(scheduler.requestAll(tasks));
+        assertEquals(createRange(3), recorder.startOrder);
+    }
+
+    @Test
+    public void requestAll_concurrentStopsOnFirstFailure() throws Exception {
+        final int concurrency = 2;
+        final Recorder recorder = new Recorder();
+        final List<FakeTask> tasks = createTasks(20, recorder, 10);
+        tasks.get(0).requestMillis = 0;
+        tasks.get(0).requestResult = false;
+        final DexOptScheduler scheduler = new DexOptScheduler(concurrency, 10, 10, 0);
+
+        assertFalse(scheduler.requestAll(tasks));
+        // Requests already taken by other workers are finished, nothing new is issued.
+        assertTrue("started: " + recorder.startOrder, recorder.startOrder.size() <= concurrency);
+        assertEquals(0, recorder.running.get());
+    }
+
+    @Test
+    public void awaitAll_returnsWhenAllGenerated() throws Exception {
+        final List<FakeTask> tasks = createTasks(3, new Recorder(), 0);
+        for (FakeTask task : tasks) {
+            task.generated = true;
+        }
+        final FakeClock clock = new FakeClock(false);
+        final DexOptScheduler scheduler = new DexOptScheduler(1, LONG_DELAY, LONG_DELAY, LONG_DELAY, clock);
+
+        assertTrue(scheduler.awaitAll(tasks).isEmpty());
+        assertTrue(scheduler.awaitAll(new ArrayList<FakeTask>()).isEmpty());
+        assertTrue("waits: " + clock.waitMillis, clock.waitMillis.isEmpty());
+    }
+
+    @Test
+    public void awaitAll_backsOffExponentially() throws Exception {
+        final FakeTask task = createTasks(1, new Recorder(), 0).get(0);
+        final FakeClock clock = new FakeClock(false);
+        final DexOptScheduler scheduler = new DexOptScheduler(1, 20, 80, 400, clock);
+
+        final List<FakeTask> pending = scheduler.awaitAll(Collections.singletonList(task));
+        assertEquals(Collections.singletonList(task), pending);
+        // Doubled up to the max delay, the last wait is cut by the timeout.
+        assertEquals(Arrays.asList(20L, 40L, 80L, 80L, 80L, 80L, 20L), clock.waitMillis);
+        assertEquals(clock.waitMillis.size() + 1, task.pollCount.get());
+    }
+
+    @Test
+    public void awaitAll_timesOut() throws Exception {
+        final List<FakeTask> tasks = createTasks(2, new Recorder(), 0);
+        tasks.get(0).generated = true;
+        final FakeClock clock = new FakeClock(false);
+        final DexOptScheduler scheduler = new DexOptScheduler(1, 10, 40, 150, clock);
+
+        final List<FakeTask> pending = scheduler.awaitAll(tasks);
+        assertEquals(Collections.singletonList(tasks.get(1)), pending);
+        assertEquals(150, TimeUnit.NANOSECONDS.toMillis(clock.nowNanos));
+        assertEquals(Arrays.asList(10L, 20L, 40L, 40L, 40L), clock.waitMillis);
+    }
+
+    @Test(timeout = HANG_TIMEOUT)
+    public void notifyOutputChanged_wakesUpAwait() throws Exception {
+        final FakeTask task = createTasks(1, new Recorder(), 0).get(0);
+        // Time stands still while waiting, so only a notification ends the wait.
+        final FakeClock clock = new FakeClock(true);
+        final DexOptScheduler scheduler = new DexOptScheduler(1, LONG_DELAY, LONG_DELAY, 3 * LONG_DELAY, clock);
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (task.pollCount.get() < 1) {
+                    Thread.yield();
+                }
+                task.generated = true;
+                scheduler.notifyOutputChanged();
+            }
+        });
+
+        writer.start();
+        assertTrue(scheduler.awaitAll(Collections.singletonList(task)).isEmpty());
+        writer.join();
+    }
+
+    @Test(timeout = HANG_TIMEOUT)
+    public void notifyOutputChanged_beforeAwaitIsNotLost() throws Exception {
+        final FakeTask task = createTasks(1, new Recorder(), 0).get(0);
+        final FakeClock clock = new FakeClock(true);
+        final DexOptScheduler scheduler = new DexOptScheduler(1, LONG_DELAY, LONG_DELAY, 3 * LONG_DELAY, clock);
+        scheduler.notifyOutputChanged();
+
+        // The pending event makes the first wait return at once, otherwise the second check
+        // the checker waits for would never come.
+        final Thread checker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (task.pollCount.get() < 2) {
+                    Thread.yield();
+                }
+                task.generated = true;
+                scheduler.notifyOutputChanged();
+            }
+        });
+        checker.start();
+        assertTrue(scheduler.awaitAll(Collections.singletonList(task)).isEmpty());
+        checker.join();
+    }
+
+    private static List<Integer> createRange(int count) {
+        final List<Integer> range = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            range.add(i);
+        }
+        return range;
+    }
+}
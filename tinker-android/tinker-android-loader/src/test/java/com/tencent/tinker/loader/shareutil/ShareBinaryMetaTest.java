@@ -0,0 +1,200 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import com.tencent.tinker.loader.TinkerRuntimeException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parsing of binary metas, the bytes are what BinaryMetaWriterTest of the patch builder writes.
+ */
+public class ShareBinaryMetaTest {
+    private static final String DEX_META_HEX = "00544b4d" + "01" + "01" + "00000002"
+        + "000b" + "636c61737365732e646578" + "0000"
+        + "10" + "0123456789abcdef0123456789abcdef"
+        + "10" + "0123456789abcdef0123456789abcdef"
+        + "10" + "fedcba9876543210fedcba9876543210"
+        + "00000000000004d2" + "00000000ffffffff" + "0003" + "6a6172"
+        + "000c" + "636c6173736573322e646578" + "0000"
+        + "00"
+        + "10" + "00112233445566778899aabbccddeeff"
+        + "00"
+        + "000000000000004d" + "0000000000000000" + "0003" + "726177";
+
+    private static final String RES_META_HEX = "00544b4d" + "01" + "03"
+        + "00000000cafebabe" + "10" + "ffeeddccbbaa99887766554433221100"
+        + "00000002" + "0005" + "7265732f2a" + "000e" + "7265736f75726365732e61727363"
+        + "00000001" + "0010" + "7265732f6c61796f75742f612e786d6c"
+        + "00000000"
+        + "00000001" + "000f" + "7265732f7261772f6269672e62696e"
+        + "10" + "00112233445566778899aabbccddeeff" + "0000000012345678"
+        + "00000000"
+        + "00000001" + "000d" + "7265732f7261772f732e6f6767";
+
+    private static final String BSDIFF_META_HEX = "00544b4d" + "01" + "02" + "00000001"
+        + "000a" + "6c6962746573742e736f" + "000b" + "6c69622f61726d65616269"
+        + "10" + "00112233445566778899aabbccddeeff" + "0000000000000007" + "00";
+
+    @Test
+    public void parseDexDiffPatchInfo_sameAsTextMeta() throws Exception {
+        final ArrayList<ShareDexDiffPatchInfo> binary = new ArrayList<>();
+        ShareDexDiffPatchInfo.parseDexDiffPatchInfo(hexToBytes(DEX_META_HEX), binary);
+        final ArrayList<ShareDexDiffPatchInfo> text = new ArrayList<>();
+        ShareDexDiffPatchInfo.parseDexDiffPatchInfo("classes.dex,,0123456789abcdef0123456789abcdef,"
+            + "0123456789abcdef0123456789abcdef,fedcba9876543210fedcba9876543210,1234,4294967295,jar\n"
+            + "classes2.dex,,0,00112233445566778899aabbccddeeff,0,77,0,raw\n", text);
+
+        assertEquals(2, binary.size());
+        assertEquals(text.size(), binary.size());
+        for (int i = 0; i < text.size(); i++) {
+            assertEquals(text.get(i).toString(), binary.get(i).toString());
+            assertEquals(text.get(i).realName, binary.get(i).realName);
+        }
+        assertEquals("0", binary.get(1).destMd5InDvm);
+    }
+
+    @Test
+    public void parseAllResPatchInfo_sameAsTextMeta() throws Exception {
+        final ShareResPatchInfo binary = new ShareResPatchInfo();
+        ShareResPatchInfo.parseAllResPatchInfo(hexToBytes(RES_META_HEX), binary);
+        final ShareResPatchInfo text = new ShareResPatchInfo();
+        ShareResPatchInfo.parseAllResPatchInfo("resources_out.zip,3405691582,ffeeddccbbaa99887766554433221100\n"
+            + "pattern:2\nres/*\nresources.arsc\n"
+            + "add:1\nres/layout/a.xml\n"
+            + "large modify:1\nres/raw/big.bin,00112233445566778899aabbccddeeff,305419896\n"
+            + "store:1\nres/raw/s.ogg\n", text);
+
+        assertEquals(text.toString(), binary.toString());
+        assertEquals(305419896L, binary.largeModMap.get("res/raw/big.bin").crc);
+        assertEquals(text.largeModMap.get("res/raw/big.bin").md5, binary.largeModMap.get("res/raw/big.bin").md5);
+        assertTrue(binary.patternMatcher.matches("res/layout/a.xml"));
+
+        final ShareResPatchInfo firstLine = new ShareResPatchInfo();
+        ShareResPatchInfo.parseResPatchInfoFirstLine(hexToBytes(RES_META_HEX), firstLine);
+        assertEquals("3405691582", firstLine.arscBaseCrc);
+        assertEquals("ffeeddccbbaa99887766554433221100", firstLine.resArscMd5);
+    }
+
+    @Test
+    public void parseDiffPatchInfo_keepsNoMd5AsZero() throws Exception {
+        final ArrayList<ShareBsDiffPatchInfo> infos = new ArrayList<>();
+        ShareBsDiffPatchInfo.parseDiffPatchInfo(hexToBytes(BSDIFF_META_HEX), infos);
+
+        assertEquals(1, infos.size());
+        assertEquals("libtest.so", infos.get(0).name);
+        assertEquals("lib/armeabi", infos.get(0).path);
+        assertEquals("00112233445566778899aabbccddeeff", infos.get(0).md5);
+        assertEquals("7", infos.get(0).rawCrc);
+        assertEquals("0", infos.get(0).patchMd5);
+    }
+
+    @Test
+    public void readMd5_givesRawBytes() throws Exception {
+        final ShareBinaryMeta reader = ShareBinaryMeta.open(hexToBytes(BSDIFF_META_HEX), ShareBinaryMeta.KIND_BSDIFF);
+        assertEquals(1, reader.readCount());
+        assertEquals("libtest.so", reader.readString());
+        assertEquals("lib/armeabi", reader.readString());
+        assertArrayEquals(hexToBytes("00112233445566778899aabbccddeeff"), reader.readMd5());
+        assertEquals(7L, reader.readNumber());
+        assertNull(reader.readMd5());
+        reader.checkEnd();
+    }
+
+    @Test
+    public void truncatedMetas_areRejected() throws Exception {
+        for (String hex : new String[]{DEX_META_HEX, RES_META_HEX, BSDIFF_META_HEX}) {
+            final byte[] meta = hexToBytes(hex);
+            for (int length = 1; length < meta.length; length++) {
+                assertCorrupted(Arrays.copyOf(meta, length));
+            }
+        }
+    }
+
+    @Test
+    public void malformedMetas_areRejected() throws Exception {
+        // bytes left after the last record.
+        assertCorrupted(hexToBytes(DEX_META_HEX + "00"));
+        assertCorrupted(hexToBytes(RES_META_HEX + "00000000"));
+        // md5 of 15 bytes.
+        assertCorrupted(hexToBytes(BSDIFF_META_HEX.replace("0b6c69622f61726d65616269" + "10",
+            "0b6c69622f61726d65616269" + "0f")));
+        // negative count.
+        assertCorrupted(hexToBytes("00544b4d" + "01" + "01" + "ffffffff"));
+        // count much larger than the records.
+        assertCorrupted(hexToBytes("00544b4d" + "01" + "02" + "7fffffff" + "0000"));
+        // string longer than the meta.
+        assertCorrupted(hexToBytes("00544b4d" + "01" + "02" + "00000001" + "ffff" + "00"));
+        // unknown version and kinds that do not match.
+        assertCorrupted(hexToBytes(DEX_META_HEX.replaceFirst("00544b4d01", "00544b4d02")));
+        assertCorrupted(hexToBytes(DEX_META_HEX.replaceFirst("00544b4d0101", "00544b4d0102")));
+        assertCorrupted(hexToBytes(RES_META_HEX.replaceFirst("00544b4d0103", "00544b4d0101")));
+    }
+
+    @Test
+    public void textMetas_areNotBinary() throws Exception {
+        assertFalse(ShareBinaryMeta.isBinaryMeta("classes.dex,,0,0,0,0,0,jar".getBytes("UTF-8")));
+        assertFalse(ShareBinaryMeta.isBinaryMeta(new byte[]{0, 'T', 'K', 'M', 1}));
+        assertFalse(ShareBinaryMeta.isBinaryMeta(null));
+        assertTrue(ShareBinaryMeta.isBinaryMeta(hexToBytes(DEX_META_HEX)));
+    }
+
+    /**
+     * every meta is parsed by the parser of its kind and the ones of other kinds.
+     */
+    private static void assertCorrupted(byte[] meta) {
+        for (int kind = ShareBinaryMeta.KIND_DEX; kind <= ShareBinaryMeta.KIND_RES; kind++) {
+            try {
+                switch (kind) {
+                    case ShareBinaryMeta.KIND_DEX: {
+                        ShareDexDiffPatchInfo.parseDexDiffPatchInfo(meta, new ArrayList<ShareDexDiffPatchInfo>());
+                        break;
+                    }
+                    case ShareBinaryMeta.KIND_BSDIFF: {
+                        ShareBsDiffPatchInfo.parseDiffPatchInfo(meta, new ArrayList<ShareBsDiffPatchInfo>());
+                        break;
+                    }
+                    default: {
+                        ShareResPatchInfo.parseAllResPatchInfo(meta, new ShareResPatchInfo());
+                        break;
+                    }
+                }
+                fail("kind " + kind + " parsed " + meta.length + " bytes");
+            } catch (TinkerRuntimeException ignored) {
+                // Expected.
+            }
+        }
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
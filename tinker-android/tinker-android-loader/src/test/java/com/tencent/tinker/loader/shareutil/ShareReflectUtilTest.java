@@ -0,0 +1,154 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Member lookups of {@link ShareReflectUtil}, batched and one by one.
+ */
+public class ShareReflectUtilTest {
+
+    @SuppressWarnings("unused")
+    private static class BasePathList {
+        private Object[] dexElements;
+        private List<File> nativeLibraryDirectories;
+        private List<File> systemNativeLibraryDirectories;
+        private Object[] nativeLibraryPathElements;
+        private String shadowed;
+
+        private static Object[] makePathElements(List<File> files) {
+            return null;
+        }
+
+        private static Object[] makePathElements(List<File> files, File optimizedDirectory,
+                                                 List<IOException> suppressed) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static class MiddlePathList extends BasePathList {
+        private int f0, f1, f2, f3, f4, f5, f6, f7, f8, f9;
+        private long g0, g1, g2, g3, g4, g5, g6, g7, g8, g9;
+
+        private void m0() {
+        }
+
+        private void m1() {
+        }
+
+        private void m2() {
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static class VendorPathList extends MiddlePathList {
+        private int h0, h1, h2, h3, h4, h5, h6, h7, h8, h9;
+        private Object definingContext;
+        private String shadowed;
+
+        private Object[] makePathElements(List<File> files) {
+            return null;
+        }
+    }
+
+    @Test
+    public void findFields_sameAsFindField() throws Exception {
+        final String[] names = {"nativeLibraryDirectories", "definingContext", "shadowed", "g5", "missing"};
+        final Field[] fields = ShareReflectUtil.findFields(VendorPathList.class, names);
+
+        assertEquals(names.length, fields.length);
+        assertSame(VendorPathList.class, fields[1].getDeclaringClass());
+        // The field nearest to the class wins, like the single lookup.
+        assertSame(VendorPathList.class, fields[2].getDeclaringClass());
+        assertNull(fields[4]);
+        for (int i = 0; i < names.length - 1; ++i) {
+            assertTrue(fields[i].isAccessible());
+            assertEquals(ShareReflectUtil.findField(VendorPathList.class, names[i]), fields[i]);
+        }
+        try {
+            ShareReflectUtil.findField(VendorPathList.class, "missing");
+            fail();
+        } catch (NoSuchFieldException ignored) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void lookups_cacheFrameworkClassesOnly() throws Exception {
+        // Reflection hands out a new copy on every lookup, only a cached one is the same object.
+        final Method length = ShareReflectUtil.findMethod(String.class, "length");
+        assertSame(length, ShareReflectUtil.findMethods(String.class, new String[]{"length"}, new Class<?>[][]{{}})[0]);
+        final Field maxValue = ShareReflectUtil.findField(Integer.class, "MAX_VALUE");
+        assertSame(maxValue, ShareReflectUtil.findFields(Integer.class, "MAX_VALUE")[0]);
+        assertNull(ShareReflectUtil.findFields(Integer.class, "missing")[0]);
+        assertNull(ShareReflectUtil.findFields(Integer.class, "missing")[0]);
+
+        // Classes of app or patch class loaders are not kept.
+        final Field definingContext = ShareReflectUtil.findField(VendorPathList.class, "definingContext");
+        assertEquals(definingContext, ShareReflectUtil.findFields(VendorPathList.class, "definingContext")[0]);
+        assertNotSame(definingContext, ShareReflectUtil.findFields(VendorPathList.class, "definingContext")[0]);
+    }
+
+    @Test
+    public void findMethods_matchesParameterTypes() throws Exception {
+        final Method[] methods = ShareReflectUtil.findMethods(VendorPathList.class,
+                new String[]{"makePathElements", "makePathElements", "makePathElements", "m1"},
+                new Class<?>[][]{{List.class, File.class, List.class}, {List.class}, {ArrayList.class}, {}});
+
+        assertSame(BasePathList.class, methods[0].getDeclaringClass());
+        assertArrayEquals(new Class<?>[]{List.class, File.class, List.class}, methods[0].getParameterTypes());
+        assertSame(VendorPathList.class, methods[1].getDeclaringClass());
+        assertNull(methods[2]);
+        assertSame(MiddlePathList.class, methods[3].getDeclaringClass());
+        assertEquals(ShareReflectUtil.findMethod(VendorPathList.class, "makePathElements", List.class), methods[1]);
+    }
+
+    @Test
+    public void require_throwsForMissingMembers() throws Exception {
+        final Field[] fields = ShareReflectUtil.findFields(VendorPathList.class, "definingContext", "missing");
+        assertSame(fields[0], ShareReflectUtil.requireField(fields[0], VendorPathList.class, "definingContext"));
+        try {
+            ShareReflectUtil.requireField(fields[1], VendorPathList.class, "missing");
+            fail();
+        } catch (NoSuchFieldException ignored) {
+            // Expected.
+        }
+        try {
+            ShareReflectUtil.requireMethod(null, VendorPathList.class, "missing", String.class);
+            fail();
+        } catch (NoSuchMethodException ignored) {
+            // Expected.
+        }
+    }
+}
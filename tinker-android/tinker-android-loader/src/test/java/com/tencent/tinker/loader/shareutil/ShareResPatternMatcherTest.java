@@ -0,0 +1,195 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ShareResPatternMatcher} against the regex every res meta pattern used to be compiled to.
+ */
+public class ShareResPatternMatcherTest {
+    private static final String[] DEFAULT_PATTERNS = {
+            "res/*", "r/*", "assets/*", "resources.arsc", "AndroidManifest.xml", "lib/*/*.so", "*.png"
+    };
+
+    @Test
+    public void matches_typicalPatterns() throws Exception {
+        final ShareResPatternMatcher matcher = createMatcher(DEFAULT_PATTERNS);
+
+        assertTrue(matcher.matches("res/layout/main.xml"));
+        assertTrue(matcher.matches("res/"));
+        assertTrue(matcher.matches("resources.arsc"));
+        assertTrue(matcher.matches("lib/armeabi/libfoo.so"));
+        assertTrue(matcher.matches("icon.png"));
+        assertTrue(matcher.matches(".png"));
+        assertFalse(matcher.matches("res"));
+        assertFalse(matcher.matches("resourcesxarsc"));
+        assertFalse(matcher.matches("classes.dex"));
+        assertFalse(matcher.matches("lib/libfoo.so"));
+        assertFalse(matcher.matches("META-INF/MANIFEST.MF"));
+    }
+
+    @Test
+    public void matches_wildcards() throws Exception {
+        assertTrue(createMatcher("*").matches(""));
+        assertTrue(createMatcher("*").matches("any/thing"));
+        assertTrue(createMatcher("").matches(""));
+        assertFalse(createMatcher("").matches("a"));
+        assertTrue(createMatcher("res/drawable-?dpi/*").matches("res/drawable-mdpi/a.png"));
+        assertFalse(createMatcher("res/drawable-?dpi/*").matches("res/drawable-xxhdpi/a.png"));
+        assertTrue(createMatcher("a*b*c").matches("aXbYbZc"));
+        assertFalse(createMatcher("a*b*c").matches("aXbYbZ"));
+        assertFalse(createMatcher().matches("res/a.xml"));
+    }
+
+    @Test
+    public void matches_regexSyntaxIsKept() throws Exception {
+        // Besides '.', '?' and '*', patterns are still regex as they always were.
+        assertTrue(createMatcher("res/(a|b)/*").matches("res/b/c.xml"));
+        assertTrue(createMatcher("res/[a-c]+.xml").matches("res/abc.xml"));
+        assertFalse(createMatcher("res/[a-c]+.xml").matches("res/abd.xml"));
+    }
+
+    @Test
+    public void matches_namesRegexDotTreatsSpecially() throws Exception {
+        // Regex '.' matches neither line terminators, nor half of a surrogate pair.
+        assertFalse(createMatcher("res/*").matches("res/a\nb"));
+        assertFalse(createMatcher("a?b").matches("a\rb"));
+        assertTrue(createMatcher("a?b").matches("a\uD83D\uDE00b"));
+        assertFalse(createMatcher("a??b").matches("a\uD83D\uDE00b"));
+    }
+
+    @Test
+    public void iterator_returnsRawPatterns() throws Exception {
+        final ShareResPatternMatcher matcher = createMatcher("res/*", "*.png", "res/*");
+        final List<String> patterns = new ArrayList<>();
+        for (String pattern : matcher) {
+            patterns.add(pattern);
+        }
+        assertEquals(Arrays.asList("res/*", "*.png"), patterns);
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    public void matches_sameAsRegexOnRandomInput() throws Exception {
+        final Random random = new Random(20161115);
+        final String plainChars = "ab/.x";
+        final String patternChars = plainChars + "*?";
+        final String specialChars = "ab/.x\n\r\u2028\u2029[+\uD83D\uDE00";
+        for (int round = 0; round < 20000; ++round) {
+            final boolean special = (round % 3 == 0);
+            final String[] patterns = new String[1 + random.nextInt(4)];
+            for (int i = 0; i < patterns.length; ++i) {
+                patterns[i] = randomPattern(random, special ? specialChars + "*?" : patternChars);
+            }
+            final ShareResPatternMatcher matcher = createMatcher(patterns);
+            final List<Pattern> regexes = compileRegexes(patterns);
+            for (int i = 0; i < 50; ++i) {
+                final String name = randomString(random, special ? specialChars : plainChars, 10);
+                assertEquals(Arrays.toString(patterns) + " against " + name,
+                        matchesAny(regexes, name), matcher.matches(name));
+            }
+        }
+    }
+
+    @Test
+    public void parseAllResPatchInfo_buildsMatcher() throws Exception {
+        final String meta = "resources_out.zip,123,0123456789abcdef0123456789abcdef\n"
+                + "pattern:3\nres/*\nresources.arsc\n*.png\n"
+                + "add:1\nres/a.xml\n";
+        final ShareResPatchInfo info = new ShareResPatchInfo();
+        ShareResPatchInfo.parseAllResPatchInfo(meta, info);
+
+        assertEquals(3, info.patternMatcher.size());
+        assertTrue(ShareResPatchInfo.checkFileInPattern(info.patternMatcher, "res/b.xml"));
+        assertTrue(ShareResPatchInfo.checkFileInPattern(info.patternMatcher, "assets/c.png"));
+        assertFalse(ShareResPatchInfo.checkFileInPattern(info.patternMatcher, "classes.dex"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void parseAllResPatchInfo_keepsCompiledPatterns() throws Exception {
+        final String meta = "resources_out.zip,123,0123456789abcdef0123456789abcdef\n"
+                + "pattern:3\nres/*\nresources.arsc\n*.png\n";
+        final ShareResPatchInfo info = new ShareResPatchInfo();
+        ShareResPatchInfo.parseAllResPatchInfo(meta, info);
+
+        assertEquals(3, info.patterns.size());
+        for (String name : new String[]{"res/b.xml", "assets/c.png", "resources.arsc", "resourcesXarsc", "classes.dex"}) {
+            assertEquals(name, ShareResPatchInfo.checkFileInPattern(info.patternMatcher, name),
+                    ShareResPatchInfo.checkFileInPattern(info.patterns, name));
+        }
+    }
+
+    private static ShareResPatternMatcher createMatcher(String... patterns) {
+        final ShareResPatternMatcher matcher = new ShareResPatternMatcher();
+        for (String pattern : patterns) {
+            matcher.add(pattern);
+        }
+        return matcher;
+    }
+
+    private static List<Pattern> compileRegexes(String... patterns) {
+        final List<Pattern> regexes = new ArrayList<>();
+        for (String pattern : new HashSet<>(Arrays.asList(patterns))) {
+            regexes.add(Pattern.compile(ShareResPatternMatcher.convertToPatternString(pattern)));
+        }
+        return regexes;
+    }
+
+    private static boolean matchesAny(List<Pattern> regexes, String name) {
+        for (Pattern regex : regexes) {
+            if (regex.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String randomPattern(Random random, String chars) {
+        while (true) {
+            final String pattern = randomString(random, chars, 6);
+            try {
+                Pattern.compile(ShareResPatternMatcher.convertToPatternString(pattern));
+                return pattern;
+            } catch (PatternSyntaxException ignored) {
+                // Patterns the loader never accepted, try another one.
+            }
+        }
+    }
+
+    private static String randomString(Random random, String chars, int maxLength) {
+        final int length = random.nextInt(maxLength + 1);
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader.shareutil;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Delivery order of {@link TinkerLogRingBuffer} with a recording sink instead of the log imp.
+ */
+public class TinkerLogRingBufferTest {
+    private static final String TAG = "Tinker.Test";
+
+    private static final class RecordingSink implements TinkerLogRingBuffer.Sink {
+        final List<String> records = Collections.synchronizedList(new ArrayList<String>());
+        final long delayMillis;
+
+        RecordingSink(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void deliver(int what, long timestamp, String tag, Throwable thr, String fmt, Object[] args) {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            records.add(String.format(fmt, args));
+        }
+    }
+
+    @Test
+    public void publish_keepsOrderWhenFull() throws Exception {
+        final RecordingSink sink = new RecordingSink(1);
+        final TinkerLogRingBuffer buffer = new TinkerLogRingBuffer(4, sink);
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            buffer.publish(Log.INFO, i, TAG, null, "log %d", new Object[]{i});
+            expected.add("log " + i);
+        }
+        buffer.flush();
+        buffer.shutdown();
+
+        assertEquals(expected, sink.records);
+    }
+
+    @Test
+    public void publish_keepsOrderOfEachProducer() throws Exception {
+        final int producers = 4;
+        final int count = 500;
+        final RecordingSink sink = new RecordingSink(0);
+        final TinkerLogRingBuffer buffer = new TinkerLogRingBuffer(8, sink);
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            final int producer = p;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; ++i) {
+                        buffer.publish(Log.INFO, i, TAG, null, "%d:%d", new Object[]{producer, i});
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        buffer.flush();
+        buffer.shutdown();
+
+        final List<String> records = new ArrayList<>(sink.records);
+        assertEquals(producers * count, records.size());
+        final int[] next = new int[producers];
+        for (String record : records) {
+            final String[] parts = record.split(":");
+            final int producer = Integer.parseInt(parts[0]);
+            assertEquals("producer " + producer, next[producer], Integer.parseInt(parts[1]));
+            ++next[producer];
+        }
+    }
+
+    @Test
+    public void publish_afterShutdownKeepsOrder() throws Exception {
+        final RecordingSink sink = new RecordingSink(5);
+        final TinkerLogRingBuffer buffer = new TinkerLogRingBuffer(16, sink);
+        for (int i = 0; i < 10; ++i) {
+            buffer.publish(Log.INFO, i, TAG, null, "log %d", new Object[]{i});
+        }
+        buffer.shutdown();
+        // Rejected by the ring, delivered only after the queued ones are out.
+        buffer.publish(Log.INFO, 10, TAG, null, "log %d", new Object[]{10});
+
+        assertEquals(11, sink.records.size());
+        for (int i = 0; i <= 10; ++i) {
+            assertEquals("log " + i, sink.records.get(i));
+        }
+    }
+
+    @Test
+    public void flush_waitsForOfferedRecords() throws Exception {
+        final RecordingSink sink = new RecordingSink(2);
+        final TinkerLogRingBuffer buffer = new TinkerLogRingBuffer(64, sink);
+        for (int i = 0; i < 20; ++i) {
+            assertTrue(buffer.offer(Log.INFO, i, TAG, null, "log %d", new Object[]{i}));
+        }
+        buffer.flush();
+
+        assertEquals(20, sink.records.size());
+        buffer.shutdown();
+    }
+
+    @Test
+    public void offer_wakesIdleConsumer() throws Exception {
+        final RecordingSink sink = new RecordingSink(0);
+        final TinkerLogRingBuffer buffer = new TinkerLogRingBuffer(16, sink);
+        for (int i = 0; i < 5; ++i) {
+            // The consumer has drained the ring and parked without timeout by now.
+            Thread.sleep(20);
+            assertTrue(buffer.offer(Log.INFO, i, TAG, null, "log %d", new Object[]{i}));
+            buffer.flush();
+            assertEquals(i + 1, sink.records.size());
+        }
+        buffer.shutdown();
+    }
+
+    @Test
+    public void flush_keepsInterruptStatus() throws Exception {
+        final RecordingSink sink = new RecordingSink(10);
+        final TinkerLogRingBuffer buffer = new TinkerLogRingBuffer(16, sink);
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(buffer.offer(Log.INFO, i, TAG, null, "log %d", new Object[]{i}));
+        }
+        Thread.currentThread().interrupt();
+        buffer.flush();
+
+        assertTrue(Thread.interrupted());
+        assertEquals(5, sink.records.size());
+        buffer.shutdown();
+    }
+}
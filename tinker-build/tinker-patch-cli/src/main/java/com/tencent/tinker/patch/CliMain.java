@@ -30,6 +30,9 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -39,11 +42,14 @@ import javax.xml.parsers.ParserConfigurationException;
  */
 public class CliMain extends Runner {
     private static final String ARG_HELP   = "--help";
-    private static final String ARG_OUT    = "-out";
-    private static final String ARG_CONFIG = "-config";
-    private static final String ARG_OLD    = "-old";
-    private static final String ARG_NEW    = "-new";
-    private static final String ARG_CUSTOM_PATH = "-customPath";
+    static final String ARG_OUT    = "-out";
+    static final String ARG_CONFIG = "-config";
+    static final String ARG_OLD    = "-old";
+    static final String ARG_NEW    = "-new";
+    static final String ARG_CUSTOM_PATH = "-customPath";
+    private static final String ARG_DAEMON = "-daemon";
+
+    private static final String PATH_DAEMON_CACHE = "tinker_daemon_cache";
 
     protected static String mRunningLocation;
 
@@ -78,6 +84,14 @@ public class CliMain extends Runner {
         out.println();
         out.println();
         out.println("Usage: java -jar " + command + " " + ARG_OLD + " old.apk " + ARG_NEW + " new.apk " + ARG_CONFIG + " tinker_config.xml " + ARG_OUT + " output_path " + ARG_CONFIG + " custom_file_cmd_path");
+        out.println("Pass " + ARG_OLD + " more than once to generate patches against several old apks in one run,"
+            + " each patch is written into a sub folder of output_path named after its old apk.");
+        out.println("Daemon mode: java -jar " + command + " " + ARG_DAEMON + " [" + ARG_CONFIG + " default_config.xml] ["
+            + ARG_OUT + " work_path]");
+        out.println("  reads one job per line from stdin: job_id " + ARG_OLD + " old.apk " + ARG_NEW + " new.apk "
+            + ARG_OUT + " output_path [" + ARG_CONFIG + " tinker_config.xml]");
+        out.println("  and replies 'OK job_id time_cost output_path' or 'FAIL job_id reason' on stdout.");
+        out.println("  parsed apks are cached in work_path/" + PATH_DAEMON_CACHE + ".");
         out.println("others please contact us");
     }
 
@@ -85,25 +99,46 @@ public class CliMain extends Runner {
         if (args.length < 1) {
             goToError(new IllegalArgumentException("Please provide required arguments."), ERRNO_USAGE);
         }
+        // In daemon mode stdout only carries replies to jobs.
+        final PrintStream replyOut = System.out;
+        if (Arrays.asList(args).contains(ARG_DAEMON)) {
+            System.setOut(System.err);
+        }
         try {
 
             ReadArgs readArgs = new ReadArgs(args).invoke();
             File configFile = readArgs.getConfigFile();
             File outputFile = readArgs.getOutputFile();
-            File oldApkFile = readArgs.getOldApkFile();
+            List<File> oldApkFiles = readArgs.getOldApkFiles();
             File newApkFile = readArgs.getNewApkFile();
             String customDiffCmd = readArgs.getCustomDiffCmd();
 
-            if (oldApkFile == null || newApkFile == null) {
+            if (readArgs.isDaemon()) {
+                runDaemon(configFile, outputFile, replyOut);
+                return;
+            }
+
+            if (oldApkFiles.isEmpty() || newApkFile == null) {
                 goToError(new IllegalArgumentException("Missing old apk or new apk file argument"), ERRNO_ERRORS);
-            } else if (!oldApkFile.exists() || !newApkFile.exists()) {
-                goToError(new IOException("Old apk or new apk file does not exist"), ERRNO_ERRORS);
+            } else if (!newApkFile.exists()) {
+                goToError(new IOException("New apk file " + newApkFile.getAbsolutePath() + " does not exist"), ERRNO_ERRORS);
+            }
+            for (File oldApkFile : oldApkFiles) {
+                if (!oldApkFile.exists()) {
+                    goToError(new IOException("Old apk file " + oldApkFile.getAbsolutePath() + " does not exist"), ERRNO_ERRORS);
+                }
             }
 
             if (outputFile == null) {
                 outputFile = new File(mRunningLocation, TypedValue.PATH_DEFAULT_OUTPUT);
             }
 
+            if (oldApkFiles.size() > 1) {
+                runForBases(configFile, outputFile, oldApkFiles, newApkFile, customDiffCmd);
+                return;
+            }
+            File oldApkFile = oldApkFiles.get(0);
+
             loadConfigFromXml(configFile, outputFile, oldApkFile, newApkFile);
             if (customDiffCmd != null) {
                 mConfig.mCustomDiffPath = customDiffCmd;
@@ -117,7 +152,36 @@ public class CliMain extends Runner {
         }
     }
 
-    private void loadConfigFromXml(File configFile, File outputFile, File oldApkFile, File newApkFile) {
+    private void runDaemon(File configFile, File workDir, PrintStream replyOut) throws IOException {
+        if (configFile == null) {
+            configFile = new File(mRunningLocation + File.separator + TypedValue.FILE_CONFIG);
+        }
+        // The cache lives in a folder of its own, never in the given work dir itself.
+        final File cacheDir = new File(workDir != null ? workDir.getPath() : mRunningLocation, PATH_DAEMON_CACHE);
+        // Parsed apks may take at most a quarter of heap, the rest is left to running jobs.
+        PatchDaemon daemon = new PatchDaemon(configFile, cacheDir, Runtime.getRuntime().maxMemory() / 4, replyOut);
+        daemon.serve(System.in, Runtime.getRuntime().availableProcessors());
+    }
+
+    private void runForBases(File configFile, File outputFile, List<File> oldApkFiles, final File newApkFile,
+                             final String customDiffCmd) {
+        final File xmlConfigFile = getConfigFile(configFile);
+        runForBases(outputFile, oldApkFiles, newApkFile, new BaseConfigFactory() {
+            @Override
+            public Configuration create(File oldApkFile, File baseOutFolder) throws Exception {
+                Configuration config = new Configuration(xmlConfigFile, baseOutFolder, oldApkFile, newApkFile);
+                if (customDiffCmd != null) {
+                    config.mCustomDiffPath = customDiffCmd;
+                }
+                return config;
+            }
+        });
+    }
+
+    /**
+     * Returns {@code configFile}, or the default one in the running location if it is null.
+     */
+    private File getConfigFile(File configFile) {
         if (configFile == null) {
             configFile = new File(mRunningLocation + File.separator + TypedValue.FILE_CONFIG);
             if (!configFile.exists()) {
@@ -126,6 +190,11 @@ public class CliMain extends Runner {
                 System.exit(ERRNO_USAGE);
             }
         }
+        return configFile;
+    }
+
+    private void loadConfigFromXml(File configFile, File outputFile, File oldApkFile, File newApkFile) {
+        configFile = getConfigFile(configFile);
         try {
             mConfig = new Configuration(configFile, outputFile, oldApkFile, newApkFile);
         } catch (IOException | ParserConfigurationException | SAXException e) {
@@ -139,9 +208,10 @@ public class CliMain extends Runner {
         private String[] args;
         private File     configFile;
         private File     outputFile;
-        private File     oldApkFile;
+        private List<File> oldApkFiles = new ArrayList<>();
         private File     newApkFile;
         private String   customDiffCmd;
+        private boolean  isDaemon;
 
         ReadArgs(String[] args) {
             this.args = args;
@@ -155,8 +225,8 @@ public class CliMain extends Runner {
             return outputFile;
         }
 
-        public File getOldApkFile() {
-            return oldApkFile;
+        public List<File> getOldApkFiles() {
+            return oldApkFiles;
         }
 
         public File getNewApkFile() {
@@ -167,6 +237,10 @@ public class CliMain extends Runner {
             return customDiffCmd;
         }
 
+        public boolean isDaemon() {
+            return isDaemon;
+        }
+
         public ReadArgs invoke() {
             for (int index = 0; index < args.length; index++) {
                 String arg = args[index];
@@ -196,7 +270,7 @@ public class CliMain extends Runner {
                     if (index == args.length - 1) {
                         goToError(new IllegalArgumentException("Missing old apk file argument"), ERRNO_USAGE);
                     }
-                    oldApkFile = new File(args[++index]);
+                    oldApkFiles.add(new File(args[++index]));
                 } else if (arg.equals(ARG_NEW)) {
                     if (index == args.length - 1) {
                         goToError(new IllegalArgumentException("Missing new apk file argument"), ERRNO_USAGE);
@@ -208,6 +282,8 @@ public class CliMain extends Runner {
                     }
                     customDiffCmd = args[++index];
                     System.out.printf("special output custom diff cmd: %s\n", customDiffCmd);
+                } else if (arg.equals(ARG_DAEMON)) {
+                    isDaemon = true;
                 }
             }
             return this;
@@ -0,0 +1,211 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.patch;
+
+import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
+import com.tencent.tinker.build.patch.ParsedApkCache;
+import com.tencent.tinker.build.patch.Runner;
+import com.tencent.tinker.build.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps parsed input apks in memory and generates patches for jobs read from stdin.
+ *
+ * Each line of stdin is one job, written as
+ * <pre>
+ *     job_id -old old.apk -new new.apk -out output_path [-config tinker_config.xml] [-customPath cmd]
+ * </pre>
+ * Arguments containing blanks can be double quoted. Jobs run concurrently, each of them
+ * answers with one line on stdout once it finishes:
+ * <pre>
+ *     OK job_id time_cost_in_seconds output_path
+ *     FAIL job_id reason
+ * </pre>
+ * {@code exit} or the end of stdin stops the daemon after running jobs are finished.
+ * All other output of tinker is redirected to stderr so that stdout only carries replies.
+ */
+public class PatchDaemon extends Runner {
+    private static final String CMD_EXIT = "exit";
+
+    private final File             mDefaultConfigFile;
+    private final ParsedApkCache   mParsedApkCache;
+    private final PrintStream      mReplyOut;
+
+    PatchDaemon(File defaultConfigFile, File cacheDir, long maxCacheBytes, PrintStream replyOut) throws IOException {
+        super(true);
+        mDefaultConfigFile = defaultConfigFile;
+        mParsedApkCache = new ParsedApkCache(cacheDir, maxCacheBytes);
+        mReplyOut = replyOut;
+    }
+
+    void serve(InputStream in, int threadCount) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals(CMD_EXIT)) {
+                    break;
+                }
+                final List<String> args = splitArgs(line);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runJob(args);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // Wait for running jobs.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mParsedApkCache.clear();
+        }
+    }
+
+    private void runJob(List<String> args) {
+        final String jobId = args.get(0);
+        File configFile = mDefaultConfigFile;
+        File outputFile = null;
+        File oldApkFile = null;
+        File newApkFile = null;
+        String customDiffCmd = null;
+        for (int index = 1; index < args.size(); index++) {
+            String arg = args.get(index);
+            if (index == args.size() - 1) {
+                reply("FAIL " + jobId + " missing value of " + arg);
+                return;
+            }
+            String value = args.get(++index);
+            if (arg.equals(CliMain.ARG_CONFIG)) {
+                configFile = new File(value);
+            } else if (arg.equals(CliMain.ARG_OUT)) {
+                outputFile = new File(value);
+            } else if (arg.equals(CliMain.ARG_OLD)) {
+                oldApkFile = new File(value);
+            } else if (arg.equals(CliMain.ARG_NEW)) {
+                newApkFile = new File(value);
+            } else if (arg.equals(CliMain.ARG_CUSTOM_PATH)) {
+                customDiffCmd = value;
+            } else {
+                reply("FAIL " + jobId + " unknown argument " + arg);
+                return;
+            }
+        }
+        if (oldApkFile == null || newApkFile == null || outputFile == null) {
+            reply("FAIL " + jobId + " missing old apk, new apk or output argument");
+            return;
+        }
+        for (File file : new File[]{oldApkFile, newApkFile, configFile}) {
+            if (!file.exists()) {
+                reply("FAIL " + jobId + " file " + file.getAbsolutePath() + " does not exist");
+                return;
+            }
+        }
+
+        long begin = System.currentTimeMillis();
+        ParsedApk parsedOldApk = null;
+        ParsedApk parsedNewApk = null;
+        try {
+            parsedOldApk = mParsedApkCache.acquire(oldApkFile);
+            parsedNewApk = mParsedApkCache.acquire(newApkFile);
+            Configuration config = new Configuration(configFile, outputFile,
+                parsedOldApk.getApkFile(), parsedNewApk.getApkFile());
+            if (customDiffCmd != null) {
+                config.mCustomDiffPath = customDiffCmd;
+            }
+            config.setParsedApks(parsedOldApk, parsedNewApk);
+
+            Logger.initLogger(config);
+            try {
+                Logger.d("-----------------------Tinker patch begin-----------------------");
+                Logger.d(config.toString());
+                generatePatch(config);
+                Logger.d("-----------------------Tinker patch end-------------------------");
+            } finally {
+                Logger.closeLogger();
+            }
+            reply(String.format("OK %s %f %s", jobId,
+                (System.currentTimeMillis() - begin) / 1000.0, config.mOutFolder));
+        } catch (Throwable e) {
+            e.printStackTrace(System.err);
+            reply("FAIL " + jobId + " " + String.valueOf(e).replace('\n', ' '));
+        } finally {
+            if (parsedNewApk != null) {
+                mParsedApkCache.release(parsedNewApk);
+            }
+            if (parsedOldApk != null) {
+                mParsedApkCache.release(parsedOldApk);
+            }
+        }
+    }
+
+    private void reply(String line) {
+        synchronized (mReplyOut) {
+            mReplyOut.println(line);
+            mReplyOut.flush();
+        }
+    }
+
+    static List<String> splitArgs(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        boolean hasArg = false;
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+                hasArg = true;
+            } else if (Character.isWhitespace(c) && !inQuotes) {
+                if (hasArg) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    hasArg = false;
+                }
+            } else {
+                current.append(c);
+                hasArg = true;
+            }
+        }
+        if (hasArg) {
+            args.add(current.toString());
+        }
+        return args;
+    }
+}
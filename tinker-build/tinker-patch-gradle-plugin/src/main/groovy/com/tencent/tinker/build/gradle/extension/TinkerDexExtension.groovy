@@ -46,6 +46,18 @@ public class TinkerDexExtension {
 
     Iterable<String> ignoreWarningLoader;
 
+    /**
+     * directory to keep dex diff results among builds, unchanged dex pairs are served from it
+     * default: null, disabled
+     */
+    String diffCacheDir;
+
+    /**
+     * how to verify full patched dexes, one of 'full', 'hash' or 'deferred'
+     * default: full
+     */
+    String verifyPolicy;
+
     private Project project;
 
     public TinkerDexExtension(Project project) {
@@ -53,6 +65,7 @@ public class TinkerDexExtension {
         pattern = []
         loader = []
         ignoreWarningLoader = []
+        verifyPolicy = "full"
         this.project = project
     }
 
@@ -60,6 +73,9 @@ public class TinkerDexExtension {
         if (!dexMode.equals("raw") && !dexMode.equals("jar")) {
             throw new GradleException("dexMode can be only one of 'jar' or 'raw'!")
         }
+        if (!verifyPolicy.equals("full") && !verifyPolicy.equals("hash") && !verifyPolicy.equals("deferred")) {
+            throw new GradleException("verifyPolicy can be only one of 'full', 'hash' or 'deferred'!")
+        }
     }
 
     @Override
@@ -68,6 +84,8 @@ public class TinkerDexExtension {
            | pattern = ${pattern}
            | loader = ${loader}
            | ignoreWarningLoader = ${ignoreWarningLoader}
+           | diffCacheDir = ${diffCacheDir}
+           | verifyPolicy = ${verifyPolicy}
         """.stripMargin()
     }
 }
\ No newline at end of file
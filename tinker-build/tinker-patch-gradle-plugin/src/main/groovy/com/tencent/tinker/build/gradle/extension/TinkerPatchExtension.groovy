@@ -90,6 +90,14 @@ public class TinkerPatchExtension {
      */
     boolean useSign
 
+    /**
+     * Whether to write dex, library and resource metas in binary format, they are parsed faster
+     * when the patch is loaded. Patches with text metas are still supported by the loader.
+     * Only enable it if nothing else parses the metas of your patches.
+     * default: false
+     */
+    boolean binaryMeta
+
     /**
      * whether use tinker
      * default: true
@@ -116,6 +124,7 @@ public class TinkerPatchExtension {
         allowLoaderInAnyDex = false
         removeLoaderForAllDex = false
         useSign = true
+        binaryMeta = false
         tinkerEnable = true
         customPath = null
         customDiffPathArgs = null
@@ -140,6 +149,7 @@ public class TinkerPatchExtension {
            | removeLoaderForAllDex = ${removeLoaderForAllDex}
            | tinkerEnable = ${tinkerEnable}
            | useSign = ${useSign}
+           | binaryMeta = ${binaryMeta}
         """.stripMargin()
     }
 }
\ No newline at end of file
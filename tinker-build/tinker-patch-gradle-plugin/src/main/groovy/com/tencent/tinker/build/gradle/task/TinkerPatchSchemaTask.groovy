@@ -146,6 +146,8 @@ public class TinkerPatchSchemaTask extends DefaultTask {
                     .setDexLoaderPattern(new ArrayList<String>(configuration.dex.loader))
                     .setDexIgnoreWarningLoaderPattern(new ArrayList<String>(configuration.dex.ignoreWarningLoader))
                     .setDexMode(configuration.dex.dexMode)
+                    .setDexDiffCacheDir(configuration.dex.diffCacheDir)
+                    .setDexVerifyPolicy(configuration.dex.verifyPolicy)
                     .setSoFilePattern(new ArrayList<String>(configuration.lib.pattern))
                     .setResourceFilePattern(new ArrayList<String>(configuration.res.pattern))
                     .setResourceIgnoreChangePattern(new ArrayList<String>(configuration.res.ignoreChange))
@@ -155,6 +157,7 @@ public class TinkerPatchSchemaTask extends DefaultTask {
                     .setConfigFields(packageConfigFields)
                     .setSevenZipPath(configuration.sevenZip.path)
                     .setUseSign(configuration.useSign)
+                    .setBinaryMeta(configuration.binaryMeta)
                     .setArkHotPath(configuration.arkHot.path)
                     .setArkHotName(configuration.arkHot.name)
 
@@ -35,8 +35,17 @@ import org.gradle.api.Project
 import org.gradle.api.Task
 import org.gradle.api.execution.TaskExecutionGraph
 import org.gradle.api.execution.TaskExecutionGraphListener
-import org.gradle.api.tasks.JavaExec
-
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.internal.project.ProjectInternal
+import org.gradle.api.provider.ListProperty
+import org.gradle.process.ExecOperations
+import org.gradle.process.JavaExecSpec
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
 import java.lang.reflect.Field
 import java.util.zip.ZipEntry
 import java.util.zip.ZipFile
@@ -194,8 +203,6 @@ public class ImmutableDexTransform extends Transform {
                 pathDexMap.put(classPath, dexFile.name - ".dex")
             }
         }
-        //the dex start index for orphan class
-        int newDexIndex = oldDexList.size()
         //a hashset for maindexlist
         HashSet<String> mainDexSets = initMainDexSet(mainDexListFile)
         project.logger.info("mainDexSets is ${mainDexSets}.")
@@ -203,43 +210,90 @@ public class ImmutableDexTransform extends Transform {
         HashMap<String, ZipOutputStream> osMap = new HashMap<>()
         //zip file name <==> mtd count and filed count in the zip
         HashMap<String, DexRefData> methodAndFieldsNum = new HashMap<>()
-        //orphan class's entry <==> orphan class's bytes
-        HashMap<ZipEntry, ByteArrayOutputStream> orphanMap = new HashMap()
+        //orphan classes in the order of all-classes.jar
+        List<ScannedClass> orphanList = new ArrayList<>()
+        //old dexes which lost a class for exceeding the limit, they differ from the old apk anyway
+        HashSet<String> changedDexes = new HashSet<>()
 
         //all class  in allClass.jar
         HashSet<String> allClassSet = new HashSet<>()
         //process all-classes.jar
-        processJar(jarInputs.get(0).file, allClassSet, pathDexMap, mainDexSets, methodAndFieldsNum, osMap, orphanMap)
-
-        Iterator<Map.Entry<ZipEntry, ByteArrayOutputStream>> iterator = orphanMap.entrySet().iterator()
-        Map.Entry<ZipEntry, ByteArrayOutputStream> leaveEntry = null
-        while (iterator.hasNext()) {
-            boolean writeResult = true
-            while (writeResult && iterator.hasNext()) {
-                if (leaveEntry != null) {
-                    String newDexName = dexIndexToName(newDexIndex, "")
-                    project.logger.info("write level orphan class: ${leaveEntry.key.name} to zip: ${newDexName}")
-                    writeResult = writeClassToZip(methodAndFieldsNum, osMap, newDexName, leaveEntry.value.toByteArray(), leaveEntry.key)
-                    if (!writeResult) {
-                        throw new GradleException("add one class to a new zip failed!\n" +
-                                "\t class:" + leaveEntry.key.name + "  zip: " + newDexName)
-                    }
+        processJar(jarInputs.get(0).file, allClassSet, pathDexMap, mainDexSets, methodAndFieldsNum, osMap, orphanList, changedDexes)
+
+        packOrphans(orphanList, oldDexList.size(), changedDexes, methodAndFieldsNum, osMap)
+
+        osMap.each { key, value ->
+            value.close()
+        }
+
+        dexAll(transformInvocation, allClassSet)
+    }
+
+    /**
+     * Packs orphan classes into dexes which differ from the old apk anyway: the last old dex,
+     * old dexes in changedDexes and the new dexes. Other old dexes are never touched, so they
+     * stay identical to the old apk and add nothing to the patch, a new dex is opened instead.
+     *
+     * Larger classes are placed first, each into the dex it shares most references with,
+     * i.e. the one it adds fewest new references to. Ties are broken by class name and dex
+     * index so the same input always gives the same dexes.
+     */
+    private void packOrphans(List<ScannedClass> orphanList, int oldDexCount, Set<String> changedDexes,
+                             HashMap<String, DexRefData> methodAndFieldsNum, HashMap<String, ZipOutputStream> osMap) {
+        List<ScannedClass> sortedOrphans = new ArrayList<>(orphanList)
+        Collections.sort(sortedOrphans, new Comparator<ScannedClass>() {
+            @Override
+            int compare(ScannedClass lhs, ScannedClass rhs) {
+                ClassSimDef lhsDef = lhs.simDef
+                ClassSimDef rhsDef = rhs.simDef
+                int result = Integer.compare(rhsDef.methodCount + rhsDef.fieldCount, lhsDef.methodCount + lhsDef.fieldCount)
+                if (result != 0) {
+                    return result
                 }
-                Map.Entry<ZipEntry, ByteArrayOutputStream> entry = iterator.next()
-                leaveEntry = entry
-                String newDexName = dexIndexToName(newDexIndex, "")
-                project.logger.info("write orphan class: ${entry.key.name} to zip: ${newDexName}")
-                writeResult = writeClassToZip(methodAndFieldsNum, osMap, newDexName, entry.value.toByteArray(), entry.key)
-                if (writeResult) {
-                    leaveEntry = null
+                return lhs.zipEntry.name.compareTo(rhs.zipEntry.name)
+            }
+        })
+
+        //main dex is left to main dex list's classes
+        List<String> candidateDexes = new ArrayList<>()
+        for (int index = 2; index <= oldDexCount; ++index) {
+            String dexName = dexIndexToName(index, "")
+            if (index == oldDexCount || changedDexes.contains(dexName)) {
+                candidateDexes.add(dexName)
+            }
+        }
+        int nextDexIndex = Math.max(oldDexCount, 1) + 1
+
+        for (ScannedClass orphan : sortedOrphans) {
+            ClassSimDef cf = orphan.simDef
+            String bestDex = null
+            int bestNewRefCount = Integer.MAX_VALUE
+            for (String dexName : candidateDexes) {
+                DexRefData mfData = getDexRefData(methodAndFieldsNum, dexName)
+                if (!canHold(mfData, cf)) {
+                    continue
                 }
+                int newRefCount = mfData.countNewMethods(cf) + mfData.countNewFields(cf)
+                if (newRefCount < bestNewRefCount) {
+                    bestNewRefCount = newRefCount
+                    bestDex = dexName
+                }
+            }
+            if (bestDex == null) {
+                bestDex = dexIndexToName(nextDexIndex++, "")
+                candidateDexes.add(bestDex)
+                project.logger.info("open new dex: ${bestDex} for orphan classes")
+            }
+            project.logger.info("write orphan class: ${orphan.zipEntry.name} to zip: ${bestDex}")
+            if (!writeClassToZip(methodAndFieldsNum, osMap, bestDex, orphan)) {
+                throw new GradleException("add one class to a new zip failed!\n" +
+                        "\t class:" + orphan.zipEntry.name + "  zip: " + bestDex)
             }
-            newDexIndex++
         }
+        project.logger.info("packed ${sortedOrphans.size()} orphan classes, ${nextDexIndex - Math.max(oldDexCount, 1) - 1} new dexes.")
+    }
 
-        osMap.each { key, value ->
-            value.close()
-        }
+    private void dexAll(TransformInvocation transformInvocation, HashSet<String> allClassSet) {
 
         //a list for all dex's path,use for checkClassConsistence mtd
         ArrayList<String> dexPathList = new ArrayList<>()
@@ -252,20 +306,23 @@ public class ImmutableDexTransform extends Transform {
             dxOutDir.mkdirs()
         }
 
+        //dx runs as gradle work items, bounded by --max-workers like the other workers of the build
+        WorkQueue workQueue = ((ProjectInternal) project).getServices().get(WorkerExecutor.class).noIsolation()
+        def dexOptions = project.android.getDexOptions()
         classPreDir.eachFile { classZip ->
             String classIndexName = classZip.name - ".jar"
             String dexPath = "${dxOutDir.absolutePath}/${classIndexName}.dex"
             dexPathList.add(dexPath)
-            doDex(dexPath, classZip, project.android.getDexOptions())
+            doDex(workQueue, dexPath, classZip, dexOptions)
         }
+        workQueue.await()
 
         checkClassConsistence(dexPathList, allClassSet)
 
     }
 
     private void processJar(File jarFile,
-                            HashSet<String> allClassSet, HashMap<String, String> pathDexMap, HashSet<String> mainDexSets, HashMap<String, DexRefData> methodAndFieldsNum, HashMap<String, ZipOutputStream> osMap, HashMap<ZipEntry, ByteArrayOutputStream> orphanMap) {
-
+                            HashSet<String> allClassSet, HashMap<String, String> pathDexMap, HashSet<String> mainDexSets, HashMap<String, DexRefData> methodAndFieldsNum, HashMap<String, ZipOutputStream> osMap, List<ScannedClass> orphanList, Set<String> changedDexes) {
 
         ZipFile zipFile = new ZipFile(jarFile)
         //process class in maindexlist in first
@@ -275,13 +332,14 @@ public class ImmutableDexTransform extends Transform {
                     String classPath = rePathToClassPath(zipEntry.name)
                     allClassSet.add(classPath)
                     project.logger.info("process main dex list's class " + classPath)
-                    if (!writeClassToZip(methodAndFieldsNum, osMap, "classes", bytes, zipEntry)) {
+                    if (!writeClassToZip(methodAndFieldsNum, osMap, "classes", new ScannedClass(zipEntry, bytes))) {
                         throw new GradleException("main dex is exceed the limit! reduce the class number on your main dex keep please.")
                     }
                 }
             }
         })
 
+        //only the orphans are kept in memory, the others are written as they are read
         traversal(zipFile, {
             ZipEntry zipEntry,
             byte[] bytes ->
@@ -289,24 +347,27 @@ public class ImmutableDexTransform extends Transform {
                     String classPath = rePathToClassPath(zipEntry.name)
                     if (!Utils.isBlank(classPath) && !allClassSet.contains(classPath)) {
                         allClassSet.add(classPath)
+                        ScannedClass scannedClass = new ScannedClass(zipEntry, bytes)
                         //get the old dex name which class be located
                         String belongDex = belongTo(pathDexMap, classPath)
                         //the class is new or method|fields exceeds limit
                         if (Utils.isBlank(belongDex) ||
-                                !writeClassToZip(methodAndFieldsNum, osMap, belongDex, bytes, zipEntry)) {
+                                !writeClassToZip(methodAndFieldsNum, osMap, belongDex, scannedClass)) {
                             if (Utils.isBlank(belongDex)) {
                                 project.logger.warn("find new class: " + classPath)
+                            } else {
+                                changedDexes.add(belongDex)
                             }
-                            saveOrphan(orphanMap, zipEntry, bytes)
+                            orphanList.add(scannedClass)
                         }
                     } else {
                         if (Utils.isBlank(classPath)) {
                             project.logger.error("illegal zip entry: " + zipEntry.name)
                         }
                     }
-
                 }
         })
+        Utils.closeQuietly(zipFile)
     }
 
     public HashSet<String> initMainDexSet(File mainDexList) {
@@ -329,30 +390,58 @@ public class ImmutableDexTransform extends Transform {
     }
 
 
-    private void doDex(String dexPath, File classZip, def dexOptions) {
+    /**
+     * Queues dx for one jar, it is run by a gradle worker and must not touch the project.
+     */
+    private void doDex(WorkQueue workQueue, String dexPath, File classZip, def dexOptions) {
 
         def dexJar = "${project.android.getSdkDirectory()}/build-tools/${project.android.buildToolsVersion}/lib/dx.jar"
-        def task = project.tasks.create("dx" + (classZip.name - ".jar") + varName, JavaExec.class, new Action<JavaExec>() {
+        ArrayList<String> execArgs = new ArrayList()
+        execArgs.add("--dex")
+        if (dexOptions.getJumboMode()) {
+            execArgs.add("--force-jumbo")
+        }
+        if (dexOptions.getIncremental()) {
+            execArgs.add("--incremental")
+            execArgs.add("--no-strict")
+        }
+        execArgs.add("--output=${dexPath}".toString())
+        execArgs.add(classZip.absolutePath)
+        project.logger.info(execArgs.toString())
+        workQueue.submit(DxWorkAction.class, new Action<DxWorkParameters>() {
             @Override
-            void execute(JavaExec javaExec) {
-                ArrayList<String> execArgs = new ArrayList()
-                execArgs.add("--dex")
-                if (dexOptions.getJumboMode()) {
-                    execArgs.add("--force-jumbo")
-                }
-                if (dexOptions.getIncremental()) {
-                    execArgs.add("--incremental")
-                    execArgs.add("--no-strict")
-                }
-                execArgs.add("--output=${dexPath}")
-                execArgs.add(classZip.absolutePath)
-                project.logger.info(execArgs.toString())
-                javaExec.setClasspath(project.files(dexJar))
-                javaExec.setMain("com.android.dx.command.Main")
-                javaExec.setArgs(execArgs)
+            void execute(DxWorkParameters parameters) {
+                parameters.getDxClasspath().from(dexJar)
+                parameters.getArgs().set(execArgs)
             }
         })
-        task.execute()
+    }
+
+    static interface DxWorkParameters extends WorkParameters {
+        ConfigurableFileCollection getDxClasspath()
+
+        ListProperty<String> getArgs()
+    }
+
+    /**
+     * Runs dx in a process of its own.
+     */
+    static abstract class DxWorkAction implements WorkAction<DxWorkParameters> {
+
+        @Inject
+        abstract ExecOperations getExecOperations()
+
+        @Override
+        void execute() {
+            getExecOperations().javaexec(new Action<JavaExecSpec>() {
+                @Override
+                void execute(JavaExecSpec javaExec) {
+                    javaExec.setClasspath(getParameters().getDxClasspath())
+                    javaExec.setMain("com.android.dx.command.Main")
+                    javaExec.setArgs(getParameters().getArgs().get())
+                }
+            })
+        }
     }
 
     public static void inject(Project project, def variant) {
@@ -445,15 +534,12 @@ public class ImmutableDexTransform extends Transform {
     boolean writeClassToZip(HashMap<String, DexRefData> methodAndFieldsNum,
                             HashMap<String, ZipOutputStream> osMap,
                             String belongDex,
-                            byte[] bytes,
-                            ZipEntry zipEntry) {
+                            ScannedClass scannedClass) {
         File jarFile = new File(classPreDir, belongDex + ".jar")
-        DexRefData mfData = methodAndFieldsNum.get(jarFile.name)
-        if (mfData == null) {
-            mfData = new DexRefData()
-            methodAndFieldsNum.put(jarFile.name, mfData)
-        }
-        ClassSimDef cf = new ClassSimDef(bytes, mfData.refFields, mfData.refMtds)
+        DexRefData mfData = getDexRefData(methodAndFieldsNum, belongDex)
+        ClassSimDef cf = scannedClass.simDef
+        ZipEntry zipEntry = scannedClass.zipEntry
+        byte[] bytes = scannedClass.bytes
         ZipOutputStream zos = osMap.get(belongDex)
         if (zos == null) {
             project.logger.info("jarFile is  ${jarFile}.")
@@ -468,17 +554,30 @@ public class ImmutableDexTransform extends Transform {
         }
     }
 
-    boolean writeClassToZipNoCheck(DexRefData mfData, ClassSimDef cf, ZipOutputStream zos, ZipEntry zipEntry, byte[] bytes) {
+    DexRefData getDexRefData(HashMap<String, DexRefData> methodAndFieldsNum, String belongDex) {
+        String jarName = belongDex + ".jar"
+        DexRefData mfData = methodAndFieldsNum.get(jarName)
+        if (mfData == null) {
+            mfData = new DexRefData()
+            methodAndFieldsNum.put(jarName, mfData)
+        }
+        return mfData
+    }
+
+    static boolean canHold(DexRefData mfData, ClassSimDef cf) {
         /**
          * In ClassSimDef, only the fields  which  methods referenced or in the class definition are scanned.
          * But in fact, some fields may be referenced in annotation. So the statistics in ClassSimDef is not complete.
          * The threshold is adjusted lower in order to avoid the troubles to calculate the fields referred by annotations.
          */
-        if (mfData.methodNum + cf.methodCount >= 65536 || mfData.fieldNum + cf.fieldCount >= 64536) {
+        return mfData.methodNum + mfData.countNewMethods(cf) < 65536 && mfData.fieldNum + mfData.countNewFields(cf) < 64536
+    }
+
+    boolean writeClassToZipNoCheck(DexRefData mfData, ClassSimDef cf, ZipOutputStream zos, ZipEntry zipEntry, byte[] bytes) {
+        if (!canHold(mfData, cf)) {
             return false
         } else {
-            mfData.methodNum += cf.methodCount
-            mfData.fieldNum += cf.fieldCount
+            mfData.add(cf)
             zos.putNextEntry(zipEntry)
             zos.write(bytes)
             zos.closeEntry()
@@ -486,11 +585,19 @@ public class ImmutableDexTransform extends Transform {
         }
     }
 
-    void saveOrphan(HashMap<ZipEntry, ByteArrayOutputStream> orphanMap, ZipEntry zipEntry, byte[] bytes) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length)
-        bos.write(bytes, 0, bytes.length)
-        bos.flush()
-        orphanMap.put(zipEntry, bos)
+    /**
+     * A class read from all-classes.jar with the references it adds to a dex.
+     */
+    static class ScannedClass {
+        final ZipEntry zipEntry
+        final byte[] bytes
+        final ClassSimDef simDef
+
+        ScannedClass(ZipEntry zipEntry, byte[] bytes) {
+            this.zipEntry = zipEntry
+            this.bytes = bytes
+            this.simDef = new ClassSimDef(bytes)
+        }
     }
 
     public static String getNextClassName(int index) {
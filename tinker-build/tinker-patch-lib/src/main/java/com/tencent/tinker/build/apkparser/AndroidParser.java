@@ -17,6 +17,7 @@
 package com.tencent.tinker.build.apkparser;
 
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.commons.util.IOHelper;
 
 import org.w3c.dom.Document;
@@ -86,11 +87,19 @@ public class AndroidParser {
     }
 
     public static boolean resourceTableLogicalChange(Configuration config) throws IOException {
-        ApkParser parser = new ApkParser(config.mOldApkFile);
-        ApkParser newParser = new ApkParser(config.mNewApkFile);
+        ResourceTable oldResourceTable = parseResourceTable(config, config.mOldApkFile);
+        ResourceTable newResourceTable = parseResourceTable(config, config.mNewApkFile);
+        return oldResourceTable.equals(newResourceTable);
+    }
+
+    private static ResourceTable parseResourceTable(Configuration config, File apkFile) throws IOException {
+        final ParsedApk parsedApk = ParsedApk.of(config, apkFile);
+        if (parsedApk != null) {
+            return parsedApk.getResourceTable();
+        }
+        ApkParser parser = new ApkParser(apkFile);
         parser.parseResourceTable();
-        newParser.parseResourceTable();
-        return parser.getResourceTable().equals(newParser.getResourceTable());
+        return parser.getResourceTable();
     }
 
     public static void editResourceTableString(String from, String to, File originFile, File destFile) throws IOException {
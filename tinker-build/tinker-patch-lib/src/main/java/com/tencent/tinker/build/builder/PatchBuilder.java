@@ -19,18 +19,13 @@ package com.tencent.tinker.build.builder;
 
 import com.tencent.tinker.build.patch.Configuration;
 import com.tencent.tinker.build.util.FileOperation;
+import com.tencent.tinker.build.util.JarV1Signer;
 import com.tencent.tinker.build.util.Logger;
+import com.tencent.tinker.build.util.PerfReport;
 import com.tencent.tinker.build.util.TypedValue;
-import com.tencent.tinker.commons.util.IOHelper;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.Key;
-import java.security.KeyStore;
-import java.util.ArrayList;
 
 /**
  * @author zhangshaowen
@@ -61,10 +56,26 @@ public class PatchBuilder {
         if (resultDir.listFiles().length == 0) {
             return;
         }
-        generateUnsignedApk(unSignedApk);
-        signApk(unSignedApk, signedApk);
+        PerfReport.Phase phase = config.mPerfReport.beginPhase("build.zip");
+        try {
+            phase.addBytesRead(FileOperation.getDirSizes(resultDir));
+            generateUnsignedApk(unSignedApk);
+            phase.addBytesWritten(unSignedApk.length());
+            if (config.mUseSignAPk) {
+                generateSignedApk(signedApk);
+                phase.addBytesWritten(signedApk.length());
+            }
+        } finally {
+            phase.end();
+        }
 
-        use7zApk(signedApk, signedWith7ZipApk, sevenZipOutPutDir);
+        phase = config.mPerfReport.beginPhase("build.7zip");
+        try {
+            use7zApk(signedApk, signedWith7ZipApk, sevenZipOutPutDir);
+            phase.addBytesWritten(signedWith7ZipApk.length());
+        } finally {
+            phase.end();
+        }
 
         if (!signedApk.exists()) {
             Logger.e("Result: final unsigned patch result: %s, size=%d", unSignedApk.getAbsolutePath(), unSignedApk.length());
@@ -86,71 +97,28 @@ public class PatchBuilder {
 
     }
 
-    private String getSignatureAlgorithm() throws Exception {
-        InputStream is = null;
-        try {
-            is = new BufferedInputStream(new FileInputStream(config.mSignatureFile));
-            KeyStore keyStore = KeyStore.getInstance("JKS");
-            keyStore.load(is, config.mStorePass.toCharArray());
-            Key key = keyStore.getKey(config.mStoreAlias, config.mKeyPass.toCharArray());
-            String keyAlgorithm = key.getAlgorithm();
-            String signatureAlgorithm;
-            if (keyAlgorithm.equalsIgnoreCase("DSA")) {
-                signatureAlgorithm = "SHA1withDSA";
-            } else if (keyAlgorithm.equalsIgnoreCase("RSA")) {
-                signatureAlgorithm = "SHA1withRSA";
-            } else if (keyAlgorithm.equalsIgnoreCase("EC")) {
-                signatureAlgorithm = "SHA1withECDSA";
-            } else {
-                throw new RuntimeException("private key is not a DSA or "
-                        + "RSA key");
-            }
-            return signatureAlgorithm;
-        } finally {
-            IOHelper.closeQuietly(is);
-        }
-    }
-
     /**
-     * @param input  unsigned file input
+     * Zip patch files and sign them with jar signature scheme in the same pass.
+     *
      * @param output signed file output
      * @throws IOException
-     * @throws InterruptedException
      */
-    private void signApk(File input, File output) throws Exception {
-        //sign apk
-        if (config.mUseSignAPk) {
-            Logger.d("Signing apk: %s", output.getName());
-            String signatureAlgorithm = getSignatureAlgorithm();
-            Logger.d("Signing key algorithm is %s", signatureAlgorithm);
-
-            if (output.exists()) {
-                output.delete();
-            }
-            ArrayList<String> command = new ArrayList<>();
-            command.add("jarsigner");
-            // issue https://github.com/Tencent/tinker/issues/118
-            command.add("-sigalg");
-            command.add(signatureAlgorithm);
-            command.add("-digestalg");
-            command.add("SHA1");
-            command.add("-keystore");
-            command.add(config.mSignatureFile.getAbsolutePath());
-            command.add("-storepass");
-            command.add(config.mStorePass);
-            command.add("-keypass");
-            command.add(config.mKeyPass);
-            command.add("-signedjar");
-            command.add(output.getAbsolutePath());
-            command.add(input.getAbsolutePath());
-            command.add(config.mStoreAlias);
-
-            Process process = new ProcessBuilder(command).start();
-            process.waitFor();
-            process.destroy();
-            if (!output.exists()) {
-                throw new IOException("Can't Generate signed APK. Please check if your sign info is correct.");
-            }
+    private void generateSignedApk(File output) throws Exception {
+        Logger.d("Signing apk: %s", output.getName());
+        final File tempOutDir = config.mTempResultDir;
+        if (!tempOutDir.exists()) {
+            throw new IOException(String.format(
+                "Missing patch unzip files, path=%s\n", tempOutDir.getAbsolutePath()));
+        }
+        final JarV1Signer signer = JarV1Signer.create(config);
+        Logger.d("Signing key algorithm is %s", signer.getSignatureAlgorithm());
+
+        if (output.exists()) {
+            output.delete();
+        }
+        FileOperation.zipInputDir(tempOutDir, output, null, signer);
+        if (!output.exists()) {
+            throw new IOException("Can't Generate signed APK. Please check if your sign info is correct.");
         }
     }
 
@@ -18,9 +18,10 @@ package com.tencent.tinker.build.decoder;
 
 
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.build.util.FileOperation;
 import com.tencent.tinker.build.util.Logger;
-import com.tencent.tinker.build.util.MD5;
+import com.tencent.tinker.build.util.PerfReport;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
 import com.tencent.tinker.build.util.Utils;
@@ -87,13 +88,21 @@ public class ApkDecoder extends BaseDecoder {
     }
 
     private void unzipApkFiles(File oldFile, File newFile) throws IOException, TinkerPatchException {
-        unzipApkFile(oldFile, this.mOldApkDir);
-        unzipApkFile(newFile, this.mNewApkDir);
+        if (config.mParsedOldApk != null) {
+            config.mParsedOldApk.unzip();
+        } else {
+            unzipApkFile(oldFile, this.mOldApkDir);
+        }
+        if (config.mParsedNewApk != null) {
+            config.mParsedNewApk.unzip();
+        } else {
+            unzipApkFile(newFile, this.mNewApkDir);
+        }
     }
 
     private void writeToLogFile(File oldFile, File newFile) throws IOException {
-        String line1 = "old apk: " + oldFile.getName() + ", size=" + FileOperation.getFileSizes(oldFile) + ", md5=" + MD5.getMD5(oldFile);
-        String line2 = "new apk: " + newFile.getName() + ", size=" + FileOperation.getFileSizes(newFile) + ", md5=" + MD5.getMD5(newFile);
+        String line1 = "old apk: " + oldFile.getName() + ", size=" + FileOperation.getFileSizes(oldFile) + ", md5=" + ParsedApk.getMD5(config, oldFile);
+        String line2 = "new apk: " + newFile.getName() + ", size=" + FileOperation.getFileSizes(newFile) + ", md5=" + ParsedApk.getMD5(config, newFile);
         Logger.d("Analyze old and new apk files1:");
         Logger.d(line1);
         Logger.d(line2);
@@ -111,11 +120,27 @@ public class ApkDecoder extends BaseDecoder {
     public boolean patch(File oldFile, File newFile) throws Exception {
         writeToLogFile(oldFile, newFile);
         //check manifest change first
-        manifestDecoder.patch(oldFile, newFile);
+        PerfReport.Phase phase = config.mPerfReport.beginPhase("decode.manifest");
+        try {
+            manifestDecoder.patch(oldFile, newFile);
+        } finally {
+            phase.end();
+        }
 
-        unzipApkFiles(oldFile, newFile);
+        phase = config.mPerfReport.beginPhase("decode.unzip");
+        try {
+            unzipApkFiles(oldFile, newFile);
+            phase.addBytesRead(oldFile.length() + newFile.length());
+        } finally {
+            phase.end();
+        }
 
-        Files.walkFileTree(mNewApkDir.toPath(), new ApkFilesVisitor(config, mNewApkDir.toPath(), mOldApkDir.toPath(), dexPatchDecoder, soPatchDecoder, resPatchDecoder));
+        phase = config.mPerfReport.beginPhase("decode.files");
+        try {
+            Files.walkFileTree(mNewApkDir.toPath(), new ApkFilesVisitor(config, mNewApkDir.toPath(), mOldApkDir.toPath(), dexPatchDecoder, soPatchDecoder, resPatchDecoder, phase));
+        } finally {
+            phase.end();
+        }
 
         // get all duplicate resource file
         for (File duplicateRes : resDuplicateFiles) {
@@ -124,21 +149,37 @@ public class ApkDecoder extends BaseDecoder {
                 + "we treat it as unchanged in the new resource_out.zip", getRelativePathStringToOldFile(duplicateRes));
         }
 
-        soPatchDecoder.onAllPatchesEnd();
-        dexPatchDecoder.onAllPatchesEnd();
-        manifestDecoder.onAllPatchesEnd();
-        resPatchDecoder.onAllPatchesEnd();
-        arkHotDecoder.onAllPatchesEnd();
+        onDecoderPatchesEnd("so", soPatchDecoder);
+        onDecoderPatchesEnd("dex", dexPatchDecoder);
+        onDecoderPatchesEnd("manifest", manifestDecoder);
+        onDecoderPatchesEnd("res", resPatchDecoder);
+        onDecoderPatchesEnd("arkHot", arkHotDecoder);
 
         //clean resources
-        dexPatchDecoder.clean();
-        soPatchDecoder.clean();
-        resPatchDecoder.clean();
-        arkHotDecoder.clean();
+        phase = config.mPerfReport.beginPhase("decode.clean");
+        try {
+            dexPatchDecoder.clean();
+            soPatchDecoder.clean();
+            resPatchDecoder.clean();
+            arkHotDecoder.clean();
+        } finally {
+            phase.end();
+        }
 
         return true;
     }
 
+    private void onDecoderPatchesEnd(String name, BaseDecoder decoder) throws Exception {
+        final long resultBytesBefore = FileOperation.getDirSizes(config.mTempResultDir);
+        final PerfReport.Phase phase = config.mPerfReport.beginPhase("decode." + name + ".end");
+        try {
+            decoder.onAllPatchesEnd();
+        } finally {
+            phase.addBytesWritten(FileOperation.getDirSizes(config.mTempResultDir) - resultBytesBefore);
+            phase.end();
+        }
+    }
+
     @Override
     public void onAllPatchesEnd() throws IOException, TinkerPatchException {
     }
@@ -150,14 +191,25 @@ public class ApkDecoder extends BaseDecoder {
         Configuration   config;
         Path            newApkPath;
         Path            oldApkPath;
+        PerfReport.Phase phase;
 
-        ApkFilesVisitor(Configuration config, Path newPath, Path oldPath, BaseDecoder dex, BaseDecoder so, BaseDecoder resDecoder) {
+        ApkFilesVisitor(Configuration config, Path newPath, Path oldPath, BaseDecoder dex, BaseDecoder so, BaseDecoder resDecoder,
+                        PerfReport.Phase phase) {
             this.config = config;
             this.dexDecoder = dex;
             this.soDecoder = so;
             this.resDecoder = resDecoder;
             this.newApkPath = newPath;
             this.oldApkPath = oldPath;
+            this.phase = phase;
+        }
+
+        private void patchFile(String category, BaseDecoder decoder, String patternKey, File oldFile, File newFile) throws Exception {
+            final long bytesRead = (oldFile != null ? oldFile.length() : 0) + newFile.length();
+            final long begin = System.nanoTime();
+            decoder.patch(oldFile, newFile);
+            config.mPerfReport.recordFile(category, patternKey, bytesRead, System.nanoTime() - begin);
+            phase.addBytesRead(bytesRead);
         }
 
         @Override
@@ -181,7 +233,7 @@ public class ApkDecoder extends BaseDecoder {
                 }
 
                 try {
-                    dexDecoder.patch(oldFile, file.toFile());
+                    patchFile("dex", dexDecoder, patternKey, oldFile, file.toFile());
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
@@ -206,7 +258,7 @@ public class ApkDecoder extends BaseDecoder {
                 }
 
                 try {
-                    soDecoder.patch(oldFile, file.toFile());
+                    patchFile("so", soDecoder, patternKey, oldFile, file.toFile());
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
@@ -214,7 +266,7 @@ public class ApkDecoder extends BaseDecoder {
             }
             if (Utils.checkFileInPattern(config.mResFilePattern, patternKey)) {
                 try {
-                    resDecoder.patch(oldFile, file.toFile());
+                    patchFile("res", resDecoder, patternKey, oldFile, file.toFile());
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
@@ -22,9 +22,15 @@ import com.tencent.tinker.android.dex.Dex;
 import com.tencent.tinker.android.dex.DexFormat;
 import com.tencent.tinker.build.dexpatcher.DexPatchGenerator;
 import com.tencent.tinker.build.dexpatcher.util.ChangedClassesDexClassInfoCollector;
+import com.tencent.tinker.build.dexpatcher.util.ChangedClassesDexExtractor;
+import com.tencent.tinker.build.dexpatcher.util.DexDiffResultCache;
 import com.tencent.tinker.build.dexpatcher.util.PatternUtils;
+import com.tencent.tinker.build.info.BinaryMetaWriter;
 import com.tencent.tinker.build.info.InfoWriter;
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
+import com.tencent.tinker.build.util.DexClassFingerprints;
+import com.tencent.tinker.build.util.DexClassFingerprints.Fingerprint;
 import com.tencent.tinker.build.util.DexClassesComparator;
 import com.tencent.tinker.build.util.DexClassesComparator.DexClassInfo;
 import com.tencent.tinker.build.util.DexClassesComparator.DexGroup;
@@ -42,8 +48,6 @@ import org.jf.dexlib2.AccessFlags;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.ReferenceType;
-import org.jf.dexlib2.builder.BuilderMutableMethodImplementation;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.iface.Field;
 import org.jf.dexlib2.iface.Method;
@@ -55,10 +59,6 @@ import org.jf.dexlib2.iface.reference.MethodReference;
 import org.jf.dexlib2.iface.reference.TypeReference;
 import org.jf.dexlib2.util.MethodUtil;
 import org.jf.dexlib2.util.TypeUtils;
-import org.jf.dexlib2.writer.builder.BuilderField;
-import org.jf.dexlib2.writer.builder.BuilderMethod;
-import org.jf.dexlib2.writer.builder.DexBuilder;
-import org.jf.dexlib2.writer.io.FileDataStore;
 
 import java.io.File;
 import java.io.IOException;
@@ -71,6 +71,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -103,11 +110,17 @@ public class DexDiffDecoder extends BaseDecoder {
 
     private final List<File> oldDexFiles;
 
+    private final DexDiffResultCache dexDiffResultCache;
+
+    private ExecutorService deferredVerifyExecutor = null;
+    private final List<Future<Void>> deferredVerifications;
+
     public DexDiffDecoder(Configuration config, String metaPath, String logPath) throws IOException {
         super(config);
 
         if (metaPath != null) {
-            metaWriter = new InfoWriter(config, config.mTempResultDir + File.separator + metaPath);
+            metaWriter = InfoWriter.createMetaWriter(config, config.mTempResultDir + File.separator + metaPath,
+                BinaryMetaWriter.KIND_DEX);
         } else {
             metaWriter = null;
         }
@@ -144,6 +157,14 @@ public class DexDiffDecoder extends BaseDecoder {
         descOfSyntheticClassesInApk = new HashSet<>();
 
         oldDexFiles = new ArrayList<>();
+
+        if (config.mDexDiffCacheDir != null) {
+            dexDiffResultCache = new DexDiffResultCache(config.mDexDiffCacheDir, config.mDexLoaderPattern);
+        } else {
+            dexDiffResultCache = null;
+        }
+
+        deferredVerifications = new ArrayList<>();
     }
 
     @Override
@@ -251,6 +272,8 @@ public class DexDiffDecoder extends BaseDecoder {
             generatePatchInfoFile();
         }
 
+        awaitDeferredVerifications();
+
         addTestDex();
     }
 
@@ -392,21 +415,21 @@ public class DexDiffDecoder extends BaseDecoder {
     private void generateChangedClassesDexFile() throws IOException {
         final String dexMode = config.mDexRaw ? "raw" : "jar";
 
-        List<File> oldDexList = new ArrayList<>();
-        List<File> newDexList = new ArrayList<>();
+        List<Dex> oldDexList = new ArrayList<>();
+        List<Dex> newDexList = new ArrayList<>();
         for (AbstractMap.SimpleEntry<File, File> oldAndNewDexFilePair : oldAndNewDexFilePairList) {
             File oldDexFile = oldAndNewDexFilePair.getKey();
             File newDexFile = oldAndNewDexFilePair.getValue();
             if (oldDexFile != null) {
-                oldDexList.add(oldDexFile);
+                oldDexList.add(ParsedApk.loadDex(config, oldDexFile));
             }
             if (newDexFile != null) {
-                newDexList.add(newDexFile);
+                newDexList.add(ParsedApk.loadDex(config, newDexFile));
             }
         }
 
-        DexGroup oldDexGroup = DexGroup.wrap(oldDexList);
-        DexGroup newDexGroup = DexGroup.wrap(newDexList);
+        DexGroup oldDexGroup = DexGroup.wrap(oldDexList.toArray(new Dex[0]));
+        DexGroup newDexGroup = DexGroup.wrap(newDexList.toArray(new Dex[0]));
 
         ChangedClassesDexClassInfoCollector collector = new ChangedClassesDexClassInfoCollector();
         collector.setExcludedClassPatterns(config.mDexLoaderPattern);
@@ -431,68 +454,11 @@ public class DexDiffDecoder extends BaseDecoder {
         int changedDexId = 1;
         for (Dex dex : owners) {
             Set<String> descOfChangedClassesInCurrDex = ownerToDescOfChangedClassesMap.get(dex);
-            DexFile dexFile = new DexBackedDexFile(org.jf.dexlib2.Opcodes.forApi(20), dex.getBytes());
-            boolean isCurrentDexHasChangedClass = false;
-            for (org.jf.dexlib2.iface.ClassDef classDef : dexFile.getClasses()) {
-                if (descOfChangedClassesInCurrDex.contains(classDef.getType())) {
-                    isCurrentDexHasChangedClass = true;
-                    break;
-                }
-            }
-            if (!isCurrentDexHasChangedClass) {
-                continue;
-            }
-            DexBuilder dexBuilder = new DexBuilder(Opcodes.forApi(23));
-            for (org.jf.dexlib2.iface.ClassDef classDef : dexFile.getClasses()) {
-                if (!descOfChangedClassesInCurrDex.contains(classDef.getType())) {
-                    continue;
-                }
-
-                Logger.d("Class %s will be added into changed classes dex ...", classDef.getType());
-
-                List<BuilderField> builderFields = new ArrayList<>();
-                for (Field field : classDef.getFields()) {
-                    final BuilderField builderField = dexBuilder.internField(
-                            field.getDefiningClass(),
-                            field.getName(),
-                            field.getType(),
-                            field.getAccessFlags(),
-                            field.getInitialValue(),
-                            field.getAnnotations()
-                    );
-                    builderFields.add(builderField);
-                }
-                List<BuilderMethod> builderMethods = new ArrayList<>();
-
-                for (Method method : classDef.getMethods()) {
-                    MethodImplementation methodImpl = method.getImplementation();
-                    if (methodImpl != null) {
-                        methodImpl = new BuilderMutableMethodImplementation(dexBuilder, methodImpl);
-                    }
-                    BuilderMethod builderMethod = dexBuilder.internMethod(
-                            method.getDefiningClass(),
-                            method.getName(),
-                            method.getParameters(),
-                            method.getReturnType(),
-                            method.getAccessFlags(),
-                            method.getAnnotations(),
-                            methodImpl
-                    );
-                    builderMethods.add(builderMethod);
-                }
-                dexBuilder.internClassDef(
-                        classDef.getType(),
-                        classDef.getAccessFlags(),
-                        classDef.getSuperclass(),
-                        classDef.getInterfaces(),
-                        classDef.getSourceFile(),
-                        classDef.getAnnotations(),
-                        builderFields,
-                        builderMethods
-                );
+            for (String classDesc : descOfChangedClassesInCurrDex) {
+                Logger.d("Class %s will be added into changed classes dex ...", classDesc);
             }
 
-            // Write constructed changed classes dex to file and record it in meta file.
+            // Write changed classes dex to file and record it in meta file.
             String changedDexName = null;
             if (changedDexId == 1) {
                 changedDexName = "classes.dex";
@@ -500,8 +466,9 @@ public class DexDiffDecoder extends BaseDecoder {
                 changedDexName = "classes" + changedDexId + ".dex";
             }
             final File dest = new File(config.mTempResultDir + "/" + changedDexName);
-            final FileDataStore fileDataStore = new FileDataStore(dest);
-            dexBuilder.writeTo(fileDataStore);
+            if (new ChangedClassesDexExtractor(dex).extract(descOfChangedClassesInCurrDex, dest) == 0) {
+                continue;
+            }
             final String md5 = MD5.getMD5(dest);
             appendMetaLine(metaBuilder, changedDexName, "", md5, md5, 0, 0, 0, dexMode);
             ++changedDexId;
@@ -624,14 +591,38 @@ public class DexDiffDecoder extends BaseDecoder {
     }
 
     private void diffDexPairAndFillRelatedInfo(File oldDexFile, File newDexFile, RelatedInfo relatedInfo) {
+        final long begin = System.nanoTime();
+        try {
+            diffDexPair(oldDexFile, newDexFile, relatedInfo);
+        } finally {
+            config.mPerfReport.recordFile("dexDiff", getRelativeDexName(oldDexFile, newDexFile),
+                    oldDexFile.length() + newDexFile.length(), System.nanoTime() - begin);
+        }
+    }
+
+    private void diffDexPair(File oldDexFile, File newDexFile, RelatedInfo relatedInfo) {
         File tempFullPatchDexPath = new File(config.mOutFolder + File.separator + TypedValue.DEX_TEMP_PATCH_DIR);
         final String dexName = getRelativeDexName(oldDexFile, newDexFile);
 
         File dexDiffOut = getOutputPath(newDexFile).toFile();
         ensureDirectoryExist(dexDiffOut.getParentFile());
 
+        String cacheKey = null;
+        if (dexDiffResultCache != null) {
+            cacheKey = dexDiffResultCache.getKey(oldDexFile, newDexFile);
+            if (cacheKey != null) {
+                final boolean restored = restoreDexDiffFromCache(cacheKey, dexName, dexDiffOut, relatedInfo);
+                config.mPerfReport.recordCacheLookup("dexDiffResult", restored);
+                if (restored) {
+                    return;
+                }
+            }
+        }
+
         try {
-            DexPatchGenerator dexPatchGen = new DexPatchGenerator(oldDexFile, newDexFile);
+            DexPatchGenerator dexPatchGen = new DexPatchGenerator(
+                    ParsedApk.loadDex(config, oldDexFile), ParsedApk.loadDex(config, newDexFile)
+            );
             dexPatchGen.setAdditionalRemovingClassPatterns(config.mDexLoaderPattern);
 
             logWriter.writeLineToInfoFile(
@@ -663,14 +654,6 @@ public class DexDiffDecoder extends BaseDecoder {
         try {
             new DexPatchApplier(oldDexFile, dexDiffOut).executeAndSaveTo(tempFullPatchedDexFile);
 
-            Logger.d(
-                    String.format("Verifying if patched new dex is logically the same as original new dex: %s ...", getRelativeStringBy(newDexFile, config.mTempUnzipNewDir))
-            );
-
-            Dex origNewDex = new Dex(newDexFile);
-            Dex patchedNewDex = new Dex(tempFullPatchedDexFile);
-            checkDexChange(origNewDex, patchedNewDex);
-
             relatedInfo.newOrFullPatchedFile = tempFullPatchedDexFile;
             relatedInfo.newOrFullPatchedMd5 = MD5.getMD5(tempFullPatchedDexFile);
             relatedInfo.newOrFullPatchedCRC = FileOperation.getFileCrc32(tempFullPatchedDexFile);
@@ -685,6 +668,147 @@ public class DexDiffDecoder extends BaseDecoder {
             throw new TinkerPatchException("can not find the temporary full patched dex file:" + tempFullPatchedDexFile.getAbsolutePath());
         }
         Logger.d("\nGen %s for dalvik full dex file:%s, size:%d, md5:%s", dexName, tempFullPatchedDexFile.getAbsolutePath(), tempFullPatchedDexFile.length(), relatedInfo.newOrFullPatchedMd5);
+
+        final DexDiffResultCache.Result result = new DexDiffResultCache.Result(
+                relatedInfo.dexDiffMd5, relatedInfo.newOrFullPatchedMd5, relatedInfo.newOrFullPatchedCRC);
+
+        if (config.mDexVerifyPolicy.equals(TypedValue.DEX_VERIFY_POLICY_DEFERRED)) {
+            submitDeferredVerification(newDexFile, tempFullPatchedDexFile, dexDiffOut, cacheKey, result);
+            return;
+        }
+
+        try {
+            verifyPatchedDex(newDexFile, tempFullPatchedDexFile);
+        } catch (IOException e) {
+            throw new TinkerPatchException("Failed to verify temporary patched dex: " + tempFullPatchedDexFile.getAbsolutePath(), e);
+        }
+
+        if (cacheKey != null) {
+            dexDiffResultCache.store(cacheKey, dexDiffOut, result);
+        }
+    }
+
+    private void verifyPatchedDex(File newDexFile, File patchedDexFile) throws IOException {
+        Logger.d(
+                String.format("Verifying if patched new dex is logically the same as original new dex: %s ...", getRelativeStringBy(newDexFile, config.mTempUnzipNewDir))
+        );
+
+        Dex origNewDex = ParsedApk.loadDex(config, newDexFile);
+        Dex patchedNewDex = new Dex(patchedDexFile);
+        if (config.mDexVerifyPolicy.equals(TypedValue.DEX_VERIFY_POLICY_HASH)) {
+            if (isPatchedDexSameByFingerprints(origNewDex, patchedNewDex)) {
+                return;
+            }
+            Logger.d("Fingerprints of patched dex do not match, fall back to full comparison.");
+        }
+        checkDexChange(origNewDex, patchedNewDex);
+    }
+
+    /**
+     * @return true if every class in patched dex has the same fingerprint as the one in new dex
+     * and only loader classes are missing. false means a structural comparison is needed.
+     */
+    private boolean isPatchedDexSameByFingerprints(Dex origNewDex, Dex patchedNewDex) {
+        final Map<String, Fingerprint> newFingerprints = DexClassFingerprints.of(origNewDex).getClassDescToFingerprintMap();
+        final Map<String, Fingerprint> patchedFingerprints = DexClassFingerprints.of(patchedNewDex).getClassDescToFingerprintMap();
+        for (Map.Entry<String, Fingerprint> entry : patchedFingerprints.entrySet()) {
+            if (!entry.getValue().equals(newFingerprints.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        for (String classDesc : newFingerprints.keySet()) {
+            if (!patchedFingerprints.containsKey(classDesc) && !Utils.isStringMatchesPatterns(classDesc, loaderClassPatterns)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void submitDeferredVerification(final File newDexFile, final File patchedDexFile, final File dexDiffOut,
+                                            final String cacheKey, final DexDiffResultCache.Result result) {
+        if (deferredVerifyExecutor == null) {
+            deferredVerifyExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "DexVerifier-" + threadIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        deferredVerifications.add(deferredVerifyExecutor.submit(Logger.bindToJob(config, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                verifyPatchedDex(newDexFile, patchedDexFile);
+                if (cacheKey != null) {
+                    dexDiffResultCache.store(cacheKey, dexDiffOut, result);
+                }
+                return null;
+            }
+        })));
+    }
+
+    /**
+     * Wait for all deferred verifications, the first failure among them fails the build.
+     */
+    private void awaitDeferredVerifications() {
+        if (deferredVerifications.isEmpty()) {
+            return;
+        }
+        Logger.d("\nWait for %d deferred dex verifications.", deferredVerifications.size());
+        Throwable firstError = null;
+        try {
+            for (Future<Void> verification : deferredVerifications) {
+                try {
+                    verification.get();
+                } catch (ExecutionException e) {
+                    if (firstError == null) {
+                        firstError = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            firstError = e;
+        } finally {
+            deferredVerifications.clear();
+            shutdownDeferredVerifyExecutor();
+        }
+        if (firstError instanceof TinkerPatchException) {
+            throw (TinkerPatchException) firstError;
+        } else if (firstError != null) {
+            throw new TinkerPatchException("Failed to verify temporary patched dex.", firstError);
+        }
+    }
+
+    private void shutdownDeferredVerifyExecutor() {
+        if (deferredVerifyExecutor != null) {
+            deferredVerifyExecutor.shutdownNow();
+            deferredVerifyExecutor = null;
+        }
+    }
+
+    private boolean restoreDexDiffFromCache(String cacheKey, String dexName, File dexDiffOut, RelatedInfo relatedInfo) {
+        final DexDiffResultCache.Result cached = dexDiffResultCache.restore(cacheKey, dexDiffOut);
+        if (cached == null) {
+            return false;
+        }
+
+        logWriter.writeLineToInfoFile(
+                String.format("Reuse cached diff result of [%s], cache key: %s", dexName, cacheKey)
+        );
+
+        relatedInfo.dexDiffFile = dexDiffOut;
+        relatedInfo.dexDiffMd5 = cached.dexDiffMd5;
+        // Full patched dex is neither generated nor needed, only its md5 and crc go to the dex meta.
+        relatedInfo.newOrFullPatchedFile = null;
+        relatedInfo.newOrFullPatchedMd5 = cached.fullPatchedMd5;
+        relatedInfo.newOrFullPatchedCRC = cached.fullPatchedCrc;
+        Logger.d("\nReuse cached %s patch file:%s, size:%d, md5:%s, full patched dex md5:%s",
+                dexName, dexDiffOut.getAbsolutePath(), dexDiffOut.length(), cached.dexDiffMd5, cached.fullPatchedMd5);
+        return true;
     }
 
     private void addTestDex() throws IOException {
@@ -743,8 +867,8 @@ public class DexDiffDecoder extends BaseDecoder {
      * and deleted class descriptor for further analysing in {@code checkCrossDexMovingClasses}.
      */
     private void collectAddedOrDeletedClasses(File oldFile, File newFile) throws IOException {
-        Dex oldDex = new Dex(oldFile);
-        Dex newDex = new Dex(newFile);
+        Dex oldDex = ParsedApk.loadDex(config, oldFile);
+        Dex newDex = ParsedApk.loadDex(config, newFile);
 
         Set<String> oldClassDescs = new HashSet<>();
         for (ClassDef oldClassDef : oldDex.classDefs()) {
@@ -908,6 +1032,7 @@ public class DexDiffDecoder extends BaseDecoder {
 
     @Override
     public void clean() {
+        shutdownDeferredVerifyExecutor();
         metaWriter.close();
         logWriter.close();
     }
@@ -915,7 +1040,7 @@ public class DexDiffDecoder extends BaseDecoder {
     private String getRawOrWrappedDexMD5(File dexOrJarFile) {
         final String name = dexOrJarFile.getName();
         if (name.endsWith(".dex")) {
-            return MD5.getMD5(dexOrJarFile);
+            return ParsedApk.getMD5(config, dexOrJarFile);
         } else {
             JarFile dexJar = null;
             try {
@@ -961,6 +1086,9 @@ public class DexDiffDecoder extends BaseDecoder {
     }
 
     private final class RelatedInfo {
+        /**
+         * This field could be null if dex diff result is reused from cache.
+         */
         File newOrFullPatchedFile = null;
         /**
          * This field could be null if old dex and new dex
@@ -19,6 +19,7 @@ package com.tencent.tinker.build.decoder;
 
 import com.tencent.tinker.build.apkparser.AndroidParser;
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.build.util.Logger;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
@@ -75,8 +76,8 @@ public class ManifestDecoder extends BaseDecoder {
     @Override
     public boolean patch(File oldFile, File newFile) throws IOException, TinkerPatchException {
         try {
-            AndroidParser oldAndroidManifest = AndroidParser.getAndroidManifest(oldFile);
-            AndroidParser newAndroidManifest = AndroidParser.getAndroidManifest(newFile);
+            AndroidParser oldAndroidManifest = ParsedApk.getAndroidManifest(config, oldFile);
+            AndroidParser newAndroidManifest = ParsedApk.getAndroidManifest(config, newFile);
 
             //check minSdkVersion
             int minSdkVersion = Integer.parseInt(oldAndroidManifest.apkMeta.getMinSdkVersion());
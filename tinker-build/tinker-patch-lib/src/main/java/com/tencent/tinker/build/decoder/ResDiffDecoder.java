@@ -17,13 +17,14 @@
 package com.tencent.tinker.build.decoder;
 
 import com.tencent.tinker.build.apkparser.AndroidParser;
+import com.tencent.tinker.build.info.BinaryMetaWriter;
 import com.tencent.tinker.build.info.InfoWriter;
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.build.util.DiffFactory;
 import com.tencent.tinker.build.util.FileOperation;
 import com.tencent.tinker.build.util.CustomDiff;
 import com.tencent.tinker.build.util.Logger;
-import com.tencent.tinker.build.util.MD5;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
 import com.tencent.tinker.build.util.Utils;
@@ -46,9 +47,11 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import tinker.net.dongliu.apk.parser.ApkParser;
+import tinker.net.dongliu.apk.parser.bean.ApkMeta;
 import tinker.net.dongliu.apk.parser.struct.ResourceValue;
 import tinker.net.dongliu.apk.parser.struct.resource.ResourceEntry;
 import tinker.net.dongliu.apk.parser.struct.resource.ResourcePackage;
+import tinker.net.dongliu.apk.parser.struct.resource.ResourceTable;
 import tinker.net.dongliu.apk.parser.struct.resource.Type;
 
 /**
@@ -76,7 +79,8 @@ public class ResDiffDecoder extends BaseDecoder {
         super(config);
 
         if (metaPath != null) {
-            metaWriter = new InfoWriter(config, config.mTempResultDir + File.separator + metaPath);
+            metaWriter = InfoWriter.createMetaWriter(config, config.mTempResultDir + File.separator + metaPath,
+                BinaryMetaWriter.KIND_RES);
         } else {
             metaWriter = null;
         }
@@ -93,7 +97,9 @@ public class ResDiffDecoder extends BaseDecoder {
         deletedSet = new ArrayList<>();
         storedSet = new ArrayList<>();
 
-        newApkParser = new ApkParser(config.mNewApkFile);
+        if (config.mParsedNewApk == null) {
+            newApkParser = new ApkParser(config.mNewApkFile);
+        }
         newApkAnimResNames = new HashSet<>();
     }
 
@@ -101,10 +107,12 @@ public class ResDiffDecoder extends BaseDecoder {
     public void clean() {
         metaWriter.close();
         logWriter.close();
-        try {
-            newApkParser.close();
-        } catch (Throwable ignored) {
-            // Ignored.
+        if (newApkParser != null) {
+            try {
+                newApkParser.close();
+            } catch (Throwable ignored) {
+                // Ignored.
+            }
         }
     }
 
@@ -124,14 +132,23 @@ public class ResDiffDecoder extends BaseDecoder {
 
     @Override
     public void onAllPatchesStart() throws IOException, TinkerPatchException {
-        newApkParser.parseResourceTable();
-        final Map<String, ResourcePackage> newApkResPkgNameMap = newApkParser.getResourceTable().getPackageNameMap();
+        final ResourceTable newApkResTable;
+        final ApkMeta newApkMeta;
+        if (config.mParsedNewApk != null) {
+            newApkResTable = config.mParsedNewApk.getResourceTable();
+            newApkMeta = config.mParsedNewApk.getApkMeta();
+        } else {
+            newApkParser.parseResourceTable();
+            newApkResTable = newApkParser.getResourceTable();
+            newApkMeta = newApkParser.getApkMeta();
+        }
+        final Map<String, ResourcePackage> newApkResPkgNameMap = newApkResTable.getPackageNameMap();
         do {
             if (newApkResPkgNameMap == null) {
                 break;
             }
 
-            final ResourcePackage newApkResPackage = newApkResPkgNameMap.get(newApkParser.getApkMeta().getPackageName());
+            final ResourcePackage newApkResPackage = newApkResPkgNameMap.get(newApkMeta.getPackageName());
             if (newApkResPackage == null) {
                 break;
             }
@@ -194,8 +211,8 @@ public class ResDiffDecoder extends BaseDecoder {
             return false;
         }
         //new add file
-        String newMd5 = MD5.getMD5(newFile);
-        String oldMd5 = MD5.getMD5(oldFile);
+        String newMd5 = ParsedApk.getMD5(config, newFile);
+        String oldMd5 = ParsedApk.getMD5(config, oldFile);
 
         //oldFile or newFile may be 0b length
         if (oldMd5 != null && oldMd5.equals(newMd5)) {
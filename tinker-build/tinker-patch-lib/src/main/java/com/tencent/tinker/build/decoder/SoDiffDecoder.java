@@ -16,8 +16,10 @@
 
 package com.tencent.tinker.build.decoder;
 
+import com.tencent.tinker.build.info.BinaryMetaWriter;
 import com.tencent.tinker.build.info.InfoWriter;
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.build.util.DiffFactory;
 import com.tencent.tinker.build.util.FileOperation;
 import com.tencent.tinker.build.util.Logger;
@@ -39,7 +41,8 @@ public class SoDiffDecoder extends BaseDecoder {
         super(config);
 
         if (metaPath != null) {
-            metaWriter = new InfoWriter(config, config.mTempResultDir + File.separator + metaPath);
+            metaWriter = InfoWriter.createMetaWriter(config, config.mTempResultDir + File.separator + metaPath,
+                BinaryMetaWriter.KIND_BSDIFF);
         } else {
             metaWriter = null;
         }
@@ -64,7 +67,7 @@ public class SoDiffDecoder extends BaseDecoder {
             return false;
         }
         //new add file
-        String newMd5 = MD5.getMD5(newFile);
+        String newMd5 = ParsedApk.getMD5(config, newFile);
         File diffFile = getOutputPath(newFile).toFile();
 
         if (oldFile == null || !oldFile.exists()) {
@@ -84,7 +87,7 @@ public class SoDiffDecoder extends BaseDecoder {
         }
 
         //new add file
-        String oldMd5 = MD5.getMD5(oldFile);
+        String oldMd5 = ParsedApk.getMD5(config, oldFile);
 
         if (oldMd5.equals(newMd5)) {
             return false;
@@ -26,21 +26,22 @@ import com.tencent.tinker.commons.dexpatcher.struct.PatchOperation;
 import com.tencent.tinker.commons.dexpatcher.util.AbstractIndexMap;
 import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
 
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by tangyinsheng on 2016/6/29.
  */
 public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
-    private static final AbstractMap.SimpleEntry[] EMPTY_ENTRY_ARRAY = new AbstractMap.SimpleEntry[0];
+    private static final Object[] EMPTY_ITEM_ARRAY = new Object[0];
+    /**
+     * Runs shorter than this are sorted by insertion sort in {@link #sortItemIndices}.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
     protected final Dex oldDex;
     protected final Dex newDex;
     /**
@@ -63,18 +64,20 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
      */
     private final SparseIndexMap selfIndexMapForSkip;
     private final List<PatchOperation<T>> patchOperationList;
-    private final Map<Integer, PatchOperation<T>> indexToDelOperationMap = new HashMap<>();
-    private final Map<Integer, PatchOperation<T>> indexToAddOperationMap = new HashMap<>();
-    private final Map<Integer, PatchOperation<T>> indexToReplaceOperationMap = new HashMap<>();
-    private final Map<Integer, Integer> oldIndexToNewIndexMap = new HashMap<>();
-    private final Map<Integer, Integer> oldOffsetToNewOffsetMap = new HashMap<>();
+    /**
+     * Patch operations indexed by item index, items are dense so arrays
+     * are used instead of maps of boxed indices.
+     */
+    private PatchOperation<T>[] indexToDelOperations;
+    private PatchOperation<T>[] indexToAddOperations;
+    private PatchOperation<T>[] indexToReplaceOperations;
+    /**
+     * Index and offset in new dex of each old item, which are the same as old ones
+     * unless the item is matched by a moved new item.
+     */
+    private int[] oldIndexToNewIndex;
+    private int[] oldIndexToNewOffset;
     private int patchedSectionSize;
-    private Comparator<AbstractMap.SimpleEntry<Integer, T>> comparatorForItemDiff = new Comparator<AbstractMap.SimpleEntry<Integer, T>>() {
-        @Override
-        public int compare(AbstractMap.SimpleEntry<Integer, T> o1, AbstractMap.SimpleEntry<Integer, T> o2) {
-            return o1.getValue().compareTo(o2.getValue());
-        }
-    };
     private Comparator<PatchOperation<T>> comparatorForPatchOperationOpt = new Comparator<PatchOperation<T>>() {
         @Override
         public int compare(PatchOperation<T> o1, PatchOperation<T> o2) {
@@ -112,7 +115,10 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
             return CompareUtils.sCompare(o1OrderId, o2OrderId);
         }
     };
-    private AbstractMap.SimpleEntry<Integer, T>[] adjustedOldIndexedItemsWithOrigOrder = null;
+    /**
+     * Adjusted items in their original order, the index of an item is its position here.
+     */
+    private Object[] adjustedOldItemsWithOrigOrder = null;
     private int oldItemCount = 0;
     private int newItemCount = 0;
 
@@ -209,20 +215,28 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
         }
     }
 
-    @SuppressWarnings("unchecked,NewApi")
-    private AbstractMap.SimpleEntry<Integer, T>[] collectSectionItems(Dex dex, boolean isOldDex) {
+    @SuppressWarnings("unchecked")
+    private T itemAt(Object[] items, int index) {
+        return (T) items[index];
+    }
+
+    /**
+     * Collect adjusted items of a section, the index of an item is its position
+     * in the returned array.
+     */
+    private Object[] collectSectionItems(Dex dex, boolean isOldDex) {
         TableOfContents.Section tocSec = getTocSection(dex);
         if (!tocSec.exists()) {
-            return EMPTY_ENTRY_ARRAY;
+            return EMPTY_ITEM_ARRAY;
         }
         Dex.Section dexSec = dex.openSection(tocSec);
         int itemCount = tocSec.size;
-        List<AbstractMap.SimpleEntry<Integer, T>> result = new ArrayList<>(itemCount);
+        Object[] result = new Object[itemCount];
+        int resultSize = 0;
         if (isOldDex) {
             for (int i = 0; i < itemCount; ++i) {
                 T nextItem = nextItem(dexSec);
-                T adjustedItem = adjustItem(oldToPatchedIndexMap, nextItem);
-                result.add(new AbstractMap.SimpleEntry<>(i, adjustedItem));
+                result[resultSize++] = adjustItem(oldToPatchedIndexMap, nextItem);
             }
         } else {
             int i = 0;
@@ -242,31 +256,88 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
                 }
                 if (nextItem != null) {
                     int offsetAfterSkip = getItemOffsetOrIndex(indexAfterSkip, nextItem);
-                    T adjustedItem = adjustItem(newToPatchedIndexMap, adjustItem(selfIndexMapForSkip, nextItem));
-                    int currentOutIndex = result.size();
-                    result.add(new AbstractMap.SimpleEntry<>(currentOutIndex, adjustedItem));
+                    result[resultSize++] = adjustItem(newToPatchedIndexMap, adjustItem(selfIndexMapForSkip, nextItem));
                     updateIndexOrOffset(selfIndexMapForSkip, indexBeforeSkip, offsetBeforeSkip, indexAfterSkip, offsetAfterSkip);
                 }
                 i = indexAfterSkip;
                 ++i;
             }
         }
-        return result.toArray(new AbstractMap.SimpleEntry[0]);
+        return (resultSize == itemCount ? result : Arrays.copyOf(result, resultSize));
+    }
+
+    /**
+     * Returns indices of {@code items} ordered by the items. The sort is stable, so equal
+     * items keep their original order just like sorting the items themselves.
+     */
+    private int[] sortItemIndices(Object[] items) {
+        final int count = items.length;
+        int[] indices = new int[count];
+        for (int i = 0; i < count; ++i) {
+            indices[i] = i;
+        }
+        if (count > 1) {
+            mergeSortItemIndices(items, indices.clone(), indices, 0, count);
+        }
+        return indices;
+    }
+
+    /**
+     * Sort {@code dest[from, to)} with {@code src[from, to)} holding the same indices.
+     */
+    private void mergeSortItemIndices(Object[] items, int[] src, int[] dest, int from, int to) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; ++i) {
+                final int index = dest[i];
+                final T item = itemAt(items, index);
+                int j = i - 1;
+                while (j >= from && itemAt(items, dest[j]).compareTo(item) > 0) {
+                    dest[j + 1] = dest[j];
+                    --j;
+                }
+                dest[j + 1] = index;
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeSortItemIndices(items, dest, src, from, mid);
+        mergeSortItemIndices(items, dest, src, mid, to);
+        if (itemAt(items, src[mid - 1]).compareTo(itemAt(items, src[mid])) <= 0) {
+            System.arraycopy(src, from, dest, from, to - from);
+            return;
+        }
+        for (int i = from, p = from, q = mid; i < to; ++i) {
+            if (q >= to || (p < mid && itemAt(items, src[p]).compareTo(itemAt(items, src[q])) <= 0)) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    private static <E> E getOrNull(E[] array, int index) {
+        return (index < array.length ? array[index] : null);
     }
 
+    @SuppressWarnings("unchecked")
     public void execute() {
         this.patchOperationList.clear();
 
-        this.adjustedOldIndexedItemsWithOrigOrder = collectSectionItems(this.oldDex, true);
-        this.oldItemCount = this.adjustedOldIndexedItemsWithOrigOrder.length;
+        this.adjustedOldItemsWithOrigOrder = collectSectionItems(this.oldDex, true);
+        final Object[] adjustedOldItems = this.adjustedOldItemsWithOrigOrder;
+        this.oldItemCount = adjustedOldItems.length;
+        final int[] sortedOldIndices = sortItemIndices(adjustedOldItems);
 
-        AbstractMap.SimpleEntry<Integer, T>[] adjustedOldIndexedItems = new AbstractMap.SimpleEntry[this.oldItemCount];
-        System.arraycopy(this.adjustedOldIndexedItemsWithOrigOrder, 0, adjustedOldIndexedItems, 0, this.oldItemCount);
-        Arrays.sort(adjustedOldIndexedItems, this.comparatorForItemDiff);
+        final Object[] adjustedNewItems = collectSectionItems(this.newDex, false);
+        this.newItemCount = adjustedNewItems.length;
+        final int[] sortedNewIndices = sortItemIndices(adjustedNewItems);
 
-        AbstractMap.SimpleEntry<Integer, T>[] adjustedNewIndexedItems = collectSectionItems(this.newDex, false);
-        this.newItemCount = adjustedNewIndexedItems.length;
-        Arrays.sort(adjustedNewIndexedItems, this.comparatorForItemDiff);
+        this.oldIndexToNewIndex = new int[this.oldItemCount];
+        this.oldIndexToNewOffset = new int[this.oldItemCount];
+        for (int i = 0; i < this.oldItemCount; ++i) {
+            this.oldIndexToNewIndex[i] = i;
+            this.oldIndexToNewOffset[i] = getItemOffsetOrIndex(i, itemAt(adjustedOldItems, i));
+        }
 
         int oldCursor = 0;
         int newCursor = 0;
@@ -274,46 +345,36 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
             if (oldCursor >= this.oldItemCount) {
                 // rest item are all newItem.
                 while (newCursor < this.newItemCount) {
-                    AbstractMap.SimpleEntry<Integer, T> newIndexedItem = adjustedNewIndexedItems[newCursor++];
-                    this.patchOperationList.add(new PatchOperation<>(PatchOperation.OP_ADD, newIndexedItem.getKey(), newIndexedItem.getValue()));
+                    int newIndex = sortedNewIndices[newCursor++];
+                    this.patchOperationList.add(new PatchOperation<>(PatchOperation.OP_ADD, newIndex, itemAt(adjustedNewItems, newIndex)));
                 }
             } else
             if (newCursor >= newItemCount) {
                 // rest item are all oldItem.
                 while (oldCursor < oldItemCount) {
-                    AbstractMap.SimpleEntry<Integer, T> oldIndexedItem = adjustedOldIndexedItems[oldCursor++];
-                    int deletedIndex = oldIndexedItem.getKey();
-                    int deletedOffset = getItemOffsetOrIndex(deletedIndex, oldIndexedItem.getValue());
+                    int deletedIndex = sortedOldIndices[oldCursor++];
+                    int deletedOffset = getItemOffsetOrIndex(deletedIndex, itemAt(adjustedOldItems, deletedIndex));
                     this.patchOperationList.add(new PatchOperation<T>(PatchOperation.OP_DEL, deletedIndex));
                     markDeletedIndexOrOffset(this.oldToPatchedIndexMap, deletedIndex, deletedOffset);
                 }
             } else {
-                AbstractMap.SimpleEntry<Integer, T> oldIndexedItem = adjustedOldIndexedItems[oldCursor];
-                AbstractMap.SimpleEntry<Integer, T> newIndexedItem = adjustedNewIndexedItems[newCursor];
-                int cmpRes = oldIndexedItem.getValue().compareTo(newIndexedItem.getValue());
+                int oldIndex = sortedOldIndices[oldCursor];
+                int newIndex = sortedNewIndices[newCursor];
+                T oldItem = itemAt(adjustedOldItems, oldIndex);
+                T newItem = itemAt(adjustedNewItems, newIndex);
+                int cmpRes = oldItem.compareTo(newItem);
                 if (cmpRes < 0) {
-                    int deletedIndex = oldIndexedItem.getKey();
-                    int deletedOffset = getItemOffsetOrIndex(deletedIndex, oldIndexedItem.getValue());
-                    this.patchOperationList.add(new PatchOperation<T>(PatchOperation.OP_DEL, deletedIndex));
-                    markDeletedIndexOrOffset(this.oldToPatchedIndexMap, deletedIndex, deletedOffset);
+                    int deletedOffset = getItemOffsetOrIndex(oldIndex, oldItem);
+                    this.patchOperationList.add(new PatchOperation<T>(PatchOperation.OP_DEL, oldIndex));
+                    markDeletedIndexOrOffset(this.oldToPatchedIndexMap, oldIndex, deletedOffset);
                     ++oldCursor;
                 } else
                 if (cmpRes > 0) {
-                    this.patchOperationList.add(new PatchOperation<>(PatchOperation.OP_ADD, newIndexedItem.getKey(), newIndexedItem.getValue()));
+                    this.patchOperationList.add(new PatchOperation<>(PatchOperation.OP_ADD, newIndex, newItem));
                     ++newCursor;
                 } else {
-                    int oldIndex = oldIndexedItem.getKey();
-                    int newIndex = newIndexedItem.getKey();
-                    int oldOffset = getItemOffsetOrIndex(oldIndexedItem.getKey(), oldIndexedItem.getValue());
-                    int newOffset = getItemOffsetOrIndex(newIndexedItem.getKey(), newIndexedItem.getValue());
-
-                    if (oldIndex != newIndex) {
-                        this.oldIndexToNewIndexMap.put(oldIndex, newIndex);
-                    }
-
-                    if (oldOffset != newOffset) {
-                        this.oldOffsetToNewOffsetMap.put(oldOffset, newOffset);
-                    }
+                    this.oldIndexToNewIndex[oldIndex] = newIndex;
+                    this.oldIndexToNewOffset[oldIndex] = getItemOffsetOrIndex(newIndex, newItem);
 
                     ++oldCursor;
                     ++newCursor;
@@ -348,20 +409,23 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
         }
 
         // Finally we record some information for the final calculations.
+        indexToDelOperations = new PatchOperation[this.oldItemCount];
+        indexToAddOperations = new PatchOperation[this.newItemCount];
+        indexToReplaceOperations = new PatchOperation[Math.min(this.oldItemCount, this.newItemCount)];
         patchOperationIt = this.patchOperationList.iterator();
         while (patchOperationIt.hasNext()) {
             PatchOperation<T> patchOperation = patchOperationIt.next();
             switch (patchOperation.op) {
                 case PatchOperation.OP_DEL: {
-                    indexToDelOperationMap.put(patchOperation.index, patchOperation);
+                    indexToDelOperations[patchOperation.index] = patchOperation;
                     break;
                 }
                 case PatchOperation.OP_ADD: {
-                    indexToAddOperationMap.put(patchOperation.index, patchOperation);
+                    indexToAddOperations[patchOperation.index] = patchOperation;
                     break;
                 }
                 case PatchOperation.OP_REPLACE: {
-                    indexToReplaceOperationMap.put(patchOperation.index, patchOperation);
+                    indexToReplaceOperations[patchOperation.index] = patchOperation;
                     break;
                 }
                 default: {
@@ -377,8 +441,10 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
         int patchedIndex = 0;
         int patchedOffset = baseOffset;
         while (oldIndex < this.oldItemCount || patchedIndex < this.newItemCount) {
-            if (this.indexToAddOperationMap.containsKey(patchedIndex)) {
-                PatchOperation<T> patchOperation = this.indexToAddOperationMap.get(patchedIndex);
+            PatchOperation<T> addOperation = getOrNull(this.indexToAddOperations, patchedIndex);
+            PatchOperation<T> replaceOperation = getOrNull(this.indexToReplaceOperations, patchedIndex);
+            if (addOperation != null) {
+                PatchOperation<T> patchOperation = addOperation;
                 if (isNeedToMakeAlign) {
                     patchedOffset = SizeOf.roundToTimesOfFour(patchedOffset);
                 }
@@ -394,8 +460,8 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
                 ++patchedIndex;
                 patchedOffset += itemSize;
             } else
-            if (this.indexToReplaceOperationMap.containsKey(patchedIndex)) {
-                PatchOperation<T> patchOperation = this.indexToReplaceOperationMap.get(patchedIndex);
+            if (replaceOperation != null) {
+                PatchOperation<T> patchOperation = replaceOperation;
                 if (isNeedToMakeAlign) {
                     patchedOffset = SizeOf.roundToTimesOfFour(patchedOffset);
                 }
@@ -411,10 +477,10 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
                 ++patchedIndex;
                 patchedOffset += itemSize;
             } else
-            if (this.indexToDelOperationMap.containsKey(oldIndex)) {
+            if (getOrNull(this.indexToDelOperations, oldIndex) != null) {
                 ++oldIndex;
             } else
-            if (this.indexToReplaceOperationMap.containsKey(oldIndex)) {
+            if (getOrNull(this.indexToReplaceOperations, oldIndex) != null) {
                 ++oldIndex;
             } else
             if (oldIndex < this.oldItemCount) {
@@ -422,7 +488,7 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
                     patchedOffset = SizeOf.roundToTimesOfFour(patchedOffset);
                 }
 
-                T oldItem = this.adjustedOldIndexedItemsWithOrigOrder[oldIndex].getValue();
+                T oldItem = itemAt(this.adjustedOldItemsWithOrigOrder, oldIndex);
                 int itemSize = getItemSize(oldItem);
 
                 int oldOffset = getItemOffsetOrIndex(oldIndex, oldItem);
@@ -435,15 +501,8 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
                         patchedOffset
                 );
 
-                int newIndex = oldIndex;
-                if (this.oldIndexToNewIndexMap.containsKey(oldIndex)) {
-                    newIndex = this.oldIndexToNewIndexMap.get(oldIndex);
-                }
-
-                int newOffset = oldOffset;
-                if (this.oldOffsetToNewOffsetMap.containsKey(oldOffset)) {
-                    newOffset = this.oldOffsetToNewOffsetMap.get(oldOffset);
-                }
+                int newIndex = this.oldIndexToNewIndex[oldIndex];
+                int newOffset = this.oldIndexToNewOffset[oldIndex];
 
                 updateIndexOrOffset(
                         this.newToPatchedIndexMap,
@@ -0,0 +1,593 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.dexpatcher.util;
+
+import com.tencent.tinker.android.dex.ClassDef;
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.android.dex.DexException;
+import com.tencent.tinker.android.dex.SizeOf;
+import com.tencent.tinker.android.dex.TableOfContents;
+import com.tencent.tinker.android.dex.io.DexDataBuffer;
+import com.tencent.tinker.commons.dexpatcher.util.AbstractIndexMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies some classes of a dex into a new dex directly, without building an object model
+ * of the whole dex.
+ *
+ * Items reachable from the chosen class defs are collected by walking them with the same
+ * {@link AbstractIndexMap#adjust} methods dex patcher uses to rewrite items, then they are
+ * written with {@link DexDataBuffer} writers. New index of an item is its rank among collected
+ * items of the same kind, so sort orders required by dex format are inherited from the source
+ * dex. Id sections are laid out in the order of dex format, followed by the data sections.
+ */
+public final class ChangedClassesDexExtractor {
+    private final Dex dex;
+    private final TableOfContents toc;
+
+    public ChangedClassesDexExtractor(Dex dex) {
+        this.dex = dex;
+        this.toc = dex.getTableOfContents();
+    }
+
+    /**
+     * Writes classes whose descriptors are in {@code classDescs} with everything they refer to
+     * into {@code out}. Nothing is written if the dex defines none of them.
+     *
+     * @return count of classes written into {@code out}.
+     */
+    public int extract(Set<String> classDescs, File out) throws IOException {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        for (ClassDef classDef : dex.classDefIterable()) {
+            if (classDescs.contains(dex.typeNames().get(classDef.typeIndex))) {
+                classDefs.add(classDef);
+            }
+        }
+        if (classDefs.isEmpty()) {
+            return 0;
+        }
+
+        final ReferenceCollector collector = new ReferenceCollector();
+        for (ClassDef classDef : classDefs) {
+            collector.adjust(classDef);
+        }
+
+        write(new ReferenceRemapper(collector), classDefs, out);
+        return classDefs.size();
+    }
+
+    private void write(ReferenceRemapper remapper, List<ClassDef> classDefs, File out) throws IOException {
+        final ReferenceCollector collector = remapper.collector;
+        final TableOfContents layout = new TableOfContents();
+
+        // Id sections have fixed size, reserve them and write data sections first so that
+        // offsets referred to by ids are known when ids are written.
+        final int callSiteCount = collector.callSiteIndices.cardinality();
+        int idSectionsEnd = SizeOf.HEADER_ITEM;
+        idSectionsEnd = placeIdSection(layout.stringIds, collector.stringIndices.cardinality(),
+                SizeOf.STRING_ID_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.typeIds, collector.typeIndices.cardinality(),
+                SizeOf.TYPE_ID_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.protoIds, collector.protoIndices.cardinality(),
+                SizeOf.PROTO_ID_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.fieldIds, collector.fieldIndices.cardinality(),
+                SizeOf.MEMBER_ID_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.methodIds, collector.methodIndices.cardinality(),
+                SizeOf.MEMBER_ID_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.classDefs, classDefs.size(),
+                SizeOf.CLASS_DEF_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.callSiteIds, callSiteCount,
+                SizeOf.CALLSITE_ID_ITEM, idSectionsEnd);
+        idSectionsEnd = placeIdSection(layout.methodHandles, collector.methodHandleIndices.cardinality(),
+                SizeOf.METHOD_HANDLE_ITEM, idSectionsEnd);
+
+        final DexDataBuffer buffer = new DexDataBuffer();
+        buffer.skipWithAutoExpand(idSectionsEnd);
+
+        final int[] stringDataOffsets = new int[layout.stringIds.size];
+        layout.stringDatas.off = buffer.position();
+        layout.stringDatas.size = stringDataOffsets.length;
+        int newStringIndex = 0;
+        for (int i = collector.stringIndices.nextSetBit(0); i >= 0; i = collector.stringIndices.nextSetBit(i + 1)) {
+            final int stringDataOffset = dex.openSection(toc.stringIds.off + i * SizeOf.STRING_ID_ITEM).readInt();
+            stringDataOffsets[newStringIndex++] = buffer.writeStringData(dex.openSection(stringDataOffset).readStringData());
+        }
+
+        // Referred items must be written before items referring to them.
+        writeDataSection(buffer, layout.typeLists, collector.typeLists, remapper);
+        writeDataSection(buffer, layout.annotations, collector.annotations, remapper);
+        writeDataSection(buffer, layout.annotationSets, collector.annotationSets, remapper);
+        writeDataSection(buffer, layout.annotationSetRefLists, collector.annotationSetRefLists, remapper);
+        writeDataSection(buffer, layout.annotationsDirectories, collector.annotationsDirectories, remapper);
+        writeDataSection(buffer, layout.debugInfos, collector.debugInfos, remapper);
+        writeDataSection(buffer, layout.codes, collector.codes, remapper);
+        writeDataSection(buffer, layout.classDatas, collector.classDatas, remapper);
+        writeDataSection(buffer, layout.encodedArrays, collector.encodedArrays, remapper);
+
+        buffer.alignToFourBytesWithZeroFill();
+        layout.mapList.off = buffer.position();
+        int mapItemCount = 0;
+        for (TableOfContents.Section section : layout.sections) {
+            if (section.exists()) {
+                ++mapItemCount;
+            }
+        }
+        final int fileSize = layout.mapList.off + SizeOf.UINT + mapItemCount * SizeOf.MAP_ITEM;
+
+        buffer.position(layout.stringIds.off);
+        for (int stringDataOffset : stringDataOffsets) {
+            buffer.writeInt(stringDataOffset);
+        }
+        if (layout.typeIds.exists()) {
+            buffer.position(layout.typeIds.off);
+            for (int i = collector.typeIndices.nextSetBit(0); i >= 0; i = collector.typeIndices.nextSetBit(i + 1)) {
+                buffer.writeInt(remapper.adjustStringIndex(dex.descriptorIndexFromTypeIndex(i)));
+            }
+        }
+        if (layout.protoIds.exists()) {
+            buffer.position(layout.protoIds.off);
+            for (int i = collector.protoIndices.nextSetBit(0); i >= 0; i = collector.protoIndices.nextSetBit(i + 1)) {
+                buffer.writeProtoId(remapper.adjust(dex.protoIds().get(i)));
+            }
+        }
+        if (layout.fieldIds.exists()) {
+            buffer.position(layout.fieldIds.off);
+            for (int i = collector.fieldIndices.nextSetBit(0); i >= 0; i = collector.fieldIndices.nextSetBit(i + 1)) {
+                buffer.writeFieldId(remapper.adjust(dex.fieldIds().get(i)));
+            }
+        }
+        if (layout.methodIds.exists()) {
+            buffer.position(layout.methodIds.off);
+            for (int i = collector.methodIndices.nextSetBit(0); i >= 0; i = collector.methodIndices.nextSetBit(i + 1)) {
+                buffer.writeMethodId(remapper.adjust(dex.methodIds().get(i)));
+            }
+        }
+        // Call site items are encoded arrays, their offsets are known now.
+        if (layout.callSiteIds.exists()) {
+            buffer.position(layout.callSiteIds.off);
+            for (int i = collector.callSiteIndices.nextSetBit(0); i >= 0; i = collector.callSiteIndices.nextSetBit(i + 1)) {
+                buffer.writeCallSiteId(remapper.adjust(dex.callsiteIds().get(i)));
+            }
+        }
+        if (layout.methodHandles.exists()) {
+            buffer.position(layout.methodHandles.off);
+            for (int i = collector.methodHandleIndices.nextSetBit(0); i >= 0; i = collector.methodHandleIndices.nextSetBit(i + 1)) {
+                buffer.writeMethodHandle(remapper.adjust(dex.methodHandles().get(i)));
+            }
+        }
+        // Class defs keep their relative order, so super classes still come first.
+        buffer.position(layout.classDefs.off);
+        for (ClassDef classDef : classDefs) {
+            buffer.writeClassDef(remapper.adjust(classDef));
+        }
+
+        final Dex result = new Dex(fileSize);
+        result.openSection(0).write(buffer.array());
+
+        final TableOfContents resultToc = result.getTableOfContents();
+        resultToc.api = toc.api;
+        for (TableOfContents.Section section : layout.sections) {
+            final TableOfContents.Section resultSection = resultToc.getSectionByType(section.type);
+            resultSection.off = section.off;
+            resultSection.size = section.size;
+        }
+        Arrays.sort(resultToc.sections);
+        resultToc.computeSizesFromOffsets();
+        resultToc.dataOff = idSectionsEnd;
+        resultToc.dataSize = fileSize - resultToc.dataOff;
+
+        resultToc.writeHeader(result.openSection(0));
+        resultToc.writeMap(result.openSection(resultToc.mapList.off));
+        result.writeHashes();
+        result.writeTo(out);
+    }
+
+    private static int placeIdSection(TableOfContents.Section section, int count, int itemSize, int offset) {
+        if (count == 0) {
+            return offset;
+        }
+        section.off = offset;
+        section.size = count;
+        return offset + count * itemSize;
+    }
+
+    private void writeDataSection(DexDataBuffer buffer, TableOfContents.Section section,
+                                  OffsetSection items, ReferenceRemapper remapper) {
+        final int[] oldOffsets = items.sortedOldOffsets();
+        if (oldOffsets.length == 0) {
+            return;
+        }
+        if (section.isElementFourByteAligned) {
+            buffer.alignToFourBytesWithZeroFill();
+        }
+        section.off = buffer.position();
+        section.size = oldOffsets.length;
+        for (int oldOffset : oldOffsets) {
+            if (section.isElementFourByteAligned) {
+                buffer.alignToFourBytesWithZeroFill();
+            }
+            final Dex.Section in = dex.openSection(oldOffset);
+            final int newOffset;
+            switch (section.type) {
+                case TableOfContents.SECTION_TYPE_TYPELISTS: {
+                    newOffset = buffer.writeTypeList(remapper.adjust(in.readTypeList()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_ANNOTATIONS: {
+                    newOffset = buffer.writeAnnotation(remapper.adjust(in.readAnnotation()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_ANNOTATIONSETS: {
+                    newOffset = buffer.writeAnnotationSet(remapper.adjust(in.readAnnotationSet()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_ANNOTATIONSETREFLISTS: {
+                    newOffset = buffer.writeAnnotationSetRefList(remapper.adjust(in.readAnnotationSetRefList()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_ANNOTATIONSDIRECTORIES: {
+                    newOffset = buffer.writeAnnotationsDirectory(remapper.adjust(in.readAnnotationsDirectory()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_DEBUGINFOS: {
+                    newOffset = buffer.writeDebugInfoItem(remapper.adjust(in.readDebugInfoItem()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_CODES: {
+                    newOffset = buffer.writeCode(remapper.adjust(in.readCode()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_CLASSDATA: {
+                    newOffset = buffer.writeClassData(remapper.adjust(in.readClassData()));
+                    break;
+                }
+                case TableOfContents.SECTION_TYPE_ENCODEDARRAYS: {
+                    newOffset = buffer.writeEncodedArray(remapper.adjust(in.readEncodedArray()));
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("unexpected data section type: " + section.type);
+                }
+            }
+            items.oldToNewOffsets.put(oldOffset, newOffset);
+        }
+    }
+
+    /**
+     * Offsets of one kind of data items referred to by extracted classes.
+     */
+    private static final class OffsetSection {
+        final Set<Integer> oldOffsets = new HashSet<>();
+        final Map<Integer, Integer> oldToNewOffsets = new HashMap<>();
+
+        int[] sortedOldOffsets() {
+            final int[] result = new int[oldOffsets.size()];
+            int i = 0;
+            for (int offset : oldOffsets) {
+                result[i++] = offset;
+            }
+            Arrays.sort(result);
+            return result;
+        }
+
+        int adjust(int oldOffset, String kind) {
+            if (oldOffset == 0) {
+                return 0;
+            }
+            final Integer newOffset = oldToNewOffsets.get(oldOffset);
+            if (newOffset == null) {
+                throw new DexException("Unexpected " + kind + " offset: " + oldOffset);
+            }
+            return newOffset;
+        }
+    }
+
+    /**
+     * Marks every item reachable from adjusted items, returned values are meaningless.
+     */
+    private final class ReferenceCollector extends AbstractIndexMap {
+        final BitSet stringIndices = new BitSet(toc.stringIds.size);
+        final BitSet typeIndices = new BitSet(toc.typeIds.size);
+        final BitSet protoIndices = new BitSet(toc.protoIds.size);
+        final BitSet fieldIndices = new BitSet(toc.fieldIds.size);
+        final BitSet methodIndices = new BitSet(toc.methodIds.size);
+        final BitSet callSiteIndices = new BitSet(toc.callSiteIds.size);
+        final BitSet methodHandleIndices = new BitSet(toc.methodHandles.size);
+
+        final OffsetSection typeLists = new OffsetSection();
+        final OffsetSection annotations = new OffsetSection();
+        final OffsetSection annotationSets = new OffsetSection();
+        final OffsetSection annotationSetRefLists = new OffsetSection();
+        final OffsetSection annotationsDirectories = new OffsetSection();
+        final OffsetSection encodedArrays = new OffsetSection();
+        final OffsetSection classDatas = new OffsetSection();
+        final OffsetSection debugInfos = new OffsetSection();
+        final OffsetSection codes = new OffsetSection();
+
+        @Override
+        public int adjustStringIndex(int stringIndex) {
+            if (stringIndex >= 0) {
+                stringIndices.set(stringIndex);
+            }
+            return stringIndex;
+        }
+
+        @Override
+        public int adjustTypeIdIndex(int typeIdIndex) {
+            if (typeIdIndex >= 0 && !typeIndices.get(typeIdIndex)) {
+                typeIndices.set(typeIdIndex);
+                adjustStringIndex(dex.descriptorIndexFromTypeIndex(typeIdIndex));
+            }
+            return typeIdIndex;
+        }
+
+        @Override
+        public int adjustProtoIdIndex(int protoIndex) {
+            if (protoIndex >= 0 && !protoIndices.get(protoIndex)) {
+                protoIndices.set(protoIndex);
+                adjust(dex.protoIds().get(protoIndex));
+            }
+            return protoIndex;
+        }
+
+        @Override
+        public int adjustFieldIdIndex(int fieldIndex) {
+            if (fieldIndex >= 0 && !fieldIndices.get(fieldIndex)) {
+                fieldIndices.set(fieldIndex);
+                adjust(dex.fieldIds().get(fieldIndex));
+            }
+            return fieldIndex;
+        }
+
+        @Override
+        public int adjustMethodIdIndex(int methodIndex) {
+            if (methodIndex >= 0 && !methodIndices.get(methodIndex)) {
+                methodIndices.set(methodIndex);
+                adjust(dex.methodIds().get(methodIndex));
+            }
+            return methodIndex;
+        }
+
+        @Override
+        public int adjustCallSiteIdIndex(int callsiteIdIndex) {
+            if (callsiteIdIndex >= 0 && !callSiteIndices.get(callsiteIdIndex)) {
+                callSiteIndices.set(callsiteIdIndex);
+                adjust(dex.callsiteIds().get(callsiteIdIndex));
+            }
+            return callsiteIdIndex;
+        }
+
+        @Override
+        public int adjustMethodHandleIndex(int methodHandleIndex) {
+            if (methodHandleIndex >= 0 && !methodHandleIndices.get(methodHandleIndex)) {
+                methodHandleIndices.set(methodHandleIndex);
+                adjust(dex.methodHandles().get(methodHandleIndex));
+            }
+            return methodHandleIndex;
+        }
+
+        @Override
+        public int adjustTypeListOffset(int typeListOffset) {
+            if (typeListOffset != 0 && typeLists.oldOffsets.add(typeListOffset)) {
+                adjust(dex.openSection(typeListOffset).readTypeList());
+            }
+            return typeListOffset;
+        }
+
+        @Override
+        public int adjustAnnotationOffset(int annotationOffset) {
+            if (annotationOffset != 0 && annotations.oldOffsets.add(annotationOffset)) {
+                adjust(dex.openSection(annotationOffset).readAnnotation());
+            }
+            return annotationOffset;
+        }
+
+        @Override
+        public int adjustAnnotationSetOffset(int annotationSetOffset) {
+            if (annotationSetOffset != 0 && annotationSets.oldOffsets.add(annotationSetOffset)) {
+                adjust(dex.openSection(annotationSetOffset).readAnnotationSet());
+            }
+            return annotationSetOffset;
+        }
+
+        @Override
+        public int adjustAnnotationSetRefListOffset(int annotationSetRefListOffset) {
+            if (annotationSetRefListOffset != 0
+                    && annotationSetRefLists.oldOffsets.add(annotationSetRefListOffset)) {
+                adjust(dex.openSection(annotationSetRefListOffset).readAnnotationSetRefList());
+            }
+            return annotationSetRefListOffset;
+        }
+
+        @Override
+        public int adjustAnnotationsDirectoryOffset(int annotationsDirectoryOffset) {
+            if (annotationsDirectoryOffset != 0
+                    && annotationsDirectories.oldOffsets.add(annotationsDirectoryOffset)) {
+                adjust(dex.openSection(annotationsDirectoryOffset).readAnnotationsDirectory());
+            }
+            return annotationsDirectoryOffset;
+        }
+
+        @Override
+        public int adjustStaticValuesOffset(int staticValuesOffset) {
+            if (staticValuesOffset != 0 && encodedArrays.oldOffsets.add(staticValuesOffset)) {
+                adjust(dex.openSection(staticValuesOffset).readEncodedArray());
+            }
+            return staticValuesOffset;
+        }
+
+        @Override
+        public int adjustClassDataOffset(int classDataOffset) {
+            if (classDataOffset != 0 && classDatas.oldOffsets.add(classDataOffset)) {
+                adjust(dex.openSection(classDataOffset).readClassData());
+            }
+            return classDataOffset;
+        }
+
+        @Override
+        public int adjustDebugInfoItemOffset(int debugInfoItemOffset) {
+            if (debugInfoItemOffset != 0 && debugInfos.oldOffsets.add(debugInfoItemOffset)) {
+                adjust(dex.openSection(debugInfoItemOffset).readDebugInfoItem());
+            }
+            return debugInfoItemOffset;
+        }
+
+        @Override
+        public int adjustCodeOffset(int codeOffset) {
+            if (codeOffset != 0 && codes.oldOffsets.add(codeOffset)) {
+                adjust(dex.openSection(codeOffset).readCode());
+            }
+            return codeOffset;
+        }
+    }
+
+    /**
+     * Maps items collected by {@link ReferenceCollector} to their places in the extracted dex.
+     */
+    private final class ReferenceRemapper extends AbstractIndexMap {
+        private final ReferenceCollector collector;
+        private final int[] stringIndexMap;
+        private final int[] typeIndexMap;
+        private final int[] protoIndexMap;
+        private final int[] fieldIndexMap;
+        private final int[] methodIndexMap;
+        private final int[] callSiteIndexMap;
+        private final int[] methodHandleIndexMap;
+
+        ReferenceRemapper(ReferenceCollector collector) {
+            this.collector = collector;
+            this.stringIndexMap = rank(collector.stringIndices, toc.stringIds.size);
+            this.typeIndexMap = rank(collector.typeIndices, toc.typeIds.size);
+            this.protoIndexMap = rank(collector.protoIndices, toc.protoIds.size);
+            this.fieldIndexMap = rank(collector.fieldIndices, toc.fieldIds.size);
+            this.methodIndexMap = rank(collector.methodIndices, toc.methodIds.size);
+            this.callSiteIndexMap = rank(collector.callSiteIndices, toc.callSiteIds.size);
+            this.methodHandleIndexMap = rank(collector.methodHandleIndices, toc.methodHandles.size);
+        }
+
+        private int[] rank(BitSet marked, int size) {
+            final int[] result = new int[size];
+            Arrays.fill(result, -1);
+            int newIndex = 0;
+            for (int i = marked.nextSetBit(0); i >= 0; i = marked.nextSetBit(i + 1)) {
+                result[i] = newIndex++;
+            }
+            return result;
+        }
+
+        private int map(int[] indexMap, int index, String kind) {
+            if (index < 0) {
+                return index;
+            }
+            final int result = indexMap[index];
+            if (result < 0) {
+                throw new DexException("Unexpected " + kind + " index: " + index);
+            }
+            return result;
+        }
+
+        @Override
+        public int adjustStringIndex(int stringIndex) {
+            return map(stringIndexMap, stringIndex, "string");
+        }
+
+        @Override
+        public int adjustTypeIdIndex(int typeIdIndex) {
+            return map(typeIndexMap, typeIdIndex, "type");
+        }
+
+        @Override
+        public int adjustProtoIdIndex(int protoIndex) {
+            return map(protoIndexMap, protoIndex, "proto");
+        }
+
+        @Override
+        public int adjustFieldIdIndex(int fieldIndex) {
+            return map(fieldIndexMap, fieldIndex, "field");
+        }
+
+        @Override
+        public int adjustMethodIdIndex(int methodIndex) {
+            return map(methodIndexMap, methodIndex, "method");
+        }
+
+        @Override
+        public int adjustCallSiteIdIndex(int callsiteIdIndex) {
+            return map(callSiteIndexMap, callsiteIdIndex, "call site");
+        }
+
+        @Override
+        public int adjustMethodHandleIndex(int methodHandleIndex) {
+            return map(methodHandleIndexMap, methodHandleIndex, "method handle");
+        }
+
+        @Override
+        public int adjustTypeListOffset(int typeListOffset) {
+            return collector.typeLists.adjust(typeListOffset, "type list");
+        }
+
+        @Override
+        public int adjustAnnotationOffset(int annotationOffset) {
+            return collector.annotations.adjust(annotationOffset, "annotation");
+        }
+
+        @Override
+        public int adjustAnnotationSetOffset(int annotationSetOffset) {
+            return collector.annotationSets.adjust(annotationSetOffset, "annotation set");
+        }
+
+        @Override
+        public int adjustAnnotationSetRefListOffset(int annotationSetRefListOffset) {
+            return collector.annotationSetRefLists.adjust(annotationSetRefListOffset, "annotation set ref list");
+        }
+
+        @Override
+        public int adjustAnnotationsDirectoryOffset(int annotationsDirectoryOffset) {
+            return collector.annotationsDirectories.adjust(annotationsDirectoryOffset, "annotations directory");
+        }
+
+        @Override
+        public int adjustStaticValuesOffset(int staticValuesOffset) {
+            return collector.encodedArrays.adjust(staticValuesOffset, "encoded array");
+        }
+
+        @Override
+        public int adjustClassDataOffset(int classDataOffset) {
+            return collector.classDatas.adjust(classDataOffset, "class data");
+        }
+
+        @Override
+        public int adjustDebugInfoItemOffset(int debugInfoItemOffset) {
+            return collector.debugInfos.adjust(debugInfoItemOffset, "debug info");
+        }
+
+        @Override
+        public int adjustCodeOffset(int codeOffset) {
+            return collector.codes.adjust(codeOffset, "code");
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.dexpatcher.util;
+
+import com.tencent.tinker.build.dexpatcher.DexPatchGenerator;
+import com.tencent.tinker.build.util.FileOperation;
+import com.tencent.tinker.build.util.MD5;
+import com.tencent.tinker.commons.dexpatcher.DexPatchApplier;
+import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
+import com.tencent.tinker.commons.util.IOHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Persistent cache of dex diff results shared by consecutive patch builds.
+ *
+ * An entry is identified by the SHA-1 signatures stored in the headers of old and new dex,
+ * the code generating and applying dex diffs and the loader class patterns, all of which decide
+ * the content of a dex diff. It keeps the dex diff file together with md5 and crc of the full
+ * patched dex, so a hit needs neither generating, applying nor verifying the diff again.
+ *
+ * Entries are published by renaming a complete temp directory, so several builds sharing
+ * one cache directory never see a partially written entry. Once the entries take more than
+ * the size limit, the least recently used ones are deleted.
+ */
+public final class DexDiffResultCache {
+    public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+    /**
+     * Bump it whenever DexPatchGenerator or DexPatchApplier changes their output for the same
+     * input dexes. Jars of tinker are part of the key anyway, this only matters for builds
+     * running tinker from class directories.
+     */
+    private static final int GENERATOR_VERSION = 2;
+
+    /**
+     * Digest of the jars holding DexPatchGenerator and DexPatchApplier, any other build of
+     * them gets entries of its own.
+     */
+    private static final String GENERATOR_DIGEST = computeGeneratorDigest();
+
+    private static final String DIFF_FILE_NAME = "diff.dex";
+    private static final String INFO_FILE_NAME = "info.properties";
+    private static final String TEMP_DIR_PREFIX = ".tmp-";
+
+    private static final String KEY_DIFF_MD5 = "diffMd5";
+    private static final String KEY_DIFF_LENGTH = "diffLength";
+    private static final String KEY_PATCHED_MD5 = "patchedMd5";
+    private static final String KEY_PATCHED_CRC = "patchedCrc";
+
+    private static final int DEX_SIGNATURE_OFFSET = 12;
+    private static final int DEX_SIGNATURE_SIZE = 20;
+
+    private final File cacheDir;
+    private final long maxSize;
+    private final String patternsDigest;
+
+    public DexDiffResultCache(File cacheDir, Collection<String> loaderPatterns) {
+        this(cacheDir, loaderPatterns, DEFAULT_MAX_SIZE);
+    }
+
+    public DexDiffResultCache(File cacheDir, Collection<String> loaderPatterns, long maxSize) {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        final List<String> sortedPatterns = new ArrayList<>(loaderPatterns);
+        Collections.sort(sortedPatterns);
+        final StringBuilder sb = new StringBuilder();
+        for (String pattern : sortedPatterns) {
+            sb.append(pattern).append('\n');
+        }
+        this.patternsDigest = sb.toString();
+    }
+
+    /**
+     * Returns the key of diff result between {@code oldDexFile} and {@code newDexFile}, or null
+     * if any of them is not a raw dex file whose signature can be read.
+     */
+    public String getKey(File oldDexFile, File newDexFile) {
+        final String oldSignature = readDexSignature(oldDexFile);
+        if (oldSignature == null) {
+            return null;
+        }
+        final String newSignature = readDexSignature(newDexFile);
+        if (newSignature == null) {
+            return null;
+        }
+        final String raw = GENERATOR_VERSION + ":" + GENERATOR_DIGEST + ":" + DexPatchFile.CURRENT_VERSION + ":"
+                + oldSignature + ":" + newSignature + ":" + patternsDigest;
+        return sha1Hex(raw.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Copies cached dex diff of {@code key} to {@code dexDiffOut}.
+     *
+     * @return cached result, or null if there is no valid entry of {@code key}.
+     */
+    public Result restore(String key, File dexDiffOut) {
+        final File entryDir = new File(cacheDir, key);
+        final File diffFile = new File(entryDir, DIFF_FILE_NAME);
+        final File infoFile = new File(entryDir, INFO_FILE_NAME);
+        if (!diffFile.isFile() || !infoFile.isFile()) {
+            return null;
+        }
+        try {
+            final Properties info = new Properties();
+            InputStream is = null;
+            try {
+                is = new FileInputStream(infoFile);
+                info.load(is);
+            } finally {
+                IOHelper.closeQuietly(is);
+            }
+            final String diffMd5 = info.getProperty(KEY_DIFF_MD5);
+            final String patchedMd5 = info.getProperty(KEY_PATCHED_MD5);
+            final long diffLength = Long.parseLong(info.getProperty(KEY_DIFF_LENGTH));
+            final long patchedCrc = Long.parseLong(info.getProperty(KEY_PATCHED_CRC));
+            if (diffMd5 == null || patchedMd5 == null || diffFile.length() != diffLength) {
+                return null;
+            }
+            FileOperation.copyFileUsingStream(diffFile, dexDiffOut);
+            if (!diffMd5.equals(MD5.getMD5(dexDiffOut))) {
+                FileOperation.deleteFile(dexDiffOut);
+                return null;
+            }
+            // Marks the entry as recently used.
+            infoFile.setLastModified(System.currentTimeMillis());
+            return new Result(diffMd5, patchedMd5, patchedCrc);
+        } catch (IOException | RuntimeException e) {
+            // A broken entry is the same as a missing one, it will be rewritten later.
+            return null;
+        }
+    }
+
+    /**
+     * Stores a freshly generated dex diff, failures are ignored since the cache is
+     * only an accelerator.
+     */
+    public void store(String key, File dexDiffFile, Result result) {
+        final File entryDir = new File(cacheDir, key);
+        if (entryDir.exists()) {
+            FileOperation.deleteDir(entryDir);
+        }
+        final File tempDir = new File(cacheDir, TEMP_DIR_PREFIX + key + "-" + System.nanoTime());
+        try {
+            if (!tempDir.mkdirs()) {
+                return;
+            }
+            FileOperation.copyFileUsingStream(dexDiffFile, new File(tempDir, DIFF_FILE_NAME));
+
+            final Properties info = new Properties();
+            info.setProperty(KEY_DIFF_MD5, result.dexDiffMd5);
+            info.setProperty(KEY_DIFF_LENGTH, String.valueOf(dexDiffFile.length()));
+            info.setProperty(KEY_PATCHED_MD5, result.fullPatchedMd5);
+            info.setProperty(KEY_PATCHED_CRC, String.valueOf(result.fullPatchedCrc));
+            OutputStream os = null;
+            try {
+                os = new FileOutputStream(new File(tempDir, INFO_FILE_NAME));
+                info.store(os, null);
+            } finally {
+                IOHelper.closeQuietly(os);
+            }
+
+            // Another build may publish the same entry at the same time, either of them is fine.
+            tempDir.renameTo(entryDir);
+        } catch (IOException | RuntimeException e) {
+            // Ignored.
+        } finally {
+            if (tempDir.exists()) {
+                FileOperation.deleteDir(tempDir);
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Deletes least recently used entries until the rest fit into the size limit. An entry
+     * deleted while another build restores it is a miss for that build.
+     */
+    private void trimToSize() {
+        final File[] entryDirs = cacheDir.listFiles();
+        if (entryDirs == null) {
+            return;
+        }
+        final List<File> infoFiles = new ArrayList<>(entryDirs.length);
+        long totalSize = 0;
+        for (File entryDir : entryDirs) {
+            final File infoFile = new File(entryDir, INFO_FILE_NAME);
+            if (entryDir.getName().startsWith(TEMP_DIR_PREFIX) || !infoFile.isFile()) {
+                continue;
+            }
+            infoFiles.add(infoFile);
+            totalSize += infoFile.length() + new File(entryDir, DIFF_FILE_NAME).length();
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        final long[] lastUsedTimes = new long[infoFiles.size()];
+        final Integer[] order = new Integer[infoFiles.size()];
+        for (int i = 0; i < order.length; ++i) {
+            lastUsedTimes[i] = infoFiles.get(i).lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Long.compare(lastUsedTimes[lhs], lastUsedTimes[rhs]);
+            }
+        });
+        for (int i = 0; i < order.length && totalSize > maxSize; ++i) {
+            final File entryDir = infoFiles.get(order[i]).getParentFile();
+            totalSize -= infoFiles.get(order[i]).length() + new File(entryDir, DIFF_FILE_NAME).length();
+            FileOperation.deleteDir(entryDir);
+        }
+    }
+
+    private static String computeGeneratorDigest() {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] buffer = new byte[64 * 1024];
+            for (Class<?> clazz : new Class<?>[]{DexPatchGenerator.class, DexPatchApplier.class}) {
+                InputStream is = null;
+                try {
+                    is = openCode(clazz);
+                    if (is == null) {
+                        continue;
+                    }
+                    int count;
+                    while ((count = is.read(buffer)) > 0) {
+                        digest.update(buffer, 0, count);
+                    }
+                } finally {
+                    IOHelper.closeQuietly(is);
+                }
+            }
+            final byte[] result = digest.digest();
+            return toHex(result, 0, result.length);
+        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+            // Unknown code never matches the key of an earlier build.
+            return String.valueOf(System.nanoTime());
+        }
+    }
+
+    /**
+     * Opens the jar holding {@code clazz}, or its class file if it is not loaded from a jar.
+     */
+    private static InputStream openCode(Class<?> clazz) throws IOException {
+        final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null) {
+            try {
+                final File codeFile = new File(codeSource.getLocation().toURI());
+                if (codeFile.isFile()) {
+                    return new FileInputStream(codeFile);
+                }
+            } catch (URISyntaxException | IllegalArgumentException ignored) {
+                // Not a local file.
+            }
+        }
+        return clazz.getResourceAsStream(clazz.getSimpleName() + ".class");
+    }
+
+    private static String readDexSignature(File dexFile) {
+        if (dexFile == null || !dexFile.getName().endsWith(".dex")
+                || dexFile.length() < DEX_SIGNATURE_OFFSET + DEX_SIGNATURE_SIZE) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(dexFile, "r");
+            final byte[] header = new byte[DEX_SIGNATURE_OFFSET + DEX_SIGNATURE_SIZE];
+            raf.readFully(header);
+            if (header[0] != 'd' || header[1] != 'e' || header[2] != 'x' || header[3] != '\n') {
+                return null;
+            }
+            return toHex(header, DEX_SIGNATURE_OFFSET, DEX_SIGNATURE_SIZE);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOHelper.closeQuietly(raf);
+        }
+    }
+
+    private static String sha1Hex(byte[] data) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            return toHex(digest, 0, digest.length);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] data, int offset, int length) {
+        final char[] hexDigits = "0123456789abcdef".toCharArray();
+        final char[] result = new char[length << 1];
+        for (int i = 0; i < length; ++i) {
+            final int b = data[offset + i] & 0xFF;
+            result[i << 1] = hexDigits[b >>> 4];
+            result[(i << 1) + 1] = hexDigits[b & 0x0F];
+        }
+        return new String(result);
+    }
+
+    public static final class Result {
+        public final String dexDiffMd5;
+        public final String fullPatchedMd5;
+        public final long fullPatchedCrc;
+
+        public Result(String dexDiffMd5, String fullPatchedMd5, long fullPatchedCrc) {
+            this.dexDiffMd5 = dexDiffMd5;
+            this.fullPatchedMd5 = fullPatchedMd5;
+            this.fullPatchedCrc = fullPatchedCrc;
+        }
+    }
+}
@@ -33,6 +33,14 @@ public class ClassSimDef {
     HashSet<String> refFieldSet;
     HashSet<String> refMtdSet;
 
+    /**
+     * Scans {@code bytes} into reference sets of its own, so classes can be scanned concurrently
+     * and their references merged into a dex later by {@link DexRefData#add(ClassSimDef)}.
+     */
+    public ClassSimDef(byte[] bytes) {
+        this(bytes, new HashSet<String>(), new HashSet<String>());
+    }
+
     public ClassSimDef(byte[] bytes, HashSet<String> refFieldSet, HashSet<String> refMtdSet) {
         this.bytes = bytes;
         this.refFieldSet = refFieldSet;
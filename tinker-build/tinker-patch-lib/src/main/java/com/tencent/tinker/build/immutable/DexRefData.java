@@ -35,4 +35,32 @@ public class DexRefData {
         refFields = new HashSet<>();
         refMtds = new HashSet<>();
     }
+
+    public int countNewMethods(ClassSimDef cf) {
+        return countMissing(refMtds, cf.refMtdSet);
+    }
+
+    public int countNewFields(ClassSimDef cf) {
+        return countMissing(refFields, cf.refFieldSet);
+    }
+
+    /**
+     * Takes references of {@code cf} into this dex, references already in it are counted once.
+     */
+    public void add(ClassSimDef cf) {
+        methodNum += countNewMethods(cf);
+        fieldNum += countNewFields(cf);
+        refMtds.addAll(cf.refMtdSet);
+        refFields.addAll(cf.refFieldSet);
+    }
+
+    private static int countMissing(Set<String> refs, Set<String> classRefs) {
+        int result = 0;
+        for (String ref : classRefs) {
+            if (!refs.contains(ref)) {
+                ++result;
+            }
+        }
+        return result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,273 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.info;
+
+import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.util.TinkerPatchException;
+import com.tencent.tinker.build.util.TypedValue;
+import com.tencent.tinker.commons.util.IOHelper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Writes dex, library or resource meta in the binary format read by
+ * {@code com.tencent.tinker.loader.shareutil.ShareBinaryMeta}, instead of text lines.
+ *
+ * Decoders still write the same lines as they do for text metas, they are collected and encoded
+ * when the writer is closed, so both formats always carry the same content.
+ *
+ * All numbers are big endian. A meta begins with magic, version and kind, fields are encoded by
+ * their column instead of their content: a string is u16 length and utf-8 bytes, a crc is i64,
+ * and md5 is u8 length followed by 16 raw bytes, or no byte for "0". Dex and library metas are
+ * u32 count followed by the columns of each text line. Resource meta is arsc base crc and arsc md5,
+ * then pattern, add, modify, large modify, delete and store sections, each of them is u32 count
+ * followed by names, every large modify name is followed by its md5 and crc.
+ */
+public class BinaryMetaWriter extends InfoWriter {
+    public static final int KIND_DEX    = 1;
+    public static final int KIND_BSDIFF = 2;
+    public static final int KIND_RES    = 3;
+
+    static final byte[] MAGIC   = {0, 'T', 'K', 'M'};
+    static final int    VERSION = 1;
+
+    static final int FIELD_STRING = 0;
+    static final int FIELD_MD5    = 1;
+    static final int FIELD_NUMBER = 2;
+
+    static final int MD5_BYTES = 16;
+
+    /**
+     * name, path, dvm md5, art md5, dex diff md5, old crc, new crc, dex mode
+     */
+    private static final int[] DEX_COLUMNS = {
+        FIELD_STRING, FIELD_STRING, FIELD_MD5, FIELD_MD5, FIELD_MD5, FIELD_NUMBER, FIELD_NUMBER, FIELD_STRING
+    };
+    /**
+     * name, path, md5, raw crc, patch md5
+     */
+    private static final int[] BSDIFF_COLUMNS = {
+        FIELD_STRING, FIELD_STRING, FIELD_MD5, FIELD_NUMBER, FIELD_MD5
+    };
+
+    private final int kind;
+    private final List<String> lines = new ArrayList<>();
+
+    public BinaryMetaWriter(Configuration config, String infoPath, int kind) throws IOException {
+        super(config, infoPath);
+        if (kind != KIND_DEX && kind != KIND_BSDIFF && kind != KIND_RES) {
+            throw new TinkerPatchException("unknown binary meta kind: " + kind);
+        }
+        this.kind = kind;
+    }
+
+    @Override
+    public void writeLineToInfoFile(String line) {
+        if (infoPath == null || line == null || line.length() == 0) {
+            return;
+        }
+        // decoders may write several lines at once.
+        for (String item : line.split("\n")) {
+            if (item.length() > 0) {
+                lines.add(item);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // like text metas, nothing is written if there is no line.
+        if (infoPath == null || lines.isEmpty()) {
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(infoFile, false)));
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(kind);
+            switch (kind) {
+                case KIND_DEX: {
+                    writeColumns(out, DEX_COLUMNS);
+                    break;
+                }
+                case KIND_BSDIFF: {
+                    writeColumns(out, BSDIFF_COLUMNS);
+                    break;
+                }
+                default: {
+                    writeResMeta(out);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new TinkerPatchException("write binary meta file error, infoPath:" + infoPath, e);
+        } finally {
+            IOHelper.closeQuietly(out);
+        }
+    }
+
+    private void writeColumns(DataOutputStream out, int[] columns) throws IOException {
+        final List<String[]> records = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            final String[] kv = line.split(",", columns.length);
+            // lines the loader would skip are skipped here too.
+            if (kv.length >= columns.length) {
+                records.add(kv);
+            }
+        }
+        out.writeInt(records.size());
+        for (String[] kv : records) {
+            for (int i = 0; i < columns.length; i++) {
+                writeField(out, columns[i], kv[i].trim());
+            }
+        }
+    }
+
+    private void writeResMeta(DataOutputStream out) throws IOException {
+        String arscBaseCrc = null;
+        String resArscMd5 = null;
+        final LinkedHashSet<String> patterns = new LinkedHashSet<>();
+        final List<String> addRes = new ArrayList<>();
+        final List<String> modRes = new ArrayList<>();
+        final List<String> largeModRes = new ArrayList<>();
+        final List<String> deleteRes = new ArrayList<>();
+        final LinkedHashSet<String> storeRes = new LinkedHashSet<>();
+
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            if (line.startsWith(TypedValue.RES_OUT)) {
+                final String[] kv = line.split(",", 3);
+                arscBaseCrc = kv[1];
+                resArscMd5 = kv[2];
+            } else if (line.startsWith(TypedValue.PATTERN_TITLE)) {
+                i = readSection(i, patterns);
+            } else if (line.startsWith(TypedValue.ADD_TITLE)) {
+                i = readSection(i, addRes);
+            } else if (line.startsWith(TypedValue.MOD_TITLE)) {
+                i = readSection(i, modRes);
+            } else if (line.startsWith(TypedValue.LARGE_MOD_TITLE)) {
+                i = readSection(i, largeModRes);
+            } else if (line.startsWith(TypedValue.DEL_TITLE)) {
+                i = readSection(i, deleteRes);
+            } else if (line.startsWith(TypedValue.STORE_TITLE)) {
+                i = readSection(i, storeRes);
+            }
+        }
+        if (arscBaseCrc == null) {
+            throw new TinkerPatchException("res meta has no " + TypedValue.RES_OUT + " line");
+        }
+
+        writeField(out, FIELD_NUMBER, arscBaseCrc);
+        writeField(out, FIELD_MD5, resArscMd5);
+        writeNames(out, patterns);
+        writeNames(out, addRes);
+        writeNames(out, modRes);
+        out.writeInt(largeModRes.size());
+        for (String item : largeModRes) {
+            final String[] data = item.split(",", 3);
+            if (data.length < 3) {
+                throw new TinkerPatchException("res meta large modify line is malformed: " + item);
+            }
+            writeField(out, FIELD_STRING, data[0]);
+            writeField(out, FIELD_MD5, data[1]);
+            writeField(out, FIELD_NUMBER, data[2]);
+        }
+        writeNames(out, deleteRes);
+        writeNames(out, storeRes);
+    }
+
+    /**
+     * @return index of the last line of the section
+     */
+    private int readSection(int titleIndex, Collection<String> section) {
+        final String title = lines.get(titleIndex);
+        final int size = Integer.parseInt(title.split(":", 2)[1]);
+        if (titleIndex + size >= lines.size()) {
+            throw new TinkerPatchException("res meta section is truncated: " + title);
+        }
+        for (int i = 1; i <= size; i++) {
+            section.add(lines.get(titleIndex + i));
+        }
+        return titleIndex + size;
+    }
+
+    private static void writeNames(DataOutputStream out, Collection<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeField(out, FIELD_STRING, name);
+        }
+    }
+
+    static void writeField(DataOutputStream out, int field, String value) throws IOException {
+        switch (field) {
+            case FIELD_MD5: {
+                // text metas write "0" for a dex or library that has no such md5.
+                if ("0".equals(value)) {
+                    out.writeByte(0);
+                    break;
+                }
+                if (!isLowerCaseMd5(value)) {
+                    throw new TinkerPatchException("binary meta md5 is malformed: " + value);
+                }
+                out.writeByte(MD5_BYTES);
+                for (int i = 0; i < value.length(); i += 2) {
+                    out.writeByte(Character.digit(value.charAt(i), 16) << 4 | Character.digit(value.charAt(i + 1), 16));
+                }
+                break;
+            }
+            case FIELD_NUMBER: {
+                try {
+                    out.writeLong(Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    throw new TinkerPatchException("binary meta crc is malformed: " + value, e);
+                }
+                break;
+            }
+            default: {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) {
+                    throw new TinkerPatchException("binary meta value is too long: " + value);
+                }
+                out.writeShort(bytes.length);
+                out.write(bytes);
+                break;
+            }
+        }
+    }
+
+    private static boolean isLowerCaseMd5(String value) {
+        if (value.length() != MD5_BYTES * 2) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
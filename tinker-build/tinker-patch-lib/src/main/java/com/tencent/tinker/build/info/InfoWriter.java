@@ -56,6 +56,16 @@ public class InfoWriter {
 
     }
 
+    /**
+     * writer of dex, library or resource meta, it is binary if binaryMeta is enabled.
+     */
+    public static InfoWriter createMetaWriter(Configuration config, String infoPath, int binaryKind) throws IOException {
+        if (config.mBinaryMeta) {
+            return new BinaryMetaWriter(config, infoPath, binaryKind);
+        }
+        return new InfoWriter(config, infoPath);
+    }
+
     public Configuration getConfig() {
         return config;
     }
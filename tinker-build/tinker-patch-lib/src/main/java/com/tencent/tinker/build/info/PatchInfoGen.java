@@ -18,6 +18,7 @@ package com.tencent.tinker.build.info;
 
 import com.tencent.tinker.build.apkparser.AndroidParser;
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
 import com.tencent.tinker.commons.util.IOHelper;
@@ -46,7 +47,7 @@ public class PatchInfoGen {
 
     private void addTinkerID() throws IOException, ParseException {
         if (!config.mPackageFields.containsKey(TypedValue.TINKER_ID)) {
-            AndroidParser oldAndroidManifest = AndroidParser.getAndroidManifest(config.mOldApkFile);
+            AndroidParser oldAndroidManifest = ParsedApk.getAndroidManifest(config, config.mOldApkFile);
             String tinkerID = oldAndroidManifest.metaDatas.get(TypedValue.TINKER_ID);
 
             if (tinkerID == null) {
@@ -56,7 +57,7 @@ public class PatchInfoGen {
         }
 
         if (!config.mPackageFields.containsKey(TypedValue.NEW_TINKER_ID)) {
-            AndroidParser newAndroidManifest = AndroidParser.getAndroidManifest(config.mNewApkFile);
+            AndroidParser newAndroidManifest = ParsedApk.getAndroidManifest(config, config.mNewApkFile);
             String tinkerID = newAndroidManifest.metaDatas.get(TypedValue.TINKER_ID);
 
             if (tinkerID == null) {
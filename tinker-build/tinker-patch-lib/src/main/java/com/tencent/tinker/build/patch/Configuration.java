@@ -16,7 +16,10 @@
 
 package com.tencent.tinker.build.patch;
 
+import com.tencent.tinker.build.info.InfoWriter;
 import com.tencent.tinker.build.util.FileOperation;
+import com.tencent.tinker.build.util.JarV1Signer;
+import com.tencent.tinker.build.util.PerfReport;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
 import com.tencent.tinker.build.util.Utils;
@@ -68,6 +71,7 @@ public class Configuration {
     protected static final String ATTR_IS_PROTECTED_APP          = "isProtectedApp";
     protected static final String ATTR_SUPPORT_HOTPLUG_COMPONENT = "supportHotplugComponent";
     protected static final String ATTR_USE_SIGN                  = "useSign";
+    protected static final String ATTR_BINARY_META               = "binaryMeta";
     protected static final String ATTR_SEVEN_ZIP_PATH            = "sevenZipPath";
     protected static final String ATTR_CUSTOM_DIFF_PATH          = "customPath";
     protected static final String ATTR_CUSTOM_DIFF_PATH_ARGS     = "customPathArgs";
@@ -76,6 +80,8 @@ public class Configuration {
     protected static final String ATTR_IGNORE_CHANGE             = "ignoreChange";
     protected static final String ATTR_IGNORE_CHANGE_WARNING     = "ignoreChangeWarning";
     protected static final String ATTR_RES_LARGE_MOD             = "largeModSize";
+    protected static final String ATTR_DIFF_CACHE_DIR            = "diffCacheDir";
+    protected static final String ATTR_VERIFY_POLICY             = "verifyPolicy";
 
     protected static final String ATTR_ARKHOT_PATH = "path";
     protected static final String ATTR_ARKHOT_NAME = "name";
@@ -87,6 +93,7 @@ public class Configuration {
     protected static final String ATTR_SIGN_FILE_KEYPASS   = "keypass";
     protected static final String ATTR_SIGN_FILE_STOREPASS = "storepass";
     protected static final String ATTR_SIGN_FILE_ALIAS     = "alias";
+    protected static final String ATTR_SIGN_DIGEST_ALG     = "digestalg";
     /**
      * base config data
      */
@@ -100,6 +107,10 @@ public class Configuration {
     public boolean mIsProtectedApp;
     public boolean mRemoveLoaderForAllDex;
     public boolean mSupportHotplugComponent;
+    /**
+     * write dex, library and resource metas in binary format, which is faster to parse on device
+     */
+    public boolean mBinaryMeta;
     /**
      * lib config
      */
@@ -112,6 +123,14 @@ public class Configuration {
     public HashSet<String>  mDexIgnoreWarningLoaderPattern;
 
     public boolean          mDexRaw;
+    /**
+     * directory to keep dex diff results among builds, null if it is disabled
+     */
+    public File             mDexDiffCacheDir;
+    /**
+     * one of TypedValue.DEX_VERIFY_POLICY_*
+     */
+    public String           mDexVerifyPolicy = TypedValue.DEX_VERIFY_POLICY_FULL;
     /**
      * resource config
      */
@@ -149,6 +168,10 @@ public class Configuration {
     public String                  mKeyPass;
     public String                  mStoreAlias;
     public String                  mStorePass;
+    /**
+     * digest algorithm of jar signature, SHA1 keeps patch verifiable on devices below API 18
+     */
+    public String                  mSignDigestAlgorithm = JarV1Signer.DIGEST_SHA1;
 
     /**
      * temp files
@@ -157,8 +180,24 @@ public class Configuration {
     public File mTempUnzipOldDir;
     public File mTempUnzipNewDir;
 
+    /**
+     * parsed state of input apks shared with other patch jobs, null if it is private to this job
+     */
+    public ParsedApk mParsedOldApk;
+    public ParsedApk mParsedNewApk;
+
+    /**
+     * log file of this job, see {@link com.tencent.tinker.build.util.Logger#initLogger(Configuration)}
+     */
+    public InfoWriter mLogWriter;
+
     public boolean mUsingGradle;
 
+    /**
+     * performance figures of this job, written to {@link TypedValue#FILE_PERF_REPORT}
+     */
+    public final PerfReport mPerfReport = new PerfReport();
+
     /**
      * ark patch
      */
@@ -201,6 +240,13 @@ public class Configuration {
      * use by gradle
      */
     public Configuration(InputParam param) throws IOException, TinkerPatchException {
+        this(param, param.oldApk, param.outFolder);
+    }
+
+    /**
+     * use by gradle, generate patch of {@code param.newApk} against {@code oldApk} into {@code outFolder}
+     */
+    public Configuration(InputParam param, String oldApk, String outFolder) throws IOException, TinkerPatchException {
         mUsingGradle = true;
         mSoFilePattern = new HashSet<>();
         mDexFilePattern = new HashSet<>();
@@ -244,14 +290,20 @@ public class Configuration {
         if (param.dexMode.equals("raw")) {
             mDexRaw = true;
         }
+        if (param.dexDiffCacheDir != null && !param.dexDiffCacheDir.isEmpty()) {
+            mDexDiffCacheDir = new File(param.dexDiffCacheDir);
+        }
+        if (param.dexVerifyPolicy != null) {
+            mDexVerifyPolicy = param.dexVerifyPolicy;
+        }
 
-        mOldApkPath = param.oldApk;
+        mOldApkPath = oldApk;
         mOldApkFile = new File(mOldApkPath);
 
         mNewApkPath = param.newApk;
         mNewApkFile = new File(mNewApkPath);
 
-        mOutFolder = param.outFolder;
+        mOutFolder = outFolder;
 
         mIgnoreWarning = param.ignoreWarning;
 
@@ -267,6 +319,7 @@ public class Configuration {
         mPackageFields = param.configFields;
 
         mUseSignAPk = param.useSign;
+        mBinaryMeta = param.binaryMeta;
         mCustomDiffPath = param.customDiffPath;
         mCustomDiffPathArgs = param.customDiffPathArgs;
         setSignData(param.signFile, param.keypass, param.storealias, param.storepass);
@@ -293,6 +346,8 @@ public class Configuration {
         sb.append("isProtectedApp:" + mIsProtectedApp + "\n");
         sb.append("7-ZipPath:" + mSevenZipPath + "\n");
         sb.append("useSignAPk:" + mUseSignAPk + "\n");
+        sb.append("binaryMeta:" + mBinaryMeta + "\n");
+        sb.append("signDigestAlgorithm:" + mSignDigestAlgorithm + "\n");
 
         sb.append("package meta fields: \n");
 
@@ -315,6 +370,8 @@ public class Configuration {
         for (String name : mDexIgnoreWarningLoaderPattern) {
             sb.append("dex ignore warning loader:" + name.toString() + "\n");
         }
+        sb.append("dexDiffCacheDir:" + mDexDiffCacheDir + "\n");
+        sb.append("dexVerifyPolicy:" + mDexVerifyPolicy + "\n");
 
         sb.append("lib configs: \n");
         for (Pattern name : mSoFilePattern) {
@@ -373,6 +430,27 @@ public class Configuration {
         mTempUnzipNewDir = new File(mOutFolder, tempNewName);
     }
 
+    /**
+     * Let this job reuse already parsed input apks, either of them can be null.
+     * The shared unzip directories replace the temp unzip directories of this job.
+     */
+    public void setParsedApks(ParsedApk parsedOldApk, ParsedApk parsedNewApk) throws TinkerPatchException {
+        if (parsedOldApk != null) {
+            if (!parsedOldApk.getApkFile().equals(mOldApkFile.getAbsoluteFile())) {
+                throw new TinkerPatchException("parsed old apk does not match " + mOldApkPath);
+            }
+            mParsedOldApk = parsedOldApk;
+            mTempUnzipOldDir = parsedOldApk.getUnzipDir();
+        }
+        if (parsedNewApk != null) {
+            if (!parsedNewApk.getApkFile().equals(mNewApkFile.getAbsoluteFile())) {
+                throw new TinkerPatchException("parsed new apk does not match " + mNewApkPath);
+            }
+            mParsedNewApk = parsedNewApk;
+            mTempUnzipNewDir = parsedNewApk.getUnzipDir();
+        }
+    }
+
     public void setSignData(File signatureFile, String keypass, String storealias, String storepass) throws IOException {
         if (mUseSignAPk) {
             mSignatureFile = signatureFile;
@@ -394,6 +472,11 @@ public class Configuration {
         if (mLargeModSize <= 0) {
             throw new TinkerPatchException("largeModSize must be larger than 0");
         }
+        if (!mDexVerifyPolicy.equals(TypedValue.DEX_VERIFY_POLICY_FULL)
+            && !mDexVerifyPolicy.equals(TypedValue.DEX_VERIFY_POLICY_HASH)
+            && !mDexVerifyPolicy.equals(TypedValue.DEX_VERIFY_POLICY_DEFERRED)) {
+            throw new TinkerPatchException("dex verifyPolicy can be only one of 'full', 'hash' or 'deferred', yours " + mDexVerifyPolicy);
+        }
 
     }
 
@@ -483,6 +566,8 @@ public class Configuration {
                         mSupportHotplugComponent = value.equals("true");
                     } else if (tagName.equals(ATTR_USE_SIGN)) {
                         mUseSignAPk = value.equals("true");
+                    } else if (tagName.equals(ATTR_BINARY_META)) {
+                        mBinaryMeta = value.equals("true");
                     } else if (tagName.equals(ATTR_SEVEN_ZIP_PATH)) {
                         File sevenZipFile = new File(value);
                         if (sevenZipFile.exists()) {
@@ -562,6 +647,17 @@ public class Configuration {
                     } else if (tagName.equals(ATTR_SIGN_FILE_ALIAS)) {
                         mStoreAlias = value;
                         mStoreAlias = mStoreAlias.trim();
+                    } else if (tagName.equals(ATTR_SIGN_DIGEST_ALG)) {
+                        value = value.trim();
+                        if (value.equalsIgnoreCase("SHA1") || value.equalsIgnoreCase("SHA-1")) {
+                            mSignDigestAlgorithm = JarV1Signer.DIGEST_SHA1;
+                        } else if (value.equalsIgnoreCase("SHA256") || value.equalsIgnoreCase("SHA-256")) {
+                            mSignDigestAlgorithm = JarV1Signer.DIGEST_SHA256;
+                        } else {
+                            throw new IOException(
+                                String.format("Invalid config file: unsupported sign digest algorithm %s\n", value)
+                            );
+                        }
                     } else {
                         System.err.println("unknown sign tag " + tagName);
                     }
@@ -591,6 +687,13 @@ public class Configuration {
                         mDexLoaderPattern.add(value);
                     } else if (tagName.equals(ATTR_IGNORE_CHANGE)) {
                         mDexIgnoreWarningLoaderPattern.add(value);
+                    } else if (tagName.equals(ATTR_VERIFY_POLICY)) {
+                        mDexVerifyPolicy = value.trim();
+                    } else if (tagName.equals(ATTR_DIFF_CACHE_DIR)) {
+                        value = value.trim();
+                        if (!value.isEmpty()) {
+                            mDexDiffCacheDir = new File(value);
+                        }
                     } else {
                         System.err.println("unknown dex tag " + tagName);
                     }
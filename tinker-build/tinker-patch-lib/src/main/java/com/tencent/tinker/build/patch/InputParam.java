@@ -28,6 +28,10 @@ public class InputParam {
      * tinkerPatch
      */
     public final String  oldApk;
+    /**
+     * if it is not empty, generate patches against each of these old apks instead of {@link #oldApk}
+     */
+    public final ArrayList<String> oldApks;
     public final String  newApk;
     public final String  outFolder;
     public final File    signFile;
@@ -42,6 +46,7 @@ public class InputParam {
     public final boolean isProtectedApp;
     public final boolean supportHotplugComponent;
     public final boolean useSign;
+    public final boolean binaryMeta;
 
     /**
      * tinkerPatch.dex
@@ -51,6 +56,8 @@ public class InputParam {
     public final ArrayList<String> dexIgnoreWarningLoaderPattern;
 
     public final String                  dexMode;
+    public final String                  dexDiffCacheDir;
+    public final String                  dexVerifyPolicy;
     /**
      * tinkerPatch.lib
      */
@@ -92,6 +99,7 @@ public class InputParam {
 
     private InputParam(
             String oldApk,
+            ArrayList<String> oldApks,
             String newApk,
             String outFolder,
             File signFile,
@@ -106,12 +114,15 @@ public class InputParam {
             boolean isProtectedApp,
             boolean supportHotplugComponent,
             boolean useSign,
+            boolean binaryMeta,
 
             ArrayList<String> dexFilePattern,
             ArrayList<String> dexLoaderPattern,
             ArrayList<String> dexIgnoreChangeLoaderPattern,
 
             String dexMode,
+            String dexDiffCacheDir,
+            String dexVerifyPolicy,
             ArrayList<String> soFilePattern,
             ArrayList<String> resourceFilePattern,
             ArrayList<String> resourceIgnoreChangePattern,
@@ -125,6 +136,7 @@ public class InputParam {
         String arkHotPatchName
     ) {
         this.oldApk = oldApk;
+        this.oldApks = oldApks;
         this.newApk = newApk;
         this.outFolder = outFolder;
         this.signFile = signFile;
@@ -139,11 +151,14 @@ public class InputParam {
         this.isProtectedApp = isProtectedApp;
         this.supportHotplugComponent = supportHotplugComponent;
         this.useSign = useSign;
+        this.binaryMeta = binaryMeta;
 
         this.dexFilePattern = dexFilePattern;
         this.dexLoaderPattern = dexLoaderPattern;
         this.dexIgnoreWarningLoaderPattern = dexIgnoreChangeLoaderPattern;
         this.dexMode = dexMode;
+        this.dexDiffCacheDir = dexDiffCacheDir;
+        this.dexVerifyPolicy = dexVerifyPolicy;
 
         this.soFilePattern = soFilePattern;
         this.resourceFilePattern = resourceFilePattern;
@@ -164,6 +179,7 @@ public class InputParam {
          * tinkerPatch
          */
         private String  oldApk;
+        private ArrayList<String> oldApks;
         private String  newApk;
         private String  outFolder;
         private File    signFile;
@@ -178,6 +194,7 @@ public class InputParam {
         private boolean isProtectedApp;
         private boolean isComponentHotplugSupported;
         private boolean useSign;
+        private boolean binaryMeta;
 
         /**
          * tinkerPatch.dex
@@ -187,6 +204,8 @@ public class InputParam {
         private ArrayList<String> dexIgnoreWarningLoaderPattern;
 
         private String                  dexMode;
+        private String                  dexDiffCacheDir;
+        private String                  dexVerifyPolicy;
         /**
          * tinkerPatch.lib
          */
@@ -235,6 +254,11 @@ public class InputParam {
             return this;
         }
 
+        public Builder setOldApks(ArrayList<String> oldApks) {
+            this.oldApks = oldApks;
+            return this;
+        }
+
         public Builder setNewApk(String newApk) {
             this.newApk = newApk;
             return this;
@@ -350,6 +374,16 @@ public class InputParam {
             return this;
         }
 
+        public Builder setDexDiffCacheDir(String dexDiffCacheDir) {
+            this.dexDiffCacheDir = dexDiffCacheDir;
+            return this;
+        }
+
+        public Builder setDexVerifyPolicy(String dexVerifyPolicy) {
+            this.dexVerifyPolicy = dexVerifyPolicy;
+            return this;
+        }
+
         public Builder setConfigFields(HashMap<String, String> configFields) {
             this.configFields = configFields;
             return this;
@@ -365,6 +399,11 @@ public class InputParam {
             return this;
         }
 
+        public Builder setBinaryMeta(boolean binaryMeta) {
+            this.binaryMeta = binaryMeta;
+            return this;
+        }
+
         public Builder setArkHotPath(String path) {
             this.arkHotPatchPath = path;
             return this;
@@ -378,6 +417,7 @@ public class InputParam {
         public InputParam create() {
             return new InputParam(
                     oldApk,
+                    oldApks,
                     newApk,
                     outFolder,
                     signFile,
@@ -392,10 +432,13 @@ public class InputParam {
                     isProtectedApp,
                     isComponentHotplugSupported,
                     useSign,
+                    binaryMeta,
                     dexFilePattern,
                     dexLoaderPattern,
                     dexIgnoreWarningLoaderPattern,
                     dexMode,
+                    dexDiffCacheDir,
+                    dexVerifyPolicy,
                     soFilePattern,
                     resourceFilePattern,
                     resourceIgnoreChangePattern,
@@ -0,0 +1,217 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.patch;
+
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.build.apkparser.AndroidParser;
+import com.tencent.tinker.build.util.FileOperation;
+import com.tencent.tinker.build.util.MD5;
+import com.tencent.tinker.build.util.TinkerPatchException;
+import com.tencent.tinker.build.util.TypedValue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tinker.net.dongliu.apk.parser.ApkParser;
+import tinker.net.dongliu.apk.parser.bean.ApkMeta;
+import tinker.net.dongliu.apk.parser.struct.resource.ResourceTable;
+
+/**
+ * Parsed state of one input apk which can be shared by several patch jobs.
+ *
+ * The apk is unzipped once into {@link #getUnzipDir()}, files under that directory must
+ * be treated as read-only. Dexes, digests, the resource table and the manifest are parsed
+ * on first access and then reused, each of them is computed at most once even if
+ * several jobs ask for it concurrently.
+ */
+public final class ParsedApk implements Closeable {
+    private final File apkFile;
+    private final File unzipDir;
+    private final String unzipDirPrefix;
+
+    private final ConcurrentHashMap<String, FutureTask<Dex>> dexes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> md5s = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong(0);
+
+    private boolean unzipped = false;
+    private ApkParser apkParser;
+    private AndroidParser androidManifest;
+
+    public ParsedApk(File apkFile, File unzipDir) {
+        this.apkFile = apkFile.getAbsoluteFile();
+        this.unzipDir = unzipDir.getAbsoluteFile();
+        this.unzipDirPrefix = this.unzipDir.getPath() + File.separator;
+    }
+
+    /**
+     * Returns parsed state of the apk which owns {@code file}, or null if {@code file} does
+     * not belong to any shared apk of {@code config}.
+     */
+    public static ParsedApk of(Configuration config, File file) {
+        if (config.mParsedNewApk != null && config.mParsedNewApk.contains(file)) {
+            return config.mParsedNewApk;
+        }
+        if (config.mParsedOldApk != null && config.mParsedOldApk.contains(file)) {
+            return config.mParsedOldApk;
+        }
+        return null;
+    }
+
+    public static Dex loadDex(Configuration config, File dexFile) throws IOException {
+        final ParsedApk owner = of(config, dexFile);
+        if (owner == null) {
+            return new Dex(dexFile);
+        }
+        config.mPerfReport.recordCacheLookup("parsedDex", owner.dexes.containsKey(dexFile.getAbsolutePath()));
+        return owner.getDex(dexFile);
+    }
+
+    public static String getMD5(Configuration config, File file) {
+        final ParsedApk owner = of(config, file);
+        return owner != null ? owner.getMD5(file) : MD5.getMD5(file);
+    }
+
+    public static AndroidParser getAndroidManifest(Configuration config, File apkFile) throws IOException, ParseException {
+        final ParsedApk owner = of(config, apkFile);
+        return owner != null ? owner.getAndroidManifest() : AndroidParser.getAndroidManifest(apkFile);
+    }
+
+    public File getApkFile() {
+        return apkFile;
+    }
+
+    public File getUnzipDir() {
+        return unzipDir;
+    }
+
+    public boolean contains(File file) {
+        if (file == null) {
+            return false;
+        }
+        final String path = file.getAbsolutePath();
+        return path.equals(apkFile.getPath()) || path.startsWith(unzipDirPrefix);
+    }
+
+    /**
+     * Rough size of parsed data held in heap, in bytes.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public synchronized void unzip() throws IOException {
+        if (unzipped) {
+            return;
+        }
+        FileOperation.unZipAPk(apkFile.getPath(), unzipDir.getPath());
+        unzipped = true;
+    }
+
+    public Dex getDex(final File dexFile) throws IOException {
+        final String key = dexFile.getAbsolutePath();
+        FutureTask<Dex> task = dexes.get(key);
+        if (task == null) {
+            final FutureTask<Dex> newTask = new FutureTask<>(new Callable<Dex>() {
+                @Override
+                public Dex call() throws Exception {
+                    final Dex dex = new Dex(dexFile);
+                    retainedBytes.addAndGet(dex.getLength());
+                    return dex;
+                }
+            });
+            task = dexes.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted when loading dex " + key, e);
+        } catch (ExecutionException e) {
+            // Do not cache failures, the next caller will retry.
+            dexes.remove(key, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new TinkerPatchException("Fail to load dex " + key, cause);
+        }
+    }
+
+    public String getMD5(File file) {
+        final String key = file.getAbsolutePath();
+        String md5 = md5s.get(key);
+        if (md5 == null) {
+            md5 = MD5.getMD5(file);
+            if (md5 != null) {
+                md5s.putIfAbsent(key, md5);
+            }
+        }
+        return md5;
+    }
+
+    public synchronized ResourceTable getResourceTable() throws IOException {
+        return getApkParser().getResourceTable();
+    }
+
+    public synchronized ApkMeta getApkMeta() throws IOException {
+        return getApkParser().getApkMeta();
+    }
+
+    public synchronized AndroidParser getAndroidManifest() throws IOException, ParseException {
+        if (androidManifest == null) {
+            androidManifest = AndroidParser.getAndroidManifest(apkFile);
+        }
+        return androidManifest;
+    }
+
+    private ApkParser getApkParser() throws IOException {
+        if (apkParser == null) {
+            final ApkParser parser = new ApkParser(apkFile);
+            parser.parseResourceTable();
+            apkParser = parser;
+            retainedBytes.addAndGet(FileOperation.getFileSizes(new File(unzipDir, TypedValue.RES_ARSC)));
+        }
+        return apkParser;
+    }
+
+    @Override
+    public synchronized void close() {
+        dexes.clear();
+        md5s.clear();
+        androidManifest = null;
+        if (apkParser != null) {
+            try {
+                apkParser.close();
+            } catch (Throwable ignored) {
+                // Ignored.
+            }
+            apkParser = null;
+        }
+        retainedBytes.set(0);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.patch;
+
+import com.tencent.tinker.build.util.FileOperation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of {@link ParsedApk} for long-running processes which generate many patches
+ * against a small set of apks.
+ *
+ * An apk is identified by its canonical path, and its entry is valid as long as length and
+ * modification time of the file stay the same. A rebuilt apk at the same path replaces the
+ * entry of the old build, which is dropped at once or, if a job still uses it, when that job
+ * releases it. When the heap retained by all entries exceeds the limit, least recently used
+ * entries which are not acquired by any job are evicted.
+ *
+ * Each cache unzips into a folder of its own under the cache directory, which is locked while
+ * the cache is open. Several processes can share one cache directory, only folders whose lock
+ * is not held, i.e. left by a process which did not exit normally, are deleted on start.
+ */
+public final class ParsedApkCache {
+    private static final String INSTANCE_DIR_PREFIX = "parsed_apks_";
+    private static final String ENTRY_DIR_PREFIX    = "parsed_apk_";
+    private static final String LOCK_FILE_NAME      = "lock";
+
+    private final File cacheDir;
+    private final File instanceDir;
+    private final RandomAccessFile lockFile;
+    private final FileLock instanceLock;
+    private final long maxRetainedBytes;
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Entries of replaced builds which are still acquired by some job.
+     */
+    private final List<CacheEntry> retiredEntries = new ArrayList<>();
+    private int nextEntryIndex = 0;
+
+    public ParsedApkCache(File cacheDir, long maxRetainedBytes) throws IOException {
+        this.cacheDir = cacheDir;
+        this.maxRetainedBytes = maxRetainedBytes;
+        deleteStaleInstanceDirs(cacheDir);
+        instanceDir = Files.createTempDirectory(cacheDir.toPath(), INSTANCE_DIR_PREFIX).toFile();
+        lockFile = new RandomAccessFile(new File(instanceDir, LOCK_FILE_NAME), "rw");
+        try {
+            instanceLock = lockFile.getChannel().lock();
+        } catch (IOException e) {
+            lockFile.close();
+            FileOperation.deleteDir(instanceDir);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns parsed state of {@code apkFile}, it must be handed back by {@link #release(ParsedApk)}
+     * when the job using it is finished. {@link ParsedApk#getApkFile()} of the result is the
+     * canonical file of {@code apkFile}.
+     */
+    public synchronized ParsedApk acquire(File apkFile) throws IOException {
+        final File canonicalFile = apkFile.getCanonicalFile();
+        final String key = canonicalFile.getPath();
+        final String stamp = canonicalFile.length() + ":" + canonicalFile.lastModified();
+        CacheEntry entry = entries.get(key);
+        if (entry != null && !entry.stamp.equals(stamp)) {
+            entries.remove(key);
+            if (entry.refCount > 0) {
+                retiredEntries.add(entry);
+            } else {
+                evict(entry);
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            final File unzipDir = new File(instanceDir, ENTRY_DIR_PREFIX + nextEntryIndex++);
+            entry = new CacheEntry(new ParsedApk(canonicalFile, unzipDir), stamp);
+            entries.put(key, entry);
+        }
+        ++entry.refCount;
+        return entry.parsedApk;
+    }
+
+    public synchronized void release(ParsedApk parsedApk) {
+        final Iterator<CacheEntry> it = retiredEntries.iterator();
+        while (it.hasNext()) {
+            final CacheEntry entry = it.next();
+            if (entry.parsedApk == parsedApk) {
+                if (--entry.refCount == 0) {
+                    it.remove();
+                    evict(entry);
+                }
+                return;
+            }
+        }
+        for (CacheEntry entry : entries.values()) {
+            if (entry.parsedApk == parsedApk) {
+                --entry.refCount;
+                break;
+            }
+        }
+        trimToSize();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getRetainedBytes() {
+        long retainedBytes = 0;
+        for (CacheEntry entry : entries.values()) {
+            retainedBytes += entry.parsedApk.getRetainedBytes();
+        }
+        return retainedBytes;
+    }
+
+    public synchronized void clear() {
+        for (CacheEntry entry : entries.values()) {
+            evict(entry);
+        }
+        entries.clear();
+        for (CacheEntry entry : retiredEntries) {
+            evict(entry);
+        }
+        retiredEntries.clear();
+        try {
+            instanceLock.release();
+            lockFile.close();
+        } catch (IOException ignored) {
+            // The lock goes away with the process anyway.
+        }
+        FileOperation.deleteDir(instanceDir);
+        // Only removed if nothing else is left in it.
+        cacheDir.delete();
+    }
+
+    private void trimToSize() {
+        long retainedBytes = getRetainedBytes();
+        // Iteration order of an access-ordered map is from least to most recently used.
+        final Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+        while (retainedBytes > maxRetainedBytes && it.hasNext()) {
+            final CacheEntry entry = it.next().getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            retainedBytes -= entry.parsedApk.getRetainedBytes();
+            it.remove();
+            evict(entry);
+        }
+    }
+
+    /**
+     * Folders of caches whose process did not exit normally, the lock of such a folder is free.
+     * A folder whose lock file is not created yet belongs to a cache which is just starting.
+     */
+    private static void deleteStaleInstanceDirs(File cacheDir) throws IOException {
+        final File[] files = cacheDir.listFiles();
+        if (files == null) {
+            if (!cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+                throw new IOException("can not create cache dir " + cacheDir);
+            }
+            return;
+        }
+        for (File file : files) {
+            final File lock = new File(file, LOCK_FILE_NAME);
+            if (!file.isDirectory() || !file.getName().startsWith(INSTANCE_DIR_PREFIX) || !lock.isFile()) {
+                continue;
+            }
+            boolean isStale = false;
+            final RandomAccessFile raf = new RandomAccessFile(lock, "rw");
+            try {
+                final FileLock fileLock = raf.getChannel().tryLock();
+                if (fileLock != null) {
+                    fileLock.release();
+                    isStale = true;
+                }
+            } catch (OverlappingFileLockException ignored) {
+                // Held by another cache of this process.
+            } finally {
+                raf.close();
+            }
+            if (isStale) {
+                FileOperation.deleteDir(file);
+            }
+        }
+    }
+
+    private static void evict(CacheEntry entry) {
+        entry.parsedApk.close();
+        FileOperation.deleteDir(entry.parsedApk.getUnzipDir());
+    }
+
+    private static final class CacheEntry {
+        final ParsedApk parsedApk;
+        final String stamp;
+        int refCount = 0;
+
+        CacheEntry(ParsedApk parsedApk, String stamp) {
+            this.parsedApk = parsedApk;
+            this.stamp = stamp;
+        }
+    }
+}
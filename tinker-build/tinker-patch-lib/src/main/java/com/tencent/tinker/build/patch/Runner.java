@@ -19,10 +19,23 @@ package com.tencent.tinker.build.patch;
 import com.tencent.tinker.build.builder.PatchBuilder;
 import com.tencent.tinker.build.decoder.ApkDecoder;
 import com.tencent.tinker.build.info.PatchInfo;
+import com.tencent.tinker.build.util.FileOperation;
 import com.tencent.tinker.build.util.Logger;
+import com.tencent.tinker.build.util.PerfReport;
 import com.tencent.tinker.build.util.TinkerPatchException;
+import com.tencent.tinker.build.util.TypedValue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by zhangshaowen on 2/26/16.
@@ -43,7 +56,11 @@ public class Runner {
     public static void gradleRun(InputParam inputParam) {
         mBeginTime = System.currentTimeMillis();
         Runner m = new Runner(true);
-        m.run(inputParam);
+        if (inputParam.oldApks != null && !inputParam.oldApks.isEmpty()) {
+            m.runForBases(inputParam);
+        } else {
+            m.run(inputParam);
+        }
     }
 
     private void run(InputParam inputParam) {
@@ -58,25 +75,54 @@ public class Runner {
         }
     }
 
+    /**
+     * Creates the configuration of the job against one old apk.
+     */
+    protected interface BaseConfigFactory {
+        Configuration create(File oldApkFile, File baseOutFolder) throws Exception;
+    }
+
+    private void runForBases(final InputParam inputParam) {
+        List<File> oldApkFiles = new ArrayList<>();
+        for (String oldApk : inputParam.oldApks) {
+            oldApkFiles.add(new File(oldApk));
+        }
+        runForBases(new File(inputParam.outFolder), oldApkFiles, new File(inputParam.newApk), new BaseConfigFactory() {
+            @Override
+            public Configuration create(File oldApkFile, File baseOutFolder) throws Exception {
+                return new Configuration(inputParam, oldApkFile.getAbsolutePath(), baseOutFolder.getAbsolutePath());
+            }
+        });
+    }
+
+    /**
+     * Generate patches of {@code newApkFile} against each of {@code oldApkFiles}, each into a
+     * sub folder of {@code outFolder}.
+     */
+    protected void runForBases(File outFolder, List<File> oldApkFiles, File newApkFile, BaseConfigFactory configFactory) {
+        List<File> baseOutFolders = prepareBaseOutFolders(outFolder, oldApkFiles);
+        ParsedApk parsedNewApk = createParsedNewApk(outFolder, newApkFile);
+
+        List<Configuration> configs = new ArrayList<>();
+        try {
+            for (int i = 0; i < oldApkFiles.size(); ++i) {
+                Configuration config = configFactory.create(oldApkFiles.get(i), baseOutFolders.get(i));
+                config.setParsedApks(null, parsedNewApk);
+                configs.add(config);
+            }
+        } catch (Exception e) {
+            parsedNewApk.close();
+            goToError(e, ERRNO_ERRORS);
+        }
+        tinkerPatchForBases(configs, parsedNewApk);
+    }
+
     protected void tinkerPatch() {
         Logger.d("-----------------------Tinker patch begin-----------------------");
 
         Logger.d(mConfig.toString());
         try {
-            //gen patch
-            ApkDecoder decoder = new ApkDecoder(mConfig);
-            decoder.onAllPatchesStart();
-            decoder.patch(mConfig.mOldApkFile, mConfig.mNewApkFile);
-            decoder.onAllPatchesEnd();
-
-            //gen meta file and version file
-            PatchInfo info = new PatchInfo(mConfig);
-            info.gen();
-
-            //build patch
-            PatchBuilder builder = new PatchBuilder(mConfig);
-            builder.buildPatch();
-
+            generatePatch(mConfig);
         } catch (Throwable e) {
             goToError(e, ERRNO_USAGE);
         }
@@ -86,6 +132,142 @@ public class Runner {
         Logger.d("-----------------------Tinker patch end-------------------------");
     }
 
+    /**
+     * Generate patches of one new apk against several old apks concurrently, each of
+     * {@code configs} writes into its own output folder and log file, while the new apk is
+     * unzipped and parsed only once through {@code parsedNewApk}.
+     */
+    private void tinkerPatchForBases(List<Configuration> configs, ParsedApk parsedNewApk) {
+        int threadCount = Math.max(1, Math.min(configs.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Double>> futures = new ArrayList<>();
+        Throwable firstError = null;
+        try {
+            parsedNewApk.unzip();
+
+            for (final Configuration config : configs) {
+                futures.add(executor.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws Exception {
+                        long begin = System.currentTimeMillis();
+                        Logger.initLogger(config);
+                        try {
+                            Logger.d("-----------------------Tinker patch begin-----------------------");
+                            Logger.d(config.toString());
+                            generatePatch(config);
+                            double timeCost = (System.currentTimeMillis() - begin) / 1000.0;
+                            Logger.d("Tinker patch done, time cost: %fs", timeCost);
+                            Logger.d("Tinker patch done, you can go to file to find the output %s", config.mOutFolder);
+                            Logger.d("-----------------------Tinker patch end-------------------------");
+                            return timeCost;
+                        } finally {
+                            Logger.closeLogger();
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); ++i) {
+                Configuration config = configs.get(i);
+                try {
+                    double timeCost = futures.get(i).get();
+                    System.out.printf("Tinker patch against %s done, time cost: %fs, output: %s\n",
+                        config.mOldApkPath, timeCost, config.mOutFolder);
+                } catch (ExecutionException e) {
+                    System.err.printf("Tinker patch against %s failed, see log in %s\n",
+                        config.mOldApkPath, config.mOutFolder);
+                    e.getCause().printStackTrace(System.err);
+                    if (firstError == null) {
+                        firstError = e.getCause();
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            firstError = e;
+        } finally {
+            executor.shutdownNow();
+            parsedNewApk.close();
+        }
+
+        if (firstError != null) {
+            goToError(firstError, ERRNO_USAGE);
+        }
+        System.out.printf("Tinker patch done for %d old apks, total time cost: %fs\n", configs.size(), diffTimeFromBegin());
+    }
+
+    /**
+     * Clean {@code outFolder} and pick a distinct sub folder in it for each old apk.
+     */
+    private static List<File> prepareBaseOutFolders(File outFolder, List<File> oldApkFiles) {
+        FileOperation.cleanDir(outFolder);
+        Set<String> usedNames = new HashSet<>();
+        List<File> baseOutFolders = new ArrayList<>();
+        for (File oldApkFile : oldApkFiles) {
+            String name = oldApkFile.getName();
+            if (name.endsWith(TypedValue.FILE_APK)) {
+                name = name.substring(0, name.length() - TypedValue.FILE_APK.length());
+            }
+            String uniqueName = name;
+            for (int i = 1; !usedNames.add(uniqueName.toLowerCase()); ++i) {
+                uniqueName = name + "-" + i;
+            }
+            baseOutFolders.add(new File(outFolder, uniqueName));
+        }
+        return baseOutFolders;
+    }
+
+    private static ParsedApk createParsedNewApk(File outFolder, File newApkFile) {
+        String name = newApkFile.getName();
+        if (name.endsWith(TypedValue.FILE_APK)) {
+            name = name.substring(0, name.length() - TypedValue.FILE_APK.length());
+        }
+        // The dot prefix keeps it from clashing with output folders of old apks.
+        return new ParsedApk(newApkFile, new File(outFolder, "." + name + "-new"));
+    }
+
+    protected static void generatePatch(Configuration config) throws Exception {
+        final PerfReport perfReport = config.mPerfReport;
+        try {
+            //gen patch
+            PerfReport.Phase phase = perfReport.beginPhase("decode");
+            try {
+                ApkDecoder decoder = new ApkDecoder(config);
+                decoder.onAllPatchesStart();
+                decoder.patch(config.mOldApkFile, config.mNewApkFile);
+                decoder.onAllPatchesEnd();
+            } finally {
+                phase.end();
+            }
+
+            //gen meta file and version file
+            phase = perfReport.beginPhase("info");
+            try {
+                PatchInfo info = new PatchInfo(config);
+                info.gen();
+            } finally {
+                phase.end();
+            }
+
+            //build patch
+            phase = perfReport.beginPhase("build");
+            try {
+                PatchBuilder builder = new PatchBuilder(config);
+                builder.buildPatch();
+            } finally {
+                phase.end();
+            }
+        } finally {
+            // Reports of failed jobs are also useful, but never hide the original failure.
+            final File reportFile = new File(config.mOutFolder, TypedValue.FILE_PERF_REPORT);
+            try {
+                perfReport.writeTo(reportFile);
+                Logger.d("Performance report: %s", reportFile.getAbsolutePath());
+            } catch (IOException e) {
+                Logger.e("Failed to write performance report %s: %s", reportFile.getAbsolutePath(), e);
+            }
+        }
+    }
+
     private void loadConfigFromGradle(InputParam inputParam) {
         try {
             mConfig = new Configuration(inputParam);
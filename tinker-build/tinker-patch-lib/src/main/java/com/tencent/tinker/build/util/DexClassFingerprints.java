@@ -0,0 +1,768 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.util;
+
+import com.tencent.tinker.android.dex.Annotation;
+import com.tencent.tinker.android.dex.AnnotationSet;
+import com.tencent.tinker.android.dex.AnnotationSetRefList;
+import com.tencent.tinker.android.dex.AnnotationsDirectory;
+import com.tencent.tinker.android.dex.CallSiteId;
+import com.tencent.tinker.android.dex.ClassData;
+import com.tencent.tinker.android.dex.ClassDef;
+import com.tencent.tinker.android.dex.Code;
+import com.tencent.tinker.android.dex.DebugInfoItem;
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.android.dex.DexException;
+import com.tencent.tinker.android.dex.EncodedValueReader;
+import com.tencent.tinker.android.dex.FieldId;
+import com.tencent.tinker.android.dex.MethodHandle;
+import com.tencent.tinker.android.dex.MethodId;
+import com.tencent.tinker.android.dex.ProtoId;
+import com.tencent.tinker.android.dex.TableOfContents;
+import com.tencent.tinker.android.dex.TypeList;
+import com.tencent.tinker.android.dex.io.DexDataBuffer;
+import com.tencent.tinker.android.dx.instruction.InstructionCodec;
+import com.tencent.tinker.android.dx.instruction.InstructionReader;
+import com.tencent.tinker.android.dx.instruction.InstructionVisitor;
+import com.tencent.tinker.android.dx.instruction.ShortArrayCodeInput;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Index-independent fingerprints of every class defined in a {@link Dex}.
+ *
+ * A fingerprint is the SHA-1 digest of a canonical serialization of a class def, its
+ * members, code, debug info, static values and annotations in which every string, type,
+ * field, method, proto, call site and method handle reference is replaced by its resolved
+ * content. Two classes with the same fingerprint are therefore guaranteed to be judged
+ * as the same class by {@link DexClassesComparator}, while different fingerprints only
+ * mean that a structural comparison is needed (e.g. instructions were re-encoded).
+ *
+ * Fingerprints are computed once per {@link Dex} instance and cached, use {@link #of(Dex)}
+ * to obtain the table.
+ */
+public final class DexClassFingerprints {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<Dex, DexClassFingerprints> CACHE = new WeakHashMap<>();
+
+    private final Map<String, Fingerprint> classDescToFingerprintMap;
+
+    private DexClassFingerprints(Map<String, Fingerprint> classDescToFingerprintMap) {
+        this.classDescToFingerprintMap = classDescToFingerprintMap;
+    }
+
+    /**
+     * Returns the fingerprint table of {@code dex}, computing it on first access.
+     */
+    public static DexClassFingerprints of(Dex dex) {
+        synchronized (CACHE) {
+            final DexClassFingerprints cached = CACHE.get(dex);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Calculate outside the lock so that fingerprints of different dexes
+        // can be calculated concurrently.
+        final DexClassFingerprints result = new DexClassFingerprints(new Calculator(dex).calculateAll());
+        synchronized (CACHE) {
+            final DexClassFingerprints cached = CACHE.get(dex);
+            if (cached != null) {
+                return cached;
+            }
+            CACHE.put(dex, result);
+            return result;
+        }
+    }
+
+    /**
+     * @return fingerprint of class described by {@code classDesc}, or null if no such class
+     * is defined in related dex.
+     */
+    public Fingerprint get(String classDesc) {
+        return classDescToFingerprintMap.get(classDesc);
+    }
+
+    public Set<String> getClassDescs() {
+        return Collections.unmodifiableSet(classDescToFingerprintMap.keySet());
+    }
+
+    public Map<String, Fingerprint> getClassDescToFingerprintMap() {
+        return Collections.unmodifiableMap(classDescToFingerprintMap);
+    }
+
+    public int size() {
+        return classDescToFingerprintMap.size();
+    }
+
+    public static boolean isSameFingerprint(Dex oldDex, String oldClassDesc, Dex newDex, String newClassDesc) {
+        final Fingerprint oldFingerprint = of(oldDex).get(oldClassDesc);
+        final Fingerprint newFingerprint = of(newDex).get(newClassDesc);
+        return oldFingerprint != null && oldFingerprint.equals(newFingerprint);
+    }
+
+    public static final class Fingerprint {
+        private final byte[] digest;
+        private final int hashCode;
+
+        Fingerprint(byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        public byte[] getDigest() {
+            return digest.clone();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+            return Arrays.equals(digest, ((Fingerprint) obj).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(digest.length << 1);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final class Calculator {
+        private final Dex dex;
+        private final String[] stringCache;
+        private final MessageDigest digest;
+        private final byte[] scratch = new byte[8];
+
+        Calculator(Dex dex) {
+            this.dex = dex;
+            this.stringCache = new String[dex.strings().size()];
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        Map<String, Fingerprint> calculateAll() {
+            final Map<String, Fingerprint> result = new HashMap<>();
+            for (ClassDef classDef : dex.classDefIterable()) {
+                final String classDesc = typeName(classDef.typeIndex);
+                digest.reset();
+                writeClassDef(classDef);
+                result.put(classDesc, new Fingerprint(digest.digest()));
+            }
+            return result;
+        }
+
+        private String string(int stringIndex) {
+            String result = stringCache[stringIndex];
+            if (result == null) {
+                result = dex.strings().get(stringIndex);
+                stringCache[stringIndex] = result;
+            }
+            return result;
+        }
+
+        private String typeName(int typeIndex) {
+            return string(dex.descriptorIndexFromTypeIndex(typeIndex));
+        }
+
+        private void writeInt(int value) {
+            scratch[0] = (byte) value;
+            scratch[1] = (byte) (value >>> 8);
+            scratch[2] = (byte) (value >>> 16);
+            scratch[3] = (byte) (value >>> 24);
+            digest.update(scratch, 0, 4);
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) value);
+            writeInt((int) (value >>> 32));
+        }
+
+        private void writeRawString(String value) {
+            final byte[] bytes = value.getBytes(UTF8);
+            writeInt(bytes.length);
+            digest.update(bytes);
+        }
+
+        private void writeString(int stringIndex) {
+            if (stringIndex == TableOfContents.Section.UNDEF_INDEX) {
+                writeInt(-1);
+            } else {
+                writeRawString(string(stringIndex));
+            }
+        }
+
+        private void writeType(int typeIndex) {
+            if (typeIndex == ClassDef.NO_INDEX) {
+                writeInt(-1);
+            } else {
+                writeRawString(typeName(typeIndex));
+            }
+        }
+
+        private void writeTypeList(int typeListOffset) {
+            if (typeListOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final TypeList typeList = dex.openSection(typeListOffset).readTypeList();
+            writeInt(typeList.types.length);
+            for (short typeIndex : typeList.types) {
+                writeType(typeIndex);
+            }
+        }
+
+        private void writeFieldId(int fieldIndex) {
+            final FieldId fieldId = dex.fieldIds().get(fieldIndex);
+            writeType(fieldId.declaringClassIndex);
+            writeType(fieldId.typeIndex);
+            writeString(fieldId.nameIndex);
+        }
+
+        private void writeProtoId(int protoIndex) {
+            final ProtoId protoId = dex.protoIds().get(protoIndex);
+            writeString(protoId.shortyIndex);
+            writeType(protoId.returnTypeIndex);
+            writeTypeList(protoId.parametersOffset);
+        }
+
+        private void writeMethodId(int methodIndex) {
+            final MethodId methodId = dex.methodIds().get(methodIndex);
+            writeType(methodId.declaringClassIndex);
+            writeProtoId(methodId.protoIndex);
+            writeString(methodId.nameIndex);
+        }
+
+        private void writeMethodHandle(int methodHandleIndex) {
+            final MethodHandle methodHandle = dex.methodHandles().get(methodHandleIndex);
+            writeInt(methodHandle.methodHandleType.value);
+            if (methodHandle.methodHandleType.isField()) {
+                writeFieldId(methodHandle.fieldOrMethodId);
+            } else {
+                writeMethodId(methodHandle.fieldOrMethodId);
+            }
+            writeInt(methodHandle.unused1);
+            writeInt(methodHandle.unused2);
+        }
+
+        private void writeCallSiteId(int callSiteIndex) {
+            final CallSiteId callSiteId = dex.callsiteIds().get(callSiteIndex);
+            writeEncodedArray(callSiteId.offset);
+        }
+
+        private void writeIndex(int indexType, int index) {
+            writeInt(indexType);
+            switch (indexType) {
+                case InstructionCodec.INDEX_TYPE_STRING_REF: {
+                    writeString(index);
+                    break;
+                }
+                case InstructionCodec.INDEX_TYPE_TYPE_REF: {
+                    writeType(index);
+                    break;
+                }
+                case InstructionCodec.INDEX_TYPE_FIELD_REF: {
+                    writeFieldId(index);
+                    break;
+                }
+                case InstructionCodec.INDEX_TYPE_METHOD_REF:
+                case InstructionCodec.INDEX_TYPE_METHOD_AND_PROTO_REF: {
+                    writeMethodId(index);
+                    break;
+                }
+                case InstructionCodec.INDEX_TYPE_CALL_SITE_REF: {
+                    writeCallSiteId(index);
+                    break;
+                }
+                case InstructionCodec.INDEX_TYPE_METHOD_HANDLE_REF: {
+                    writeMethodHandle(index);
+                    break;
+                }
+                case InstructionCodec.INDEX_TYPE_PROTO_REF: {
+                    writeProtoId(index);
+                    break;
+                }
+                default: {
+                    writeInt(index);
+                    break;
+                }
+            }
+        }
+
+        private void writeClassDef(ClassDef classDef) {
+            writeInt(classDef.accessFlags);
+            writeType(classDef.supertypeIndex);
+            writeTypeList(classDef.interfacesOffset);
+            writeString(classDef.sourceFileIndex);
+            writeAnnotationsDirectory(classDef.annotationsOffset);
+            writeClassData(classDef.classDataOffset);
+            writeEncodedArray(classDef.staticValuesOffset);
+        }
+
+        private void writeAnnotationsDirectory(int annotationsDirectoryOffset) {
+            if (annotationsDirectoryOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final AnnotationsDirectory annotationsDirectory =
+                    dex.openSection(annotationsDirectoryOffset).readAnnotationsDirectory();
+            writeAnnotationSet(annotationsDirectory.classAnnotationsOffset);
+            writeInt(annotationsDirectory.fieldAnnotations.length);
+            for (int[] fieldAnnotation : annotationsDirectory.fieldAnnotations) {
+                writeFieldId(fieldAnnotation[0]);
+                writeAnnotationSet(fieldAnnotation[1]);
+            }
+            writeInt(annotationsDirectory.methodAnnotations.length);
+            for (int[] methodAnnotation : annotationsDirectory.methodAnnotations) {
+                writeMethodId(methodAnnotation[0]);
+                writeAnnotationSet(methodAnnotation[1]);
+            }
+            writeInt(annotationsDirectory.parameterAnnotations.length);
+            for (int[] parameterAnnotation : annotationsDirectory.parameterAnnotations) {
+                writeMethodId(parameterAnnotation[0]);
+                writeAnnotationSetRefList(parameterAnnotation[1]);
+            }
+        }
+
+        private void writeAnnotationSetRefList(int annotationSetRefListOffset) {
+            if (annotationSetRefListOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final AnnotationSetRefList annotationSetRefList =
+                    dex.openSection(annotationSetRefListOffset).readAnnotationSetRefList();
+            writeInt(annotationSetRefList.annotationSetRefItems.length);
+            for (int annotationSetOffset : annotationSetRefList.annotationSetRefItems) {
+                writeAnnotationSet(annotationSetOffset);
+            }
+        }
+
+        private void writeAnnotationSet(int annotationSetOffset) {
+            if (annotationSetOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final AnnotationSet annotationSet = dex.openSection(annotationSetOffset).readAnnotationSet();
+            writeInt(annotationSet.annotationOffsets.length);
+            for (int annotationOffset : annotationSet.annotationOffsets) {
+                final Annotation annotation = dex.openSection(annotationOffset).readAnnotation();
+                writeInt(annotation.visibility);
+                writeEncodedAnnotation(annotation.getReader());
+            }
+        }
+
+        private void writeEncodedArray(int encodedArrayOffset) {
+            if (encodedArrayOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final EncodedValueReader reader = new EncodedValueReader(
+                    dex.openSection(encodedArrayOffset).readEncodedArray(), EncodedValueReader.ENCODED_ARRAY
+            );
+            writeEncodedValue(reader);
+        }
+
+        private void writeEncodedAnnotation(EncodedValueReader reader) {
+            final int fieldCount = reader.readAnnotation();
+            writeType(reader.getAnnotationType());
+            writeInt(fieldCount);
+            for (int i = 0; i < fieldCount; ++i) {
+                writeString(reader.readAnnotationName());
+                writeEncodedValue(reader);
+            }
+        }
+
+        private void writeEncodedValue(EncodedValueReader reader) {
+            final int type = reader.peek();
+            writeInt(type);
+            switch (type) {
+                case EncodedValueReader.ENCODED_BYTE: {
+                    writeInt(reader.readByte());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_SHORT: {
+                    writeInt(reader.readShort());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_CHAR: {
+                    writeInt(reader.readChar());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_INT: {
+                    writeInt(reader.readInt());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_LONG: {
+                    writeLong(reader.readLong());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_FLOAT: {
+                    writeInt(Float.floatToIntBits(reader.readFloat()));
+                    break;
+                }
+                case EncodedValueReader.ENCODED_DOUBLE: {
+                    writeLong(Double.doubleToLongBits(reader.readDouble()));
+                    break;
+                }
+                case EncodedValueReader.ENCODED_METHOD_TYPE: {
+                    writeProtoId(reader.readMethodType());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_METHOD_HANDLE: {
+                    writeMethodHandle(reader.readMethodHandle());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_STRING: {
+                    writeString(reader.readString());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_TYPE: {
+                    writeType(reader.readType());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_FIELD: {
+                    writeFieldId(reader.readField());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_ENUM: {
+                    writeFieldId(reader.readEnum());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_METHOD: {
+                    writeMethodId(reader.readMethod());
+                    break;
+                }
+                case EncodedValueReader.ENCODED_ARRAY: {
+                    final int size = reader.readArray();
+                    writeInt(size);
+                    for (int i = 0; i < size; ++i) {
+                        writeEncodedValue(reader);
+                    }
+                    break;
+                }
+                case EncodedValueReader.ENCODED_ANNOTATION: {
+                    writeEncodedAnnotation(reader);
+                    break;
+                }
+                case EncodedValueReader.ENCODED_NULL: {
+                    reader.readNull();
+                    break;
+                }
+                case EncodedValueReader.ENCODED_BOOLEAN: {
+                    writeInt(reader.readBoolean() ? 1 : 0);
+                    break;
+                }
+                default: {
+                    throw new DexException("Unexpected encoded value type: " + Integer.toHexString(type));
+                }
+            }
+        }
+
+        private void writeClassData(int classDataOffset) {
+            if (classDataOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final ClassData classData = dex.openSection(classDataOffset).readClassData();
+            writeFields(classData.instanceFields);
+            writeFields(classData.staticFields);
+            writeMethods(classData.directMethods);
+            writeMethods(classData.virtualMethods);
+        }
+
+        private void writeFields(ClassData.Field[] fields) {
+            writeInt(fields.length);
+            for (ClassData.Field field : fields) {
+                writeInt(field.accessFlags);
+                writeFieldId(field.fieldIndex);
+            }
+        }
+
+        private void writeMethods(ClassData.Method[] methods) {
+            writeInt(methods.length);
+            for (ClassData.Method method : methods) {
+                writeInt(method.accessFlags);
+                writeMethodId(method.methodIndex);
+                writeCode(method.codeOffset);
+            }
+        }
+
+        private void writeCode(int codeOffset) {
+            if (codeOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final Code code = dex.openSection(codeOffset).readCode();
+            writeInt(code.registersSize);
+            writeInt(code.insSize);
+            writeInt(code.outsSize);
+            writeInstructions(code.instructions);
+            writeInt(code.tries.length);
+            for (Code.Try tryItem : code.tries) {
+                writeInt(tryItem.startAddress);
+                writeInt(tryItem.instructionCount);
+                writeCatchHandler(code.catchHandlers[tryItem.catchHandlerIndex]);
+            }
+            writeDebugInfo(code.debugInfoOffset);
+        }
+
+        private void writeCatchHandler(Code.CatchHandler catchHandler) {
+            writeInt(catchHandler.typeIndexes.length);
+            for (int i = 0; i < catchHandler.typeIndexes.length; ++i) {
+                writeType(catchHandler.typeIndexes[i]);
+                writeInt(catchHandler.addresses[i]);
+            }
+            writeInt(catchHandler.catchAllAddress);
+        }
+
+        private void writeInstructions(short[] instructions) {
+            writeInt(instructions.length);
+            final InstructionReader ir = new InstructionReader(new ShortArrayCodeInput(instructions));
+            try {
+                ir.accept(new InstructionVisitor(null) {
+                    @Override
+                    public void visitZeroRegisterInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, 0);
+                    }
+
+                    @Override
+                    public void visitOneRegisterInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal, int a) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, 1);
+                        writeInt(a);
+                    }
+
+                    @Override
+                    public void visitTwoRegisterInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal, int a, int b) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, 2);
+                        writeInt(a);
+                        writeInt(b);
+                    }
+
+                    @Override
+                    public void visitThreeRegisterInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal, int a, int b, int c) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, 3);
+                        writeInt(a);
+                        writeInt(b);
+                        writeInt(c);
+                    }
+
+                    @Override
+                    public void visitFourRegisterInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal, int a, int b, int c, int d) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, 4);
+                        writeInt(a);
+                        writeInt(b);
+                        writeInt(c);
+                        writeInt(d);
+                    }
+
+                    @Override
+                    public void visitFiveRegisterInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal, int a, int b, int c, int d, int e) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, 5);
+                        writeInt(a);
+                        writeInt(b);
+                        writeInt(c);
+                        writeInt(d);
+                        writeInt(e);
+                    }
+
+                    @Override
+                    public void visitRegisterRangeInsn(int currentAddress, int opcode, int index, int indexType, int target, long literal, int a, int registerCount) {
+                        writeInsnHeader(currentAddress, opcode, index, indexType, target, literal, -1);
+                        writeInt(a);
+                        writeInt(registerCount);
+                    }
+
+                    @Override
+                    public void visitInvokePolymorphicInstruction(int currentAddress, int opcode, int methodIndex, int indexType, int protoIndex, int[] registers) {
+                        writeInt(currentAddress);
+                        writeInt(opcode);
+                        writeIndex(indexType, methodIndex);
+                        writeProtoId(protoIndex);
+                        writeInt(registers.length);
+                        for (int register : registers) {
+                            writeInt(register);
+                        }
+                    }
+
+                    @Override
+                    public void visitInvokePolymorphicRangeInstruction(int currentAddress, int opcode, int methodIndex, int indexType, int c, int registerCount, int protoIndex) {
+                        writeInt(currentAddress);
+                        writeInt(opcode);
+                        writeIndex(indexType, methodIndex);
+                        writeProtoId(protoIndex);
+                        writeInt(c);
+                        writeInt(registerCount);
+                    }
+
+                    @Override
+                    public void visitSparseSwitchPayloadInsn(int currentAddress, int opcode, int[] keys, int[] targets) {
+                        writeInt(currentAddress);
+                        writeInt(opcode);
+                        writeInt(keys.length);
+                        for (int i = 0; i < keys.length; ++i) {
+                            writeInt(keys[i]);
+                            writeInt(targets[i]);
+                        }
+                    }
+
+                    @Override
+                    public void visitPackedSwitchPayloadInsn(int currentAddress, int opcode, int firstKey, int[] targets) {
+                        writeInt(currentAddress);
+                        writeInt(opcode);
+                        writeInt(firstKey);
+                        writeInt(targets.length);
+                        for (int target : targets) {
+                            writeInt(target);
+                        }
+                    }
+
+                    @Override
+                    public void visitFillArrayDataPayloadInsn(int currentAddress, int opcode, Object data, int size, int elementWidth) {
+                        writeInt(currentAddress);
+                        writeInt(opcode);
+                        writeInt(size);
+                        writeInt(elementWidth);
+                        switch (elementWidth) {
+                            case 1: {
+                                digest.update((byte[]) data);
+                                break;
+                            }
+                            case 2: {
+                                for (short value : (short[]) data) {
+                                    writeInt(value);
+                                }
+                                break;
+                            }
+                            case 4: {
+                                for (int value : (int[]) data) {
+                                    writeInt(value);
+                                }
+                                break;
+                            }
+                            case 8: {
+                                for (long value : (long[]) data) {
+                                    writeLong(value);
+                                }
+                                break;
+                            }
+                            default: {
+                                throw new DexException("bogus element_width: " + elementWidth);
+                            }
+                        }
+                    }
+                });
+            } catch (EOFException e) {
+                throw new DexException(e);
+            }
+        }
+
+        private void writeInsnHeader(int address, int opcode, int index, int indexType, int target, long literal, int registerCount) {
+            writeInt(address);
+            writeInt(opcode);
+            writeIndex(indexType, index);
+            writeInt(target);
+            writeLong(literal);
+            writeInt(registerCount);
+        }
+
+        private void writeDebugInfo(int debugInfoOffset) {
+            if (debugInfoOffset == 0) {
+                writeInt(-1);
+                return;
+            }
+            final DebugInfoItem debugInfoItem = dex.openSection(debugInfoOffset).readDebugInfoItem();
+            writeInt(debugInfoItem.lineStart);
+            writeInt(debugInfoItem.parameterNames.length);
+            for (int parameterName : debugInfoItem.parameterNames) {
+                writeString(parameterName);
+            }
+
+            final DexDataBuffer buffer = new DexDataBuffer(ByteBuffer.wrap(debugInfoItem.infoSTM));
+            boolean isEnd = false;
+            while (!isEnd && buffer.available() > 0) {
+                final int opcode = buffer.readUnsignedByte();
+                writeInt(opcode);
+                switch (opcode) {
+                    case DebugInfoItem.DBG_END_SEQUENCE: {
+                        isEnd = true;
+                        break;
+                    }
+                    case DebugInfoItem.DBG_ADVANCE_PC: {
+                        writeInt(buffer.readUleb128());
+                        break;
+                    }
+                    case DebugInfoItem.DBG_ADVANCE_LINE: {
+                        writeInt(buffer.readSleb128());
+                        break;
+                    }
+                    case DebugInfoItem.DBG_START_LOCAL:
+                    case DebugInfoItem.DBG_START_LOCAL_EXTENDED: {
+                        writeInt(buffer.readUleb128());
+                        writeString(buffer.readUleb128p1());
+                        writeType(buffer.readUleb128p1());
+                        if (opcode == DebugInfoItem.DBG_START_LOCAL_EXTENDED) {
+                            writeString(buffer.readUleb128p1());
+                        }
+                        break;
+                    }
+                    case DebugInfoItem.DBG_END_LOCAL:
+                    case DebugInfoItem.DBG_RESTART_LOCAL: {
+                        writeInt(buffer.readUleb128());
+                        break;
+                    }
+                    case DebugInfoItem.DBG_SET_FILE: {
+                        writeString(buffer.readUleb128p1());
+                        break;
+                    }
+                    default: {
+                        // DBG_SET_PROLOGUE_END, DBG_SET_EPILOGUE_BEGIN and special opcodes
+                        // carry no operands.
+                        break;
+                    }
+                }
+            }
+            // Trailing bytes after DBG_END_SEQUENCE are compared by DexClassesComparator as well.
+            writeInt(buffer.available());
+        }
+    }
+}
@@ -256,12 +256,7 @@ public final class DexClassesComparator {
             DexClassInfo newClassInfo = newClassDescriptorToClassInfoMap.get(desc);
             switch (compareMode) {
                 case COMPARE_MODE_NORMAL: {
-                    if (!isSameClass(
-                            oldClassInfo.owner,
-                            newClassInfo.owner,
-                            oldClassInfo.classDef,
-                            newClassInfo.classDef
-                    )) {
+                    if (!isSameClassWithFingerprint(oldClassInfo, newClassInfo)) {
                         if (Utils.isStringMatchesPatterns(desc, patternsOfIgnoredRemovedClassDesc)) {
                             logger.i(TAG, "Ignored changed class: %s", desc);
                         } else {
@@ -545,6 +540,22 @@ public final class DexClassesComparator {
         return false;
     }
 
+    private boolean isSameClassWithFingerprint(DexClassInfo oldClassInfo, DexClassInfo newClassInfo) {
+        // Only a few classes are changed in a typical patch, so identical classes are
+        // discarded by their fingerprints and structural comparison is only done on mismatch.
+        if (DexClassFingerprints.isSameFingerprint(
+                oldClassInfo.owner, oldClassInfo.classDesc, newClassInfo.owner, newClassInfo.classDesc
+        )) {
+            return true;
+        }
+        return isSameClass(
+                oldClassInfo.owner,
+                newClassInfo.owner,
+                oldClassInfo.classDef,
+                newClassInfo.classDef
+        );
+    }
+
     private boolean isSameClass(
             Dex oldDex,
             Dex newDex,
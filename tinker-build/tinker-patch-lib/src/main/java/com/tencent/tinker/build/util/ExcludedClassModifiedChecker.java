@@ -21,6 +21,7 @@ import com.tencent.tinker.android.dex.Dex;
 import com.tencent.tinker.android.dex.DexFormat;
 import com.tencent.tinker.build.dexpatcher.util.PatternUtils;
 import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.build.patch.ParsedApk;
 import com.tencent.tinker.build.util.DexClassesComparator.DexClassInfo;
 
 import java.io.File;
@@ -73,8 +74,8 @@ public final class ExcludedClassModifiedChecker {
             throw new TinkerPatchException("both oldFile and newFile are null.");
         }
 
-        oldDex = (oldFile != null ? new Dex(oldFile) : null);
-        newDex = (newFile != null ? new Dex(newFile) : null);
+        oldDex = (oldFile != null ? ParsedApk.loadDex(config, oldFile) : null);
+        newDex = (newFile != null ? ParsedApk.loadDex(config, newFile) : null);
 
         int stmCode = STMCODE_START;
 
@@ -18,6 +18,8 @@ package com.tencent.tinker.build.util;
 
 import com.tencent.tinker.build.patch.Configuration;
 import com.tencent.tinker.commons.util.IOHelper;
+import com.tencent.tinker.ziputils.ziputil.ParallelZipWriter;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -29,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
@@ -36,7 +39,6 @@ import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 public class FileOperation {
     public static final boolean deleteFile(String filePath) {
@@ -99,6 +101,26 @@ public class FileOperation {
         return size;
     }
 
+    /**
+     * Total size of all files under {@code dir}, or size of {@code dir} itself if it is a file.
+     */
+    public static long getDirSizes(File dir) {
+        if (dir == null || !dir.exists()) {
+            return 0;
+        }
+        if (dir.isFile()) {
+            return dir.length();
+        }
+        long size = 0;
+        final File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += getDirSizes(child);
+            }
+        }
+        return size;
+    }
+
     public static final boolean deleteDir(File file) {
         if (file == null || (!file.exists())) {
             return false;
@@ -237,24 +259,60 @@ public class FileOperation {
      * @throws IOException
      */
     public static void zipFiles(Collection<File> resFileList, File zipFile, String comment) throws IOException {
-        ZipOutputStream zipout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), TypedValue.BUFFER_SIZE));
-        for (File resFile : resFileList) {
-            if (resFile.exists()) {
-                zipFile(resFile, zipout, "");
+        zipFiles(resFileList, zipFile, comment, null);
+    }
+
+    /**
+     * zip list of file, and sign the zip file by {@code signer} in the same pass if it is not null.
+     *
+     * @param resFileList file(dir) list
+     * @param zipFile     output zip file
+     * @param signer      jar signer, can be null
+     * @throws IOException
+     */
+    public static void zipFiles(Collection<File> resFileList, File zipFile, String comment, JarV1Signer signer) throws IOException {
+        TinkerZipOutputStream zipout = new TinkerZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), TypedValue.BUFFER_SIZE));
+        // Entries are deflated on worker threads and written in the original order.
+        ParallelZipWriter zipWriter = new ParallelZipWriter(zipout);
+        boolean success = false;
+        try {
+            for (File resFile : resFileList) {
+                if (resFile.exists()) {
+                    zipFile(resFile, zipWriter, signer, "");
+                }
+            }
+            if (signer != null) {
+                try {
+                    signer.writeSignatureEntries(zipWriter);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Fail to sign " + zipFile.getAbsolutePath(), e);
+                }
+            }
+            if (comment != null) {
+                zipout.setComment(comment);
+            }
+            zipWriter.finish();
+            success = true;
+        } finally {
+            if (success) {
+                zipWriter.close();
+            } else {
+                // Do not wait for entries nobody needs, nor leave a truncated zip behind.
+                try {
+                    zipWriter.abort();
+                } finally {
+                    zipFile.delete();
+                }
             }
         }
-        if (comment != null) {
-            zipout.setComment(comment);
-        }
-        zipout.close();
     }
 
-    private static void zipFile(File resFile, ZipOutputStream zipout, String rootpath) throws IOException {
+    private static void zipFile(File resFile, ParallelZipWriter zipWriter, JarV1Signer signer, String rootpath) throws IOException {
         rootpath = rootpath + (rootpath.trim().length() == 0 ? "" : File.separator) + resFile.getName();
         if (resFile.isDirectory()) {
             File[] fileList = resFile.listFiles();
             for (File file : fileList) {
-                zipFile(file, zipout, rootpath);
+                zipFile(file, zipWriter, signer, rootpath);
             }
         } else {
             final byte[] fileContents = readContents(resFile);
@@ -262,20 +320,10 @@ public class FileOperation {
             if (rootpath.contains("\\")) {
                 rootpath = rootpath.replace("\\", "/");
             }
-            ZipEntry entry = new ZipEntry(rootpath);
-            // if (compressMethod == ZipEntry.DEFLATED) {
-            entry.setMethod(ZipEntry.DEFLATED);
-            // } else {
-            //     entry.setMethod(ZipEntry.STORED);
-            //     entry.setSize(fileContents.length);
-            //     final CRC32 checksumCalculator = new CRC32();
-            //     checksumCalculator.update(fileContents);
-            //     entry.setCrc(checksumCalculator.getValue());
-            // }
-            zipout.putNextEntry(entry);
-            zipout.write(fileContents);
-            zipout.flush();
-            zipout.closeEntry();
+            if (signer != null) {
+                signer.addEntry(rootpath, fileContents);
+            }
+            zipWriter.putDeflatedEntry(rootpath, fileContents);
         }
     }
 
@@ -362,13 +410,17 @@ public class FileOperation {
     }
 
     public static void zipInputDir(File inputDir, File outputFile, String comment) throws IOException {
+        zipInputDir(inputDir, outputFile, comment, null);
+    }
+
+    public static void zipInputDir(File inputDir, File outputFile, String comment, JarV1Signer signer) throws IOException {
         File[] unzipFiles = inputDir.listFiles();
         List<File> collectFiles = new ArrayList<>();
         for (File f : unzipFiles) {
             collectFiles.add(f);
         }
 
-        FileOperation.zipFiles(collectFiles, outputFile, comment);
+        FileOperation.zipFiles(collectFiles, outputFile, comment, signer);
     }
 
     public static boolean sevenZipInputDir(File inputDir, File outputFile, Configuration config) {
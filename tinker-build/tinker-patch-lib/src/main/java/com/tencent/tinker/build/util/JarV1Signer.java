@@ -0,0 +1,351 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.util;
+
+import com.tencent.tinker.build.patch.Configuration;
+import com.tencent.tinker.commons.util.IOHelper;
+import com.tencent.tinker.ziputils.ziputil.ParallelZipWriter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Signs a jar with JAR signature scheme (v1) while its entries are being written,
+ * so that no separate pass of jarsigner over the finished archive is needed.
+ *
+ * Feed every entry to {@link #addEntry} and call {@link #writeSignatureEntries}
+ * before the archive is finished, the manifest, signature file and PKCS#7
+ * signature block are appended to the archive.
+ */
+public final class JarV1Signer {
+    public static final String DIGEST_SHA1   = "SHA1";
+    public static final String DIGEST_SHA256 = "SHA-256";
+
+    private static final String META_INF      = "META-INF/";
+    private static final String MANIFEST_NAME = META_INF + "MANIFEST.MF";
+    private static final String SIGNER_NAME   = "CERT";
+    private static final String CREATED_BY    = "1.0 (Tinker)";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MANIFEST_LINE_LENGTH = 72;
+
+    private static final String OID_DATA               = "1.2.840.113549.1.7.1";
+    private static final String OID_SIGNED_DATA        = "1.2.840.113549.1.7.2";
+    private static final String OID_DIGEST_SHA1        = "1.3.14.3.2.26";
+    private static final String OID_DIGEST_SHA256      = "2.16.840.1.101.3.4.2.1";
+    private static final String OID_KEY_RSA            = "1.2.840.113549.1.1.1";
+    private static final String OID_KEY_DSA            = "1.2.840.10040.4.1";
+    private static final String OID_KEY_EC             = "1.2.840.10045.2.1";
+
+    private final PrivateKey        privateKey;
+    private final X509Certificate[] certChain;
+    private final String            digestAlgorithm;
+    private final String            digestAttributeName;
+    private final MessageDigest     entryDigest;
+
+    private final Map<String, String> entryDigests = new LinkedHashMap<>();
+
+    public JarV1Signer(PrivateKey privateKey, X509Certificate[] certChain, String digestAlgorithm) throws GeneralSecurityException {
+        if (!DIGEST_SHA1.equals(digestAlgorithm) && !DIGEST_SHA256.equals(digestAlgorithm)) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + digestAlgorithm);
+        }
+        if (certChain == null || certChain.length == 0) {
+            throw new IllegalArgumentException("Certificate chain is empty.");
+        }
+        this.privateKey = privateKey;
+        this.certChain = certChain;
+        this.digestAlgorithm = digestAlgorithm;
+        this.digestAttributeName = (DIGEST_SHA1.equals(digestAlgorithm) ? "SHA1" : "SHA-256") + "-Digest";
+        this.entryDigest = MessageDigest.getInstance(digestAlgorithm);
+        // Fail fast if the key cannot be used with the requested digest.
+        Signature.getInstance(getSignatureAlgorithm());
+    }
+
+    /**
+     * Create a signer with the key described by sign config in {@code config}.
+     */
+    public static JarV1Signer create(Configuration config) throws IOException, GeneralSecurityException {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(config.mSignatureFile));
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(is, config.mStorePass.toCharArray());
+            Key key = keyStore.getKey(config.mStoreAlias, config.mKeyPass.toCharArray());
+            if (!(key instanceof PrivateKey)) {
+                throw new GeneralSecurityException("Alias " + config.mStoreAlias + " does not refer to a private key.");
+            }
+            Certificate[] certs = keyStore.getCertificateChain(config.mStoreAlias);
+            if (certs == null || certs.length == 0) {
+                throw new GeneralSecurityException("Alias " + config.mStoreAlias + " has no certificate chain.");
+            }
+            X509Certificate[] x509Certs = new X509Certificate[certs.length];
+            for (int i = 0; i < certs.length; ++i) {
+                x509Certs[i] = (X509Certificate) certs[i];
+            }
+            return new JarV1Signer((PrivateKey) key, x509Certs, config.mSignDigestAlgorithm);
+        } finally {
+            IOHelper.closeQuietly(is);
+        }
+    }
+
+    public String getSignatureAlgorithm() {
+        final String digestPart = (DIGEST_SHA1.equals(digestAlgorithm) ? "SHA1" : "SHA256");
+        final String keyAlgorithm = privateKey.getAlgorithm();
+        if (keyAlgorithm.equalsIgnoreCase("RSA")) {
+            return digestPart + "withRSA";
+        } else if (keyAlgorithm.equalsIgnoreCase("DSA")) {
+            return digestPart + "withDSA";
+        } else if (keyAlgorithm.equalsIgnoreCase("EC")) {
+            return digestPart + "withECDSA";
+        } else {
+            throw new IllegalStateException("private key is not a DSA, RSA or EC key");
+        }
+    }
+
+    /**
+     * Record digest of entry {@code name} whose content is {@code data}.
+     */
+    public void addEntry(String name, byte[] data) {
+        if (name.endsWith("/")) {
+            return;
+        }
+        if (name.startsWith(META_INF) && name.indexOf('/', META_INF.length()) < 0) {
+            throw new IllegalArgumentException("Entry " + name + " conflicts with jar signature files.");
+        }
+        entryDigest.reset();
+        entryDigests.put(name, Base64.getEncoder().encodeToString(entryDigest.digest(data)));
+    }
+
+    /**
+     * Generate manifest, signature file and signature block of all added entries and
+     * schedule them to {@code zipWriter}.
+     */
+    public void writeSignatureEntries(ParallelZipWriter zipWriter) throws IOException, GeneralSecurityException {
+        final MessageDigest digest = MessageDigest.getInstance(digestAlgorithm);
+
+        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        writeAttribute(manifest, "Manifest-Version", "1.0");
+        writeAttribute(manifest, "Created-By", CREATED_BY);
+        manifest.write('\r');
+        manifest.write('\n');
+
+        final ByteArrayOutputStream signatureFileSections = new ByteArrayOutputStream();
+        final ByteArrayOutputStream section = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> entry : entryDigests.entrySet()) {
+            section.reset();
+            writeAttribute(section, "Name", entry.getKey());
+            writeAttribute(section, digestAttributeName, entry.getValue());
+            section.write('\r');
+            section.write('\n');
+            final byte[] sectionBytes = section.toByteArray();
+            manifest.write(sectionBytes);
+
+            writeAttribute(signatureFileSections, "Name", entry.getKey());
+            writeAttribute(signatureFileSections, digestAttributeName,
+                Base64.getEncoder().encodeToString(digest.digest(sectionBytes)));
+            signatureFileSections.write('\r');
+            signatureFileSections.write('\n');
+        }
+        final byte[] manifestBytes = manifest.toByteArray();
+
+        final ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+        writeAttribute(signatureFile, "Signature-Version", "1.0");
+        writeAttribute(signatureFile, digestAttributeName + "-Manifest",
+            Base64.getEncoder().encodeToString(digest.digest(manifestBytes)));
+        writeAttribute(signatureFile, "Created-By", CREATED_BY);
+        signatureFile.write('\r');
+        signatureFile.write('\n');
+        signatureFileSections.writeTo(signatureFile);
+        final byte[] signatureFileBytes = signatureFile.toByteArray();
+
+        final Signature signature = Signature.getInstance(getSignatureAlgorithm());
+        signature.initSign(privateKey);
+        signature.update(signatureFileBytes);
+        final byte[] signatureBlockBytes = encodeSignatureBlock(signature.sign());
+
+        zipWriter.putDeflatedEntry(MANIFEST_NAME, manifestBytes);
+        zipWriter.putDeflatedEntry(META_INF + SIGNER_NAME + ".SF", signatureFileBytes);
+        zipWriter.putDeflatedEntry(META_INF + SIGNER_NAME + "." + getSignatureBlockExtension(), signatureBlockBytes);
+    }
+
+    private String getSignatureBlockExtension() {
+        final String keyAlgorithm = privateKey.getAlgorithm();
+        if (keyAlgorithm.equalsIgnoreCase("EC")) {
+            return "EC";
+        }
+        return keyAlgorithm.toUpperCase();
+    }
+
+    private String getKeyAlgorithmOid() {
+        final String keyAlgorithm = privateKey.getAlgorithm();
+        if (keyAlgorithm.equalsIgnoreCase("RSA")) {
+            return OID_KEY_RSA;
+        } else if (keyAlgorithm.equalsIgnoreCase("DSA")) {
+            return OID_KEY_DSA;
+        } else {
+            return OID_KEY_EC;
+        }
+    }
+
+    /**
+     * Encode PKCS#7 SignedData with detached content and no authenticated attributes.
+     */
+    private byte[] encodeSignatureBlock(byte[] signatureBytes) throws GeneralSecurityException {
+        final byte[] digestAlgorithmId = DerEncoder.sequence(
+            DerEncoder.oid(DIGEST_SHA1.equals(digestAlgorithm) ? OID_DIGEST_SHA1 : OID_DIGEST_SHA256),
+            DerEncoder.nullValue()
+        );
+        final byte[] keyAlgorithmId = (OID_KEY_RSA.equals(getKeyAlgorithmOid())
+            ? DerEncoder.sequence(DerEncoder.oid(OID_KEY_RSA), DerEncoder.nullValue())
+            : DerEncoder.sequence(DerEncoder.oid(getKeyAlgorithmOid())));
+
+        final byte[][] encodedCerts = new byte[certChain.length][];
+        for (int i = 0; i < certChain.length; ++i) {
+            encodedCerts[i] = certChain[i].getEncoded();
+        }
+        final X509Certificate signerCert = certChain[0];
+        final byte[] signerInfo = DerEncoder.sequence(
+            DerEncoder.integer(BigInteger.ONE),
+            DerEncoder.sequence(
+                signerCert.getIssuerX500Principal().getEncoded(),
+                DerEncoder.integer(signerCert.getSerialNumber())
+            ),
+            digestAlgorithmId,
+            keyAlgorithmId,
+            DerEncoder.octetString(signatureBytes)
+        );
+        final byte[] signedData = DerEncoder.sequence(
+            DerEncoder.integer(BigInteger.ONE),
+            DerEncoder.set(digestAlgorithmId),
+            DerEncoder.sequence(DerEncoder.oid(OID_DATA)),
+            DerEncoder.tagged(0xA0, encodedCerts),
+            DerEncoder.set(signerInfo)
+        );
+        return DerEncoder.sequence(
+            DerEncoder.oid(OID_SIGNED_DATA),
+            DerEncoder.tagged(0xA0, signedData)
+        );
+    }
+
+    /**
+     * Write "name: value" with continuation lines so that no line exceeds 72 bytes.
+     */
+    private static void writeAttribute(ByteArrayOutputStream out, String name, String value) {
+        final byte[] line = (name + ": " + value).getBytes(UTF_8);
+        int pos = 0;
+        int lineLimit = MANIFEST_LINE_LENGTH - 2;
+        while (pos < line.length) {
+            int end = Math.min(line.length, pos + lineLimit);
+            // Don't split a multi-byte UTF-8 sequence.
+            while (end < line.length && (line[end] & 0xC0) == 0x80) {
+                --end;
+            }
+            if (pos > 0) {
+                out.write(' ');
+            }
+            out.write(line, pos, end - pos);
+            out.write('\r');
+            out.write('\n');
+            pos = end;
+            lineLimit = MANIFEST_LINE_LENGTH - 3;
+        }
+    }
+
+    /**
+     * Minimal DER encoder for the structures used in a signature block.
+     */
+    private static final class DerEncoder {
+        static byte[] sequence(byte[]... contents) {
+            return encode(0x30, contents);
+        }
+
+        static byte[] set(byte[]... contents) {
+            return encode(0x31, contents);
+        }
+
+        static byte[] tagged(int tag, byte[]... contents) {
+            return encode(tag, contents);
+        }
+
+        static byte[] integer(BigInteger value) {
+            return encode(0x02, value.toByteArray());
+        }
+
+        static byte[] octetString(byte[] value) {
+            return encode(0x04, value);
+        }
+
+        static byte[] nullValue() {
+            return new byte[] {0x05, 0x00};
+        }
+
+        static byte[] oid(String oid) {
+            final String[] parts = oid.split("\\.");
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+            for (int i = 2; i < parts.length; ++i) {
+                long value = Long.parseLong(parts[i]);
+                int shift = 63 - Long.numberOfLeadingZeros(value | 1);
+                shift = shift - shift % 7;
+                for (; shift > 0; shift -= 7) {
+                    out.write((int) ((value >>> shift) & 0x7F) | 0x80);
+                }
+                out.write((int) (value & 0x7F));
+            }
+            return encode(0x06, out.toByteArray());
+        }
+
+        private static byte[] encode(int tag, byte[]... contents) {
+            int length = 0;
+            for (byte[] content : contents) {
+                length += content.length;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+            out.write(tag);
+            if (length < 0x80) {
+                out.write(length);
+            } else {
+                int lengthBytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+                out.write(0x80 | lengthBytes);
+                for (int i = lengthBytes - 1; i >= 0; --i) {
+                    out.write((length >>> (i * 8)) & 0xFF);
+                }
+            }
+            for (byte[] content : contents) {
+                out.write(content, 0, content.length);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -21,24 +21,64 @@ import com.tencent.tinker.build.patch.Configuration;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
  * Created by zhangshaowen on 16/4/7.
  */
 public class Logger {
-    private static InfoWriter logWriter;
+    /**
+     * log file of the job the current thread works for. It is bound explicitly rather than
+     * inherited, since pooled threads outlive the job that happened to create them.
+     */
+    private static final ThreadLocal<InfoWriter> logWriter = new ThreadLocal<>();
 
+    /**
+     * Create the log file of the job of {@code config} and bind it to the current thread.
+     */
     public static void initLogger(Configuration config) throws IOException {
         String logPath = config.mOutFolder + File.separator + TypedValue.FILE_LOG;
-        logWriter = new InfoWriter(config, logPath);
+        config.mLogWriter = new InfoWriter(config, logPath);
+        logWriter.set(config.mLogWriter);
     }
 
     public static void closeLogger() {
-        if (logWriter != null) {
-            logWriter.close();
+        InfoWriter writer = logWriter.get();
+        if (writer != null) {
+            Configuration config = writer.getConfig();
+            synchronized (writer) {
+                writer.close();
+                if (config != null && config.mLogWriter == writer) {
+                    config.mLogWriter = null;
+                }
+            }
+            logWriter.remove();
         }
     }
 
+    /**
+     * Wrap a task a job hands to another thread, logs of the task go to the log file of
+     * {@code config} whichever thread runs it.
+     */
+    public static <V> Callable<V> bindToJob(final Configuration config, final Callable<V> task) {
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                InfoWriter previous = logWriter.get();
+                logWriter.set(config.mLogWriter);
+                try {
+                    return task.call();
+                } finally {
+                    if (previous != null) {
+                        logWriter.set(previous);
+                    } else {
+                        logWriter.remove();
+                    }
+                }
+            }
+        };
+    }
+
     public static void d(final String msg) {
         Logger.d("%s", msg);
     }
@@ -52,7 +92,7 @@ public class Logger {
         System.out.println(log);
         System.out.flush();
 
-        logWriter.writeLineToInfoFile(log);
+        writeLineToInfoFile(log);
     }
 
     public static void e(final String msg) {
@@ -67,7 +107,18 @@ public class Logger {
         System.err.println(log);
         System.err.flush();
 
-        logWriter.writeLineToInfoFile(log);
+        writeLineToInfoFile(log);
     }
 
+    private static void writeLineToInfoFile(String log) {
+        InfoWriter writer = logWriter.get();
+        if (writer != null) {
+            // tasks bound to a job may log from several threads at once.
+            synchronized (writer) {
+                if (writer.getConfig() == null || writer.getConfig().mLogWriter == writer) {
+                    writer.writeLineToInfoFile(log);
+                }
+            }
+        }
+    }
 }
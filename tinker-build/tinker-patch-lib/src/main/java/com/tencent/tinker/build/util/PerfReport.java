@@ -0,0 +1,474 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.util;
+
+import com.tencent.tinker.commons.util.IOHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performance figures of one patch generating job, written as a json file next to the patch.
+ *
+ * A phase records wall time, cpu time of the thread running it, cpu time of the whole process,
+ * bytes read and written, and the largest used heap of the process sampled while it runs. The
+ * heap is sampled every {@link #HEAP_SAMPLE_INTERVAL_MILLIS} ms, so a spike shorter than that
+ * may be missed, and it includes garbage not collected yet as well as memory of other jobs
+ * sharing the process. Besides phases, diff time of each file and hit counts of caches are kept.
+ *
+ * All methods are thread safe, files and cache lookups can be recorded from worker threads.
+ */
+public final class PerfReport {
+    private static final int REPORT_VERSION = 2;
+
+    static final long HEAP_SAMPLE_INTERVAL_MILLIS = 20;
+
+    private final long beginWallNanos = System.nanoTime();
+    private final long beginProcessCpuNanos = getProcessCpuNanos();
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<FileRecord> files = new ArrayList<>();
+    private final Map<String, long[]> cacheLookups = new TreeMap<>();
+
+    public Phase beginPhase(String name) {
+        final Phase phase = new Phase(name);
+        synchronized (phases) {
+            phases.add(phase);
+        }
+        return phase;
+    }
+
+    /**
+     * @param category  decoder or step which processed the file, such as dex, so or res.
+     * @param bytesRead total size of old and new file.
+     */
+    public void recordFile(String category, String path, long bytesRead, long costNanos) {
+        synchronized (files) {
+            files.add(new FileRecord(category, path, bytesRead, costNanos));
+        }
+    }
+
+    public void recordCacheLookup(String cacheName, boolean hit) {
+        synchronized (cacheLookups) {
+            long[] counts = cacheLookups.get(cacheName);
+            if (counts == null) {
+                counts = new long[2];
+                cacheLookups.put(cacheName, counts);
+            }
+            ++counts[hit ? 0 : 1];
+        }
+    }
+
+    public void writeTo(File reportFile) throws IOException {
+        final JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.name("version").value(REPORT_VERSION);
+        json.name("wallMs").value(nanosToMillis(System.nanoTime() - beginWallNanos));
+        json.name("processCpuMs").value(cpuDeltaMillis(beginProcessCpuNanos, getProcessCpuNanos()));
+        json.name("sampledMaxHeapUsedBytes").value(getMaxHeapUsedBytes());
+
+        json.name("phases").beginArray();
+        synchronized (phases) {
+            for (Phase phase : phases) {
+                json.beginObject();
+                json.name("name").value(phase.name);
+                json.name("finished").value(phase.endWallNanos >= 0);
+                json.name("wallMs").value(nanosToMillis(phase.getWallNanos()));
+                json.name("cpuMs").value(phase.cpuMillis);
+                json.name("processCpuMs").value(phase.processCpuMillis);
+                json.name("bytesRead").value(phase.bytesRead.get());
+                json.name("bytesWritten").value(phase.bytesWritten.get());
+                json.name("sampledMaxHeapUsedBytes").value(phase.maxHeapUsedBytes.get());
+                json.endObject();
+            }
+        }
+        json.endArray();
+
+        // Slowest files first, they are what people look for.
+        final List<FileRecord> sortedFiles;
+        synchronized (files) {
+            sortedFiles = new ArrayList<>(files);
+        }
+        Collections.sort(sortedFiles, new Comparator<FileRecord>() {
+            @Override
+            public int compare(FileRecord lhs, FileRecord rhs) {
+                return Long.compare(rhs.costNanos, lhs.costNanos);
+            }
+        });
+        json.name("files").beginArray();
+        for (FileRecord file : sortedFiles) {
+            json.beginObject();
+            json.name("category").value(file.category);
+            json.name("path").value(file.path);
+            json.name("bytesRead").value(file.bytesRead);
+            json.name("costMs").value(nanosToMillis(file.costNanos));
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name("caches").beginArray();
+        synchronized (cacheLookups) {
+            for (Map.Entry<String, long[]> entry : cacheLookups.entrySet()) {
+                final long hits = entry.getValue()[0];
+                final long misses = entry.getValue()[1];
+                json.beginObject();
+                json.name("name").value(entry.getKey());
+                json.name("hits").value(hits);
+                json.name("misses").value(misses);
+                json.name("hitRate").value(hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+                json.endObject();
+            }
+        }
+        json.endArray();
+        json.endObject();
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+            writer.write(json.toString());
+        } finally {
+            IOHelper.closeQuietly(writer);
+        }
+    }
+
+    public final class Phase {
+        private final String name;
+        private final long beginWallNanos;
+        private final long beginCpuNanos;
+        private final long beginProcessCpuNanos;
+        private final AtomicLong bytesRead = new AtomicLong(0);
+        private final AtomicLong bytesWritten = new AtomicLong(0);
+        private final AtomicLong maxHeapUsedBytes = new AtomicLong(-1);
+
+        private volatile long endWallNanos = -1;
+        private volatile long cpuMillis = -1;
+        private volatile long processCpuMillis = -1;
+
+        private Phase(String name) {
+            this.name = name;
+            this.beginWallNanos = System.nanoTime();
+            this.beginCpuNanos = getCurrentThreadCpuNanos();
+            this.beginProcessCpuNanos = getProcessCpuNanos();
+            HeapSampler.register(this);
+        }
+
+        public void addBytesRead(long bytes) {
+            bytesRead.addAndGet(bytes);
+        }
+
+        public void addBytesWritten(long bytes) {
+            bytesWritten.addAndGet(bytes);
+        }
+
+        /**
+         * Must be called on the thread which began this phase.
+         */
+        public void end() {
+            if (endWallNanos >= 0) {
+                return;
+            }
+            cpuMillis = cpuDeltaMillis(beginCpuNanos, getCurrentThreadCpuNanos());
+            processCpuMillis = cpuDeltaMillis(beginProcessCpuNanos, getProcessCpuNanos());
+            HeapSampler.unregister(this);
+            endWallNanos = System.nanoTime();
+        }
+
+        private void updateMaxHeapUsedBytes(long heapUsedBytes) {
+            long current;
+            do {
+                current = maxHeapUsedBytes.get();
+            } while (heapUsedBytes > current && !maxHeapUsedBytes.compareAndSet(current, heapUsedBytes));
+        }
+
+        private long getWallNanos() {
+            final long end = endWallNanos;
+            return (end >= 0 ? end : System.nanoTime()) - beginWallNanos;
+        }
+    }
+
+    private static final class FileRecord {
+        final String category;
+        final String path;
+        final long bytesRead;
+        final long costNanos;
+
+        FileRecord(String category, String path, long bytesRead, long costNanos) {
+            this.category = category;
+            this.path = path;
+            this.bytesRead = bytesRead;
+            this.costNanos = costNanos;
+        }
+    }
+
+    private static double nanosToMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static long cpuDeltaMillis(long begin, long end) {
+        if (begin < 0 || end < 0) {
+            return -1;
+        }
+        return (end - begin) / 1000000;
+    }
+
+    private static long getCurrentThreadCpuNanos() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    private static long getProcessCpuNanos() {
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private long getMaxHeapUsedBytes() {
+        long result = -1;
+        synchronized (phases) {
+            for (Phase phase : phases) {
+                result = Math.max(result, phase.maxHeapUsedBytes.get());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Samples used heap for all running phases from one daemon thread, which only runs while
+     * any phase is running. Phases are also sampled when they begin and end, so a phase shorter
+     * than the interval still gets a value.
+     */
+    private static final class HeapSampler {
+        private static final Set<Phase> RUNNING_PHASES = new CopyOnWriteArraySet<>();
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "tinker-heap-sampler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        private static ScheduledFuture<?> sampleFuture = null;
+
+        static synchronized void register(Phase phase) {
+            phase.updateMaxHeapUsedBytes(getHeapUsedBytes());
+            RUNNING_PHASES.add(phase);
+            if (sampleFuture == null) {
+                sampleFuture = EXECUTOR.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        sample();
+                    }
+                }, HEAP_SAMPLE_INTERVAL_MILLIS, HEAP_SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        static synchronized void unregister(Phase phase) {
+            if (!RUNNING_PHASES.remove(phase)) {
+                return;
+            }
+            phase.updateMaxHeapUsedBytes(getHeapUsedBytes());
+            if (RUNNING_PHASES.isEmpty() && sampleFuture != null) {
+                sampleFuture.cancel(false);
+                sampleFuture = null;
+            }
+        }
+
+        private static void sample() {
+            final long heapUsedBytes = getHeapUsedBytes();
+            for (Phase phase : RUNNING_PHASES) {
+                phase.updateMaxHeapUsedBytes(heapUsedBytes);
+            }
+        }
+
+        private static long getHeapUsedBytes() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+    }
+
+    /**
+     * Just enough json writing for the report, keys and values are written in call order.
+     */
+    private static final class JsonWriter {
+        private final StringBuilder sb = new StringBuilder();
+        private int depth = 0;
+        private boolean needComma = false;
+        private boolean afterName = false;
+
+        JsonWriter beginObject() {
+            return open('{');
+        }
+
+        JsonWriter endObject() {
+            return close('}');
+        }
+
+        JsonWriter beginArray() {
+            return open('[');
+        }
+
+        JsonWriter endArray() {
+            return close(']');
+        }
+
+        JsonWriter name(String name) {
+            separate();
+            quote(name);
+            sb.append(": ");
+            afterName = true;
+            return this;
+        }
+
+        JsonWriter value(String value) {
+            separate();
+            if (value == null) {
+                sb.append("null");
+            } else {
+                quote(value);
+            }
+            needComma = true;
+            return this;
+        }
+
+        JsonWriter value(long value) {
+            separate();
+            sb.append(value);
+            needComma = true;
+            return this;
+        }
+
+        JsonWriter value(double value) {
+            separate();
+            sb.append(String.format(Locale.US, "%.3f", value));
+            needComma = true;
+            return this;
+        }
+
+        JsonWriter value(boolean value) {
+            separate();
+            sb.append(value);
+            needComma = true;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString() + "\n";
+        }
+
+        private JsonWriter open(char bracket) {
+            separate();
+            sb.append(bracket);
+            ++depth;
+            needComma = false;
+            return this;
+        }
+
+        private JsonWriter close(char bracket) {
+            --depth;
+            if (needComma) {
+                newLine();
+            }
+            sb.append(bracket);
+            needComma = true;
+            return this;
+        }
+
+        private void separate() {
+            // A value right after its name stays on the same line.
+            if (afterName) {
+                afterName = false;
+                return;
+            }
+            if (needComma) {
+                sb.append(',');
+            }
+            if (sb.length() > 0) {
+                newLine();
+            }
+        }
+
+        private void newLine() {
+            sb.append('\n');
+            for (int i = 0; i < depth; ++i) {
+                sb.append("  ");
+            }
+        }
+
+        private void quote(String str) {
+            sb.append('"');
+            for (int i = 0; i < str.length(); ++i) {
+                final char c = str.charAt(i);
+                switch (c) {
+                    case '"':
+                    case '\\': {
+                        sb.append('\\').append(c);
+                        break;
+                    }
+                    case '\n': {
+                        sb.append("\\n");
+                        break;
+                    }
+                    case '\r': {
+                        sb.append("\\r");
+                        break;
+                    }
+                    case '\t': {
+                        sb.append("\\t");
+                        break;
+                    }
+                    default: {
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                        break;
+                    }
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
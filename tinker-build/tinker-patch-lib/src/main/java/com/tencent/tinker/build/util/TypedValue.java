@@ -29,11 +29,24 @@ public class TypedValue {
     public static final String FILE_APK           = ".apk";
     public static final String FILE_CONFIG        = "config.xml";
     public static final String FILE_LOG           = "log.txt";
+    public static final String FILE_PERF_REPORT   = "perf_report.json";
     public static final String SO_LOG_FILE        = "so_log.txt";
     public static final String SO_META_FILE       = "so_meta.txt";
     public static final String DEX_LOG_FILE       = "dex_log.txt";
     public static final String DEX_META_FILE      = "dex_meta.txt";
     public static final String DEX_TEMP_PATCH_DIR = "tempPatchedDexes";
+
+    /**
+     * Ways to verify a full patched dex against the new dex.
+     * full: apply the diff and compare every class structurally.
+     * hash: apply the diff and compare class fingerprints, classes whose fingerprints
+     *       differ fall back to the full comparison.
+     * deferred: apply the diff and do the full comparison on background threads,
+     *           the build fails at the end of dex decoding if any dex mismatches.
+     */
+    public static final String DEX_VERIFY_POLICY_FULL     = "full";
+    public static final String DEX_VERIFY_POLICY_HASH     = "hash";
+    public static final String DEX_VERIFY_POLICY_DEFERRED = "deferred";
     public static final String RES_LOG_FILE       = "res_log.txt";
     public static final String RES_META_TXT       = "res_meta.txt";
     public static final String ARKHOT_META_TXT = "arkHot_meta.txt";
@@ -126,7 +126,7 @@ public class Utils {
         TinkerZipOutputStream out = null;
 
         try {
-            oldApk = new TinkerZipFile(config.mOldApkFile);
+            oldApk = new TinkerZipFile(config.mOldApkFile, TinkerZipFile.OPEN_READ | TinkerZipFile.OPEN_MAPPED);
             newApk = new TinkerZipFile(newZipFile);
             out = new TinkerZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
 
@@ -0,0 +1,330 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.dexpatcher.util;
+
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.android.dex.TableOfContents;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.MethodHandleType;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.instruction.FiveRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.NarrowLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.iface.value.IntEncodedValue;
+import org.jf.dexlib2.iface.value.MethodHandleEncodedValue;
+import org.jf.dexlib2.iface.value.StringEncodedValue;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction11n;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableCallSiteReference;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodHandleReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodProtoReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.immutable.value.ImmutableEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableIntEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableMethodHandleEncodedValue;
+import org.jf.dexlib2.immutable.value.ImmutableStringEncodedValue;
+import org.jf.dexlib2.util.ReferenceUtil;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Extracts classes from a dex written by dexlib2 and reads the result back with both
+ * {@link Dex} and dexlib2.
+ */
+public class ChangedClassesDexExtractorTest {
+    private static final int API = 26;
+    private static final int DATA_SIZE_OFFSET = 0x68;
+
+    private static final String TARGET    = "Lcom/tencent/tinker/test/Target;";
+    private static final String INDY      = "Lcom/tencent/tinker/test/Indy;";
+    private static final String PLAIN     = "Lcom/tencent/tinker/test/Plain;";
+    private static final String UNRELATED = "Lcom/tencent/tinker/test/Unrelated;";
+
+    private File workDir;
+    private File sourceDexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("extractor").toFile();
+        sourceDexFile = new File(workDir, "source.dex");
+        final DexPool dexPool = new DexPool(Opcodes.forApi(API));
+        for (ClassDef classDef : createClasses()) {
+            dexPool.internClass(classDef);
+        }
+        dexPool.writeTo(new FileDataStore(sourceDexFile));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : workDir.listFiles()) {
+            file.delete();
+        }
+        workDir.delete();
+    }
+
+    @Test
+    public void extract_keepsCallSitesAndMethodHandles() throws Exception {
+        final File out = new File(workDir, "changed.dex");
+        final int count = new ChangedClassesDexExtractor(new Dex(sourceDexFile))
+                .extract(new HashSet<>(Arrays.asList(INDY, TARGET, "Lcom/tencent/tinker/test/Missing;")), out);
+        assertEquals(2, count);
+
+        final Dex result = new Dex(out);
+        final TableOfContents toc = result.getTableOfContents();
+        assertEquals(API, toc.api);
+        assertEquals(1, toc.callSiteIds.size);
+        assertEquals(2, toc.methodHandles.size);
+        assertIdSectionsInFormatOrder(result);
+        assertFalse(result.strings().contains("unrelated"));
+
+        assertSameClasses(out, INDY, TARGET);
+    }
+
+    @Test
+    public void extract_withoutCallSites() throws Exception {
+        final File out = new File(workDir, "plain.dex");
+        assertEquals(1, new ChangedClassesDexExtractor(new Dex(sourceDexFile))
+                .extract(Collections.singleton(PLAIN), out));
+
+        final Dex result = new Dex(out);
+        final TableOfContents toc = result.getTableOfContents();
+        assertFalse(toc.callSiteIds.exists());
+        assertFalse(toc.methodHandles.exists());
+        assertIdSectionsInFormatOrder(result);
+
+        assertSameClasses(out, PLAIN);
+    }
+
+    @Test
+    public void extract_nothingForUnknownClasses() throws Exception {
+        final File out = new File(workDir, "empty.dex");
+        assertEquals(0, new ChangedClassesDexExtractor(new Dex(sourceDexFile))
+                .extract(Collections.singleton("Lcom/tencent/tinker/test/Missing;"), out));
+        assertFalse(out.exists());
+    }
+
+    /**
+     * Id sections come in the order of dex format, everything after them is data.
+     */
+    private static void assertIdSectionsInFormatOrder(Dex dex) {
+        final TableOfContents toc = dex.getTableOfContents();
+        final TableOfContents.Section[] idSections = {
+                toc.header, toc.stringIds, toc.typeIds, toc.protoIds, toc.fieldIds, toc.methodIds,
+                toc.classDefs, toc.callSiteIds, toc.methodHandles
+        };
+        final Set<TableOfContents.Section> ids = new HashSet<>(Arrays.asList(idSections));
+        int end = 0;
+        for (TableOfContents.Section section : idSections) {
+            if (!section.exists()) {
+                continue;
+            }
+            assertEquals("gap before " + section, end, section.off);
+            end = section.off + section.byteCount;
+        }
+        // Dex recomputes data_off without call site ids and method handles, read the header itself.
+        final Dex.Section header = dex.openSection(DATA_SIZE_OFFSET);
+        final int dataSize = header.readInt();
+        final int dataOff = header.readInt();
+        assertEquals(end, dataOff);
+        assertEquals(toc.fileSize - dataOff, dataSize);
+        for (TableOfContents.Section section : toc.sections) {
+            if (section.exists() && !ids.contains(section)) {
+                assertTrue(section + " is not in data", section.off >= dataOff);
+            }
+        }
+    }
+
+    /**
+     * Extracted classes read by dexlib2 must be the same as in the source dex, dexlib2 also
+     * checks the header, map and every offset it follows on the way.
+     */
+    private void assertSameClasses(File extractedDexFile, String... classDescs) throws IOException {
+        final Opcodes opcodes = Opcodes.forApi(API);
+        final DexBackedDexFile source = new DexBackedDexFile(opcodes, Files.readAllBytes(sourceDexFile.toPath()));
+        final byte[] extractedBytes = Files.readAllBytes(extractedDexFile.toPath());
+        final DexBackedDexFile extracted = new DexBackedDexFile(opcodes, extractedBytes);
+
+        final Dex extractedDex = new Dex(extractedBytes);
+        assertEquals(extractedDex.getTableOfContents().checksum, extractedDex.computeChecksum());
+        assertArrayEquals(extractedDex.getTableOfContents().signature, extractedDex.computeSignature(true));
+
+        final List<String> expected = new ArrayList<>();
+        for (ClassDef classDef : source.getClasses()) {
+            if (Arrays.asList(classDescs).contains(classDef.getType())) {
+                expected.add(dump(classDef));
+            }
+        }
+        final List<String> actual = new ArrayList<>();
+        for (ClassDef classDef : extracted.getClasses()) {
+            actual.add(dump(classDef));
+        }
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    private static String dump(ClassDef classDef) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(classDef.getType()).append(' ').append(classDef.getAccessFlags())
+                .append(" extends ").append(classDef.getSuperclass())
+                .append(" implements ").append(classDef.getInterfaces()).append('\n');
+        for (Field field : classDef.getFields()) {
+            sb.append("  field ").append(ReferenceUtil.getFieldDescriptor(field)).append(' ')
+                    .append(field.getAccessFlags()).append(" = ").append(dump(field.getInitialValue())).append('\n');
+        }
+        for (Method method : classDef.getMethods()) {
+            sb.append("  method ").append(ReferenceUtil.getMethodDescriptor(method)).append(' ')
+                    .append(method.getAccessFlags()).append('\n');
+            if (method.getImplementation() == null) {
+                continue;
+            }
+            sb.append("    registers ").append(method.getImplementation().getRegisterCount()).append('\n');
+            for (Instruction instruction : method.getImplementation().getInstructions()) {
+                sb.append("    ").append(instruction.getOpcode().name);
+                if (instruction instanceof OneRegisterInstruction) {
+                    sb.append(" v").append(((OneRegisterInstruction) instruction).getRegisterA());
+                }
+                if (instruction instanceof FiveRegisterInstruction) {
+                    sb.append(" count ").append(((FiveRegisterInstruction) instruction).getRegisterCount());
+                }
+                if (instruction instanceof NarrowLiteralInstruction) {
+                    sb.append(" #").append(((NarrowLiteralInstruction) instruction).getNarrowLiteral());
+                }
+                if (instruction instanceof ReferenceInstruction) {
+                    sb.append(' ').append(ReferenceUtil.getReferenceString(((ReferenceInstruction) instruction).getReference()));
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String dump(EncodedValue value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof IntEncodedValue) {
+            return "int " + ((IntEncodedValue) value).getValue();
+        } else if (value instanceof StringEncodedValue) {
+            return "string " + ((StringEncodedValue) value).getValue();
+        } else if (value instanceof MethodHandleEncodedValue) {
+            return "method handle " + ReferenceUtil.getMethodHandleString(((MethodHandleEncodedValue) value).getValue());
+        }
+        throw new IllegalArgumentException("unexpected value type: " + value.getValueType());
+    }
+
+    private static List<ClassDef> createClasses() {
+        final String lookup = "Ljava/lang/invoke/MethodHandles$Lookup;";
+        final String methodType = "Ljava/lang/invoke/MethodType;";
+        final ImmutableMethodReference bootstrap = new ImmutableMethodReference(TARGET, "bootstrap",
+                Arrays.asList(lookup, "Ljava/lang/String;", methodType, "Ljava/lang/String;"),
+                "Ljava/lang/invoke/CallSite;");
+        final ImmutableMethodReference target = new ImmutableMethodReference(TARGET, "target",
+                Collections.<String>emptyList(), "V");
+        final ImmutableMethodHandleReference bootstrapHandle =
+                new ImmutableMethodHandleReference(MethodHandleType.INVOKE_STATIC, bootstrap);
+        final ImmutableMethodHandleReference targetHandle =
+                new ImmutableMethodHandleReference(MethodHandleType.INVOKE_STATIC, target);
+        final ImmutableCallSiteReference callSite = new ImmutableCallSiteReference("call_site_0", bootstrapHandle,
+                "run", new ImmutableMethodProtoReference(Collections.<String>emptyList(), "V"),
+                Collections.<ImmutableEncodedValue>singletonList(new ImmutableStringEncodedValue("extra")));
+
+        final List<ClassDef> classes = new ArrayList<>();
+        classes.add(new ImmutableClassDef(TARGET, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                null, null, null,
+                Collections.singletonList(new ImmutableField(TARGET, "HANDLE", "Ljava/lang/invoke/MethodHandle;",
+                        AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue() | AccessFlags.FINAL.getValue(),
+                        new ImmutableMethodHandleEncodedValue(targetHandle), null)),
+                Arrays.asList(
+                        new ImmutableMethod(TARGET, "bootstrap", Arrays.asList(
+                                new ImmutableMethodParameter(lookup, null, null),
+                                new ImmutableMethodParameter("Ljava/lang/String;", null, null),
+                                new ImmutableMethodParameter(methodType, null, null),
+                                new ImmutableMethodParameter("Ljava/lang/String;", null, null)),
+                                "Ljava/lang/invoke/CallSite;",
+                                AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue() | AccessFlags.NATIVE.getValue(),
+                                null, null),
+                        createMethod(TARGET, "target", new ImmutableInstruction10x(Opcode.RETURN_VOID)))));
+        classes.add(new ImmutableClassDef(INDY, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                null, null, null, null,
+                Collections.singletonList(createMethod(INDY, "run",
+                        new ImmutableInstruction35c(Opcode.INVOKE_CUSTOM, 0, 0, 0, 0, 0, 0, callSite),
+                        new ImmutableInstruction10x(Opcode.RETURN_VOID)))));
+        classes.add(new ImmutableClassDef(PLAIN, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                Collections.singletonList("Ljava/lang/Runnable;"), null, null,
+                Arrays.asList(
+                        new ImmutableField(PLAIN, "NAME", "Ljava/lang/String;",
+                                AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue() | AccessFlags.FINAL.getValue(),
+                                new ImmutableStringEncodedValue("plain"), null),
+                        new ImmutableField(PLAIN, "SIZE", "I",
+                                AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue() | AccessFlags.FINAL.getValue(),
+                                new ImmutableIntEncodedValue(42), null)),
+                Collections.singletonList(createMethod(PLAIN, "run",
+                        new ImmutableInstruction21c(Opcode.SGET_OBJECT, 0,
+                                new ImmutableFieldReference(PLAIN, "NAME", "Ljava/lang/String;")),
+                        new ImmutableInstruction11n(Opcode.CONST_4, 0, 7),
+                        new ImmutableInstruction10x(Opcode.RETURN_VOID)))));
+        classes.add(new ImmutableClassDef(UNRELATED, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                null, null, null, null,
+                Collections.singletonList(createMethod(UNRELATED, "run",
+                        new ImmutableInstruction21c(Opcode.CONST_STRING, 0, new ImmutableStringReference("unrelated")),
+                        new ImmutableInstruction10x(Opcode.RETURN_VOID)))));
+        return classes;
+    }
+
+    private static ImmutableMethod createMethod(String definingClass, String name, ImmutableInstruction... instructions) {
+        return new ImmutableMethod(definingClass, name, null, "V",
+                AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), null,
+                new ImmutableMethodImplementation(1, Arrays.asList(instructions), null, null));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.dexpatcher.util;
+
+import com.tencent.tinker.build.util.FileOperation;
+import com.tencent.tinker.build.util.MD5;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DexDiffResultCacheTest {
+    private static final int DIFF_SIZE = 1000;
+
+    private File workDir;
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("dexdiffresultcache", "");
+        workDir.delete();
+        workDir.mkdirs();
+        cacheDir = new File(workDir, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        FileOperation.deleteDir(workDir);
+    }
+
+    @Test
+    public void store_evictsLeastRecentlyUsedEntries() throws Exception {
+        // Room for two entries, not three.
+        final DexDiffResultCache cache = new DexDiffResultCache(cacheDir,
+            Collections.<String>emptyList(), DIFF_SIZE * 5 / 2);
+        store(cache, "a");
+        store(cache, "b");
+        setLastUsedTime("a", 1000000000000L);
+        setLastUsedTime("b", 1000000001000L);
+
+        // Restoring a makes b the least recently used one.
+        final File restored = new File(workDir, "restored.dex");
+        assertNotNull(cache.restore("a", restored));
+        store(cache, "c");
+
+        assertNotNull(cache.restore("a", restored));
+        assertNull(cache.restore("b", restored));
+        assertNotNull(cache.restore("c", restored));
+        assertEquals(2, cacheDir.list().length);
+    }
+
+    @Test
+    public void restore_givesStoredResult() throws Exception {
+        final DexDiffResultCache cache = new DexDiffResultCache(cacheDir, Collections.<String>emptyList());
+        final File diff = store(cache, "a");
+
+        final File restored = new File(workDir, "restored.dex");
+        final DexDiffResultCache.Result result = cache.restore("a", restored);
+        assertEquals(MD5.getMD5(diff), result.dexDiffMd5);
+        assertEquals("patched", result.fullPatchedMd5);
+        assertEquals(42L, result.fullPatchedCrc);
+        assertEquals(MD5.getMD5(diff), MD5.getMD5(restored));
+    }
+
+    private File store(DexDiffResultCache cache, String key) throws IOException {
+        final File diff = new File(workDir, key + ".dex");
+        final byte[] data = new byte[DIFF_SIZE];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (key.charAt(0) + i);
+        }
+        final FileOutputStream os = new FileOutputStream(diff);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+        cache.store(key, diff, new DexDiffResultCache.Result(MD5.getMD5(diff), "patched", 42L));
+        return diff;
+    }
+
+    private void setLastUsedTime(String key, long time) {
+        new File(new File(cacheDir, key), "info.properties").setLastModified(time);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.info;
+
+import com.tencent.tinker.build.util.FileOperation;
+import com.tencent.tinker.build.util.TinkerPatchException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Bytes written by {@link BinaryMetaWriter}, the same bytes are parsed by ShareBinaryMetaTest of the loader.
+ */
+public class BinaryMetaWriterTest {
+    static final String DEX_META_HEX = "00544b4d" + "01" + "01" + "00000002"
+        + "000b" + "636c61737365732e646578" + "0000"
+        + "10" + "0123456789abcdef0123456789abcdef"
+        + "10" + "0123456789abcdef0123456789abcdef"
+        + "10" + "fedcba9876543210fedcba9876543210"
+        + "00000000000004d2" + "00000000ffffffff" + "0003" + "6a6172"
+        + "000c" + "636c6173736573322e646578" + "0000"
+        + "00"
+        + "10" + "00112233445566778899aabbccddeeff"
+        + "00"
+        + "000000000000004d" + "0000000000000000" + "0003" + "726177";
+
+    static final String RES_META_HEX = "00544b4d" + "01" + "03"
+        + "00000000cafebabe" + "10" + "ffeeddccbbaa99887766554433221100"
+        + "00000002" + "0005" + "7265732f2a" + "000e" + "7265736f75726365732e61727363"
+        + "00000001" + "0010" + "7265732f6c61796f75742f612e786d6c"
+        + "00000000"
+        + "00000001" + "000f" + "7265732f7261772f6269672e62696e"
+        + "10" + "00112233445566778899aabbccddeeff" + "0000000012345678"
+        + "00000000"
+        + "00000001" + "000d" + "7265732f7261772f732e6f6767";
+
+    private File workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("binarymeta", "");
+        workDir.delete();
+        workDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileOperation.deleteDir(workDir);
+    }
+
+    @Test
+    public void dexMeta_encodedByColumn() throws Exception {
+        final File meta = new File(workDir, "dex_meta.txt");
+        final BinaryMetaWriter writer = new BinaryMetaWriter(null, meta.getPath(), BinaryMetaWriter.KIND_DEX);
+        writer.writeLineToInfoFile("classes.dex,,0123456789abcdef0123456789abcdef,0123456789abcdef0123456789abcdef,"
+            + "fedcba9876543210fedcba9876543210,1234,4294967295,jar");
+        // "0" of md5 columns is no md5, not the number 0.
+        writer.writeLineToInfoFile("classes2.dex,,0,00112233445566778899aabbccddeeff,0,77,0,raw");
+        writer.close();
+
+        assertArrayEquals(hexToBytes(DEX_META_HEX), readAll(meta));
+    }
+
+    @Test
+    public void resMeta_encodedBySection() throws Exception {
+        final File meta = new File(workDir, "res_meta.txt");
+        final BinaryMetaWriter writer = new BinaryMetaWriter(null, meta.getPath(), BinaryMetaWriter.KIND_RES);
+        writer.writeLineToInfoFile("resources_out.zip,3405691582,ffeeddccbbaa99887766554433221100");
+        writer.writeLineToInfoFile("pattern:2\nres/*\nresources.arsc");
+        writer.writeLineToInfoFile("add:1");
+        writer.writeLineToInfoFile("res/layout/a.xml");
+        writer.writeLineToInfoFile("large modify:1");
+        writer.writeLineToInfoFile("res/raw/big.bin,00112233445566778899aabbccddeeff,305419896");
+        writer.writeLineToInfoFile("store:1");
+        writer.writeLineToInfoFile("res/raw/s.ogg");
+        writer.close();
+
+        assertArrayEquals(hexToBytes(RES_META_HEX), readAll(meta));
+    }
+
+    @Test
+    public void malformedColumns_areRejected() throws Exception {
+        final String[] lines = {
+            // an upper case md5 would not equal the md5 computed on device.
+            "classes.dex,,0123456789ABCDEF0123456789ABCDEF,0123456789abcdef0123456789abcdef,0,1,2,jar",
+            "classes.dex,,0123456789abcdef,0123456789abcdef0123456789abcdef,0,1,2,jar",
+            "classes.dex,,0,0123456789abcdef0123456789abcdef,0,crc,2,jar",
+            "classes.dex,,0,0123456789abcdef0123456789abcdef,0,1,,jar"
+        };
+        for (String line : lines) {
+            final File meta = new File(workDir, "dex_meta.txt");
+            final BinaryMetaWriter writer = new BinaryMetaWriter(null, meta.getPath(), BinaryMetaWriter.KIND_DEX);
+            writer.writeLineToInfoFile(line);
+            try {
+                writer.close();
+                fail(line);
+            } catch (TinkerPatchException ignored) {
+                // Expected.
+            }
+            meta.delete();
+        }
+    }
+
+    @Test
+    public void truncatedResSection_isRejected() throws Exception {
+        final File meta = new File(workDir, "res_meta.txt");
+        final BinaryMetaWriter writer = new BinaryMetaWriter(null, meta.getPath(), BinaryMetaWriter.KIND_RES);
+        writer.writeLineToInfoFile("resources_out.zip,3405691582,ffeeddccbbaa99887766554433221100");
+        writer.writeLineToInfoFile("add:2");
+        writer.writeLineToInfoFile("res/layout/a.xml");
+        try {
+            writer.close();
+            fail();
+        } catch (TinkerPatchException ignored) {
+            // Expected.
+        }
+    }
+
+    static byte[] hexToBytes(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
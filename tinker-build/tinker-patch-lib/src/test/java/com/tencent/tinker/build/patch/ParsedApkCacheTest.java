@@ -0,0 +1,144 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.patch;
+
+import com.tencent.tinker.build.util.FileOperation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParsedApkCacheTest {
+    private File workDir;
+    private File cacheDir;
+    private File apkFile;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("parsedapkcache", "");
+        workDir.delete();
+        workDir.mkdirs();
+        cacheDir = new File(workDir, "cache");
+        apkFile = new File(workDir, "old.apk");
+        writeApk(apkFile, "first build");
+    }
+
+    @After
+    public void tearDown() {
+        FileOperation.deleteDir(workDir);
+    }
+
+    @Test
+    public void sameApk_isParsedOnce() throws Exception {
+        final ParsedApkCache cache = new ParsedApkCache(cacheDir, Long.MAX_VALUE);
+        try {
+            final ParsedApk first = cache.acquire(apkFile);
+            cache.release(first);
+            final ParsedApk second = cache.acquire(new File(workDir, "../" + workDir.getName() + "/old.apk"));
+            cache.release(second);
+            assertSame(first, second);
+            assertEquals(1, cache.size());
+        } finally {
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void rebuiltApk_replacesEntryOfOldBuild() throws Exception {
+        final ParsedApkCache cache = new ParsedApkCache(cacheDir, Long.MAX_VALUE);
+        try {
+            final ParsedApk oldBuild = cache.acquire(apkFile);
+            oldBuild.unzip();
+            cache.release(oldBuild);
+
+            writeApk(apkFile, "second build, longer than the first");
+            final ParsedApk newBuild = cache.acquire(apkFile);
+            newBuild.unzip();
+            cache.release(newBuild);
+
+            assertNotSame(oldBuild, newBuild);
+            assertEquals(1, cache.size());
+            assertFalse(oldBuild.getUnzipDir().exists());
+            assertTrue(newBuild.getUnzipDir().exists());
+        } finally {
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void rebuiltApk_keepsOldBuildUntilReleased() throws Exception {
+        final ParsedApkCache cache = new ParsedApkCache(cacheDir, Long.MAX_VALUE);
+        try {
+            final ParsedApk oldBuild = cache.acquire(apkFile);
+            oldBuild.unzip();
+
+            writeApk(apkFile, "second build, longer than the first");
+            final ParsedApk newBuild = cache.acquire(apkFile);
+            assertNotSame(oldBuild, newBuild);
+            assertTrue(oldBuild.getUnzipDir().exists());
+
+            cache.release(oldBuild);
+            assertFalse(oldBuild.getUnzipDir().exists());
+            assertEquals(1, cache.size());
+            cache.release(newBuild);
+        } finally {
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void sharedCacheDir_keepsFoldersOfOtherCaches() throws Exception {
+        final ParsedApkCache running = new ParsedApkCache(cacheDir, Long.MAX_VALUE);
+        try {
+            final ParsedApk parsedApk = running.acquire(apkFile);
+            parsedApk.unzip();
+
+            final ParsedApkCache starting = new ParsedApkCache(cacheDir, Long.MAX_VALUE);
+            assertTrue(parsedApk.getUnzipDir().exists());
+            starting.clear();
+
+            assertTrue(parsedApk.getUnzipDir().exists());
+            running.release(parsedApk);
+        } finally {
+            running.clear();
+        }
+        assertFalse(cacheDir.exists());
+    }
+
+    private static void writeApk(File file, String content) throws IOException {
+        final ZipOutputStream os = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            os.putNextEntry(new ZipEntry("assets/build.txt"));
+            os.write(content.getBytes("UTF-8"));
+            os.closeEntry();
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Patches signed by {@link JarV1Signer} must pass the verification of the JDK,
+ * which is also what jarsigner runs.
+ */
+public class JarV1SignerTest {
+    private static final String PASSWORD = "testpass";
+    private static final String ALIAS    = "tinker";
+
+    private File workDir;
+    private File patchDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("jarv1signer", "");
+        workDir.delete();
+        workDir.mkdirs();
+
+        patchDir = new File(workDir, "patch");
+        writeFile(new File(patchDir, "classes.dex"), 300 * 1024);
+        writeFile(new File(patchDir, "assets/dex_meta.txt"), 100);
+        writeFile(new File(patchDir, "res/raw/a_very_long_resource_name_to_make_the_manifest_name_attribute_wrap.txt"), 10);
+        writeFile(new File(patchDir, "lib/armeabi/libtest.so"), 0);
+    }
+
+    @After
+    public void tearDown() {
+        FileOperation.deleteDir(workDir);
+    }
+
+    @Test
+    public void rsaSignedPatch_passesVerification() throws Exception {
+        final File patch = signPatch("RSA", "2048", JarV1Signer.DIGEST_SHA256);
+        assertSignedBy(patch, "META-INF/CERT.RSA");
+        assertJarsignerVerifies(patch);
+    }
+
+    @Test
+    public void ecSignedPatch_passesVerification() throws Exception {
+        // The signer info names the key with id-ecPublicKey and no curve parameters.
+        final File patch = signPatch("EC", "256", JarV1Signer.DIGEST_SHA256);
+        assertSignedBy(patch, "META-INF/CERT.EC");
+        assertJarsignerVerifies(patch);
+    }
+
+    @Test
+    public void signedPatch_hasSameEntriesAsUnsigned() throws Exception {
+        final File patch = signPatch("RSA", "2048", JarV1Signer.DIGEST_SHA256);
+        final File unsigned = new File(workDir, "patch_unsigned.apk");
+        FileOperation.zipInputDir(patchDir, unsigned, null);
+
+        final JarFile signedJar = new JarFile(patch);
+        final JarFile unsignedJar = new JarFile(unsigned);
+        try {
+            final List<String> unsignedNames = new ArrayList<>();
+            final Enumeration<JarEntry> entries = unsignedJar.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                unsignedNames.add(entry.getName());
+                assertArrayEquals(entry.getName(), readAll(unsignedJar, entry),
+                    readAll(signedJar, signedJar.getJarEntry(entry.getName())));
+            }
+            assertEquals(unsignedNames.size() + 3, signedJar.size());
+        } finally {
+            signedJar.close();
+            unsignedJar.close();
+        }
+    }
+
+    private File signPatch(String keyAlgorithm, String keySize, String digestAlgorithm) throws Exception {
+        final File keyStoreFile = new File(workDir, keyAlgorithm + ".jks");
+        final Process keytool = new ProcessBuilder(
+            findJdkTool("keytool").getAbsolutePath(), "-genkeypair",
+            "-keystore", keyStoreFile.getAbsolutePath(), "-storetype", "JKS",
+            "-storepass", PASSWORD, "-keypass", PASSWORD, "-alias", ALIAS,
+            "-keyalg", keyAlgorithm, "-keysize", keySize,
+            "-dname", "CN=Tinker Test", "-validity", "365"
+        ).redirectErrorStream(true).start();
+        final String output = readAll(keytool.getInputStream());
+        assertEquals(output, 0, keytool.waitFor());
+
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream is = new FileInputStream(keyStoreFile);
+        try {
+            keyStore.load(is, PASSWORD.toCharArray());
+        } finally {
+            is.close();
+        }
+        final Certificate[] certs = keyStore.getCertificateChain(ALIAS);
+        final JarV1Signer signer = new JarV1Signer((PrivateKey) keyStore.getKey(ALIAS, PASSWORD.toCharArray()),
+            Arrays.copyOf(certs, certs.length, X509Certificate[].class), digestAlgorithm);
+
+        final File patch = new File(workDir, "patch_signed_" + keyAlgorithm + ".apk");
+        FileOperation.zipInputDir(patchDir, patch, null, signer);
+        return patch;
+    }
+
+    private static void assertSignedBy(File patch, String signatureBlockName) throws IOException {
+        final JarFile jarFile = new JarFile(patch, true);
+        try {
+            assertNotNull(jarFile.getManifest());
+            assertNotNull(jarFile.getJarEntry(signatureBlockName));
+            int signedCount = 0;
+            final Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                // Signers are known only once the entry is read to its end, a bad digest throws here.
+                readAll(jarFile, entry);
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                assertNotNull(entry.getName(), entry.getCodeSigners());
+                assertEquals(entry.getName(), 1, entry.getCodeSigners().length);
+                ++signedCount;
+            }
+            assertEquals(4, signedCount);
+            assertNull(jarFile.getJarEntry("META-INF/CERT.DSA"));
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static void assertJarsignerVerifies(File patch) throws Exception {
+        final Process jarsigner = new ProcessBuilder(
+            findJdkTool("jarsigner").getAbsolutePath(), "-verify", patch.getAbsolutePath()
+        ).redirectErrorStream(true).start();
+        final String output = readAll(jarsigner.getInputStream());
+        assertEquals(output, 0, jarsigner.waitFor());
+        assertTrue(output, output.contains("jar verified."));
+    }
+
+    private static File findJdkTool(String name) {
+        final File javaHome = new File(System.getProperty("java.home"));
+        // Java 8 runs tests from the jre directory, the jdk tools are one level up.
+        for (File binDir : new File[]{new File(javaHome, "bin"), new File(javaHome.getParentFile(), "bin")}) {
+            for (String fileName : new String[]{name, name + ".exe"}) {
+                final File tool = new File(binDir, fileName);
+                if (tool.isFile()) {
+                    return tool;
+                }
+            }
+        }
+        throw new IllegalStateException(name + " is not found in " + javaHome);
+    }
+
+    private static void writeFile(File file, int size) throws IOException {
+        file.getParentFile().mkdirs();
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) (i * 31 + i / 1024);
+        }
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] readAll(JarFile jarFile, JarEntry entry) throws IOException {
+        final InputStream is = jarFile.getInputStream(entry);
+        try {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                os.write(buffer, 0, count);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) > 0) {
+            os.write(buffer, 0, count);
+        }
+        return os.toString("UTF-8");
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.build.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerfReportTest {
+    private static final int HELD_BYTES = 32 * 1024 * 1024;
+
+    @Test
+    public void phase_reportsHeapUsedWhileItRuns() throws Exception {
+        final PerfReport report = new PerfReport();
+        final PerfReport.Phase phase = report.beginPhase("hold");
+        byte[] held = new byte[HELD_BYTES];
+        try {
+            held[held.length - 1] = 1;
+            phase.end();
+        } finally {
+            held = null;
+        }
+        report.beginPhase("empty").end();
+
+        final File reportFile = File.createTempFile("perfreport", ".json");
+        try {
+            report.writeTo(reportFile);
+            final List<Long> values = readSampledMaxHeapUsedBytes(reportFile);
+            // The whole report, then each phase.
+            assertEquals(3, values.size());
+            assertTrue(values.get(1) >= HELD_BYTES);
+            assertTrue(values.get(0) >= values.get(1));
+        } finally {
+            reportFile.delete();
+        }
+    }
+
+    private static List<Long> readSampledMaxHeapUsedBytes(File reportFile) throws Exception {
+        final String json = new String(Files.readAllBytes(reportFile.toPath()), "UTF-8");
+        final Matcher matcher = Pattern.compile("\"sampledMaxHeapUsedBytes\": (-?\\d+)").matcher(json);
+        final List<Long> result = new ArrayList<>();
+        while (matcher.find()) {
+            result.add(Long.parseLong(matcher.group(1)));
+        }
+        return result;
+    }
+}
@@ -23,8 +23,6 @@ import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
 import com.tencent.tinker.commons.dexpatcher.util.AbstractIndexMap;
 import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
 
-import java.util.Arrays;
-
 /**
  * Created by tangyinsheng on 2016/6/29.
  */
@@ -99,6 +97,31 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
      */
     protected abstract int writePatchedItem(T patchedItem);
 
+    /**
+     * Copy {@code count} old items which are neither deleted nor replaced to patched section.
+     * Their indices in old dex start from {@code oldIndex} and those in patched dex start from
+     * {@code patchedIndex}.
+     * <p/>
+     * Sections of fixed size items can override it to remap and write raw values
+     * without creating item objects.
+     */
+    protected void copyOldItems(DexDataBuffer oldSection, SparseIndexMap oldToPatchedIndexMap,
+                                int oldIndex, int patchedIndex, int count) {
+        for (int i = 0; i < count; ++i) {
+            T oldItem = adjustItem(oldToPatchedIndexMap, nextItem(oldSection));
+
+            int patchedOffset = writePatchedItem(oldItem);
+
+            updateIndexOrOffset(
+                    oldToPatchedIndexMap,
+                    oldIndex + i,
+                    getItemOffsetOrIndex(oldIndex + i, oldItem),
+                    patchedIndex + i,
+                    patchedOffset
+            );
+        }
+    }
+
     /**
      * Called when patch algorithm finish generating patched section.
      */
@@ -167,9 +190,13 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
         int replacedItemCount = replacedIndices.length;
         int newItemCount = oldItemCount + addedItemCount - deletedItemCount;
 
+        // All index arrays are in ascending order, so each of them is consumed by a cursor
+        // instead of being searched for every old item. Replaced indices are both old and
+        // patched indices, hence two cursors on them.
         int deletedItemCounter = 0;
         int addActionCursor = 0;
         int replaceActionCursor = 0;
+        int replacedOldItemCursor = 0;
 
         int oldIndex = 0;
         int patchedIndex = 0;
@@ -186,7 +213,7 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
                 ++replaceActionCursor;
                 ++patchedIndex;
             } else
-            if (Arrays.binarySearch(deletedIndices, oldIndex) >= 0) {
+            if (deletedItemCounter < deletedItemCount && deletedIndices[deletedItemCounter] == oldIndex) {
                 T skippedOldItem = nextItem(oldSection); // skip old item.
                 markDeletedIndexOrOffset(
                         oldToPatchedIndexMap,
@@ -196,7 +223,7 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
                 ++oldIndex;
                 ++deletedItemCounter;
             } else
-            if (Arrays.binarySearch(replacedIndices, oldIndex) >= 0) {
+            if (replacedOldItemCursor < replacedItemCount && replacedIndices[replacedOldItemCursor] == oldIndex) {
                 T skippedOldItem = nextItem(oldSection); // skip old item.
                 markDeletedIndexOrOffset(
                         oldToPatchedIndexMap,
@@ -204,25 +231,43 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
                         getItemOffsetOrIndex(oldIndex, skippedOldItem)
                 );
                 ++oldIndex;
+                ++replacedOldItemCursor;
             } else
             if (oldIndex < oldItemCount) {
-                T oldItem = adjustItem(this.oldToPatchedIndexMap, nextItem(oldSection));
+                // Copy the whole run of old items until the next item touched by any operation.
+                int oldRunEnd = oldItemCount;
+                if (deletedItemCounter < deletedItemCount) {
+                    oldRunEnd = Math.min(oldRunEnd, deletedIndices[deletedItemCounter]);
+                }
+                if (replacedOldItemCursor < replacedItemCount) {
+                    oldRunEnd = Math.min(oldRunEnd, replacedIndices[replacedOldItemCursor]);
+                }
+                int patchedRunEnd = Integer.MAX_VALUE;
+                if (addActionCursor < addedItemCount) {
+                    patchedRunEnd = addedIndices[addActionCursor];
+                }
+                if (replaceActionCursor < replacedItemCount) {
+                    patchedRunEnd = Math.min(patchedRunEnd, replacedIndices[replaceActionCursor]);
+                }
+                int runLength = Math.max(1, Math.min(oldRunEnd - oldIndex, patchedRunEnd - patchedIndex));
 
-                int patchedOffset = writePatchedItem(oldItem);
+                copyOldItems(oldSection, this.oldToPatchedIndexMap, oldIndex, patchedIndex, runLength);
 
-                updateIndexOrOffset(
-                        this.oldToPatchedIndexMap,
-                        oldIndex,
-                        getItemOffsetOrIndex(oldIndex, oldItem),
-                        patchedIndex,
-                        patchedOffset
-                );
-
-                ++oldIndex;
-                ++patchedIndex;
+                oldIndex += runLength;
+                patchedIndex += runLength;
             }
         }
 
+        if (replacedOldItemCursor != replacedItemCount) {
+            throw new IllegalStateException(
+                    String.format(
+                            "bad patch operation sequence. replaced old item counter: %d, replaceCount: %d",
+                            replacedOldItemCursor,
+                            replacedItemCount
+                    )
+            );
+        }
+
         if (addActionCursor != addedItemCount || deletedItemCounter != deletedItemCount
                 || replaceActionCursor != replacedItemCount
         ) {
@@ -71,6 +71,20 @@ public class FieldIdSectionPatchAlgorithm extends DexSectionPatchAlgorithm<Field
         return this.patchedFieldIdSec.writeFieldId(patchedItem);
     }
 
+    @Override
+    protected void copyOldItems(DexDataBuffer oldSection, SparseIndexMap oldToPatchedIndexMap,
+                                int oldIndex, int patchedIndex, int count) {
+        for (int i = 0; i < count; ++i) {
+            int oldOffset = oldSection.position();
+            int patchedOffset = this.patchedFieldIdSec.position();
+            this.patchedFieldIdSec.writeUnsignedShort(oldToPatchedIndexMap.adjustTypeIdIndex(oldSection.readUnsignedShort()));
+            this.patchedFieldIdSec.writeUnsignedShort(oldToPatchedIndexMap.adjustTypeIdIndex(oldSection.readUnsignedShort()));
+            this.patchedFieldIdSec.writeInt(oldToPatchedIndexMap.adjustStringIndex(oldSection.readInt()));
+            updateIndexOrOffset(oldToPatchedIndexMap, oldIndex + i, oldOffset, patchedIndex + i, patchedOffset);
+        }
+        this.patchedFieldIdTocSec.size += count;
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldIndex != newIndex) {
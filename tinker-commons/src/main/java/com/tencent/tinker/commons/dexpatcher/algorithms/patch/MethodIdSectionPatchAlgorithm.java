@@ -71,6 +71,20 @@ public class MethodIdSectionPatchAlgorithm extends DexSectionPatchAlgorithm<Meth
         return this.patchedMethodIdSec.writeMethodId(patchedItem);
     }
 
+    @Override
+    protected void copyOldItems(DexDataBuffer oldSection, SparseIndexMap oldToPatchedIndexMap,
+                                int oldIndex, int patchedIndex, int count) {
+        for (int i = 0; i < count; ++i) {
+            int oldOffset = oldSection.position();
+            int patchedOffset = this.patchedMethodIdSec.position();
+            this.patchedMethodIdSec.writeUnsignedShort(oldToPatchedIndexMap.adjustTypeIdIndex(oldSection.readUnsignedShort()));
+            this.patchedMethodIdSec.writeUnsignedShort(oldToPatchedIndexMap.adjustProtoIdIndex(oldSection.readUnsignedShort()));
+            this.patchedMethodIdSec.writeInt(oldToPatchedIndexMap.adjustStringIndex(oldSection.readInt()));
+            updateIndexOrOffset(oldToPatchedIndexMap, oldIndex + i, oldOffset, patchedIndex + i, patchedOffset);
+        }
+        this.patchedMethodIdTocSec.size += count;
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldIndex != newIndex) {
@@ -71,6 +71,20 @@ public class ProtoIdSectionPatchAlgorithm extends DexSectionPatchAlgorithm<Proto
         return this.patchedProtoIdSec.writeProtoId(patchedItem);
     }
 
+    @Override
+    protected void copyOldItems(DexDataBuffer oldSection, SparseIndexMap oldToPatchedIndexMap,
+                                int oldIndex, int patchedIndex, int count) {
+        for (int i = 0; i < count; ++i) {
+            int oldOffset = oldSection.position();
+            int patchedOffset = this.patchedProtoIdSec.position();
+            this.patchedProtoIdSec.writeInt(oldToPatchedIndexMap.adjustStringIndex(oldSection.readInt()));
+            this.patchedProtoIdSec.writeInt(oldToPatchedIndexMap.adjustTypeIdIndex(oldSection.readInt()));
+            this.patchedProtoIdSec.writeInt(oldToPatchedIndexMap.adjustTypeListOffset(oldSection.readInt()));
+            updateIndexOrOffset(oldToPatchedIndexMap, oldIndex + i, oldOffset, patchedIndex + i, patchedOffset);
+        }
+        this.patchedProtoIdTocSec.size += count;
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldIndex != newIndex) {
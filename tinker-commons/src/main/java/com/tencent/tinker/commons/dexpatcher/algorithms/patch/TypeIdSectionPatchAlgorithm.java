@@ -73,6 +73,17 @@ public class TypeIdSectionPatchAlgorithm extends DexSectionPatchAlgorithm<Intege
         return off;
     }
 
+    @Override
+    protected void copyOldItems(DexDataBuffer oldSection, SparseIndexMap oldToPatchedIndexMap,
+                                int oldIndex, int patchedIndex, int count) {
+        for (int i = 0; i < count; ++i) {
+            int patchedOffset = this.patchedTypeIdSec.position();
+            this.patchedTypeIdSec.writeInt(oldToPatchedIndexMap.adjustStringIndex(oldSection.readInt()));
+            updateIndexOrOffset(oldToPatchedIndexMap, oldIndex + i, oldIndex + i, patchedIndex + i, patchedOffset);
+        }
+        this.patchedTypeIdTocSec.size += count;
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldIndex != newIndex) {
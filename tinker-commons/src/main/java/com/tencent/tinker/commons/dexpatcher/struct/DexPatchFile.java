@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -75,6 +76,18 @@ public final class DexPatchFile {
         init();
     }
 
+    /**
+     * Creates a dex patch file that reads {@code byteCount} bytes of {@code channel} starting
+     * at {@code offset}. Only the header is parsed here, section chunks are paged in from
+     * the read-only mapping while they are consumed by the patch algorithms.
+     *
+     * Closing {@code channel} afterwards does not invalidate the mapping.
+     */
+    public DexPatchFile(FileChannel channel, long offset, int byteCount) throws IOException {
+        this.buffer = new DexDataBuffer(channel.map(FileChannel.MapMode.READ_ONLY, offset, byteCount));
+        init();
+    }
+
     private void init() {
         byte[] magic = this.buffer.readByteArray(MAGIC.length);
         if (CompareUtils.uArrCompare(magic, MAGIC) != 0) {
@@ -51,6 +51,7 @@ import static com.tencent.tinker.android.dex.EncodedValueReader.ENCODED_METHOD_T
  */
 
 public abstract class AbstractIndexMap {
+    private InstructionTransformer instructionTransformer = null;
 
     public abstract int adjustStringIndex(int stringIndex);
 
@@ -179,8 +180,10 @@ public abstract class AbstractIndexMap {
         if (instructions == null || instructions.length == 0) {
             return instructions;
         }
-        InstructionTransformer insTrans = new InstructionTransformer(this);
-        return insTrans.transform(instructions);
+        if (instructionTransformer == null) {
+            instructionTransformer = new InstructionTransformer(this);
+        }
+        return instructionTransformer.transform(instructions);
     }
 
     private Code.CatchHandler[] adjustCatchHandlers(Code.CatchHandler[] catchHandlers) {
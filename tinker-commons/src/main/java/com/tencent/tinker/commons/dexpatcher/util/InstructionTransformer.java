@@ -22,6 +22,7 @@ import com.tencent.tinker.android.dx.instruction.InstructionPromoter;
 import com.tencent.tinker.android.dx.instruction.InstructionReader;
 import com.tencent.tinker.android.dx.instruction.InstructionVisitor;
 import com.tencent.tinker.android.dx.instruction.InstructionWriter;
+import com.tencent.tinker.android.dx.instruction.Opcodes;
 import com.tencent.tinker.android.dx.instruction.ShortArrayCodeInput;
 import com.tencent.tinker.android.dx.instruction.ShortArrayCodeOutput;
 
@@ -31,6 +32,92 @@ import java.io.EOFException;
  * Created by tangyinsheng on 2016/6/29.
  */
 public final class InstructionTransformer {
+    /**
+     * Width in code units of instructions indexed by opcode, or 0 if the opcode
+     * cannot be handled by in-place rewriting.
+     */
+    private static final int[] INSN_WIDTHS = new int[256];
+
+    /**
+     * Index type of instructions indexed by opcode.
+     */
+    private static final int[] INSN_INDEX_TYPES = new int[256];
+
+    /**
+     * Offset in code units of the index operand of instructions indexed by opcode,
+     * or 0 if the instruction has no index operand.
+     */
+    private static final int[] INSN_INDEX_OFFSETS = new int[256];
+
+    static {
+        for (int opcode = 0; opcode < 256; ++opcode) {
+            final int insnFormat = InstructionCodec.getInstructionFormat(opcode);
+            int width = 0;
+            int indexOffset = 0;
+            switch (insnFormat) {
+                case InstructionCodec.INSN_FORMAT_10X:
+                case InstructionCodec.INSN_FORMAT_12X:
+                case InstructionCodec.INSN_FORMAT_11N:
+                case InstructionCodec.INSN_FORMAT_11X:
+                case InstructionCodec.INSN_FORMAT_10T: {
+                    width = 1;
+                    break;
+                }
+                case InstructionCodec.INSN_FORMAT_20T:
+                case InstructionCodec.INSN_FORMAT_22X:
+                case InstructionCodec.INSN_FORMAT_21T:
+                case InstructionCodec.INSN_FORMAT_21S:
+                case InstructionCodec.INSN_FORMAT_21H:
+                case InstructionCodec.INSN_FORMAT_23X:
+                case InstructionCodec.INSN_FORMAT_22B:
+                case InstructionCodec.INSN_FORMAT_22T:
+                case InstructionCodec.INSN_FORMAT_22S: {
+                    width = 2;
+                    break;
+                }
+                case InstructionCodec.INSN_FORMAT_21C:
+                case InstructionCodec.INSN_FORMAT_22C: {
+                    width = 2;
+                    indexOffset = 1;
+                    break;
+                }
+                case InstructionCodec.INSN_FORMAT_30T:
+                case InstructionCodec.INSN_FORMAT_32X:
+                case InstructionCodec.INSN_FORMAT_31I:
+                case InstructionCodec.INSN_FORMAT_31T: {
+                    width = 3;
+                    break;
+                }
+                case InstructionCodec.INSN_FORMAT_31C:
+                case InstructionCodec.INSN_FORMAT_35C:
+                case InstructionCodec.INSN_FORMAT_3RC: {
+                    width = 3;
+                    indexOffset = 1;
+                    break;
+                }
+                case InstructionCodec.INSN_FORMAT_45CC:
+                case InstructionCodec.INSN_FORMAT_4RCC: {
+                    // Proto index is always located at the 4th code unit.
+                    width = 4;
+                    indexOffset = 1;
+                    break;
+                }
+                case InstructionCodec.INSN_FORMAT_51L: {
+                    width = 5;
+                    break;
+                }
+                default: {
+                    // Unknown or payload formats, the latter is handled by
+                    // getPayloadWidth since its opcode takes a whole code unit.
+                    break;
+                }
+            }
+            INSN_WIDTHS[opcode] = width;
+            INSN_INDEX_OFFSETS[opcode] = indexOffset;
+            INSN_INDEX_TYPES[opcode] = InstructionCodec.getInstructionIndexType(opcode);
+        }
+    }
+
     private final AbstractIndexMap indexMap;
 
     public InstructionTransformer(AbstractIndexMap indexMap) {
@@ -38,6 +125,147 @@ public final class InstructionTransformer {
     }
 
     public short[] transform(short[] encodedInstructions) throws DexException {
+        final short[] result = transformInPlace(encodedInstructions);
+        if (result != null) {
+            return result;
+        }
+        return transformWithPromotion(encodedInstructions);
+    }
+
+    /**
+     * Rewrite index operands directly on a copy of {@code encodedInstructions}.
+     *
+     * Since code layout is kept unchanged, this can only be done when no instruction
+     * needs to be promoted to its jumbo form, i.e. no 'const-string' refers to a string
+     * whose adjusted index does not fit in 16 bits.
+     *
+     * @return rewritten instructions, or null if any instruction needs promotion or cannot
+     * be recognized so that caller should fall back to the decode and re-encode path.
+     */
+    private short[] transformInPlace(short[] encodedInstructions) {
+        final int length = encodedInstructions.length;
+        short[] result = null;
+        int address = 0;
+        while (address < length) {
+            final int opcodeUnit = encodedInstructions[address] & 0xFFFF;
+            final int opcode = opcodeUnit & 0xFF;
+            if (opcode == Opcodes.NOP && opcodeUnit != Opcodes.NOP) {
+                final int payloadWidth = getPayloadWidth(encodedInstructions, address, opcodeUnit);
+                if (payloadWidth <= 0) {
+                    return null;
+                }
+                address += payloadWidth;
+                continue;
+            }
+            final int width = INSN_WIDTHS[opcode];
+            if (width == 0 || address + width > length) {
+                return null;
+            }
+            final int indexOffset = INSN_INDEX_OFFSETS[opcode];
+            if (indexOffset != 0) {
+                final int indexPos = address + indexOffset;
+                if (opcode == Opcodes.CONST_STRING_JUMBO) {
+                    final int index = (encodedInstructions[indexPos] & 0xFFFF)
+                            | ((encodedInstructions[indexPos + 1] & 0xFFFF) << 16);
+                    final int mappedIndex = indexMap.adjustStringIndex(index);
+                    if (mappedIndex != index) {
+                        if (result == null) {
+                            result = encodedInstructions.clone();
+                        }
+                        result[indexPos] = (short) mappedIndex;
+                        result[indexPos + 1] = (short) (mappedIndex >>> 16);
+                    }
+                } else if (opcode == Opcodes.INVOKE_POLYMORPHIC || opcode == Opcodes.INVOKE_POLYMORPHIC_RANGE) {
+                    final int methodIndex = encodedInstructions[indexPos] & 0xFFFF;
+                    final int mappedMethodIndex = indexMap.adjustMethodIdIndex(methodIndex);
+                    final int protoIndex = encodedInstructions[address + 3] & 0xFFFF;
+                    final int mappedProtoIndex = indexMap.adjustProtoIdIndex(protoIndex);
+                    if (mappedMethodIndex != methodIndex || mappedProtoIndex != protoIndex) {
+                        if (result == null) {
+                            result = encodedInstructions.clone();
+                        }
+                        result[indexPos] = (short) mappedMethodIndex;
+                        result[address + 3] = (short) mappedProtoIndex;
+                    }
+                } else {
+                    final int index = encodedInstructions[indexPos] & 0xFFFF;
+                    final int mappedIndex = transformIndex(index, INSN_INDEX_TYPES[opcode]);
+                    if (opcode == Opcodes.CONST_STRING && mappedIndex > 0xFFFF) {
+                        // Needs promotion to const-string/jumbo, which changes code layout.
+                        return null;
+                    }
+                    if (mappedIndex != index) {
+                        if (result == null) {
+                            result = encodedInstructions.clone();
+                        }
+                        result[indexPos] = (short) mappedIndex;
+                    }
+                }
+            }
+            address += width;
+        }
+        if (address != length) {
+            return null;
+        }
+        return (result != null ? result : encodedInstructions.clone());
+    }
+
+    private static int getPayloadWidth(short[] encodedInstructions, int address, int opcodeUnit) {
+        if (address + 4 > encodedInstructions.length) {
+            return -1;
+        }
+        switch (opcodeUnit) {
+            case Opcodes.PACKED_SWITCH_PAYLOAD: {
+                final int size = encodedInstructions[address + 1] & 0xFFFF;
+                return 4 + size * 2;
+            }
+            case Opcodes.SPARSE_SWITCH_PAYLOAD: {
+                final int size = encodedInstructions[address + 1] & 0xFFFF;
+                return 2 + size * 4;
+            }
+            case Opcodes.FILL_ARRAY_DATA_PAYLOAD: {
+                final int elementWidth = encodedInstructions[address + 1] & 0xFFFF;
+                final long size = (encodedInstructions[address + 2] & 0xFFFFL)
+                        | ((encodedInstructions[address + 3] & 0xFFFFL) << 16);
+                final long payloadWidth = 4 + (size * elementWidth + 1) / 2;
+                return (payloadWidth > encodedInstructions.length ? -1 : (int) payloadWidth);
+            }
+            default: {
+                return -1;
+            }
+        }
+    }
+
+    private int transformIndex(int index, int indexType) {
+        switch (indexType) {
+            case InstructionCodec.INDEX_TYPE_STRING_REF: {
+                return indexMap.adjustStringIndex(index);
+            }
+            case InstructionCodec.INDEX_TYPE_TYPE_REF: {
+                return indexMap.adjustTypeIdIndex(index);
+            }
+            case InstructionCodec.INDEX_TYPE_FIELD_REF: {
+                return indexMap.adjustFieldIdIndex(index);
+            }
+            case InstructionCodec.INDEX_TYPE_PROTO_REF: {
+                return indexMap.adjustProtoIdIndex(index);
+            }
+            case InstructionCodec.INDEX_TYPE_METHOD_REF: {
+                return indexMap.adjustMethodIdIndex(index);
+            }
+            case InstructionCodec.INDEX_TYPE_METHOD_HANDLE_REF: {
+                return indexMap.adjustMethodHandleIndex(index);
+            }
+            case InstructionCodec.INDEX_TYPE_CALL_SITE_REF: {
+                return indexMap.adjustCallSiteIdIndex(index);
+            }
+            default: {
+                return index;
+            }
+        }
+    }
+
+    private short[] transformWithPromotion(short[] encodedInstructions) throws DexException {
         ShortArrayCodeOutput out = new ShortArrayCodeOutput(encodedInstructions.length);
         InstructionPromoter ipmo = new InstructionPromoter();
         InstructionWriter iw = new InstructionWriter(out, ipmo);
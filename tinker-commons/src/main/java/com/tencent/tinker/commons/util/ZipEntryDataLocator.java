@@ -0,0 +1,152 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.commons.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Locates raw data of uncompressed entries in a zip file so that they can be
+ * mapped directly instead of being copied out through an InputStream.
+ *
+ * Zip64 archives are not supported, callers should fall back to streaming
+ * when {@link #NOT_FOUND} is returned.
+ */
+public final class ZipEntryDataLocator {
+    public static final long NOT_FOUND = -1;
+
+    private static final int ENDSIG = 0x06054b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int LOCSIG = 0x04034b50;
+
+    private static final int ENDHDR = 22;
+    private static final int CENHDR = 46;
+    private static final int LOCHDR = 30;
+
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ZipEntryDataLocator() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Find offset of data of uncompressed entry {@code entryName} in {@code zipFile}.
+     *
+     * @return offset of the first byte of entry data, or {@link #NOT_FOUND} if the entry
+     * does not exist, is compressed or the archive layout is not supported.
+     */
+    public static long locateStoredEntryData(File zipFile, String entryName) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(zipFile, "r");
+            return locateStoredEntryData(raf, entryName);
+        } finally {
+            IOHelper.closeQuietly(raf);
+        }
+    }
+
+    public static long locateStoredEntryData(RandomAccessFile raf, String entryName) throws IOException {
+        final long fileLength = raf.length();
+        if (fileLength < ENDHDR) {
+            return NOT_FOUND;
+        }
+
+        final int tailSize = (int) Math.min(fileLength, ENDHDR + MAX_COMMENT_SIZE);
+        final ByteBuffer tail = readFully(raf, fileLength - tailSize, tailSize);
+        int endPos = -1;
+        for (int pos = tailSize - ENDHDR; pos >= 0; --pos) {
+            if (tail.getInt(pos) == ENDSIG) {
+                endPos = pos;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            return NOT_FOUND;
+        }
+
+        final int entryCount = tail.getShort(endPos + 10) & 0xFFFF;
+        final long centralDirSize = tail.getInt(endPos + 12) & 0xFFFFFFFFL;
+        final long centralDirOffset = tail.getInt(endPos + 16) & 0xFFFFFFFFL;
+        if (entryCount == 0xFFFF || centralDirOffset == 0xFFFFFFFFL
+                || centralDirOffset + centralDirSize > fileLength) {
+            // Zip64 or broken archive.
+            return NOT_FOUND;
+        }
+
+        final byte[] nameBytes = entryName.getBytes(UTF_8);
+        final ByteBuffer centralDir = readFully(raf, centralDirOffset, (int) centralDirSize);
+        int pos = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            if (pos + CENHDR > centralDir.limit() || centralDir.getInt(pos) != CENSIG) {
+                return NOT_FOUND;
+            }
+            final int method = centralDir.getShort(pos + 10) & 0xFFFF;
+            final long compressedSize = centralDir.getInt(pos + 20) & 0xFFFFFFFFL;
+            final long size = centralDir.getInt(pos + 24) & 0xFFFFFFFFL;
+            final int nameLength = centralDir.getShort(pos + 28) & 0xFFFF;
+            final int extraLength = centralDir.getShort(pos + 30) & 0xFFFF;
+            final int commentLength = centralDir.getShort(pos + 32) & 0xFFFF;
+            final long localHeaderOffset = centralDir.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (nameLength == nameBytes.length && pos + CENHDR + nameLength <= centralDir.limit()) {
+                final byte[] name = new byte[nameLength];
+                centralDir.position(pos + CENHDR);
+                centralDir.get(name);
+                if (Arrays.equals(name, nameBytes)) {
+                    if (method != METHOD_STORED || compressedSize != size) {
+                        return NOT_FOUND;
+                    }
+                    return locateDataByLocalHeader(raf, localHeaderOffset, size, fileLength);
+                }
+            }
+            pos += CENHDR + nameLength + extraLength + commentLength;
+        }
+        return NOT_FOUND;
+    }
+
+    private static long locateDataByLocalHeader(RandomAccessFile raf, long localHeaderOffset,
+                                                long size, long fileLength) throws IOException {
+        if (localHeaderOffset + LOCHDR > fileLength) {
+            return NOT_FOUND;
+        }
+        final ByteBuffer localHeader = readFully(raf, localHeaderOffset, LOCHDR);
+        if (localHeader.getInt(0) != LOCSIG) {
+            return NOT_FOUND;
+        }
+        final int nameLength = localHeader.getShort(26) & 0xFFFF;
+        final int extraLength = localHeader.getShort(28) & 0xFFFF;
+        final long dataOffset = localHeaderOffset + LOCHDR + nameLength + extraLength;
+        if (dataOffset + size > fileLength) {
+            return NOT_FOUND;
+        }
+        return dataOffset;
+    }
+
+    private static ByteBuffer readFully(RandomAccessFile raf, long offset, int size) throws IOException {
+        final byte[] data = new byte[size];
+        raf.seek(offset);
+        raf.readFully(data);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}